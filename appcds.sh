@@ -0,0 +1,115 @@
+#!/usr/bin/env bash
+# Builds Photo Bracket into build/photoBracket.jar along with an AppCDS archive of the classes it
+# loads while starting up, so later starts can map them in instead of loading and verifying them.
+#
+#   ./appcds.sh                  build the jar and the archive
+#   ./appcds.sh --jlink          also build a trimmed runtime in build/runtime (the archive is then
+#                                made for that runtime, since an archive only works with the JVM
+#                                that made it)
+#   ./appcds.sh --benchmark [n]  time n starts (5 by default) without CDS, with the JDK's own CDS
+#                                archive and with the app's archive, and print the median of each
+#
+# The archive is recorded by starting the app once with -DphotoBracket.exitAfterStartup=true,
+# which exits as soon as the window is open, so this needs a display. The training and timed runs
+# happen in a temporary directory so they don't touch the preferences or sessions here. AppCDS
+# needs JDK 10 or newer (13 or newer records the archive in one run).
+set -euo pipefail
+
+cd "$(dirname "$0")"
+BUILD=build
+JAR=$BUILD/photoBracket.jar
+ARCHIVE=$BUILD/photoBracket.jsa
+JAVA=java
+JLINK=false
+RUNS=0
+
+while [ $# -gt 0 ]; do
+    case "$1" in
+        --jlink) JLINK=true ;;
+        --benchmark)
+            RUNS=5
+            if [ $# -gt 1 ] && [[ "$2" =~ ^[0-9]+$ ]]; then RUNS=$2; shift; fi
+            ;;
+        *) echo "Unknown option $1" >&2; exit 1 ;;
+    esac
+    shift
+done
+
+# the feature version, e.g. 8 for 1.8.0_292 and 17 for 17.0.9
+version() {
+    "$1" -version 2>&1 | sed -n 's/.* version "\([0-9.]*\).*/\1/p' | awk -F. \
+        '{ print ($1 == 1 ? $2 : $1) }'
+}
+
+echo "Compiling"
+# only what this script makes, since other builds (like ./test.sh) share the build directory
+rm -rf "$BUILD/classes" "$JAR" "$ARCHIVE" "$BUILD/runtime"
+mkdir -p "$BUILD/classes"
+javac -d "$BUILD/classes" photoBracket/*.java
+jar cfe "$JAR" photoBracket.Main -C "$BUILD/classes" .
+
+if $JLINK; then
+    echo "Linking a runtime"
+    MODULES=$(jdeps --print-module-deps --ignore-missing-deps "$JAR")
+    jlink --add-modules "$MODULES" --strip-debug --no-header-files --no-man-pages \
+        --output "$BUILD/runtime"
+    JAVA=$BUILD/runtime/bin/java
+    # jlink leaves out the JDK's own CDS archive, which the app's archive is layered on
+    "$JAVA" -Xshare:dump > /dev/null
+fi
+
+FEATURE=$(version "$JAVA")
+# JDK 10 only archives application classes when asked to
+APP_CDS=()
+[ "$FEATURE" -eq 10 ] && APP_CDS=(-XX:+UseAppCDS)
+TRAINING=$(mktemp -d)
+trap 'rm -rf "$TRAINING"' EXIT
+JAR_PATH=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+ARCHIVE_PATH=$(cd "$(dirname "$ARCHIVE")" && pwd)/$(basename "$ARCHIVE")
+if [[ "$JAVA" == */* ]]; then
+    JAVA_PATH=$(cd "$(dirname "$JAVA")" && pwd)/$(basename "$JAVA")
+else
+    JAVA_PATH=$(command -v "$JAVA")
+fi
+
+# starts the app in the training directory and waits for it to exit once its window is open
+start() {
+    (cd "$TRAINING" && "$JAVA_PATH" "$@" -DphotoBracket.exitAfterStartup=true -jar "$JAR_PATH")
+}
+
+if [ "$FEATURE" -ge 13 ]; then
+    echo "Recording the startup classes"
+    start -XX:ArchiveClassesAtExit="$ARCHIVE_PATH"
+elif [ "$FEATURE" -ge 10 ]; then
+    echo "Recording the startup classes"
+    start -Xshare:off ${APP_CDS[@]+"${APP_CDS[@]}"} \
+        -XX:DumpLoadedClassList="$TRAINING/classes.lst"
+    "$JAVA_PATH" -Xshare:dump ${APP_CDS[@]+"${APP_CDS[@]}"} \
+        -XX:SharedClassListFile="$TRAINING/classes.lst" -XX:SharedArchiveFile="$ARCHIVE_PATH" \
+        -cp "$JAR_PATH"
+else
+    echo "AppCDS needs JDK 10 or newer, so only the jar was built" >&2
+    exit 0
+fi
+echo "Run with: $JAVA ${APP_CDS[*]:+${APP_CDS[*]} }-XX:SharedArchiveFile=$ARCHIVE -jar $JAR"
+
+[ "$RUNS" -gt 0 ] || exit 0
+
+# prints the median wall clock time of RUNS starts, in milliseconds (needs GNU date)
+median() {
+    local times=()
+    for _ in $(seq "$RUNS"); do
+        local before after
+        before=$(date +%s%N)
+        start "$@" > /dev/null 2>&1
+        after=$(date +%s%N)
+        times+=($(( (after - before) / 1000000 )))
+    done
+    printf '%s\n' "${times[@]}" | sort -n | awk '{ t[NR] = $1 } END { print t[int((NR + 1) / 2)] }'
+}
+
+echo "Median startup over $RUNS runs (until the window is open):"
+echo "  no CDS:           $(median -Xshare:off) ms"
+echo "  JDK's CDS:        $(median -Xshare:auto) ms"
+echo "  app's CDS:        $(median ${APP_CDS[@]+"${APP_CDS[@]}"} \
+    -XX:SharedArchiveFile="$ARCHIVE_PATH") ms"
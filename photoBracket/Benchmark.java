@@ -0,0 +1,175 @@
+package photoBracket;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small command line benchmark for the image loading path. Run it with a few photos (or a
+ * directory of them) to see how long decoding and scaling takes, how much memory it allocates,
+ * and how the decoders (see ImageDecoder) compare:
+ * <pre>
+ *     java photoBracket.Benchmark [iterations] &lt;images or directories...&gt;
+ * </pre>
+ * This is a development tool and is not used by the app itself
+ */
+class Benchmark {
+
+    // roughly half of a 1080p screen, which is what each picture gets in the window
+    private static final Dimension PANEL_SIZE = new Dimension(960, 1000);
+    private static final Dimension THUMBNAIL_SIZE = new Dimension(240, 240);
+    private static final int DEFAULT_ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = DEFAULT_ITERATIONS;
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.matches("\\d+")) {
+                iterations = Integer.parseInt(arg);
+                continue;
+            }
+            File file = new File(arg);
+            File[] children = file.listFiles();
+            if (children == null) files.add(file);
+            else for (File child : children) if (child.isFile()) files.add(child);
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: java photoBracket.Benchmark [iterations] <images or " +
+                    "directories...>");
+            System.exit(1);
+        }
+
+        // the first pass warms up the JIT and the image readers so it isn't counted
+        decodeAndScale(files, 1, false);
+        decodeAndScale(files, 1, true);
+        System.out.println(String.format("%d images, %d iterations", files.size(), iterations));
+        report("Without raster pool", decodeAndScale(files, iterations, false), files, iterations);
+        report("With raster pool", decodeAndScale(files, iterations, true), files, iterations);
+
+        ImageDecoder imageIO = new ImageIODecoder();
+        ImageDecoder jpeg = new JpegDecoder();
+        ImageDecoder webP = new WebPDecoder();
+        decode(imageIO, files, 1, null);
+        decode(jpeg, files, 1, PANEL_SIZE);
+        decode(webP, files, 1, PANEL_SIZE);
+        System.out.println("Decoding only:");
+        reportDecoder("ImageIO", decode(imageIO, files, iterations, null), iterations);
+        reportDecoder("JPEG at panel size", decode(jpeg, files, iterations, PANEL_SIZE),
+                iterations);
+        reportDecoder("JPEG at thumbnail size", decode(jpeg, files, iterations, THUMBNAIL_SIZE),
+                iterations);
+        reportDecoder("WebP at full size", decode(webP, files, iterations, null), iterations);
+        reportDecoder("WebP at panel size", decode(webP, files, iterations, PANEL_SIZE),
+                iterations);
+    }
+
+    /**
+     * Decodes every file the given number of times with one decoder
+     *
+     * @param decoder    - The decoder
+     * @param files      - The files to decode
+     * @param iterations - How many times to decode each one
+     * @param fit        - The size to decode for, or null for the full size
+     * @return - {elapsed nanoseconds, images decoded}. Files the decoder doesn't recognize or
+     * leaves to another decoder aren't counted
+     * @throws IOException - If any of the files can't be read
+     */
+    private static long[] decode(ImageDecoder decoder, List<File> files, int iterations,
+                                 Dimension fit) throws IOException {
+        long elapsed = 0;
+        long decoded = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (File file : files) {
+                if (!decoder.canDecode(ImageDecoder.readHeader(file))) continue;
+                long start = System.nanoTime();
+                BufferedImage image = decoder.decode(file, fit, null);
+                if (image == null) continue;
+                elapsed += System.nanoTime() - start;
+                decoded++;
+                RasterPool.getInstance().release(image);
+            }
+        }
+        return new long[]{elapsed, decoded};
+    }
+
+    /**
+     * Prints the results of decoding with one decoder
+     *
+     * @param name       - What was decoded
+     * @param result     - The result of decode()
+     * @param iterations - The number of times each file was decoded
+     */
+    private static void reportDecoder(String name, long[] result, int iterations) {
+        System.out.println(String.format("    %-22s %8.1f ms/image (%d images)", name,
+                result[1] == 0 ? 0 : result[0] / 1e6 / result[1], result[1] / iterations));
+    }
+
+    /**
+     * Decodes, scales and flushes every file the given number of times
+     *
+     * @param files      - The files to load
+     * @param iterations - How many times to load each one
+     * @param pooled     - Whether to use the RasterPool
+     * @return - {elapsed nanoseconds, allocated bytes} (allocated bytes is -1 if the JVM can't
+     * measure it)
+     * @throws IOException - If any of the files can't be read
+     */
+    private static long[] decodeAndScale(List<File> files, int iterations, boolean pooled)
+            throws IOException {
+        RasterPool pool = RasterPool.getInstance();
+        pool.setEnabled(pooled);
+        pool.resetStatistics();
+        SoftImageCache.getInstance().clear();
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (File file : files) {
+                ImageFile image = new ImageFile(file);
+                image.getIcon(PANEL_SIZE);
+                image.flush();
+                // make sure the next iteration decodes from disk again instead of reusing the
+                // flushed image, handing its pixels to the pool like an evicted cache entry would
+                BufferedImage flushed = SoftImageCache.getInstance().take(image);
+                pool.release(flushed);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long endBytes = allocatedBytes();
+        return new long[]{elapsed, startBytes < 0 ? -1 : endBytes - startBytes};
+    }
+
+    /**
+     * Prints the results of one run
+     *
+     * @param name       - The name of the run
+     * @param result     - The result of decodeAndScale()
+     * @param files      - The files that were loaded
+     * @param iterations - The number of times each file was loaded
+     */
+    private static void report(String name, long[] result, List<File> files, int iterations) {
+        int loads = files.size() * iterations;
+        System.out.println(String.format("%-22s %8.1f ms/image %10s", name,
+                result[0] / 1e6 / loads,
+                result[1] < 0 ? "" : String.format("%8.1f MiB allocated/image",
+                        result[1] / (double) loads / (1 << 20))));
+        // most of what's left over is small per-row buffers inside the image readers, so the
+        // pool's own counters show how many of the big pixel arrays were avoided
+        System.out.println("    " + RasterPool.getInstance());
+    }
+
+    /**
+     * @return - The number of bytes this thread has allocated so far or -1 if the JVM doesn't
+     * support measuring it
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+}
@@ -2,13 +2,33 @@ package photoBracket;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
+/**
+ * The tournament the images are sorted with.
+ * <p>
+ * Concurrency model: a bracket has a single writer, the thread that shows it (the event dispatch
+ * thread). Only that thread may call the methods that change the bracket or hand out images
+ * (getNextGroup(), selected(), getNewFiles(), add() etc.). Other threads add images with offer(),
+ * which only puts them in a concurrent inbox that the writer drains. After every change the writer
+ * publishes an immutable Snapshot through a volatile field, so any thread can read the counters,
+ * the file lists and the upcoming images from getSnapshot() without locking and without ever
+ * seeing a round half way through being changed. The read only methods below (size(),
+ * getRoundSize(), loadAll() etc.) all read the latest snapshot and are safe to call from any thread
+ */
 public class Bracket {
 
+    // images offered from other threads that haven't been placed in a round yet
+    private final Queue<ImageFile> incoming;
+    // the images last handed out, which are in neither round until the user decides on them
+    private List<ImageFile> handedOut;
     private Round currentRound;
     private boolean delta;
     private int roundCount;
+    // the latest state for readers on other threads - replaced (never changed) by the writer
+    private volatile Snapshot snapshot;
+    private long version;
 
     /**
      * Initializes a bracket with the given files
@@ -16,9 +36,12 @@ public class Bracket {
      * @param files - A list of the files to include. Can be null
      */
     public Bracket(ImageFile[] files) {
-        currentRound = new Round(files);
+        incoming = new ConcurrentLinkedQueue<>();
+        handedOut = Collections.emptyList();
+        currentRound = new Round(files, SeedingStrategy.ADDED);
         delta = false;
         roundCount = 0;
+        publish();
     }
 
     /**
@@ -28,6 +51,29 @@ public class Bracket {
         this(null);
     }
 
+    /**
+     * Rebuilds a bracket that was saved part way through (see Session)
+     *
+     * @param current    - The images left in the current round
+     * @param winners    - The images already chosen for the next round
+     * @param roundCount - The number of rounds completed
+     * @param changed    - Whether the user has turned any images down in the current round
+     * @return - The bracket
+     */
+    static Bracket restore(List<ImageFile> current, List<ImageFile> winners, int roundCount,
+                           boolean changed) {
+        if (current.isEmpty() && winners.isEmpty()) return new Bracket();
+        Bracket bracket = new Bracket(current.toArray(new ImageFile[0]));
+        if (bracket.currentRound.winners == null) {
+            bracket.currentRound.winners = new Round(SeedingStrategy.ADDED);
+        }
+        bracket.currentRound.winners.addAll(winners);
+        bracket.roundCount = roundCount;
+        bracket.delta = changed;
+        bracket.publish();
+        return bracket;
+    }
+
     /**
      * Signals whether or not the bracket is essentially uninitialized (i.e. contains no images).
      * This is slightly different from !hasNextPair(), which would return true when no changes
@@ -36,6 +82,7 @@ public class Bracket {
      * @return - True if the bracket is empty, false otherwise
      */
     public boolean isEmpty() {
+        placeIncoming();
         return currentRound.isEmpty() && currentRound.winners == null;
     }
 
@@ -47,6 +94,7 @@ public class Bracket {
      * @return - True if you can still get more images from this bracket, false otherwise
      */
     public boolean hasNextPair() {
+        placeIncoming();
         return currentRound.hasNextPair() || (delta && currentRound.winners != null && (
                 (!currentRound.isEmpty() && !currentRound.winners.isEmpty()) ||
                         (currentRound.winners.hasNextPair())
@@ -60,6 +108,7 @@ public class Bracket {
      */
     public void add(ImageFile file) {
         currentRound.add(file);
+        publish();
     }
 
     /**
@@ -68,7 +117,30 @@ public class Bracket {
      * @param files - One or more files to be added
      */
     public void add(ImageFile... files) {
-        for (ImageFile file : files) add(file);
+        addAll(Arrays.asList(files));
+    }
+
+    /**
+     * Adds a list of files to the bracket, publishing the new state once rather than after every
+     * file
+     *
+     * @param files - The files to be added
+     */
+    public void addAll(List<ImageFile> files) {
+        currentRound.addAll(files);
+        publish();
+    }
+
+    /**
+     * Offers images to a bracket that may already be running. Unlike add() this can be called from
+     * any thread (for example by something scanning a directory) and never blocks. The images are
+     * placed the next time the bracket is used, either in the current round or in the next one
+     * (see placeIncoming())
+     *
+     * @param files - The images to add
+     */
+    public void offer(ImageFile... files) {
+        incoming.addAll(Arrays.asList(files));
     }
 
     /**
@@ -78,38 +150,101 @@ public class Bracket {
      * - null if the bracket is out
      */
     public ImageFile[] getNextPair() {
-        if (!currentRound.winners.isEmpty() && !currentRound.isEmpty() && !currentRound.hasNextPair()) {
-            currentRound.winners.add(currentRound.getNextImage());
-        }
-        if (currentRound.isEmpty() && delta) {
-            currentRound = currentRound.winners;
-            delta = false;
-            roundCount++;
+        return getNextGroup(2);
+    }
+
+    /**
+     * Gets the next group of images to be compared together. The group is smaller than requested
+     * when there aren't enough images left in the round
+     *
+     * @param size - The number of images to compare at once (at least 2)
+     * @return - Between 2 and size ImageFiles if there are more images
+     * - An array of size nulls if the bracket is out
+     */
+    public ImageFile[] getNextGroup(int size) {
+        placeIncoming();
+        while (true) {
+            if (!currentRound.winners.isEmpty() && !currentRound.isEmpty()
+                    && !currentRound.hasNextPair()) {
+                currentRound.winners.add(currentRound.getNextImage());
+            }
+            if (currentRound.isEmpty() && delta) {
+                currentRound = currentRound.winners;
+                delta = false;
+                roundCount++;
+            }
+            ImageFile[] group = currentRound.getNextGroup(size);
+            // a round can run out without handing out a group when the seeding keeps the images
+            // apart (see SeedingStrategy.SCENE), in which case the next round is tried
+            if (group[0] != null || currentRound.hasNextPair() || !delta
+                    || currentRound.winners.isEmpty()) {
+                handedOut = new ArrayList<>();
+                for (ImageFile file : group) {
+                    if (file != null) handedOut.add(file);
+                }
+                publish();
+                return group;
+            }
         }
-        return currentRound.getNextPair();
     }
 
     /**
-     * Adds the file(s) as winners
+     * Adds the file(s) chosen from a pair as winners
      *
      * @param files - The file(s) selected by the user
      */
     public void selected(ImageFile... files) {
-        delta |= files.length != 2;
+        selected(2, files);
+    }
+
+    /**
+     * Adds the file(s) chosen from a group as winners. Any subset of the group can be chosen,
+     * including none of it
+     *
+     * @param offered - The number of images the user was choosing from
+     * @param files   - The file(s) selected by the user
+     */
+    public void selected(int offered, ImageFile... files) {
+        // the bracket only changes if the user turned at least one image down
+        delta |= files.length != offered;
         for (ImageFile file : files) {
             currentRound.winners.add(file);
         }
+        handedOut = Collections.emptyList();
+        publish();
     }
 
     /**
-     * Restores the state of the current round and gets two new images
+     * Restores the state of the current round and gets two new images. The files go behind the
+     * rest of the round so they aren't handed straight back out together
      *
      * @param files - The files that were not to be compared
      */
     public void getNewFiles(ImageFile... files) {
         for (ImageFile file : files) {
-            currentRound.add(file);
+            currentRound.defer(file);
         }
+        handedOut = Collections.emptyList();
+        publish();
+    }
+
+    /**
+     * Seeds the bracket: the images left in the current round, the winners so far and every round
+     * after them are ordered and grouped by a strategy (see SeedingStrategy). Setting the same
+     * strategy again ranks the images again, which picks up any scores worked out since
+     *
+     * @param strategy - How to order the rounds
+     */
+    void setSeeding(SeedingStrategy strategy) {
+        currentRound.setStrategy(strategy);
+        publish();
+    }
+
+    /**
+     * @return - How the rounds are ordered
+     */
+    SeedingStrategy getSeeding() {
+        return currentRound.getStrategy();
     }
 
     /**
@@ -117,32 +252,52 @@ public class Bracket {
      */
     public void ignoreDone() {
         delta = true;
+        publish();
     }
 
     /**
-     * Removes all images in the bracket from memory
+     * Removes all images in the bracket from memory. Safe to call from any thread
      */
     public void flushAll() {
-        currentRound.flushAll();
-        if (currentRound.winners != null) currentRound.winners.flushAll();
+        for (ImageFile file : snapshot.getAllImageFiles()) {
+            file.flush();
+        }
     }
 
     /**
-     * Loads all images in the bracket into memory
+     * Loads all images in the bracket into memory. Safe to call from any thread - the images that
+     * are loaded are the ones in the bracket when this is called
      */
     public void loadAll(Window.LoadProgress callback) {
-        if (currentRound.loadAll(callback)) return;
-        if (currentRound.winners != null && currentRound.winners.loadAll(callback)) return;
+        for (ImageFile file : snapshot.getAllImageFiles()) {
+            try {
+                file.load();
+                callback.onImageLoaded();
+            } catch (IOException e) {
+                callback.onImageLoadError(e);
+                Logger.getLogger(getClass().getName()).warning("Unable to find file " + file.getAbsolutePath());
+            }
+            if (Thread.interrupted()) return;
+        }
         callback.onComplete();
     }
 
+    /**
+     * Gets the latest state of the bracket. Safe to call from any thread
+     *
+     * @return - A snapshot of the bracket that never changes
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
     /**
      * Gets the image files in the current round
      *
      * @return - A list of all image files in the current round
      */
     public List<ImageFile> getCurrentImageFiles() {
-        return currentRound.getFiles();
+        return new ArrayList<>(snapshot.getCurrentImageFiles());
     }
 
     /**
@@ -151,24 +306,49 @@ public class Bracket {
      * @return - A list of all image files in the bracket
      */
     public List<ImageFile> getAllImageFiles() {
-        if (currentRound.winners == null) return getCurrentImageFiles();
-        List<ImageFile> files = currentRound.getFiles();
-        files.addAll(currentRound.winners.getFiles());
-        return files;
+        return new ArrayList<>(snapshot.getAllImageFiles());
+    }
+
+    /**
+     * Gets the images that have been chosen for the next round so far
+     *
+     * @return - A list of the winners of the current round
+     */
+    public List<ImageFile> getWinnerImageFiles() {
+        return new ArrayList<>(snapshot.getWinnerImageFiles());
+    }
+
+    /**
+     * @return - Whether the user has turned any images down in the current round
+     */
+    public boolean hasChanged() {
+        return snapshot.hasChanged();
+    }
+
+    /**
+     * Looks at the images that will be handed out next without removing them from the bracket.
+     * Images are listed in the order getNextPair() will return them (assuming no more images are
+     * added and the user doesn't ask for different pictures)
+     *
+     * @param count - The maximum number of images to look at
+     * @return - Up to count images from the current round
+     */
+    public List<ImageFile> peekNextImages(int count) {
+        return snapshot.peekNextImages(count);
     }
 
     /**
      * @return - the number of rounds completed (starts at 0)
      */
     public int getRoundCount() {
-        return roundCount;
+        return snapshot.getRoundCount();
     }
 
     /**
      * @return - The number of photos remaining in this round
      */
     public int getRoundSize() {
-        return currentRound.getSize();
+        return snapshot.getRoundSize();
     }
 
     /**
@@ -177,9 +357,49 @@ public class Bracket {
      * @return - The number of images in both the current round and the winner round
      */
     public int size() {
-        if (currentRound.winners != null)
-            return currentRound.getSize() + currentRound.winners.getSize();
-        return currentRound.getSize();
+        return snapshot.size();
+    }
+
+    /**
+     * Places the images offered since the bracket was last used. This happens automatically
+     * whenever the bracket hands out images, but the writer can call it to bring the snapshot up
+     * to date sooner (for example to update the counters). While the
+     * current round still has at least as many images left as have already won it, new images
+     * join the current round and are compared like any other. Once most of the round has been
+     * decided they go straight into the next round instead, so they are compared against the
+     * winners rather than against the few images that happen to be left (and the round doesn't
+     * drag on). Images already in the bracket or handed out and not yet decided on (or copies
+     * of them) are ignored
+     */
+    void placeIncoming() {
+        if (incoming.isEmpty()) return;
+        ImageFile file;
+        while ((file = incoming.poll()) != null) {
+            if (handedOut.contains(file) || currentRound.contains(file)
+                    || (currentRound.winners != null && currentRound.winners.contains(file))) {
+                continue;
+            }
+            if (currentRound.winners == null || currentRound.winners.isEmpty()
+                    || currentRound.getSize() >= currentRound.winners.getSize()) {
+                currentRound.add(file);
+            } else {
+                currentRound.winners.add(file);
+                // the next round has something new in it, so it has to be played
+                delta = true;
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Helper method that publishes the current state for readers. Must be called by the writer
+     * after every change
+     */
+    private void publish() {
+        List<ImageFile> winners = currentRound.winners == null ? Collections.emptyList() :
+                currentRound.winners.getFiles();
+        snapshot = new Snapshot(++version, roundCount, delta, currentRound.getFiles(), winners,
+                currentRound.getStrategy().isFromBothEnds());
     }
 
     /**
@@ -195,13 +415,126 @@ public class Bracket {
         return currentRound.toString();
     }
 
+    /**
+     * The state of a bracket at one moment, for readers on other threads. Snapshots never change
+     * once they've been made, so they can be shared freely
+     */
+    public static final class Snapshot {
+
+        private final long version;
+        private final int roundCount;
+        private final boolean changed;
+        private final List<ImageFile> current;
+        private final List<ImageFile> winners;
+        private final boolean fromBothEnds;
+
+        /**
+         * Constructs a snapshot. The lists must never change (see SeededDeque.snapshot())
+         *
+         * @param version      - Increases with every change to the bracket
+         * @param roundCount   - The number of rounds completed
+         * @param changed      - Whether any images have been turned down in the current round
+         * @param current      - The images left in the current round, in order
+         * @param winners      - The images chosen for the next round so far
+         * @param fromBothEnds - Whether groups are taken from both ends of the current round
+         */
+        private Snapshot(long version, int roundCount, boolean changed, List<ImageFile> current,
+                         List<ImageFile> winners, boolean fromBothEnds) {
+            this.version = version;
+            this.roundCount = roundCount;
+            this.changed = changed;
+            this.current = current;
+            this.winners = winners;
+            this.fromBothEnds = fromBothEnds;
+        }
+
+        /**
+         * @return - A number that increases every time the bracket changes, so readers can tell
+         * whether anything happened since their last snapshot
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return - the number of rounds completed (starts at 0)
+         */
+        public int getRoundCount() {
+            return roundCount;
+        }
+
+        /**
+         * @return - The number of photos remaining in this round
+         */
+        public int getRoundSize() {
+            return current.size();
+        }
+
+        /**
+         * @return - The number of images in both the current round and the winner round
+         */
+        public int size() {
+            return current.size() + winners.size();
+        }
+
+        /**
+         * @return - Whether the user has turned any images down in the current round
+         */
+        public boolean hasChanged() {
+            return changed;
+        }
+
+        /**
+         * @return - The images left in the current round (can't be modified)
+         */
+        public List<ImageFile> getCurrentImageFiles() {
+            return current;
+        }
+
+        /**
+         * @return - The images chosen for the next round so far (can't be modified)
+         */
+        public List<ImageFile> getWinnerImageFiles() {
+            return winners;
+        }
+
+        /**
+         * @return - Every image in the bracket, current round first (can't be modified)
+         */
+        public List<ImageFile> getAllImageFiles() {
+            if (winners.isEmpty()) return current;
+            List<ImageFile> all = new ArrayList<>(current);
+            all.addAll(winners);
+            return Collections.unmodifiableList(all);
+        }
+
+        /**
+         * Lists the images that will be handed out next, in the order getNextGroup() hands them out
+         *
+         * @param count - The maximum number of images to list
+         * @return - Up to count images, either alternating between the front and the back of the
+         * round or from the front, depending on how the round is seeded
+         */
+        public List<ImageFile> peekNextImages(int count) {
+            if (!fromBothEnds) return current.subList(0, Math.min(count, current.size()));
+            List<ImageFile> next = new ArrayList<>();
+            int front = 0;
+            int back = current.size() - 1;
+            int limit = Math.min(count, current.size());
+            while (next.size() < limit) {
+                next.add(next.size() % 2 == 0 ? current.get(front++) : current.get(back--));
+            }
+            return next;
+        }
+    }
+
     /**
      * A Round represents one level of the bracket and contains all the photos in that round.
      * Should be modular enough it can be split into its own file if necessary/useful
      */
     private static class Round {
 
-        private final Deque<ImageFile> files;
+        private final SeededDeque files;
         private final Stack<RoundAction> undoHistory;
         private final Stack<RoundAction> redoHistory;
         // this is guaranteed not null if a round has files in it (i.e. if isEmpty() returns false, this won't be null)
@@ -210,28 +543,31 @@ public class Bracket {
         /**
          * Constructs a new round for the bracket
          *
-         * @param files - The array of files to be included in this round (can be null)
+         * @param files    - The array of files to be included in this round (can be null)
+         * @param strategy - How to order the files
          */
-        public Round(ImageFile[] files) {
+        public Round(ImageFile[] files, SeedingStrategy strategy) {
             undoHistory = new Stack<>();
             redoHistory = new Stack<>();
+            this.files = new SeededDeque(strategy);
             if (files == null) {
-                this.files = new LinkedListHashSet<>();
                 winners = null;
             }
             // One can also do comparisons here but this is probably not the most efficient
             else {
-                this.files = new LinkedListHashSet<>(Arrays.asList(files));
+                this.files.addAll(Arrays.asList(files));
                 // Creates a round for the winners - careful with a recursive infinite loop here
-                if (files.length > 0) winners = new Round();
+                if (files.length > 0) winners = new Round(strategy);
             }
         }
 
         /**
          * Initializes a new round with an empty list of files (good for creating the winner round)
+         *
+         * @param strategy - How to order the files
          */
-        public Round() {
-            this(null);
+        public Round(SeedingStrategy strategy) {
+            this(null, strategy);
         }
 
         /**
@@ -241,15 +577,44 @@ public class Bracket {
          * - Null if there aren't enough files left to compare
          */
         public ImageFile[] getNextPair() {
+            return getNextGroup(2);
+        }
+
+        /**
+         * Gets the next group of photos to be compared. If the strategy keeps some photos apart, a
+         * photo with nothing it can be compared with goes straight through to the next round
+         *
+         * @param size - The maximum number of photos in the group
+         * @return - Between 2 and size files that can be displayed to the user
+         * - An array of size nulls if there aren't enough files left to compare
+         */
+        public ImageFile[] getNextGroup(int size) {
             if (files.size() < 2) {
-                return new ImageFile[2];
+                return new ImageFile[size];
+            }
+            SeedingStrategy strategy = files.getStrategy();
+            if (strategy.isFromBothEnds()) {
+                // avoids repeatedly showing the user the same files by alternating between the
+                // front and the back
+                ImageFile[] group = new ImageFile[Math.min(size, files.size())];
+                for (int i = 0; i < group.length; i++) {
+                    group[i] = i % 2 == 0 ? files.pollFirst() : files.pollLast();
+                }
+                return group;
             }
-            // avoids repeatedly showing the user the same two files by pulling one from the
-            // front and one from the back
-            ImageFile[] pair = new ImageFile[2];
-            pair[0] = files.pollFirst();
-            pair[1] = files.pollLast();
-            return pair;
+            // neighbours from the front, as long as the strategy lets them be compared
+            while (files.size() >= 2) {
+                List<ImageFile> group = new ArrayList<>();
+                group.add(files.pollFirst());
+                while (group.size() < size && !files.isEmpty()
+                        && strategy.canCompare(group.get(group.size() - 1), files.peekFirst())) {
+                    group.add(files.pollFirst());
+                }
+                if (group.size() > 1) return group.toArray(new ImageFile[0]);
+                // there's nothing it can be compared with, so it goes through to the next round
+                winners.add(group.get(0));
+            }
+            return new ImageFile[size];
         }
 
         /**
@@ -273,35 +638,55 @@ public class Bracket {
          */
         public void add(ImageFile file) {
             files.add(file);
-            if (winners == null) winners = new Round();
+            if (winners == null) winners = new Round(files.getStrategy());
         }
 
         /**
-         * Clears all images from memory
+         * Adds several files to the round at once (see SeededDeque.addAll())
+         *
+         * @param files - The files to be added to this round
          */
-        public void flushAll() {
-            for (ImageFile file : files) {
-                file.flush();
+        public void addAll(List<ImageFile> files) {
+            this.files.addAll(files);
+            if (winners == null && !this.files.isEmpty()) {
+                winners = new Round(this.files.getStrategy());
             }
         }
 
         /**
-         * Loads all images into memory
+         * Puts a file back behind the rest of the round (used when the user asks for different
+         * pictures)
          *
-         * @return - True if the operation was interrupted, false otherwise
-         */
-        public boolean loadAll(Window.LoadProgress callback) {
-            for (ImageFile file : files) {
-                try {
-                    file.load();
-                    callback.onImageLoaded();
-                } catch (IOException e) {
-                    callback.onImageLoadError(e);
-                    Logger.getLogger(getClass().getName()).warning("Unable to find file " + file.getAbsolutePath());
-                }
-                if (Thread.interrupted()) return true;
-            }
-            return false;
+         * @param file - The file to put back
+         */
+        public void defer(ImageFile file) {
+            files.defer(file);
+            if (winners == null) winners = new Round(files.getStrategy());
+        }
+
+        /**
+         * @return - How the files are ordered
+         */
+        public SeedingStrategy getStrategy() {
+            return files.getStrategy();
+        }
+
+        /**
+         * Reorders this round and the winners so far with a strategy
+         *
+         * @param strategy - How to order the files
+         */
+        public void setStrategy(SeedingStrategy strategy) {
+            files.setStrategy(strategy);
+            if (winners != null) winners.files.setStrategy(strategy);
+        }
+
+        /**
+         * @param file - The file to look for
+         * @return - True if the file is in this round, false otherwise
+         */
+        public boolean contains(ImageFile file) {
+            return files.contains(file);
         }
 
         /**
@@ -321,13 +706,14 @@ public class Bracket {
         }
 
         /**
-         * Returns a list of the files in this round. This list can be modified without side effects
+         * Returns a list of the files in this round. The list can't be modified and doesn't change
+         * with the round, and it is only copied when the round has been reordered since the last
+         * call (see SeededDeque.snapshot())
          *
          * @return - A list of all the files in the round
          */
         public List<ImageFile> getFiles() {
-            return new ArrayList<>(files); // prevent the private list from being modified and
-            // breaking encapsulation
+            return files.snapshot();
         }
 
         /**
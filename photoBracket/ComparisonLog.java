@@ -0,0 +1,438 @@
+package photoBracket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Records every comparison a session makes: which images were shown together, what happened to
+ * each of them, how long the user took to decide and which round it was in. The log is stored in
+ * columns - one row per image per comparison, with the rows of a batch stored column by column -
+ * so a query only has to read the columns it needs and can run through them as flat arrays.
+ * Image paths are stored once in a separate string table and referred to by number. Rows are kept
+ * in memory and written in batches on a background thread
+ */
+class ComparisonLog {
+
+    // what happened to an image in a comparison
+    static final byte REJECTED = 0;
+    static final byte KEPT = 1;
+    // the user asked for different pictures so the image wasn't decided on
+    static final byte SKIPPED = 2;
+
+    // marks the start of every batch so a damaged file can be detected
+    private static final int MAGIC = 0x50424C47;
+    private static final int HEADER_BYTES = 8;
+    // event + time + round + latency + image + outcome
+    private static final int ROW_BYTES = 4 + 8 + 4 + 4 + 4 + 1;
+    private static final int BATCH_ROWS = 4096;
+    // a decision that takes longer than this means the user wandered off, so it isn't counted in
+    // full when working out how fast they sort
+    private static final long MAX_ACTIVE_MILLIS = 60_000;
+
+    // shared by every log - writes are small and rare so one thread is plenty
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Comparison log writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File columns;
+    private final File strings;
+    // the string table: image number -> path, and back again. Names are only added on the event
+    // dispatch thread, and the writer thread reads them while holding the lock on names
+    private final List<String> names;
+    private final Map<String, Integer> ids;
+    // how many names are in the string table on disk - only changed by the writer thread
+    private int namesWritten;
+    private int nextEvent;
+    private Batch batch;
+    private Future<?> lastWrite;
+
+    /**
+     * Opens (or creates) the log in a directory
+     *
+     * @param dir - The directory to keep the log in
+     * @throws IOException - If the log exists but can't be read
+     */
+    ComparisonLog(File dir) throws IOException {
+        columns = new File(dir, "comparisons");
+        strings = new File(dir, "comparison-images");
+        names = new ArrayList<>();
+        ids = new HashMap<>();
+        if (strings.isFile()) {
+            for (String line : Files.readAllLines(strings.toPath(), StandardCharsets.UTF_8)) {
+                ids.put(line, names.size());
+                names.add(line);
+            }
+        }
+        namesWritten = names.size();
+        nextEvent = recover();
+        batch = new Batch();
+    }
+
+    /**
+     * Records one comparison. Must be called by the session's window (on the event dispatch
+     * thread)
+     *
+     * @param images   - The images that were shown
+     * @param outcomes - What happened to each image (KEPT, REJECTED or SKIPPED)
+     * @param latency  - How long the user took to decide in milliseconds
+     * @param round    - The round the comparison was in
+     */
+    void record(ImageFile[] images, byte[] outcomes, long latency, int round) {
+        long now = System.currentTimeMillis();
+        int event = nextEvent++;
+        for (int i = 0; i < images.length; i++) {
+            if (images[i] == null) continue;
+            batch.add(event, now, round, (int) Math.min(Integer.MAX_VALUE, latency),
+                    idOf(images[i].getAbsolutePath()), outcomes[i]);
+            if (batch.rows == BATCH_ROWS) flush();
+        }
+    }
+
+    /**
+     * Hands the rows recorded so far to the writer thread
+     */
+    void flush() {
+        if (batch.rows == 0) return;
+        Batch full = batch;
+        int namesUsed = names.size();
+        batch = new Batch();
+        lastWrite = WRITER.submit(() -> write(full, namesUsed));
+    }
+
+    /**
+     * Writes everything that has been recorded and waits for it to reach the disk
+     */
+    void close() {
+        flush();
+        if (lastWrite == null) return;
+        try {
+            lastWrite.get();
+        } catch (InterruptedException | ExecutionException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to finish writing the " +
+                    "comparison log: " + e);
+        }
+    }
+
+    /**
+     * Reads the whole log and adds it up. Rows that haven't been flushed yet are not included.
+     * Safe to call from any thread
+     *
+     * @return - The totals for this log
+     * @throws IOException - If the log can't be read
+     */
+    Summary summarize() throws IOException {
+        List<String> table = Files.exists(strings.toPath()) ?
+                Files.readAllLines(strings.toPath(), StandardCharsets.UTF_8) :
+                Collections.emptyList();
+        Summary summary = new Summary(table);
+        if (!columns.isFile()) return summary;
+        try (FileChannel channel = FileChannel.open(columns.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            int lastEvent = -1;
+            while (position + HEADER_BYTES <= size) {
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        HEADER_BYTES);
+                int rows = header.getInt(4);
+                if (header.getInt(0) != MAGIC || position + HEADER_BYTES +
+                        (long) rows * ROW_BYTES > size) break;
+                MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position + HEADER_BYTES, (long) rows * ROW_BYTES);
+                // the start of each column in the block
+                int events = 0;
+                int latencies = rows * (4 + 8 + 4);
+                int images = latencies + rows * 4;
+                int outcomes = images + rows * 4;
+                for (int i = 0; i < rows; i++) {
+                    int event = block.getInt(events + i * 4);
+                    byte outcome = block.get(outcomes + i);
+                    summary.count(block.getInt(images + i * 4), outcome);
+                    // every row of an event has the same latency, so only count it once
+                    if (event != lastEvent) {
+                        summary.countEvent(block.getInt(latencies + i * 4), outcome == SKIPPED);
+                        lastEvent = event;
+                    }
+                }
+                position += HEADER_BYTES + (long) rows * ROW_BYTES;
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Helper method that finds the number of an image in the string table, adding it if needed
+     *
+     * @param path - The path of the image
+     * @return - The image's number
+     */
+    private int idOf(String path) {
+        Integer id = ids.get(path);
+        if (id != null) return id;
+        ids.put(path, names.size());
+        synchronized (names) {
+            names.add(path);
+        }
+        return names.size() - 1;
+    }
+
+    /**
+     * Helper method that finds where the log left off. A batch that was only partly written (if
+     * the app was killed while writing) is cut off so new batches line up
+     *
+     * @return - The number of the next event
+     * @throws IOException - If the log can't be read
+     */
+    private int recover() throws IOException {
+        if (!columns.isFile()) return 0;
+        try (FileChannel channel = FileChannel.open(columns.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            int next = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            ByteBuffer last = ByteBuffer.allocate(4);
+            while (position + HEADER_BYTES <= size) {
+                header.clear();
+                channel.read(header, position);
+                int rows = header.getInt(4);
+                long end = position + HEADER_BYTES + (long) rows * ROW_BYTES;
+                if (header.getInt(0) != MAGIC || rows <= 0 || end > size) break;
+                // the event column comes first, so the last event is the last int of it
+                last.clear();
+                channel.read(last, position + HEADER_BYTES + (long) (rows - 1) * 4);
+                next = last.getInt(0) + 1;
+                position = end;
+            }
+            if (position < size) {
+                Logger.getLogger(getClass().getName()).warning("Discarding " + (size - position)
+                        + " damaged bytes at the end of " + columns);
+                channel.truncate(position);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Helper method that appends a batch to the log. Runs on the writer thread. Names that
+     * couldn't be written before are written with the batch after, so the image numbers on disk
+     * always match the string table
+     *
+     * @param batch     - The rows to write
+     * @param namesUsed - How many names the string table had when the batch was finished
+     */
+    private void write(Batch batch, int namesUsed) {
+        try {
+            Files.createDirectories(columns.getAbsoluteFile().getParentFile().toPath());
+            // names first so that every image number in the columns can be looked up
+            if (namesWritten < namesUsed) {
+                StringBuilder sb = new StringBuilder();
+                synchronized (names) {
+                    for (String name : names.subList(namesWritten, namesUsed)) {
+                        sb.append(name).append('\n');
+                    }
+                }
+                Files.write(strings.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                namesWritten = namesUsed;
+            }
+            try (FileChannel channel = FileChannel.open(columns.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = batch.encode();
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to write comparison log: " + e);
+        }
+    }
+
+    /**
+     * Rows that haven't been written yet, kept column by column
+     */
+    private static class Batch {
+        final int[] events = new int[BATCH_ROWS];
+        final long[] times = new long[BATCH_ROWS];
+        final int[] rounds = new int[BATCH_ROWS];
+        final int[] latencies = new int[BATCH_ROWS];
+        final int[] images = new int[BATCH_ROWS];
+        final byte[] outcomes = new byte[BATCH_ROWS];
+        int rows;
+
+        void add(int event, long time, int round, int latency, int image, byte outcome) {
+            events[rows] = event;
+            times[rows] = time;
+            rounds[rows] = round;
+            latencies[rows] = latency;
+            images[rows] = image;
+            outcomes[rows] = outcome;
+            rows++;
+        }
+
+        /**
+         * @return - The batch as it is stored on disk: a header and then each column in turn
+         */
+        ByteBuffer encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + rows * ROW_BYTES);
+            buffer.putInt(MAGIC).putInt(rows);
+            buffer.asIntBuffer().put(events, 0, rows);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.asLongBuffer().put(times, 0, rows);
+            buffer.position(buffer.position() + rows * 8);
+            buffer.asIntBuffer().put(rounds, 0, rows);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.asIntBuffer().put(latencies, 0, rows);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.asIntBuffer().put(images, 0, rows);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.put(outcomes, 0, rows);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * The totals for a log: how each image has done and how quickly the user has been sorting
+     */
+    static class Summary {
+        private final List<String> names;
+        // built the first time an image is looked up by path
+        private Map<String, Integer> index;
+        private int[] shown;
+        private int[] kept;
+        private int comparisons;
+        private int skips;
+        private long activeMillis;
+        private long totalLatency;
+
+        /**
+         * Constructs an empty summary
+         *
+         * @param names - The string table of the log
+         */
+        private Summary(List<String> names) {
+            this.names = names;
+            shown = new int[names.size()];
+            kept = new int[names.size()];
+        }
+
+        /**
+         * Helper method that adds one row
+         *
+         * @param image   - The image number
+         * @param outcome - What happened to the image
+         */
+        private void count(int image, byte outcome) {
+            if (outcome == SKIPPED) return;
+            if (image >= shown.length) {
+                // the names for the newest rows may not have been written yet
+                shown = Arrays.copyOf(shown, image + 1);
+                kept = Arrays.copyOf(kept, image + 1);
+            }
+            shown[image]++;
+            if (outcome == KEPT) kept[image]++;
+        }
+
+        /**
+         * Helper method that adds one comparison
+         *
+         * @param latency - How long the user took in milliseconds
+         * @param skipped - Whether the user asked for different pictures
+         */
+        private void countEvent(int latency, boolean skipped) {
+            comparisons++;
+            if (skipped) skips++;
+            totalLatency += latency;
+            activeMillis += Math.min(latency, MAX_ACTIVE_MILLIS);
+        }
+
+        /**
+         * @return - The number of comparisons made (including asking for different pictures)
+         */
+        int getComparisons() {
+            return comparisons;
+        }
+
+        /**
+         * @return - How many times the user asked for different pictures
+         */
+        int getSkips() {
+            return skips;
+        }
+
+        /**
+         * @return - The average time taken to make a decision in milliseconds
+         */
+        double getMeanLatency() {
+            return comparisons == 0 ? 0 : (double) totalLatency / comparisons;
+        }
+
+        /**
+         * @return - How many decisions the user makes per minute while they're actually sorting
+         */
+        double getDecisionsPerMinute() {
+            return activeMillis == 0 ? 0 : comparisons * 60_000.0 / activeMillis;
+        }
+
+        /**
+         * Gets how often an image was kept when it was decided on
+         *
+         * @param path - The path of the image
+         * @return - The fraction of decisions the image was kept in, or NaN if it has never been
+         * decided on
+         */
+        double getWinRate(String path) {
+            if (index == null) {
+                index = new HashMap<>();
+                for (int i = 0; i < names.size(); i++) index.put(names.get(i), i);
+            }
+            int image = index.getOrDefault(path, -1);
+            if (image < 0 || image >= shown.length || shown[image] == 0) return Double.NaN;
+            return (double) kept[image] / shown[image];
+        }
+
+        /**
+         * Lists the images with the best win rates, breaking ties by how often they were shown
+         *
+         * @param count    - The maximum number of images to list
+         * @param minShown - How many times an image must have been decided on to be listed
+         * @return - The paths of the images, best first
+         */
+        List<String> getTopImages(int count, int minShown) {
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < Math.min(shown.length, names.size()); i++) {
+                if (shown[i] >= minShown && shown[i] > 0) candidates.add(i);
+            }
+            candidates.sort((a, b) -> {
+                // compared as fractions without dividing
+                int byRate = Long.compare((long) kept[b] * shown[a], (long) kept[a] * shown[b]);
+                return byRate != 0 ? byRate : Integer.compare(shown[b], shown[a]);
+            });
+            List<String> top = new ArrayList<>();
+            for (int i = 0; i < Math.min(count, candidates.size()); i++) {
+                top.add(names.get(candidates.get(i)));
+            }
+            return top;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d comparisons, %d different pics, %.1f s per decision, %.1f " +
+                            "decisions per minute", comparisons, skips, getMeanLatency() / 1000,
+                    getDecisionsPerMinute());
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package photoBracket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Works out what is in image files so the same photo is recognised wherever it is (two copies in
+ * different folders, or a file that has been moved). Each file gets two hashes:
+ * <ul>
+ *     <li>a pre-key made from its size and its first and last 64 KB, which is cheap and is
+ *     almost always enough to tell two photos apart, and</li>
+ *     <li>a hash of the whole file, which is only needed when two pre-keys match.</li>
+ * </ul>
+ * Both are xxHash64, and the whole file is read through a memory mapping. Hashes are remembered in
+ * .hashcache by path along with the file's size and modification time, so a file is only read
+ * again once it changes. Thread safe
+ */
+class ContentHasher {
+
+    private static final ContentHasher INSTANCE = new ContentHasher();
+
+    // how much of each end of the file goes into the pre-key
+    private static final int EDGE_BYTES = 64 * 1024;
+    // how much of a file is mapped at once when hashing all of it (a multiple of the stripe size)
+    private static final long CHUNK_BYTES = 64L * 1024 * 1024;
+    // marks a full hash that hasn't been worked out yet in the cache file
+    private static final String UNKNOWN = "-";
+
+    // xxHash64 constants
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private final File cacheFile;
+    // absolute path -> what is known about the file
+    private final Map<String, Entry> cache;
+    private volatile boolean dirty;
+
+    /**
+     * Constructs the hasher and reads the cache file
+     */
+    private ContentHasher() {
+        cacheFile = new File(".hashcache");
+        cache = new ConcurrentHashMap<>();
+        if (!cacheFile.isFile()) return;
+        try {
+            // path last since it is the only part that could contain a tab
+            for (String line : Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t", 5);
+                if (parts.length != 5) continue;
+                Entry entry = new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        Long.parseUnsignedLong(parts[2], 16));
+                if (!parts[3].equals(UNKNOWN)) {
+                    entry.full = Long.parseUnsignedLong(parts[3], 16);
+                    entry.hasFull = true;
+                }
+                cache.put(parts[4], entry);
+            }
+        } catch (IOException | NumberFormatException e) {
+            Logger.getLogger(getClass().getName()).warning("Ignoring unreadable hash cache: " + e);
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return - The hasher shared by every ImageFile
+     */
+    static ContentHasher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the pre-key of a file: a hash of its size and its first and last 64 KB
+     *
+     * @param file - The file
+     * @return - The pre-key
+     * @throws IOException - If the file can't be read
+     */
+    long getPreKey(File file) throws IOException {
+        return lookup(file).preKey;
+    }
+
+    /**
+     * Gets the hash of everything in a file
+     *
+     * @param file - The file
+     * @return - The hash
+     * @throws IOException - If the file can't be read
+     */
+    long getFullHash(File file) throws IOException {
+        Entry entry = lookup(file);
+        if (!entry.hasFull) {
+            entry.full = hashFile(file, entry.size);
+            entry.hasFull = true;
+            dirty = true;
+        }
+        return entry.full;
+    }
+
+    /**
+     * Gets what is known about a file without looking at the file, so it may be out of date. Used
+     * to save it along with a session (see SessionSnapshot)
+     *
+     * @param file - The file
+     * @return - What is known about it, or null if it hasn't been hashed
+     */
+    Entry peek(File file) {
+        return cache.get(file.getAbsolutePath());
+    }
+
+    /**
+     * Gets the hash of everything in a file if it has already been worked out, without looking
+     * at the file
+     *
+     * @param file   - The file
+     * @param preKey - The pre-key the file was identified by. A hash worked out for different
+     *               contents isn't returned
+     * @return - The hash, or null if it isn't known
+     */
+    Long peekFullHash(File file, long preKey) {
+        Entry entry = cache.get(file.getAbsolutePath());
+        return entry == null || !entry.hasFull || entry.preKey != preKey ? null : entry.full;
+    }
+
+    /**
+     * Remembers what a SessionSnapshot saved about a file, unless the file has been hashed since.
+     * Like the entries read from .hashcache, it is only used while the file's size and
+     * modification time still match
+     *
+     * @param path  - The absolute path of the file
+     * @param entry - What was saved about it
+     */
+    void remember(String path, Entry entry) {
+        if (cache.putIfAbsent(path, entry) == null) dirty = true;
+    }
+
+    /**
+     * Works out the identity of several images at once, on every core, so that putting them in a
+     * bracket afterwards doesn't have to read them. Call from a background thread
+     *
+     * @param files - The images
+     */
+    void identify(Collection<ImageFile> files) {
+        files.parallelStream().forEach(ImageFile::hashCode);
+    }
+
+    /**
+     * Works out the hash of everything in each image whose pre-key matches another image's, so
+     * ImageFile.equals() can tell them apart without reading them. The images must have been
+     * identified already (see identify()). Call from a background thread
+     *
+     * @param files - The images being added
+     * @param known - The pre-keys of the images already there, each mapped to one of the images
+     *              with that pre-key. The new images are added to it
+     */
+    void hashCollisions(Collection<ImageFile> files, Map<Long, ImageFile> known) {
+        for (ImageFile file : files) {
+            if (!file.isIdentifiedByContent()) continue;
+            ImageFile other = known.putIfAbsent(file.getPreKey(), file);
+            if (other == null) continue;
+            try {
+                getFullHash(other);
+                getFullHash(file);
+            } catch (IOException e) {
+                // changed or deleted since it was identified, so the pre-key has to do
+                Logger.getLogger(getClass().getName()).fine("Unable to hash " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Writes the cache to .hashcache if anything has been hashed since it was read
+     */
+    void save() {
+        if (!dirty) return;
+        dirty = false;
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Entry> item : cache.entrySet()) {
+            Entry entry = item.getValue();
+            sb.append(entry.modified).append('\t').append(entry.size).append('\t')
+                    .append(Long.toHexString(entry.preKey)).append('\t')
+                    .append(entry.hasFull ? Long.toHexString(entry.full) : UNKNOWN).append('\t')
+                    .append(item.getKey()).append('\n');
+        }
+        try {
+            File temp = new File(cacheFile.getAbsoluteFile().getParentFile(),
+                    cacheFile.getName() + ".tmp");
+            Files.write(temp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to save the hash cache: " + e);
+        }
+    }
+
+    /**
+     * Helper method that finds the cache entry for a file, making a new one (with the pre-key
+     * worked out) if the file isn't cached or has changed since it was
+     *
+     * @param file - The file
+     * @return - The entry
+     * @throws IOException - If the file can't be read
+     */
+    private Entry lookup(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long size = file.length();
+        // lastModified() is 0 for a file that doesn't exist
+        if (modified == 0 && !file.isFile()) throw new IOException("No such file: " + path);
+        Entry entry = cache.get(path);
+        if (entry != null && entry.modified == modified && entry.size == size) return entry;
+        entry = new Entry(modified, size, preKey(file, size));
+        cache.put(path, entry);
+        dirty = true;
+        return entry;
+    }
+
+    /**
+     * Helper method that hashes the size and the first and last 64 KB of a file
+     *
+     * @param file - The file
+     * @param size - The size of the file
+     * @return - The pre-key
+     * @throws IOException - If the file can't be read
+     */
+    private static long preKey(File file, long size) throws IOException {
+        ByteBuffer edges = ByteBuffer.allocate((int) Math.min(size, 2L * EDGE_BYTES));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (size <= 2L * EDGE_BYTES) {
+                readFully(channel, edges, 0);
+            } else {
+                edges.limit(EDGE_BYTES);
+                readFully(channel, edges, 0);
+                edges.limit(2 * EDGE_BYTES);
+                readFully(channel, edges, size - EDGE_BYTES);
+            }
+        }
+        edges.flip();
+        Hash hash = new Hash(size);
+        hash.update(edges);
+        return hash.finish(edges);
+    }
+
+    /**
+     * Helper method that hashes everything in a file, mapping it a piece at a time
+     *
+     * @param file - The file
+     * @param size - The size of the file
+     * @return - The hash
+     * @throws IOException - If the file can't be read
+     */
+    private static long hashFile(File file, long size) throws IOException {
+        Hash hash = new Hash(0);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = 0;
+            while (true) {
+                long length = Math.min(CHUNK_BYTES, size - position);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        length);
+                hash.update(chunk);
+                position += length;
+                if (position >= size) return hash.finish(chunk);
+            }
+        }
+    }
+
+    /**
+     * Helper method that fills a buffer from a channel
+     *
+     * @param channel  - The channel to read from
+     * @param buffer   - The buffer to fill up to its limit
+     * @param position - Where in the channel to start reading
+     * @throws IOException - If the channel ends early or can't be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("File ended early");
+            position += read;
+        }
+    }
+
+    /**
+     * What is known about one file
+     */
+    static class Entry {
+        final long modified;
+        final long size;
+        final long preKey;
+        // filled in the first time the full hash is needed
+        volatile long full;
+        volatile boolean hasFull;
+
+        Entry(long modified, long size, long preKey) {
+            this.modified = modified;
+            this.size = size;
+            this.preKey = preKey;
+        }
+
+        Entry(long modified, long size, long preKey, long full) {
+            this(modified, size, preKey);
+            this.full = full;
+            hasFull = true;
+        }
+    }
+
+    /**
+     * xxHash64 fed a buffer at a time. Every buffer but the last must hold a multiple of 32 bytes
+     */
+    static class Hash {
+        private final long seed;
+        private long v1;
+        private long v2;
+        private long v3;
+        private long v4;
+        private long length;
+
+        /**
+         * Starts a new hash
+         *
+         * @param seed - The seed
+         */
+        Hash(long seed) {
+            this.seed = seed;
+            v1 = seed + PRIME1 + PRIME2;
+            v2 = seed + PRIME2;
+            v3 = seed;
+            v4 = seed - PRIME1;
+        }
+
+        /**
+         * Hashes every whole 32 byte stripe left in a buffer, leaving the rest for finish()
+         *
+         * @param buffer - The bytes to hash
+         */
+        void update(ByteBuffer buffer) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int position = buffer.position();
+            int end = buffer.limit() - 31;
+            for (; position < end; position += 32) {
+                v1 = round(v1, buffer.getLong(position));
+                v2 = round(v2, buffer.getLong(position + 8));
+                v3 = round(v3, buffer.getLong(position + 16));
+                v4 = round(v4, buffer.getLong(position + 24));
+            }
+            length += position - buffer.position();
+            buffer.position(position);
+        }
+
+        /**
+         * Finishes the hash with the bytes update() left in the last buffer
+         *
+         * @param buffer - The last buffer given to update()
+         * @return - The hash
+         */
+        long finish(ByteBuffer buffer) {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            long total = length + limit - position;
+            long hash;
+            if (length > 0) {
+                hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                        + Long.rotateLeft(v4, 18);
+                hash = merge(hash, v1);
+                hash = merge(hash, v2);
+                hash = merge(hash, v3);
+                hash = merge(hash, v4);
+            } else {
+                hash = seed + PRIME5;
+            }
+            hash += total;
+            for (; position + 8 <= limit; position += 8) {
+                hash ^= round(0, buffer.getLong(position));
+                hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            }
+            if (position + 4 <= limit) {
+                hash ^= (buffer.getInt(position) & 0xFFFFFFFFL) * PRIME1;
+                hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+                position += 4;
+            }
+            for (; position < limit; position++) {
+                hash ^= (buffer.get(position) & 0xFFL) * PRIME5;
+                hash = Long.rotateLeft(hash, 11) * PRIME1;
+            }
+            hash ^= hash >>> 33;
+            hash *= PRIME2;
+            hash ^= hash >>> 29;
+            hash *= PRIME3;
+            hash ^= hash >>> 32;
+            return hash;
+        }
+
+        private static long round(long accumulator, long input) {
+            accumulator += input * PRIME2;
+            accumulator = Long.rotateLeft(accumulator, 31);
+            return accumulator * PRIME1;
+        }
+
+        private static long merge(long hash, long accumulator) {
+            hash ^= round(0, accumulator);
+            return hash * PRIME1 + PRIME4;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package photoBracket;
+
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs image decoding for every open session on one shared set of threads. Each session gets its
+ * own queue and the threads take tasks from the queues in turn, so a session loading a 3x3 grid
+ * or prefetching a long way ahead can't hold up the pictures another window is waiting for.
+ * Images that are about to be shown always go before images that are only being loaded ahead of
+ * time
+ * <p>
+ * Cancelling a task's future with cancel(true) while it is running cancels its DecodeToken, which
+ * stops the decoder part way through. The scheduler keeps track of how much decoding time went to
+ * tasks that were cancelled while running, split into the time before the cancel and the time it
+ * took the task to notice. Running with -DphotoBracket.abortDecodes=false leaves running tasks to
+ * finish (as they did before tokens existed), so the two can be compared in the summary that is
+ * logged when the last window closes
+ */
+class DecodeScheduler {
+
+    private static final DecodeScheduler INSTANCE = new DecodeScheduler();
+    private static final boolean ABORTING = !"false".equals(
+            System.getProperty("photoBracket.abortDecodes"));
+
+    // one map per priority, from the owner of the tasks to its queue. The owner that was served
+    // most recently is moved to the end, which is what makes the scheduling round robin
+    private final List<LinkedHashMap<Object, Deque<Task<?>>>> queues;
+    // how the tasks ended up, for the summary
+    private long completed;
+    private long cancelledRunning;
+    private long nanosBeforeCancel;
+    private long nanosAfterCancel;
+
+    /**
+     * Constructs the scheduler and starts its threads
+     */
+    private DecodeScheduler() {
+        queues = new ArrayList<>();
+        for (int i = 0; i < Priority.values().length; i++) queues.add(new LinkedHashMap<>());
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::work, "Image decoder " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * @return - The scheduler shared by every session
+     */
+    static DecodeScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a task
+     *
+     * @param owner    - The session the task is for
+     * @param priority - How urgent the task is
+     * @param task     - The task to run
+     * @param <T>      - The type of result the task produces
+     * @return - A future for the task's result. Cancelling it before it starts stops it running,
+     * and cancelling it with cancel(true) while it runs stops the decoder as soon as it notices
+     */
+    <T> Future<T> submit(Object owner, Priority priority, Callable<T> task) {
+        Task<T> future = new Task<>(task);
+        synchronized (queues) {
+            queues.get(priority.ordinal()).computeIfAbsent(owner, o -> new ArrayDeque<>())
+                    .add(future);
+            queues.notify();
+        }
+        return future;
+    }
+
+    /**
+     * Queues a task that doesn't produce a result
+     *
+     * @param owner    - The session the task is for
+     * @param priority - How urgent the task is
+     * @param task     - The task to run
+     * @return - A future for the task. Cancelling it before it starts stops it running, and
+     * cancelling it with cancel(true) while it runs stops the decoder as soon as it notices
+     */
+    Future<?> submit(Object owner, Priority priority, Runnable task) {
+        return submit(owner, priority, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Waits for a task that another thread has already started, so the caller can use what it
+     * loads instead of doing the same work alongside it. Returns straight away if the task hasn't
+     * started (it would have to wait its turn, which could be behind the caller) or is done. Stops
+     * waiting if the caller's own task is cancelled
+     *
+     * @param future - A future returned by submit()
+     * @throws InterruptedIOException - If the caller's DecodeToken is cancelled while it waits
+     */
+    void awaitIfStarted(Future<?> future) throws InterruptedIOException {
+        if (!(future instanceof Task) || !((Task<?>) future).started) return;
+        DecodeToken token = DecodeToken.current();
+        while (!future.isDone()) {
+            token.check();
+            try {
+                future.get(20, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // checks the token again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | CancellationException e) {
+                // whatever went wrong will happen again when the caller loads it itself
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cancels every task a session has queued that hasn't started yet. Used when a session closes
+     *
+     * @param owner - The session
+     */
+    void cancelAll(Object owner) {
+        synchronized (queues) {
+            for (Map<Object, Deque<Task<?>>> queue : queues) {
+                Deque<Task<?>> tasks = queue.remove(owner);
+                if (tasks == null) continue;
+                for (Task<?> task : tasks) task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Helper method that runs tasks forever. This is what each of the threads does
+     */
+    private void work() {
+        while (true) {
+            Task<?> task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            DecodeToken.setCurrent(task.token);
+            task.started = true;
+            long start = System.nanoTime();
+            // a cancelled task does nothing when run
+            task.run();
+            long end = System.nanoTime();
+            DecodeToken.setCurrent(null);
+            // in case the task left the thread interrupted, which mustn't carry over to the next
+            // task
+            Thread.interrupted();
+            count(task, start, end);
+        }
+    }
+
+    /**
+     * Helper method that adds a task that has run to the summary
+     *
+     * @param task  - The task
+     * @param start - When it started running, from System.nanoTime()
+     * @param end   - When it stopped
+     */
+    private synchronized void count(Task<?> task, long start, long end) {
+        long cancelledAt = task.cancelledAt;
+        if (!task.isCancelled()) {
+            completed++;
+        } else if (cancelledAt - start > 0) {
+            cancelledRunning++;
+            nanosBeforeCancel += cancelledAt - start;
+            nanosAfterCancel += Math.max(0, end - cancelledAt);
+        }
+    }
+
+    /**
+     * @return - A one line summary of the time spent on decodes that were no longer wanted
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("Decode scheduler: %d tasks finished, %d cancelled while running " +
+                        "(%d ms decoding before the cancel, %d ms after it, aborting %s)",
+                completed, cancelledRunning,
+                nanosBeforeCancel / 1_000_000, nanosAfterCancel / 1_000_000,
+                ABORTING ? "on" : "off");
+    }
+
+    /**
+     * Helper method that waits for the next task, taking the most urgent priority first and the
+     * owners within a priority in turn
+     *
+     * @return - The task to run
+     * @throws InterruptedException - If the thread is interrupted while waiting
+     */
+    private Task<?> take() throws InterruptedException {
+        synchronized (queues) {
+            while (true) {
+                for (LinkedHashMap<Object, Deque<Task<?>>> queue : queues) {
+                    Iterator<Map.Entry<Object, Deque<Task<?>>>> iterator =
+                            queue.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<Object, Deque<Task<?>>> entry = iterator.next();
+                        Deque<Task<?>> tasks = entry.getValue();
+                        // cancelled tasks are dropped without using up the owner's turn
+                        while (!tasks.isEmpty() && tasks.peek().isCancelled()) tasks.poll();
+                        iterator.remove();
+                        if (tasks.isEmpty()) continue;
+                        Task<?> task = tasks.poll();
+                        // the owner goes to the back of the line
+                        if (!tasks.isEmpty()) queue.put(entry.getKey(), tasks);
+                        return task;
+                    }
+                }
+                queues.wait();
+            }
+        }
+    }
+
+    /**
+     * A queued task along with the token its decoder checks
+     *
+     * @param <T> - The type of result the task produces
+     */
+    private static final class Task<T> extends FutureTask<T> {
+
+        final DecodeToken token = new DecodeToken();
+        // when the task was cancelled, from System.nanoTime()
+        volatile long cancelledAt;
+        // set once a thread has taken the task from its queue
+        volatile boolean started;
+
+        /**
+         * Constructs the task
+         *
+         * @param callable - What the task does
+         */
+        Task(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // only the first cancel counts
+            if (!isDone()) cancelledAt = System.nanoTime();
+            if (mayInterruptIfRunning && ABORTING) token.cancel();
+            // the token is what stops the decoder. Interrupting the thread as well would close
+            // whatever channel it had open (aborting even with ABORTING off) and makes reads
+            // that have nothing to do with decoding fail
+            return super.cancel(false);
+        }
+    }
+
+    /**
+     * How urgent a task is. Earlier priorities always run first
+     */
+    enum Priority {
+        // images that are on screen (or about to be)
+        DISPLAY,
+        // images that are only being loaded ahead of time
+        PREFETCH
+    }
+}
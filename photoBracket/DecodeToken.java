@@ -0,0 +1,126 @@
+package photoBracket;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+
+/**
+ * Says whether the decode running on a thread is still wanted. DecodeScheduler gives every task
+ * its own token and cancels it when the task's future is cancelled while it is running, so a
+ * picture the user has already moved past stops decoding instead of finishing for nothing. The
+ * decoders look the token up with current() (they are called a long way down from the task, so it
+ * isn't passed through every method in between) and check it between rows. ImageIO readers are
+ * stopped with ImageReader.abort() from their own progress callbacks, which is the only thread
+ * some readers can be aborted from
+ */
+class DecodeToken {
+
+    // the token for code that isn't running in a DecodeScheduler task. It is never cancelled
+    private static final DecodeToken NONE = new DecodeToken();
+    private static final ThreadLocal<DecodeToken> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private volatile boolean cancelled;
+
+    /**
+     * @return - The token of the task running on this thread
+     */
+    static DecodeToken current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes a token the current one for this thread. Used by DecodeScheduler around each task
+     *
+     * @param token - The token or null to go back to one that is never cancelled
+     */
+    static void setCurrent(DecodeToken token) {
+        CURRENT.set(token == null ? NONE : token);
+    }
+
+    /**
+     * Tells the decode to stop. Can be called from any thread
+     */
+    void cancel() {
+        if (this != NONE) cancelled = true;
+    }
+
+    /**
+     * @return - True if the decode is no longer wanted
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops the decode if it is no longer wanted
+     *
+     * @throws InterruptedIOException - If the token has been cancelled
+     */
+    void check() throws InterruptedIOException {
+        if (cancelled) throw new InterruptedIOException("Decode cancelled");
+    }
+
+    /**
+     * Works out whether a read failed because the thread was interrupted (or its decode
+     * cancelled) rather than because of anything wrong with the file. An interrupt closes an
+     * interruptible channel part way through a read, which surfaces as a
+     * ClosedByInterruptException
+     *
+     * @param e - What the read threw
+     * @return - True if the failure says nothing about the file
+     */
+    static boolean isInterruption(Exception e) {
+        return e instanceof InterruptedIOException || e instanceof ClosedByInterruptException
+                || Thread.currentThread().isInterrupted() || current().isCancelled();
+    }
+
+    /**
+     * Makes a listener that aborts a reader as soon as it reports progress after the token has
+     * been cancelled. ImageReader.read() then returns early with whatever it had decoded, so the
+     * caller still has to check() afterwards
+     *
+     * @return - The listener to add to the reader
+     */
+    IIOReadProgressListener abortListener() {
+        return new IIOReadProgressListener() {
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                if (cancelled) source.abort();
+            }
+
+            @Override
+            public void sequenceStarted(ImageReader source, int minIndex) {
+            }
+
+            @Override
+            public void sequenceComplete(ImageReader source) {
+            }
+
+            @Override
+            public void imageStarted(ImageReader source, int imageIndex) {
+                if (cancelled) source.abort();
+            }
+
+            @Override
+            public void imageComplete(ImageReader source) {
+            }
+
+            @Override
+            public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+            }
+
+            @Override
+            public void thumbnailProgress(ImageReader source, float percentageDone) {
+            }
+
+            @Override
+            public void thumbnailComplete(ImageReader source) {
+            }
+
+            @Override
+            public void readAborted(ImageReader source) {
+            }
+        };
+    }
+}
@@ -0,0 +1,534 @@
+package photoBracket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the metadata of a photo (when it was taken, which way up it is and what camera took it)
+ * without decoding any pixels. Only the start of the file is read, through a memory mapping: for
+ * a JPEG the EXIF and XMP segments that come before the image data, and for a TIFF (which most raw
+ * formats are) the first directory. WebP files keep their EXIF and XMP chunks after the image data,
+ * so for those the chunk headers are followed through the whole file. Metadata is remembered by
+ * path and modification time, in memory and in .exifcache. Thread safe
+ */
+class ExifReader {
+
+    private static final ExifReader INSTANCE = new ExifReader();
+
+    // the most of a file that is read. EXIF segments are at most 64 KB and come first
+    private static final int MAX_HEADER = 128 * 1024;
+    // photos taken less than this far apart (with the same camera) are part of the same scene
+    private static final long SCENE_GAP_MILLIS = 2 * 60 * 1000;
+
+    // EXIF tags
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    // EXIF field types
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] XMP_HEADER =
+            "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] RIFF = "RIFF".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] WEBP = "WEBP".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] WEBP_EXIF = "EXIF".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] WEBP_XMP = "XMP ".getBytes(StandardCharsets.ISO_8859_1);
+    // XMP properties can be written as attributes or as elements
+    private static final Pattern XMP_DATE = xmpProperty("(?:exif:DateTimeOriginal|xmp:CreateDate"
+            + "|photoshop:DateCreated)");
+    private static final Pattern XMP_ORIENTATION = xmpProperty("tiff:Orientation");
+    private static final Pattern XMP_MAKE = xmpProperty("tiff:Make");
+    private static final Pattern XMP_MODEL = xmpProperty("tiff:Model");
+
+    private final File cacheFile;
+    // absolute path -> metadata
+    private final Map<String, Metadata> cache;
+    private volatile boolean dirty;
+
+    /**
+     * Constructs the reader and reads the cache file
+     */
+    private ExifReader() {
+        cacheFile = new File(".exifcache");
+        cache = new ConcurrentHashMap<>();
+        if (!cacheFile.isFile()) return;
+        try {
+            // path last since it is the only part that could contain a tab
+            for (String line : Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t", 6);
+                if (parts.length != 6) continue;
+                cache.put(parts[5], new Metadata(Long.parseLong(parts[0]),
+                        Long.parseLong(parts[1]), Integer.parseInt(parts[2]), parts[3], parts[4]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Logger.getLogger(getClass().getName()).warning("Ignoring unreadable EXIF cache: " + e);
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return - The reader shared by every window
+     */
+    static ExifReader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Reads the metadata of several images at once, on every core. Call from a background thread
+     *
+     * @param files - The images
+     */
+    void readAll(Collection<ImageFile> files) {
+        files.parallelStream().forEach(file -> {
+            try {
+                read(file);
+            } catch (InterruptedIOException e) {
+                // left unread, so it is read again the next time it's needed
+            }
+        });
+    }
+
+    /**
+     * Gets the metadata of an image, reading it if it isn't cached (or the file has changed)
+     *
+     * @param file - The image
+     * @return - Its metadata. Everything is unknown if it couldn't be read
+     * @throws InterruptedIOException - If the thread was interrupted while reading, in which case
+     *                                nothing is cached since the file may be fine
+     */
+    Metadata read(File file) throws InterruptedIOException {
+        String path = file.getAbsolutePath();
+        long modified = file.lastModified();
+        Metadata metadata = cache.get(path);
+        if (metadata != null && metadata.modified == modified) return metadata;
+        try {
+            metadata = parse(file, modified);
+        } catch (IOException | RuntimeException e) {
+            if (DecodeToken.isInterruption(e)) {
+                // the file may be fine, so the caller sees the interrupt and nothing is cached
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading the metadata of " + file);
+            }
+            // a truncated or odd file just has no metadata
+            Logger.getLogger(getClass().getName()).fine("Unable to read metadata of " + file +
+                    ": " + e);
+            metadata = new Metadata(modified, Metadata.UNKNOWN, 1, "", "");
+        }
+        cache.put(path, metadata);
+        dirty = true;
+        return metadata;
+    }
+
+    /**
+     * Gets the metadata of an image only if it has already been read. Never touches the disk, so
+     * this is safe on the event dispatch thread
+     *
+     * @param file - The image
+     * @return - Its metadata or null if it hasn't been read
+     */
+    Metadata peek(File file) {
+        return cache.get(file.getAbsolutePath());
+    }
+
+    /**
+     * Gets when a photo was taken, falling back to when the file was last changed if its metadata
+     * hasn't been read or doesn't say. Never reads the file
+     *
+     * @param file - The image
+     * @return - The time in milliseconds (the camera's local time, treated as UTC)
+     */
+    long getCaptureTime(File file) {
+        Metadata metadata = peek(file);
+        if (metadata != null && metadata.getCaptureTime() != Metadata.UNKNOWN) {
+            return metadata.getCaptureTime();
+        }
+        return metadata != null ? metadata.modified : file.lastModified();
+    }
+
+    /**
+     * Works out whether two photos are part of the same scene: taken by the same camera within a
+     * couple of minutes of each other. Photos in a round sorted by capture time form a scene when
+     * each is close enough to the one before it, so a long burst is still one scene
+     *
+     * @param a - One photo
+     * @param b - The other photo
+     * @return - True if they are from the same scene
+     */
+    boolean isSameScene(File a, File b) {
+        Metadata first = peek(a);
+        Metadata second = peek(b);
+        if (first != null && second != null && !first.getCamera().equals(second.getCamera())) {
+            return false;
+        }
+        return Math.abs(getCaptureTime(a) - getCaptureTime(b)) <= SCENE_GAP_MILLIS;
+    }
+
+    /**
+     * Writes the cache to .exifcache if anything has been read since it was loaded
+     */
+    void save() {
+        if (!dirty) return;
+        dirty = false;
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Metadata> entry : cache.entrySet()) {
+            Metadata metadata = entry.getValue();
+            sb.append(metadata.modified).append('\t').append(metadata.captureTime).append('\t')
+                    .append(metadata.orientation).append('\t').append(metadata.make).append('\t')
+                    .append(metadata.model).append('\t').append(entry.getKey()).append('\n');
+        }
+        try {
+            File temp = new File(cacheFile.getAbsoluteFile().getParentFile(),
+                    cacheFile.getName() + ".tmp");
+            Files.write(temp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to save the EXIF cache: " + e);
+        }
+    }
+
+    /**
+     * Helper method that reads the metadata from the start of a file
+     *
+     * @param file     - The file
+     * @param modified - When the file was last changed
+     * @return - The metadata
+     * @throws IOException - If the file can't be read
+     */
+    private static Metadata parse(File file, long modified) throws IOException {
+        ByteBuffer header;
+        ByteBuffer webP = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), MAX_HEADER));
+            if (startsWith(header, 0, header.limit(), RIFF)
+                    && startsWith(header, 8, header.limit(), WEBP)) {
+                // only the pages with chunk headers and metadata chunks are actually read
+                webP = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(channel.size(), Integer.MAX_VALUE));
+            }
+        }
+        Fields fields = new Fields();
+        if (webP != null) {
+            parseWebP(webP, fields);
+        } else if (header.remaining() >= 4 && (header.getShort(0) & 0xFFFF) == 0xFFD8) {
+            parseJpeg(header, fields);
+        } else if (header.remaining() >= 8) {
+            // TIFF files start with their own header
+            parseTiff(header, 0, fields);
+        }
+        return new Metadata(modified, fields.captureTime, fields.orientation, fields.make,
+                fields.model);
+    }
+
+    /**
+     * Helper method that goes through the segments at the start of a JPEG, stopping at the image
+     * data
+     *
+     * @param buffer - The start of the file
+     * @param fields - Where to put what is found
+     */
+    private static void parseJpeg(ByteBuffer buffer, Fields fields) {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        int position = 2;
+        while (position + 4 <= buffer.limit()) {
+            if ((buffer.get(position) & 0xFF) != 0xFF) return;
+            int marker = buffer.get(position + 1) & 0xFF;
+            // start of scan or end of image - no more metadata
+            if (marker == 0xDA || marker == 0xD9) return;
+            int length = buffer.getShort(position + 2) & 0xFFFF;
+            int start = position + 4;
+            int end = position + 2 + length;
+            if (end > buffer.limit()) return;
+            if (marker == 0xE1) {
+                if (startsWith(buffer, start, end, EXIF_HEADER)) {
+                    ByteBuffer tiff = slice(buffer, start + EXIF_HEADER.length, end);
+                    parseTiff(tiff, 0, fields);
+                } else if (startsWith(buffer, start, end, XMP_HEADER)) {
+                    byte[] xmp = new byte[end - start - XMP_HEADER.length];
+                    for (int i = 0; i < xmp.length; i++) {
+                        xmp[i] = buffer.get(start + XMP_HEADER.length + i);
+                    }
+                    parseXmp(new String(xmp, StandardCharsets.UTF_8), fields);
+                }
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * Helper method that goes through the chunks of a WebP file for the EXIF and XMP ones
+     *
+     * @param buffer - The whole file
+     * @param fields - Where to put what is found
+     */
+    private static void parseWebP(ByteBuffer buffer, Fields fields) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int end = (int) Math.min(buffer.limit(), 8 + (buffer.getInt(4) & 0xFFFFFFFFL));
+        int position = 12;
+        while (position + 8 <= end) {
+            int size = buffer.getInt(position + 4);
+            int start = position + 8;
+            if (size < 0 || size > end - start) return;
+            int chunkEnd = start + size;
+            if (startsWith(buffer, position, start, WEBP_EXIF)) {
+                // some writers keep the JPEG segment's header in front of the TIFF structure
+                int tiff = startsWith(buffer, start, chunkEnd, EXIF_HEADER)
+                        ? start + EXIF_HEADER.length : start;
+                if (chunkEnd - tiff >= 8) parseTiff(slice(buffer, tiff, chunkEnd), 0, fields);
+            } else if (startsWith(buffer, position, start, WEBP_XMP)) {
+                byte[] xmp = new byte[size];
+                for (int i = 0; i < xmp.length; i++) xmp[i] = buffer.get(start + i);
+                parseXmp(new String(xmp, StandardCharsets.UTF_8), fields);
+            }
+            // chunks are padded to an even length
+            position = chunkEnd + (size & 1);
+        }
+    }
+
+    /**
+     * Helper method that reads the first directory of a TIFF structure (and the EXIF directory it
+     * points to). Offsets that point past the end of the buffer are ignored
+     *
+     * @param tiff   - The TIFF structure, starting with its byte order mark
+     * @param base   - Where it starts in the buffer
+     * @param fields - Where to put what is found
+     */
+    private static void parseTiff(ByteBuffer tiff, int base, Fields fields) {
+        int order = tiff.getShort(base) & 0xFFFF;
+        if (order == 0x4949) tiff.order(ByteOrder.LITTLE_ENDIAN);
+        else if (order == 0x4D4D) tiff.order(ByteOrder.BIG_ENDIAN);
+        else return;
+        if ((tiff.getShort(base + 2) & 0xFFFF) != 42) return;
+        long exifDirectory = readDirectory(tiff, base, tiff.getInt(base + 4) & 0xFFFFFFFFL,
+                fields, false);
+        if (exifDirectory > 0) readDirectory(tiff, base, exifDirectory, fields, true);
+    }
+
+    /**
+     * Helper method that reads the entries of one TIFF directory
+     *
+     * @param tiff    - The TIFF structure
+     * @param base    - Where it starts in the buffer
+     * @param offset  - Where the directory is, from the start of the TIFF structure
+     * @param fields  - Where to put what is found
+     * @param isExif  - Whether this is the EXIF directory (which has the original capture time)
+     * @return - The offset of the EXIF directory if this directory points to one, otherwise 0
+     */
+    private static long readDirectory(ByteBuffer tiff, int base, long offset, Fields fields,
+                                      boolean isExif) {
+        long start = base + offset;
+        if (offset <= 0 || start + 2 > tiff.limit()) return 0;
+        int count = tiff.getShort((int) start) & 0xFFFF;
+        long exif = 0;
+        for (int i = 0; i < count; i++) {
+            int entry = (int) start + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) break;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2) & 0xFFFF;
+            long values = tiff.getInt(entry + 4) & 0xFFFFFFFFL;
+            switch (tag) {
+                case TAG_ORIENTATION:
+                    if (type == TYPE_SHORT) fields.orientation = tiff.getShort(entry + 8) & 0xFFFF;
+                    break;
+                case TAG_MAKE:
+                    fields.make = readAscii(tiff, base, entry, type, values);
+                    break;
+                case TAG_MODEL:
+                    fields.model = readAscii(tiff, base, entry, type, values);
+                    break;
+                case TAG_DATE_TIME:
+                    // when the file was last edited - only used if nothing better turns up
+                    if (fields.captureTime == Metadata.UNKNOWN) {
+                        fields.captureTime = parseDate(readAscii(tiff, base, entry, type, values));
+                    }
+                    break;
+                case TAG_DATE_TIME_ORIGINAL:
+                    if (isExif) {
+                        long time = parseDate(readAscii(tiff, base, entry, type, values));
+                        if (time != Metadata.UNKNOWN) fields.captureTime = time;
+                    }
+                    break;
+                case TAG_EXIF_IFD:
+                    if (type == TYPE_LONG) exif = tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+                    break;
+                default:
+            }
+        }
+        return exif;
+    }
+
+    /**
+     * Helper method that reads a text entry, which is stored in the entry itself if it is short
+     * enough and elsewhere in the structure otherwise
+     *
+     * @return - The text without the terminating zero, or an empty string if it can't be read
+     */
+    private static String readAscii(ByteBuffer tiff, int base, int entry, int type, long length) {
+        if (type != TYPE_ASCII || length == 0 || length > 256) return "";
+        long start = length <= 4 ? entry + 8 : base + (tiff.getInt(entry + 8) & 0xFFFFFFFFL);
+        if (start + length > tiff.limit()) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            char c = (char) (tiff.get((int) start + i) & 0xFF);
+            if (c == 0) break;
+            sb.append(c);
+        }
+        // kept to one line so it can go in the cache file
+        return sb.toString().trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Helper method that fills in anything the EXIF segment didn't have from an XMP packet
+     *
+     * @param xmp    - The XMP packet
+     * @param fields - Where to put what is found
+     */
+    private static void parseXmp(String xmp, Fields fields) {
+        Matcher matcher = XMP_DATE.matcher(xmp);
+        if (fields.captureTime == Metadata.UNKNOWN && matcher.find()) {
+            fields.captureTime = parseDate(value(matcher));
+        }
+        matcher = XMP_ORIENTATION.matcher(xmp);
+        if (fields.orientation == 1 && matcher.find()) {
+            try {
+                fields.orientation = Integer.parseInt(value(matcher).trim());
+            } catch (NumberFormatException e) {
+                // leave it the right way up
+            }
+        }
+        matcher = XMP_MAKE.matcher(xmp);
+        if (fields.make.isEmpty() && matcher.find()) fields.make = value(matcher).trim();
+        matcher = XMP_MODEL.matcher(xmp);
+        if (fields.model.isEmpty() && matcher.find()) fields.model = value(matcher).trim();
+    }
+
+    /**
+     * Helper method that parses an EXIF ("2021:06:30 14:05:09") or XMP ("2021-06-30T14:05:09")
+     * date. Time zones are ignored since every photo from a camera uses the same one
+     *
+     * @param date - The date
+     * @return - The time in milliseconds, or Metadata.UNKNOWN if it isn't a date
+     */
+    private static long parseDate(String date) {
+        if (date.length() < 16) return Metadata.UNKNOWN;
+        String iso = date.substring(0, 10).replace(':', '-') + 'T' + date.substring(11,
+                Math.min(19, date.length()));
+        // dates with minutes but no seconds
+        if (iso.length() == 16) iso += ":00";
+        try {
+            return LocalDateTime.parse(iso).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Metadata.UNKNOWN;
+        }
+    }
+
+    private static Pattern xmpProperty(String name) {
+        return Pattern.compile(name + "(?:=\"([^\"]*)\"|>([^<]*)<)");
+    }
+
+    private static String value(Matcher matcher) {
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(start + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer copy = buffer.duplicate();
+        copy.position(start);
+        copy.limit(end);
+        return copy.slice();
+    }
+
+    /**
+     * What has been found so far while reading a file
+     */
+    private static class Fields {
+        long captureTime = Metadata.UNKNOWN;
+        int orientation = 1;
+        String make = "";
+        String model = "";
+    }
+
+    /**
+     * The metadata of one photo
+     */
+    static final class Metadata {
+        // a capture time that isn't known
+        static final long UNKNOWN = Long.MIN_VALUE;
+
+        private final long modified;
+        private final long captureTime;
+        private final int orientation;
+        private final String make;
+        private final String model;
+
+        private Metadata(long modified, long captureTime, int orientation, String make,
+                         String model) {
+            this.modified = modified;
+            this.captureTime = captureTime;
+            this.orientation = orientation < 1 || orientation > 8 ? 1 : orientation;
+            this.make = make;
+            this.model = model;
+        }
+
+        /**
+         * @return - When the photo was taken in milliseconds, or UNKNOWN
+         */
+        long getCaptureTime() {
+            return captureTime;
+        }
+
+        /**
+         * @return - The EXIF orientation, from 1 (the right way up) to 8
+         */
+        int getOrientation() {
+            return orientation;
+        }
+
+        /**
+         * @return - The make and model of the camera, or an empty string if unknown
+         */
+        String getCamera() {
+            if (model.startsWith(make)) return model;
+            return (make + ' ' + model).trim();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("taken %s, orientation %d, camera %s",
+                    captureTime == UNKNOWN ? "unknown" :
+                            LocalDateTime.ofEpochSecond(captureTime / 1000, 0, ZoneOffset.UTC),
+                    orientation, getCamera().isEmpty() ? "unknown" : getCamera());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package photoBracket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The photos a session has saved as favorites. Each line of the file is the content hash of a
+ * photo, a tab and where the photo was when it was saved, so saving the same photo again from
+ * somewhere else (a copy, or the file after it was moved) updates the line rather than adding a
+ * second one. Files written before hashes were saved have just the path on each line; these are
+ * still read and are given a hash the next time favorites are saved
+ */
+class Favorites {
+
+    private static final char SEPARATOR = '\t';
+
+    private final File file;
+
+    /**
+     * Constructs the favorites stored in a file
+     *
+     * @param file - The file (it is created when favorites are first saved)
+     */
+    Favorites(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return - The paths of every favorite, in the order they were saved
+     * @throws IOException - If the file can't be read
+     */
+    List<String> getPaths() throws IOException {
+        return new ArrayList<>(read().values());
+    }
+
+    /**
+     * Saves images as favorites. Images that are already favorites (even at a different path)
+     * are not added twice - their path is updated instead
+     *
+     * @param images - The images to save
+     * @throws IOException - If the file can't be read or written
+     */
+    void add(Collection<ImageFile> images) throws IOException {
+        Map<String, String> entries = read();
+        for (ImageFile image : images) {
+            String key = keyOf(image);
+            // removed first so a favorite saved again moves to the end
+            entries.remove(key);
+            entries.put(key, image.getAbsolutePath());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            // favorites that couldn't be hashed are written the old way
+            if (!entry.getKey().equals(entry.getValue())) sb.append(entry.getKey()).append(SEPARATOR);
+            sb.append(entry.getValue()).append('\n');
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = new File(dir, file.getName() + ".tmp");
+        Files.write(temp.toPath(), sb.toString().getBytes());
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes every favorite
+     *
+     * @throws IOException - If the file can't be written
+     */
+    void clear() throws IOException {
+        Files.write(file.toPath(), new byte[0]);
+    }
+
+    /**
+     * Helper method that reads the file
+     *
+     * @return - The content hash (or the path, for favorites without one) of each favorite mapped
+     * to its path, in the order they were saved
+     * @throws IOException - If the file can't be read
+     */
+    private Map<String, String> read() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        if (!file.isFile()) return entries;
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (line.isEmpty()) continue;
+            int separator = line.indexOf(SEPARATOR);
+            if (separator < 0) {
+                // an old style line with just the path
+                entries.put(keyOf(new ImageFile(line)), line);
+            } else {
+                entries.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Helper method that finds the key an image is stored under
+     *
+     * @param image - The image
+     * @return - Its content hash in hex, or its path if it can't be read
+     */
+    private static String keyOf(ImageFile image) {
+        try {
+            return String.format("%016x", image.getContentHash());
+        } catch (IOException e) {
+            return image.getAbsolutePath();
+        }
+    }
+}
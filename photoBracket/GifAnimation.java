@@ -0,0 +1,264 @@
+package photoBracket;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * The frames of an animated GIF, for playing in a PicturePanel. Nothing is decoded until a frame
+ * is asked for, and then only the next frame in the file is decoded (in the background), drawn
+ * onto the picture the frames before it left behind and scaled to the size it is shown at. Scaled
+ * frames are kept, so once the animation has played through once the file is closed and looping
+ * it again only costs a copy per frame. An animation whose scaled frames would take more than
+ * MAX_BYTES stops at the frames it has and reports itself as stopped
+ */
+class GifAnimation {
+
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+    // browsers show frames with no delay (or one of 1/100 s) for 1/10 s, and so do we
+    private static final int MIN_DELAY = 2;
+    private static final int DEFAULT_DELAY = 10;
+
+    // one thread is shared by every animation since only the ones on screen ever decode
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "GIF player");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ImageFile file;
+    private final Dimension size;
+    private final List<Frame> frames;
+    // the number of frames in the file, or -1 until the end has been reached
+    private int frameCount;
+    private boolean decoding;
+    private boolean stopped;
+    private long bytes;
+    // only touched on the decoding thread
+    private ImageInputStream input;
+    private ImageReader reader;
+    private BufferedImage canvas;
+    private Dimension screen;
+    // the part of the canvas the last frame covered and what to do with it before the next one
+    private Rectangle lastBounds;
+    private String lastDisposal;
+    private BufferedImage beforeLast;
+
+    /**
+     * Constructs the animation. Nothing is read until getFrame() is called
+     *
+     * @param file - The GIF
+     * @param size - The size the frames are shown at
+     */
+    GifAnimation(ImageFile file, Dimension size) {
+        this.file = file;
+        this.size = size;
+        frames = new ArrayList<>();
+        frameCount = -1;
+    }
+
+    /**
+     * Gets a frame. If it hasn't been decoded yet the next frame is decoded in the background
+     *
+     * @param index   - The number of the frame, counting from 0
+     * @param onReady - Called on the event dispatch thread once the next frame has been decoded,
+     *                the end of the file has been found or the animation has stopped
+     * @return - The frame or null if it isn't decoded yet (or doesn't exist)
+     */
+    synchronized Frame getFrame(int index, Runnable onReady) {
+        if (index < frames.size()) return frames.get(index);
+        if (decoding || stopped || frameCount >= 0) return null;
+        decoding = true;
+        EXECUTOR.execute(() -> {
+            decodeNext();
+            SwingUtilities.invokeLater(onReady);
+        });
+        return null;
+    }
+
+    /**
+     * @return - The number of frames, or -1 if the end of the file hasn't been reached yet
+     */
+    synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return - True if no more frames will be decoded because the file couldn't be read, the
+     * frames wouldn't fit in memory or the animation was closed
+     */
+    synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Stops the animation and hands its frames back to the RasterPool. The frames must no longer
+     * be on screen
+     */
+    void close() {
+        synchronized (this) {
+            stopped = true;
+        }
+        // the reader is only ever used on the decoding thread, so it is closed there too
+        EXECUTOR.execute(() -> {
+            closeFile();
+            List<Frame> closed;
+            synchronized (this) {
+                closed = new ArrayList<>(frames);
+                frames.clear();
+            }
+            for (Frame frame : closed) RasterPool.getInstance().release(frame.image);
+        });
+    }
+
+    /**
+     * Helper method that decodes the frame after the last one that was decoded. Runs on the
+     * decoding thread
+     */
+    private void decodeNext() {
+        int index;
+        synchronized (this) {
+            if (stopped) return;
+            index = frames.size();
+        }
+        try {
+            if (reader == null) open();
+            IIOMetadata metadata;
+            BufferedImage image;
+            try {
+                metadata = reader.getImageMetadata(index);
+                image = reader.read(index);
+            } catch (IndexOutOfBoundsException e) {
+                synchronized (this) {
+                    frameCount = index;
+                    decoding = false;
+                }
+                closeFile();
+                return;
+            }
+            int delay = GifDecoder.getDelay(metadata);
+            Frame frame = new Frame(compose(image, metadata),
+                    (delay < MIN_DELAY ? DEFAULT_DELAY : delay) * 10);
+            synchronized (this) {
+                bytes += (long) size.width * size.height * 4;
+                if (bytes > MAX_BYTES) {
+                    Logger.getLogger(getClass().getName()).info("Not playing " + file
+                            + " since its frames take too much memory");
+                    stopped = true;
+                    RasterPool.getInstance().release(frame.image);
+                } else {
+                    frames.add(frame);
+                }
+                decoding = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to play " + file + ": " + e);
+            synchronized (this) {
+                stopped = true;
+                decoding = false;
+            }
+            closeFile();
+        }
+    }
+
+    /**
+     * Helper method that opens the file and makes the canvas the frames are drawn onto
+     *
+     * @throws IOException - If the file can't be read
+     */
+    private void open() throws IOException {
+        input = ImageIO.createImageInputStream(file);
+        reader = GifDecoder.createReader();
+        if (input == null || reader == null) throw new IOException("Can't read " + file);
+        // frames are only read in order, so the input never has to seek back
+        reader.setInput(input, true, false);
+        screen = GifDecoder.getScreenSize(reader, GifDecoder.getFrameBounds(
+                reader.getImageMetadata(0)));
+        canvas = new BufferedImage(screen.width, screen.height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Helper method that draws a frame onto what the frames before it left behind and scales the
+     * result
+     *
+     * @param image    - The frame as the reader returned it
+     * @param metadata - The frame's metadata
+     * @return - The picture as it looks while the frame is shown, scaled to size
+     */
+    private BufferedImage compose(BufferedImage image, IIOMetadata metadata) {
+        Graphics2D g = canvas.createGraphics();
+        // the last frame is taken away the way it asked to be
+        if ("restoreToBackgroundColor".equals(lastDisposal)) {
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(lastBounds.x, lastBounds.y, lastBounds.width, lastBounds.height);
+        } else if ("restoreToPrevious".equals(lastDisposal) && beforeLast != null) {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(beforeLast, 0, 0, null);
+        }
+        Rectangle bounds = GifDecoder.getFrameBounds(metadata);
+        String disposal = GifDecoder.getDisposal(metadata);
+        if ("restoreToPrevious".equals(disposal)) {
+            if (beforeLast == null) {
+                beforeLast = new BufferedImage(screen.width, screen.height,
+                        BufferedImage.TYPE_INT_ARGB);
+            }
+            Graphics2D copy = beforeLast.createGraphics();
+            copy.setComposite(AlphaComposite.Src);
+            copy.drawImage(canvas, 0, 0, null);
+            copy.dispose();
+        }
+        // transparent pixels in the frame let the picture underneath show through
+        g.setComposite(AlphaComposite.SrcOver);
+        g.drawImage(image, bounds.x, bounds.y, null);
+        g.dispose();
+        lastBounds = bounds;
+        lastDisposal = disposal;
+        return ImageFile.scale(canvas, size.width, size.height);
+    }
+
+    /**
+     * Helper method that closes the file once every frame has been decoded (or playing stops)
+     */
+    private void closeFile() {
+        if (reader != null) reader.dispose();
+        reader = null;
+        try {
+            if (input != null) input.close();
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).fine("Unable to close " + file + ": " + e);
+        }
+        input = null;
+        canvas = null;
+        beforeLast = null;
+    }
+
+    /**
+     * One frame of the animation, scaled to size
+     */
+    static final class Frame {
+        final BufferedImage image;
+        // how long the frame is shown for, in milliseconds
+        final int delay;
+
+        /**
+         * Constructs the frame
+         *
+         * @param image - The picture while the frame is shown
+         * @param delay - How long it is shown for in milliseconds
+         */
+        Frame(BufferedImage image, int delay) {
+            this.image = image;
+            this.delay = delay;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package photoBracket;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the first frame of a GIF, which is the frame that is compared. Only that frame is read
+ * (ImageReader.read(0) with the input only seeking forward), however many frames come after it.
+ * ImageIO hands back a frame at its own size, but a GIF frame can be smaller than the picture and
+ * placed anywhere on it, so a frame that doesn't cover the whole picture is drawn onto a
+ * transparent image of the full size at its offset. Animations are only played by a PicturePanel
+ * when asked to (see GifAnimation)
+ */
+class GifDecoder implements ImageDecoder {
+
+    private static final String STREAM_FORMAT = "javax_imageio_gif_stream_1.0";
+    private static final String IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+
+    @Override
+    public String getName() {
+        return "gif";
+    }
+
+    /**
+     * @param header - The start of the file
+     * @return - True if it starts with the GIF87a or GIF89a signature
+     */
+    @Override
+    public boolean canDecode(byte[] header) {
+        return header.length >= 6 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F'
+                && header[3] == '8' && (header[4] == '7' || header[4] == '9') && header[5] == 'a';
+    }
+
+    @Override
+    public BufferedImage decode(File file, Dimension fit, Consumer<BufferedImage> progress)
+            throws IOException {
+        if (!file.canRead()) throw new IIOException("Can't read input file!");
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) throw new IIOException("Can't create an ImageInputStream!");
+            ImageReader reader = createReader();
+            if (reader == null) return null;
+            try {
+                // metadata isn't ignored since it says where the frame goes
+                reader.setInput(input, true, false);
+                Rectangle bounds = getFrameBounds(reader.getImageMetadata(0));
+                Dimension screen = getScreenSize(reader, bounds);
+                boolean covers = bounds.x == 0 && bounds.y == 0 && bounds.width == screen.width
+                        && bounds.height == screen.height;
+                // a frame drawn onto a bigger picture only shows up once it's finished
+                if (covers && progress != null) {
+                    reader.addIIOReadUpdateListener(new ImageIODecoder.Progress(progress));
+                }
+                DecodeToken token = DecodeToken.current();
+                reader.addIIOReadProgressListener(token.abortListener());
+                BufferedImage frame = reader.read(0);
+                // an aborted read returns what it had so far
+                token.check();
+                if (covers) return frame;
+                BufferedImage picture = RasterPool.getInstance().acquire(screen.width,
+                        screen.height, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = picture.createGraphics();
+                // Src clears whatever was left in the pooled image
+                g.setComposite(AlphaComposite.Src);
+                g.setColor(new Color(0, true));
+                g.fillRect(0, 0, screen.width, screen.height);
+                g.drawImage(frame, bounds.x, bounds.y, null);
+                g.dispose();
+                return picture;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return - A new ImageIO reader for GIFs or null if there isn't one installed
+     */
+    static ImageReader createReader() {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("gif");
+        return readers.hasNext() ? readers.next() : null;
+    }
+
+    /**
+     * Reads the size of the whole picture (the GIF's logical screen). Some files claim a screen
+     * smaller than their frames, in which case it is grown to fit the frame
+     *
+     * @param reader - A reader that has its input
+     * @param frame  - Where the first frame goes (see getFrameBounds())
+     * @return - The size of the picture
+     * @throws IOException - If the header can't be read
+     */
+    static Dimension getScreenSize(ImageReader reader, Rectangle frame) throws IOException {
+        IIOMetadata metadata = reader.getStreamMetadata();
+        Element screen = metadata == null ? null : find(metadata.getAsTree(STREAM_FORMAT),
+                "LogicalScreenDescriptor");
+        int width = getInt(screen, "logicalScreenWidth", 0);
+        int height = getInt(screen, "logicalScreenHeight", 0);
+        return new Dimension(Math.max(width, frame.x + frame.width),
+                Math.max(height, frame.y + frame.height));
+    }
+
+    /**
+     * Reads where a frame goes on the picture
+     *
+     * @param metadata - The frame's metadata
+     * @return - The frame's position and size
+     */
+    static Rectangle getFrameBounds(IIOMetadata metadata) {
+        Element descriptor = find(metadata.getAsTree(IMAGE_FORMAT), "ImageDescriptor");
+        return new Rectangle(getInt(descriptor, "imageLeftPosition", 0),
+                getInt(descriptor, "imageTopPosition", 0), getInt(descriptor, "imageWidth", 0),
+                getInt(descriptor, "imageHeight", 0));
+    }
+
+    /**
+     * Reads what should happen to a frame once its time is up
+     *
+     * @param metadata - The frame's metadata
+     * @return - One of "none", "doNotDispose", "restoreToBackgroundColor" or "restoreToPrevious"
+     */
+    static String getDisposal(IIOMetadata metadata) {
+        Element control = find(metadata.getAsTree(IMAGE_FORMAT), "GraphicControlExtension");
+        return control == null ? "none" : control.getAttribute("disposalMethod");
+    }
+
+    /**
+     * Reads how long a frame is shown for
+     *
+     * @param metadata - The frame's metadata
+     * @return - The delay in hundredths of a second, or 0 if the file doesn't give one
+     */
+    static int getDelay(IIOMetadata metadata) {
+        return getInt(find(metadata.getAsTree(IMAGE_FORMAT), "GraphicControlExtension"),
+                "delayTime", 0);
+    }
+
+    /**
+     * Helper method that finds a child of a metadata tree by name
+     *
+     * @param root - The root of the tree
+     * @param name - The name of the child
+     * @return - The child or null if there isn't one
+     */
+    private static Element find(Node root, String name) {
+        NodeList children = root.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeName().equals(name)) return (Element) children.item(i);
+        }
+        return null;
+    }
+
+    /**
+     * Helper method that reads a whole number from a metadata node
+     *
+     * @param node         - The node or null
+     * @param name         - The name of the attribute
+     * @param defaultValue - What to return if the node or attribute is missing
+     * @return - The attribute's value
+     */
+    private static int getInt(Element node, String name, int defaultValue) {
+        if (node == null || !node.hasAttribute(name)) return defaultValue;
+        try {
+            return Integer.parseInt(node.getAttribute(name));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
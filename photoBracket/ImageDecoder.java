@@ -0,0 +1,194 @@
+package photoBracket;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Turns an image file into pixels. ImageFile doesn't talk to a decoder directly but goes through
+ * read(), which tries each installed decoder that recognizes the start of the file until one of
+ * them manages to decode it. A decoder that doesn't support something about a file (a JPEG
+ * feature it doesn't implement, for example) returns null and the next one gets a go, so the
+ * ImageIO decoder at the end of the list catches anything the others can't handle.
+ * <p>
+ * The decoders are chosen when the app starts with the photoBracket.decoders system property, a
+ * comma separated list of names in the order they are tried (see getName()). The default is
+ * "jpeg,webp,gif,imageio"; -DphotoBracket.decoders=imageio goes back to decoding everything with
+ * ImageIO (which can't read WebP files, so those are then skipped like any unreadable file)
+ */
+interface ImageDecoder {
+
+    // the number of bytes at the start of a file that canDecode() gets to look at
+    int HEADER_SIZE = 16;
+
+    /**
+     * @return - The name used to pick the decoder in the photoBracket.decoders property
+     */
+    String getName();
+
+    /**
+     * Checks whether the decoder understands a file, going by its first few bytes
+     *
+     * @param header - Up to HEADER_SIZE bytes from the start of the file (fewer if the file is
+     *               shorter)
+     * @return - True if decode() should be tried
+     */
+    boolean canDecode(byte[] header);
+
+    /**
+     * Decodes a file. If a size to fit is given the decoder may return a smaller image than the
+     * file, as long as it is still at least as big as the image will be once it is shrunk to fit
+     * (which is what makes previews cheap)
+     *
+     * @param file     - The file to decode
+     * @param fit      - The size the image will be shown at, or null for the full size
+     * @param progress - Receives the image being decoded whenever more of it is ready. Can be
+     *                 null
+     * @return - The decoded image (which may come from the RasterPool) or null if this decoder
+     * can't decode this particular file
+     * @throws IOException - If the file can't be read or is corrupted, or an
+     *                     InterruptedIOException if the current DecodeToken was cancelled
+     */
+    BufferedImage decode(File file, Dimension fit, Consumer<BufferedImage> progress)
+            throws IOException;
+
+    /**
+     * Decodes a file with the first installed decoder that can. If a decoder fails the next one
+     * is tried, so a file is only reported as corrupted if none of them can read it. A decode
+     * that is cancelled (see DecodeToken) isn't handed on to the next decoder
+     *
+     * @param file     - The file to decode
+     * @param fit      - The size the image will be shown at, or null for the full size
+     * @param progress - Receives the image being decoded whenever more of it is ready. Can be
+     *                 null
+     * @return - The decoded image or null if no decoder understands the file
+     * @throws IOException - If the file can't be read or every decoder that tried failed, or an
+     *                     InterruptedIOException if the decode was cancelled
+     */
+    static BufferedImage read(File file, Dimension fit, Consumer<BufferedImage> progress)
+            throws IOException {
+        DecodeToken token = DecodeToken.current();
+        token.check();
+        byte[] header = readHeader(file);
+        IOException failure = null;
+        for (ImageDecoder decoder : Installed.DECODERS) {
+            if (!decoder.canDecode(header)) continue;
+            try {
+                BufferedImage image = decoder.decode(file, fit, progress);
+                if (image != null) return image;
+            } catch (IOException | RuntimeException e) {
+                // an interrupt can also surface as some other exception from the channel
+                if (token.isCancelled()) {
+                    throw e instanceof InterruptedIOException ? (InterruptedIOException) e :
+                            new InterruptedIOException("Decode cancelled");
+                }
+                Logger.getLogger(ImageDecoder.class.getName()).fine(decoder.getName()
+                        + " couldn't decode " + file + ": " + e);
+                if (failure == null) {
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+            }
+        }
+        if (failure != null) throw failure;
+        return null;
+    }
+
+    /**
+     * Reads the start of a file for canDecode()
+     *
+     * @param file - The file
+     * @return - Up to HEADER_SIZE bytes from the start of the file
+     * @throws IOException - If the file can't be read
+     */
+    static byte[] readHeader(File file) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        try (InputStream input = new FileInputStream(file)) {
+            int count;
+            while (length < header.length
+                    && (count = input.read(header, length, header.length - length)) > 0) {
+                length += count;
+            }
+        }
+        return Arrays.copyOf(header, length);
+    }
+
+    /**
+     * Works out how much to shrink an image while decoding it
+     *
+     * @param width  - The width of the image
+     * @param height - The height of the image
+     * @param fit    - The size it will be shown at, or null for the full size
+     * @return - 1, 2, 4 or 8: the largest reduction that still leaves enough pixels to fill fit
+     */
+    static int getReduction(int width, int height, Dimension fit) {
+        if (fit == null || fit.width <= 0 || fit.height <= 0) return 1;
+        double scale = Math.min((double) fit.width / width, (double) fit.height / height);
+        int reduction = 1;
+        while (reduction < 8 && scale * reduction * 2 <= 1) reduction *= 2;
+        return reduction;
+    }
+
+    /**
+     * @return - The installed decoders in the order they are tried
+     */
+    static List<ImageDecoder> getInstalled() {
+        return Installed.DECODERS;
+    }
+
+    /**
+     * Holds the installed decoders so the system property is only read once
+     */
+    final class Installed {
+
+        private static final List<ImageDecoder> DECODERS = install(
+                System.getProperty("photoBracket.decoders", "jpeg,webp,gif,imageio"));
+
+        private Installed() {
+        }
+
+        /**
+         * Helper method that makes the decoders named in a list. ImageIO is always added at the
+         * end if it isn't in the list, so every file ImageIO can read still opens
+         *
+         * @param names - Comma separated decoder names
+         * @return - The decoders, in order
+         */
+        private static List<ImageDecoder> install(String names) {
+            List<ImageDecoder> decoders = new ArrayList<>();
+            boolean imageIO = false;
+            for (String name : names.split(",")) {
+                switch (name.trim().toLowerCase()) {
+                    case "jpeg":
+                        decoders.add(new JpegDecoder());
+                        break;
+                    case "webp":
+                        decoders.add(new WebPDecoder());
+                        break;
+                    case "gif":
+                        decoders.add(new GifDecoder());
+                        break;
+                    case "imageio":
+                        decoders.add(new ImageIODecoder());
+                        imageIO = true;
+                        break;
+                    default:
+                        Logger.getLogger(ImageDecoder.class.getName()).warning(
+                                "Ignoring unknown image decoder " + name);
+                }
+            }
+            if (!imageIO) decoders.add(new ImageIODecoder());
+            return Collections.unmodifiableList(decoders);
+        }
+    }
+}
@@ -1,21 +1,45 @@
 package photoBracket;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A utility class that represents an image file for displaying
  */
 public class ImageFile extends File {
 
+    // how long to wait before showing the first partial image, and then between partial images
+    private static final long FIRST_PREVIEW_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+    private static final long PREVIEW_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(150);
+    // whether decoded pixels should be kept off of the Java heap
+    private static volatile boolean offHeap = false;
+
     private Dimension dimensions;
     private BufferedImage image;
+    // never goes back to the RasterPool, since a panel may still be showing it
     private ImageIcon imageIcon;
+    // only used when offHeap is true - replaces image. It is only ever read while this is locked,
+    // so flush() can hand it back without a panel still drawing from it
+    private OffHeapImage offHeapImage;
     private boolean unreadable;
+    // the EXIF orientation (1 to 8, see getOrientationTransform()), or 0 until it has been read
+    private volatile int orientation;
+    // the size the decoded pixels (in memory or in the SoftImageCache) were decoded to fill, or
+    // null if they are the full size of the file (see ImageDecoder)
+    private Dimension decodedFor;
+    // the file's identity, worked out the first time it's needed (see identify())
+    private volatile boolean identified;
+    // false if the file couldn't be read, in which case the path is its identity
+    private boolean byContent;
+    private long preKey;
 
     /**
      * Constructs a new ImageFile for the provided file path
@@ -52,6 +76,25 @@ public class ImageFile extends File {
         return imageFiles;
     }
 
+    /**
+     * Sets whether images decoded from now on should keep their pixels in off-heap memory instead
+     * of on the Java heap. Off-heap pixels don't count towards the heap so the garbage collector
+     * never has to scan or copy them, but they are slower to draw. Images that are already loaded
+     * keep their current storage until they are flushed
+     *
+     * @param enabled - True to store pixels off-heap, false to store them on the heap
+     */
+    public static void setOffHeapStorage(boolean enabled) {
+        offHeap = enabled;
+    }
+
+    /**
+     * @return - Whether newly decoded images will be stored off-heap
+     */
+    public static boolean isOffHeapStorage() {
+        return offHeap;
+    }
+
     /**
      * Gets an image that can be set to a JPanel/JLabel to display the image
      *
@@ -61,8 +104,23 @@ public class ImageFile extends File {
      * @throws IOException - If there's an error reading the file
      */
     public ImageIcon getIcon(Dimension size) throws IOException {
+        return getIcon(size, null);
+    }
+
+    /**
+     * Gets an image that can be set to a JPanel/JLabel to display the image. If the image has to
+     * be decoded, partially decoded versions (such as the early scans of a progressive JPEG or the
+     * top half of a large PNG) are passed to previews while decoding is still going on
+     *
+     * @param size     - The size of the container the image will be in
+     * @param previews - Receives scaled partial images on the decoding thread. Can be null
+     * @return - The ImageIcon that can be used with JLabel.setIcon() and null if the file is not
+     * an image
+     * @throws IOException - If there's an error reading the file
+     */
+    public ImageIcon getIcon(Dimension size, Consumer<ImageIcon> previews) throws IOException {
         if (dimensions.equals(size)) return imageIcon;
-        load();
+        load(size, previews);
         ImageIcon icon = getScaledIcon(size);
         unreadable = icon == null;
         return icon;
@@ -70,46 +128,162 @@ public class ImageFile extends File {
 
     /**
      * Provides a scaled version of the image but will not load it from disk so it will not throw
-     * any exceptions
+     * any exceptions. The scaled version is turned the right way up (see getOrientation()), so the
+     * rotation only ever touches the small image and is kept along with it
      *
      * @param size - The dimensions the icon should fit within
      * @return - A scaled version of the icon
      */
-    public ImageIcon getScaledIcon(Dimension size) {
+    public synchronized ImageIcon getScaledIcon(Dimension size) {
         if (dimensions.equals(size)) return imageIcon;
-        if (image == null) return null;
+        BufferedImage source = image;
+        OffHeapImage offHeapSource = offHeapImage;
+        // the off-heap pixels are only wrapped in a Raster for as long as it takes to scale them.
+        // The rendition is always a managed heap image, which Java2D can draw quickly and which
+        // stays valid however long a panel keeps showing it
+        if (source == null && offHeapSource != null) source = offHeapSource.toBufferedImage();
+        if (source == null) return null;
         dimensions = size;
-        double scale = getScaleFactorToFit(new Dimension(image.getWidth(), image.getHeight()),
-                size);
-        // height -1 signals that the height should be whatever keeps the aspect ratio
-        return imageIcon =
-                new ImageIcon(image.getScaledInstance((int) (image.getWidth() * scale),
-                        -1, Image.SCALE_SMOOTH));
+        int orientation = getOrientation();
+        double scale = getScaleFactorToFit(new Dimension(source.getWidth(), source.getHeight()),
+                size, orientation);
+        BufferedImage scaled = orient(scale(source, Math.max(1, (int) (source.getWidth() * scale)),
+                Math.max(1, (int) (source.getHeight() * scale))), orientation);
+        // the old rendition is left to the garbage collector rather than pooled, since the
+        // panels showing it only let go of it once they are given the new one
+        return imageIcon = new ImageIcon(scaled);
     }
 
     /**
-     * Clears the image from memory
+     * Clears the image from memory. The decoded image is kept in the SoftImageCache so it can be
+     * reused if it is needed again before the JVM reclaims it. The scaled version is only dropped,
+     * since it may still be on screen
      */
-    public void flush() {
-        if (image != null) image.flush();
+    public synchronized void flush() {
+        if (image != null) SoftImageCache.getInstance().put(this, image);
         image = null;
         imageIcon = null;
+        // off-heap memory is never collected by the GC so it has to be handed back explicitly
+        if (offHeapImage != null) offHeapImage.release();
+        offHeapImage = null;
         dimensions = new Dimension(0, 0);
     }
 
     /**
-     * Loads the image into memory
+     * Loads the full image into memory
      *
      * @throws IOException - If image isn't found
      */
     public void load() throws IOException {
+        load(null, null);
+    }
+
+    /**
+     * Loads the image into memory with enough detail to be shown at a size. The decoder may
+     * decode it smaller than the file to save time (see ImageDecoder), in which case it is
+     * decoded again if it is later needed bigger
+     *
+     * @param size - The size it will be shown at
+     * @throws IOException - If image isn't found
+     */
+    public void load(Dimension size) throws IOException {
+        load(size, null);
+    }
+
+    /**
+     * Loads the image into memory, sending partial images to previews while it decodes
+     *
+     * @param size     - The size it will be shown at (which partial images are scaled to fit),
+     *                 or null for the full size
+     * @param previews - Receives the partial images. Can be null
+     * @throws IOException - If image isn't found
+     */
+    private void load(Dimension size, Consumer<ImageIcon> previews) throws IOException {
         try {
-            if (image == null) image = ImageIO.read(this);
+            // only reads the start of the file, and only the first time
+            if (orientation == 0) orientation = ExifReader.getInstance().read(this).getOrientation();
+            BufferedImage decoded;
+            synchronized (this) {
+                if (image != null || offHeapImage != null) {
+                    if (hasDetailFor(size)) return;
+                    // decoded too small for this size, so it's decoded again
+                    RasterPool.getInstance().release(image);
+                    if (offHeapImage != null) offHeapImage.release();
+                    image = null;
+                    offHeapImage = null;
+                }
+                decoded = SoftImageCache.getInstance().take(this);
+                if (decoded != null && !hasDetailFor(decoded, size)) {
+                    RasterPool.getInstance().release(decoded);
+                    decoded = null;
+                }
+            }
+            Dimension fit = size;
+            if (decoded == null) {
+                // the decoder is asked for the picture as it is stored, which may be on its side
+                if (size != null && isTransposed(getOrientation())) {
+                    fit = new Dimension(size.height, size.width);
+                }
+                decoded = ImageDecoder.read(this, fit, previews == null ? null :
+                        new PreviewUpdater(size, previews, getOrientation()));
+            }
+            synchronized (this) {
+                // an image that still has to be scaled up to fill the size is all there is
+                decodedFor = decoded == null || size == null
+                        || getScaleFactorToFit(sizeOf(decoded), size, getOrientation()) > 1
+                        ? null : size;
+                if (decoded != null && offHeap) {
+                    offHeapImage = OffHeapImage.copyOf(decoded, SlabAllocator.getInstance());
+                    decoded.flush();
+                } else {
+                    image = decoded;
+                }
+            }
+        } catch (InterruptedIOException e) {
+            // cancelled because it is no longer needed, which says nothing about the file
+            throw e;
         } catch (IOException e) {
             unreadable = true;
             throw e;
         }
+    }
 
+    /**
+     * Checks whether the decoded image has enough pixels to be shown at a size, or whether it
+     * was decoded smaller than the file for a smaller size. Never touches the disk
+     *
+     * @param size - The size it will be shown at, or null for the full size
+     * @return - True if the image doesn't need to be decoded again for this size (including when
+     * it hasn't been decoded at all)
+     */
+    synchronized boolean hasDetailFor(Dimension size) {
+        if (image != null) return hasDetailFor(image, size);
+        if (offHeapImage == null || decodedFor == null) return true;
+        if (size == null) return false;
+        return getScaleFactorToFit(new Dimension(offHeapImage.getWidth(),
+                offHeapImage.getHeight()), size, getOrientation()) <= 1;
+    }
+
+    /**
+     * Helper method that checks whether this file's decoded pixels are enough for a size
+     *
+     * @param decoded - The pixels
+     * @param size    - The size they will be shown at, or null for the full size
+     * @return - True if they don't need to be decoded again
+     */
+    private boolean hasDetailFor(BufferedImage decoded, Dimension size) {
+        if (decodedFor == null) return true;
+        return size != null && getScaleFactorToFit(sizeOf(decoded), size, getOrientation()) <= 1;
+    }
+
+    /**
+     * Helper method to get the size of an image
+     *
+     * @param image - The image
+     * @return - Its width and height
+     */
+    private static Dimension sizeOf(BufferedImage image) {
+        return new Dimension(image.getWidth(), image.getHeight());
     }
 
     /**
@@ -122,6 +296,131 @@ public class ImageFile extends File {
         return getAbsolutePath();
     }
 
+    /**
+     * Two ImageFiles are equal if they contain the same bytes, even if they are in different
+     * places. Files that can't be read are only equal to the same path. The first call may read
+     * part of the file to identify it (see ContentHasher), which images put in a bracket have
+     * done on a background thread already. Files with the same pre-key are told apart by their
+     * full hashes where those have been worked out (see ContentHasher.hashCollisions()), and are
+     * equal otherwise: the whole files are never read here, as this is called on the event
+     * dispatch thread
+     *
+     * @param o - The object to compare with
+     * @return - True if o is an ImageFile with the same contents, false otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        // never equal to a plain File, whose hash code is based on its path rather than a pre-key
+        if (!(o instanceof ImageFile)) return false;
+        ImageFile other = (ImageFile) o;
+        identify();
+        other.identify();
+        if (byContent != other.byContent) return false;
+        if (!byContent) return super.equals(o);
+        if (preKey != other.preKey) return false;
+        ContentHasher hasher = ContentHasher.getInstance();
+        Long hash = hasher.peekFullHash(this, preKey);
+        Long otherHash = hasher.peekFullHash(other, preKey);
+        return hash == null || otherHash == null || hash.equals(otherHash);
+    }
+
+    /**
+     * @return - A hash code based on the contents of the file (or its path if it can't be read)
+     */
+    @Override
+    public int hashCode() {
+        identify();
+        return byContent ? Long.hashCode(preKey) : super.hashCode();
+    }
+
+    /**
+     * Gets the hash of the whole file, which stays the same if the file is moved
+     *
+     * @return - The hash
+     * @throws IOException - If the file can't be read
+     */
+    long getContentHash() throws IOException {
+        return ContentHasher.getInstance().getFullHash(this);
+    }
+
+    /**
+     * Helper method that works out what identifies this file the first time it is needed. This
+     * never changes afterwards so the file stays put in any set it has been added to
+     */
+    private void identify() {
+        if (identified) return;
+        // two threads may both work it out, but they get the same answer (and the lock on this
+        // is held while decoding, which hashCode() mustn't wait for)
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    preKey = ContentHasher.getInstance().getPreKey(this);
+                    byContent = true;
+                    break;
+                } catch (IOException e) {
+                    // an interrupt (such as a cancelled prefetch) closes the file part way
+                    // through, which says nothing about it, so it is read again with the
+                    // interrupt held back until the identity is known
+                    boolean cleared = Thread.interrupted();
+                    if (cleared || e instanceof ClosedByInterruptException) {
+                        interrupted = true;
+                        continue;
+                    }
+                    byContent = false;
+                    break;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        identified = true;
+    }
+
+    /**
+     * @return - True if the file is identified by its contents rather than its path (see
+     * equals()), in which case getPreKey() can be used. May read the file the first time
+     */
+    boolean isIdentifiedByContent() {
+        identify();
+        return byContent;
+    }
+
+    /**
+     * @return - The pre-key the file is identified by (see ContentHasher). Only meaningful if
+     * isIdentifiedByContent() returns true
+     */
+    long getPreKey() {
+        identify();
+        return preKey;
+    }
+
+    /**
+     * Gives the file the identity and orientation it had when its session was saved (see
+     * SessionSnapshot), so restoring a session doesn't have to read it. A file that has changed
+     * since keeps its old pre-key until it is loaded again, which only matters if another file
+     * has that pre-key, and then the full hashes decide (and those are checked against the file)
+     *
+     * @param preKey      - The pre-key the file was identified by
+     * @param orientation - Its EXIF orientation, or 0 if it wasn't known
+     */
+    void restore(long preKey, int orientation) {
+        this.preKey = preKey;
+        byContent = true;
+        identified = true;
+        if (orientation >= 1 && orientation <= 8) this.orientation = orientation;
+    }
+
+    /**
+     * @return - The EXIF orientation if it is known without reading the file, or 0 if it isn't
+     */
+    int getKnownOrientation() {
+        if (orientation != 0) return orientation;
+        ExifReader.Metadata metadata = ExifReader.getInstance().peek(this);
+        return metadata == null ? 0 : metadata.getOrientation();
+    }
+
     /**
      * Whether or not the file is unreadable (whether because it doesn't exist or is corrupted or
      * isn't an image or whatever)
@@ -132,6 +431,106 @@ public class ImageFile extends File {
         return unreadable;
     }
 
+    /**
+     * Gets which way up the picture is stored, from its EXIF metadata. Never reads the file, so
+     * this is only known once the picture has been loaded (or its metadata read by the
+     * ExifReader)
+     *
+     * @return - The EXIF orientation from 1 (already the right way up) to 8
+     */
+    int getOrientation() {
+        int known = orientation;
+        if (known != 0) return known;
+        ExifReader.Metadata metadata = ExifReader.getInstance().peek(this);
+        return metadata == null ? 1 : metadata.getOrientation();
+    }
+
+    /**
+     * Helper method that scales an image to the given size. Large reductions are done in steps
+     * of one half, which looks about as good as Image.SCALE_SMOOTH but is much faster, and every
+     * step is drawn into an image from the RasterPool
+     *
+     * @param source - The image to scale
+     * @param width  - The width to scale to
+     * @param height - The height to scale to
+     * @return - A scaled copy of the image that can be released to the RasterPool once unused
+     */
+    static BufferedImage scale(BufferedImage source, int width, int height) {
+        RasterPool pool = RasterPool.getInstance();
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB :
+                BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = currentWidth / 2 >= width ? currentWidth / 2 : width;
+            currentHeight = currentHeight / 2 >= height ? currentHeight / 2 : height;
+            BufferedImage next = pool.acquire(currentWidth, currentHeight, type);
+            Graphics2D g = next.createGraphics();
+            // Src replaces whatever was left in the pooled image, including its alpha
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            g.dispose();
+            if (current != source) pool.release(current);
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    /**
+     * Helper method that turns a scaled image the right way up
+     *
+     * @param scaled      - An image from scale(). It goes back to the RasterPool if it is replaced
+     * @param orientation - The EXIF orientation of the image
+     * @return - The image the right way up, which can be released to the RasterPool once unused
+     */
+    private static BufferedImage orient(BufferedImage scaled, int orientation) {
+        if (orientation <= 1 || orientation > 8) return scaled;
+        RasterPool pool = RasterPool.getInstance();
+        boolean transposed = isTransposed(orientation);
+        BufferedImage turned = pool.acquire(transposed ? scaled.getHeight() : scaled.getWidth(),
+                transposed ? scaled.getWidth() : scaled.getHeight(), scaled.getType());
+        Graphics2D g = turned.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        // every pixel lands exactly on another, so nothing needs to be interpolated
+        g.drawImage(scaled, getOrientationTransform(orientation, scaled.getWidth(),
+                scaled.getHeight()), null);
+        g.dispose();
+        pool.release(scaled);
+        return turned;
+    }
+
+    /**
+     * Helper method that quickly scales a partially decoded image. This is a single bilinear
+     * step, which is a bit rougher than scale() but is fast enough not to hold up the decoder
+     *
+     * @param partial     - The image being decoded
+     * @param size        - The size to fit the preview in
+     * @param orientation - The EXIF orientation of the image
+     * @return - A scaled copy of the image as it is right now, the right way up
+     */
+    private static BufferedImage preview(BufferedImage partial, Dimension size, int orientation) {
+        double scale = getScaleFactorToFit(new Dimension(partial.getWidth(), partial.getHeight()),
+                size, orientation);
+        int width = Math.max(1, (int) (partial.getWidth() * scale));
+        int height = Math.max(1, (int) (partial.getHeight() * scale));
+        boolean transposed = isTransposed(orientation);
+        BufferedImage preview = new BufferedImage(transposed ? height : width,
+                transposed ? width : height, partial.getColorModel().hasAlpha() ?
+                BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = preview.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        // scaled and turned in one go
+        AffineTransform transform = getOrientationTransform(orientation, width, height);
+        transform.scale((double) width / partial.getWidth(), (double) height / partial.getHeight());
+        g.drawImage(partial, transform, null);
+        g.dispose();
+        return preview;
+    }
+
     /**
      * Helper method to get the ratio (current : target) between two numbers
      *
@@ -139,7 +538,7 @@ public class ImageFile extends File {
      * @param target  - The target
      * @return - The amount that current needs to be multiplied by to get target
      */
-    private double getScaleFactor(int current, int target) {
+    private static double getScaleFactor(int current, int target) {
         return (double) target / (double) current;
     }
 
@@ -152,8 +551,109 @@ public class ImageFile extends File {
      * @return - The value that the height and width of current need to be
      * multiplied by to fit current entirely into target
      */
-    private double getScaleFactorToFit(Dimension current, Dimension target) {
+    private static double getScaleFactorToFit(Dimension current, Dimension target) {
         return Math.min(getScaleFactor(current.width, target.width),
                 getScaleFactor(current.height, target.height));
     }
+
+    /**
+     * Determines the appropriate scale factor to fit an image inside the target once it has been
+     * turned the right way up. A portrait photo stored sideways is fitted as a portrait
+     *
+     * @param current     - The dimensions of the image as it is stored
+     * @param target      - The target dimensions
+     * @param orientation - The EXIF orientation of the image
+     * @return - The value that the height and width of current need to be
+     * multiplied by to fit the turned image entirely into target
+     */
+    private static double getScaleFactorToFit(Dimension current, Dimension target,
+                                              int orientation) {
+        if (!isTransposed(orientation)) return getScaleFactorToFit(current, target);
+        return getScaleFactorToFit(new Dimension(current.height, current.width), target);
+    }
+
+    /**
+     * Whether an orientation swaps the width and height of an image
+     *
+     * @param orientation - The EXIF orientation
+     * @return - True if the image is turned a quarter turn (or mirrored across a diagonal)
+     */
+    static boolean isTransposed(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     * Works out the transform that turns an image stored with an EXIF orientation the right way
+     * up. The transformed image starts at (0, 0)
+     *
+     * @param orientation - The EXIF orientation. Anything outside 1 to 8 is left as it is
+     * @param width       - The width of the image as it is stored
+     * @param height      - The height of the image as it is stored
+     * @return - A new transform from stored coordinates to upright coordinates
+     */
+    static AffineTransform getOrientationTransform(int orientation, double width,
+                                                   double height) {
+        switch (orientation) {
+            case 2: // mirrored
+                return new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3: // upside down
+                return new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4: // mirrored upside down
+                return new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5: // mirrored across the diagonal
+                return new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6: // needs a quarter turn clockwise
+                return new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7: // mirrored across the other diagonal
+                return new AffineTransform(0, -1, -1, 0, height, width);
+            case 8: // needs a quarter turn counterclockwise
+                return new AffineTransform(0, -1, 1, 0, 0, width);
+            default:
+                return new AffineTransform();
+        }
+    }
+
+    /**
+     * Receives the image being decoded and passes scaled copies of it along, at most every
+     * PREVIEW_INTERVAL_NANOS so that making previews doesn't slow decoding down much
+     */
+    private static class PreviewUpdater implements Consumer<BufferedImage> {
+
+        private final Dimension size;
+        private final Consumer<ImageIcon> previews;
+        private final int orientation;
+        private final long start;
+        private long lastPreview;
+        private boolean previewed;
+
+        /**
+         * Constructs the updater
+         *
+         * @param size        - The size previews should fit in
+         * @param previews    - Receives the previews
+         * @param orientation - The EXIF orientation of the image
+         */
+        PreviewUpdater(Dimension size, Consumer<ImageIcon> previews, int orientation) {
+            this.size = size;
+            this.previews = previews;
+            this.orientation = orientation;
+            start = System.nanoTime();
+        }
+
+        /**
+         * Sends a preview if enough time has passed since the last one
+         *
+         * @param image - The image being decoded
+         */
+        @Override
+        public void accept(BufferedImage image) {
+            long now = System.nanoTime();
+            if (previewed ? now - lastPreview < PREVIEW_INTERVAL_NANOS :
+                    now - start < FIRST_PREVIEW_NANOS) return;
+            previews.accept(new ImageIcon(preview(image, size, orientation)));
+            previewed = true;
+            // measured after the preview is made so a slow preview doesn't starve the decoder
+            lastPreview = System.nanoTime();
+        }
+    }
 }
@@ -0,0 +1,149 @@
+package photoBracket;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Decodes any format an installed ImageIO reader understands. Works like ImageIO.read() except
+ * the image is decoded into a BufferedImage from the RasterPool when one of the right size and
+ * type is available. Always decodes at full size: ImageIO can only shrink an image by skipping
+ * pixels, which doesn't make decoding any faster and looks worse than scaling afterwards
+ */
+class ImageIODecoder implements ImageDecoder {
+
+    @Override
+    public String getName() {
+        return "imageio";
+    }
+
+    /**
+     * @param header - The start of the file
+     * @return - Always true, ImageIO works out for itself whether it has a reader for the file
+     */
+    @Override
+    public boolean canDecode(byte[] header) {
+        return true;
+    }
+
+    @Override
+    public BufferedImage decode(File file, Dimension fit, Consumer<BufferedImage> progress)
+            throws IOException {
+        if (!file.canRead()) throw new IIOException("Can't read input file!");
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) throw new IIOException("Can't create an ImageInputStream!");
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                BufferedImage destination = pooledDestination(reader);
+                param.setDestination(destination);
+                if (progress != null) reader.addIIOReadUpdateListener(new Progress(progress));
+                DecodeToken token = DecodeToken.current();
+                reader.addIIOReadProgressListener(token.abortListener());
+                try {
+                    BufferedImage image = reader.read(0, param);
+                    // an aborted read returns what it had so far, which goes back to the pool
+                    token.check();
+                    return image;
+                } catch (IOException | RuntimeException e) {
+                    RasterPool.getInstance().release(destination);
+                    throw e;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Helper method that finds a pooled image the reader can decode straight into
+     *
+     * @param reader - The reader that is about to decode the first image in its input
+     * @return - An image from the pool or null if the reader should allocate its own
+     * @throws IOException - If the image header can't be read
+     */
+    private static BufferedImage pooledDestination(ImageReader reader) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) return null;
+        // the first type is the one the reader would have created itself
+        int type = types.next().getBufferedImageType();
+        switch (type) {
+            case BufferedImage.TYPE_CUSTOM:
+            case BufferedImage.TYPE_BYTE_BINARY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                // these depend on the image's own color model (palette), so they can't be shared
+                return null;
+            default:
+                return RasterPool.getInstance().acquire(reader.getWidth(0), reader.getHeight(0),
+                        type);
+        }
+    }
+
+    /**
+     * Listens to an ImageReader and passes the image along whenever a whole pass (or more rows
+     * of a sequential image) has been decoded
+     */
+    static class Progress implements IIOReadUpdateListener {
+
+        private final Consumer<BufferedImage> progress;
+        private boolean lastPass;
+
+        /**
+         * Constructs the listener
+         *
+         * @param progress - Receives the image being decoded
+         */
+        Progress(Consumer<BufferedImage> progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+                                int maxPass, int minX, int minY, int periodX, int periodY,
+                                int[] bands) {
+            lastPass = pass == maxPass;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                                int width, int height, int periodX, int periodY, int[] bands) {
+            // rows from an interlaced pass are spread out, so only whole passes are shown
+            if (periodX == 1 && periodY == 1) progress.accept(theImage);
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+            // the finished image is about to be returned anyway
+            if (!lastPass) progress.accept(theImage);
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+                                         int minPass, int maxPass, int minX, int minY,
+                                         int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX,
+                                    int minY, int width, int height, int periodX, int periodY,
+                                    int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+}
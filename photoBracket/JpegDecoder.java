@@ -0,0 +1,882 @@
+package photoBracket;
+
+import javax.imageio.IIOException;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A JPEG decoder written in plain Java that can shrink the picture while it decodes. A JPEG stores
+ * each 8x8 block of pixels as the coefficients of its cosine transform, and the low frequency
+ * coefficients in the top left corner are all a smaller copy of the block needs: half size only
+ * transforms the top left 4x4 coefficients back, a quarter only the top left 2x2, and an eighth
+ * just uses the average (DC) coefficient without any transform at all. The other coefficients
+ * still have to be read (they're Huffman coded, one after another) but are never transformed,
+ * and the color conversion only runs over the smaller image. A 12 megapixel photo shown in half
+ * a screen is decoded at a quarter or an eighth of its size this way, several times faster than
+ * ImageIO decodes it at full size. At full size ImageIO's native decoder is faster, so apart from
+ * CMYK files (which ImageIO leaves as CMYK) those are left to it.
+ * <p>
+ * Decodes baseline and extended sequential files (8 bit, Huffman coded) with grayscale, YCbCr,
+ * RGB, CMYK or YCCK color, any chroma subsampling and restart markers. CMYK files are converted to
+ * RGB as they're decoded. Progressive, arithmetic coded, lossless and 12 bit files are left to the
+ * next decoder. The file is read through a memory mapping. Thread safe: all of the state of a
+ * decode is kept in a Decoding
+ */
+class JpegDecoder implements ImageDecoder {
+
+    // the order coefficients are stored in, as indexes into an 8x8 block read row by row
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63};
+    // the inverse transform for each block size (1, 2, 4 or 8 pixels across). Entry x * n + u is
+    // how much coefficient u adds to pixel x, with the normalization that makes an n point
+    // transform of the lowest n coefficients a shrunken copy of the 8 point one
+    private static final float[][] IDCT = new float[9][];
+    // where each coefficient (in zigzag order) goes in an n x n block, or -1 if it isn't used
+    private static final int[][] KEPT = new int[9][];
+    // fixed point YCbCr to RGB tables (see convert())
+    private static final int[] CR_RED = new int[256];
+    private static final int[] CB_BLUE = new int[256];
+    private static final int[] CR_GREEN = new int[256];
+    private static final int[] CB_GREEN = new int[256];
+
+    static {
+        for (int n = 1; n <= 8; n <<= 1) {
+            float[] table = new float[n * n];
+            for (int x = 0; x < n; x++) {
+                for (int u = 0; u < n; u++) {
+                    double c = u == 0 ? Math.sqrt(0.5) : 1;
+                    table[x * n + u] = (float) (c / 2 * Math.cos((2 * x + 1) * u * Math.PI
+                            / (2 * n)));
+                }
+            }
+            IDCT[n] = table;
+            int[] kept = new int[64];
+            for (int k = 0; k < 64; k++) {
+                int row = ZIGZAG[k] >> 3;
+                int column = ZIGZAG[k] & 7;
+                kept[k] = row < n && column < n ? row * n + column : -1;
+            }
+            KEPT[n] = kept;
+        }
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            CR_RED[i] = (int) Math.round(1.402 * c);
+            CB_BLUE[i] = (int) Math.round(1.772 * c);
+            CR_GREEN[i] = (int) Math.round(-0.714136 * 65536 * c);
+            CB_GREEN[i] = (int) Math.round(-0.344136 * 65536 * c) + 32768;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "jpeg";
+    }
+
+    @Override
+    public boolean canDecode(byte[] header) {
+        return header.length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8
+                && (header[2] & 0xFF) == 0xFF;
+    }
+
+    @Override
+    public BufferedImage decode(File file, Dimension fit, Consumer<BufferedImage> progress)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Decoding(data, fit, progress).run();
+        }
+    }
+
+    /**
+     * Helper method that keeps a sample in the range of a byte
+     *
+     * @param value - The sample
+     * @return - value clamped to 0 - 255
+     */
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    /**
+     * A Huffman table, with a lookup table for codes of up to LOOKUP_BITS bits (almost all of
+     * them) and the usual JPEG decoding tables for the longer ones
+     */
+    private static final class Huffman {
+        static final int LOOKUP_BITS = 9;
+
+        // (code length << 8) | value, or 0 if the code is longer than LOOKUP_BITS
+        final short[] lookup = new short[1 << LOOKUP_BITS];
+        // the largest code of each length (-1 if there are none)
+        final int[] maxCode = new int[18];
+        // added to a code of each length to find its value
+        final int[] valueOffset = new int[17];
+        final byte[] values;
+
+        /**
+         * Builds the table
+         *
+         * @param counts - The number of codes of each length from 1 to 16 (index 0 unused)
+         * @param values - The values, in order of their codes
+         */
+        Huffman(int[] counts, byte[] values) {
+            this.values = values;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = index - code;
+                for (int i = 0; i < counts[length]; i++) {
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        short entry = (short) ((length << 8) | (values[index] & 0xFF));
+                        Arrays.fill(lookup, code << shift, (code + 1) << shift, entry);
+                    }
+                    code++;
+                    index++;
+                }
+                maxCode[length] = counts[length] == 0 ? -1 : code - 1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * One color channel of the frame
+     */
+    private static final class Component {
+        final int id;
+        final int horizontal;
+        final int vertical;
+        final int quantization;
+        // the size of one of its blocks once it is shrunk. Subsampled channels are shrunk less
+        // where they can be, so they come out at the size of the image (see readFrame())
+        int blockSize;
+        // the channel, shrunk by the reduction, padded to a whole number of MCUs
+        byte[] plane;
+        int stride;
+        int blocksPerLine;
+        int blocksPerColumn;
+        // for each column of the output image, the column of the plane it comes from and the
+        // neighbouring column it is blended with (the same column if there's no blending)
+        int[] columns;
+        int[] neighbours;
+        // channels subsampled by 2 are blended with their neighbours as they're scaled back up,
+        // like libjpeg's "fancy upsampling", instead of being blocky
+        boolean smooth;
+        boolean smoothRows;
+        // the vertical sampling factor of the plane once the block size is taken into account
+        int rowScale;
+        // where the row of the plane for the output row being converted starts, and the row it
+        // is blended with
+        int row;
+        int neighbourRow;
+        // the DC coefficient of the last block, which the next one is relative to
+        int predictor;
+        Huffman dc;
+        Huffman ac;
+
+        Component(int id, int horizontal, int vertical, int quantization) {
+            this.id = id;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+            this.quantization = quantization;
+        }
+    }
+
+    /**
+     * Everything about decoding one file
+     */
+    private static final class Decoding {
+        private final ByteBuffer data;
+        private final int limit;
+        private final Dimension fit;
+        private final Consumer<BufferedImage> progress;
+        private int position;
+
+        private final int[][] quantization = new int[4][];
+        private final Huffman[] dcTables = new Huffman[4];
+        private final Huffman[] acTables = new Huffman[4];
+        private int restartInterval;
+        // the color transform from an Adobe segment, or -1 if there wasn't one
+        private int adobeTransform = -1;
+
+        private int width;
+        private int height;
+        private Component[] components;
+        private int maxHorizontal;
+        private int maxVertical;
+        private int mcusPerLine;
+        private int mcusPerColumn;
+        // the size of a block of a full resolution channel once it is shrunk
+        private int blockSize;
+        private BufferedImage image;
+        private int[] pixels;
+        private int outputWidth;
+        private int outputHeight;
+        // the rows of the output that have been converted to RGB
+        private int convertedRows;
+
+        // the next bits of the entropy coded data, starting at the most significant bit
+        private long bits;
+        private int bitCount;
+        // set once the entropy coded data runs into a marker (after which zeros are read)
+        private boolean atMarker;
+
+        // working space for one block
+        private final float[] coefficients = new float[64];
+        private final float[] rows = new float[64];
+
+        Decoding(ByteBuffer data, Dimension fit, Consumer<BufferedImage> progress) {
+            this.data = data;
+            this.limit = data.limit();
+            this.fit = fit;
+            this.progress = progress;
+        }
+
+        /**
+         * Reads the markers one after another and decodes the scans
+         *
+         * @return - The image, or null if the file uses something this decoder doesn't support
+         * @throws IOException - If the file is corrupted
+         */
+        BufferedImage run() throws IOException {
+            try {
+                if (readShort() != 0xFFD8) throw new IIOException("Not a JPEG file");
+                boolean decoded = false;
+                while (true) {
+                    int marker = nextMarker();
+                    // a file that just stops is shown as far as it got, like ImageIO does
+                    if (marker == -1 || marker == 0xD9) break;
+                    switch (marker) {
+                        case 0xC0:
+                        case 0xC1:
+                            if (!readFrame()) return release();
+                            break;
+                        case 0xC2: case 0xC3: case 0xC5: case 0xC6: case 0xC7: case 0xC9:
+                        case 0xCA: case 0xCB: case 0xCD: case 0xCE: case 0xCF:
+                            // progressive, lossless or arithmetic coded
+                            return release();
+                        case 0xC4:
+                            readHuffmanTables();
+                            break;
+                        case 0xDB:
+                            readQuantizationTables();
+                            break;
+                        case 0xDD:
+                            readShort();
+                            restartInterval = readShort();
+                            break;
+                        case 0xEE:
+                            readAdobe();
+                            break;
+                        case 0xDA:
+                            if (image == null) throw new IIOException("Scan before frame");
+                            if (!readScan()) return release();
+                            decoded = true;
+                            break;
+                        default:
+                            skipSegment();
+                    }
+                }
+                if (!decoded) throw new IIOException("No image data");
+                convert(outputHeight);
+                return image;
+            } catch (IndexOutOfBoundsException e) {
+                // a segment claims to be longer than the file
+                release();
+                throw new IIOException("Truncated JPEG file", e);
+            } catch (IOException | RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+
+        /**
+         * Helper method that hands the output image back to the pool when decoding gives up
+         *
+         * @return - null
+         */
+        private BufferedImage release() {
+            RasterPool.getInstance().release(image);
+            image = null;
+            return null;
+        }
+
+        /**
+         * Reads a start of frame segment and sets up the output image
+         *
+         * @return - False if the frame uses something this decoder doesn't support
+         * @throws IOException - If the frame is corrupted
+         */
+        private boolean readFrame() throws IOException {
+            if (image != null) throw new IIOException("More than one frame");
+            int end = segmentEnd();
+            int precision = readByte();
+            height = readShort();
+            width = readShort();
+            int count = readByte();
+            // a height of 0 is given later in a DNL segment, which hardly anything writes
+            if (precision != 8 || height == 0 || width == 0 || (count != 1 && count != 3
+                    && count != 4)) {
+                return false;
+            }
+            components = new Component[count];
+            for (int i = 0; i < count; i++) {
+                int id = readByte();
+                int sampling = readByte();
+                int table = readByte() & 3;
+                components[i] = new Component(id, Math.max(1, sampling >> 4),
+                        Math.max(1, sampling & 15), table);
+                maxHorizontal = Math.max(maxHorizontal, components[i].horizontal);
+                maxVertical = Math.max(maxVertical, components[i].vertical);
+            }
+            position = end;
+
+            int reduction = ImageDecoder.getReduction(width, height, fit);
+            // at full size ImageIO's native decoder is faster, but it leaves CMYK as CMYK
+            if (reduction == 1 && count != 4) return false;
+            blockSize = 8 / reduction;
+            outputWidth = (width + reduction - 1) / reduction;
+            outputHeight = (height + reduction - 1) / reduction;
+            mcusPerLine = (width + 8 * maxHorizontal - 1) / (8 * maxHorizontal);
+            mcusPerColumn = (height + 8 * maxVertical - 1) / (8 * maxVertical);
+            for (Component component : components) {
+                // like libjpeg, a subsampled channel is scaled back up by transforming more of
+                // its coefficients rather than by upsampling, as far as both directions allow.
+                // Otherwise 4:2:0 chroma at a quarter size would only have half the detail of
+                // the luma, which then shows up in the colors as a ripple
+                int scale = 1;
+                while (blockSize * scale * 2 <= 8
+                        && maxHorizontal % (component.horizontal * scale * 2) == 0
+                        && maxVertical % (component.vertical * scale * 2) == 0) {
+                    scale *= 2;
+                }
+                int horizontal = component.horizontal * scale;
+                int vertical = component.vertical * scale;
+                component.blockSize = blockSize * scale;
+                component.blocksPerLine = mcusPerLine * component.horizontal;
+                component.blocksPerColumn = mcusPerColumn * component.vertical;
+                component.stride = component.blocksPerLine * component.blockSize;
+                component.plane = new byte[component.stride * component.blocksPerColumn
+                        * component.blockSize];
+                component.rowScale = vertical;
+                boolean smoothColumns = maxHorizontal == 2 * horizontal;
+                component.smoothRows = maxVertical == 2 * vertical;
+                component.smooth = smoothColumns || component.smoothRows;
+                component.columns = new int[outputWidth];
+                component.neighbours = new int[outputWidth];
+                for (int x = 0; x < outputWidth; x++) {
+                    int column = x * horizontal / maxHorizontal;
+                    component.columns[x] = column;
+                    // the left half of a stretched sample leans towards the one on its left
+                    component.neighbours[x] = !smoothColumns ? column : Math.max(0,
+                            Math.min(component.stride - 1, x % 2 == 0 ? column - 1 : column + 1));
+                }
+            }
+            image = RasterPool.getInstance().acquire(outputWidth, outputHeight,
+                    BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            return true;
+        }
+
+        /**
+         * Reads a define Huffman tables segment
+         */
+        private void readHuffmanTables() {
+            int end = segmentEnd();
+            while (position < end) {
+                int info = readByte();
+                int[] counts = new int[17];
+                int total = 0;
+                for (int length = 1; length <= 16; length++) {
+                    counts[length] = readByte();
+                    total += counts[length];
+                }
+                byte[] values = new byte[total];
+                for (int i = 0; i < total; i++) values[i] = (byte) readByte();
+                Huffman table = new Huffman(counts, values);
+                if ((info >> 4) == 0) dcTables[info & 3] = table;
+                else acTables[info & 3] = table;
+            }
+            position = end;
+        }
+
+        /**
+         * Reads a define quantization tables segment. The tables are kept in zigzag order, like
+         * the coefficients they multiply
+         */
+        private void readQuantizationTables() {
+            int end = segmentEnd();
+            while (position < end) {
+                int info = readByte();
+                int[] table = new int[64];
+                for (int k = 0; k < 64; k++) {
+                    table[k] = (info >> 4) == 0 ? readByte() : readShort();
+                }
+                quantization[info & 3] = table;
+            }
+            position = end;
+        }
+
+        /**
+         * Reads an Adobe segment, which says how the color of a 3 or 4 channel image is stored
+         */
+        private void readAdobe() {
+            int end = segmentEnd();
+            if (end - position >= 12 && data.get(position) == 'A' && data.get(position + 1) == 'd'
+                    && data.get(position + 2) == 'o' && data.get(position + 3) == 'b'
+                    && data.get(position + 4) == 'e') {
+                adobeTransform = data.get(position + 11) & 0xFF;
+            }
+            position = end;
+        }
+
+        /**
+         * Reads a start of scan segment and decodes the scan that follows it
+         *
+         * @return - False if the scan uses something this decoder doesn't support
+         * @throws IOException - If the scan is corrupted
+         */
+        private boolean readScan() throws IOException {
+            int end = segmentEnd();
+            int count = readByte();
+            Component[] scan = new Component[count];
+            for (int i = 0; i < count; i++) {
+                int id = readByte();
+                int tables = readByte();
+                for (Component component : components) {
+                    if (component.id == id) scan[i] = component;
+                }
+                if (scan[i] == null) throw new IIOException("Scan of an unknown component");
+                scan[i].dc = dcTables[tables >> 4 & 3];
+                scan[i].ac = acTables[tables & 3];
+                if (scan[i].dc == null || scan[i].ac == null
+                        || quantization[scan[i].quantization] == null) {
+                    throw new IIOException("Missing table");
+                }
+            }
+            int spectralStart = readByte();
+            int spectralEnd = readByte();
+            // anything else would be a progressive scan
+            if (spectralStart != 0 || spectralEnd != 63) return false;
+            position = end;
+            decodeScan(scan);
+            return true;
+        }
+
+        /**
+         * Decodes the entropy coded data of a scan into the planes of its components. The
+         * DecodeToken is checked once per row of blocks
+         *
+         * @param scan - The components in the scan
+         * @throws InterruptedIOException - If the decode is cancelled
+         */
+        private void decodeScan(Component[] scan) throws InterruptedIOException {
+            DecodeToken token = DecodeToken.current();
+            bits = 0;
+            bitCount = 0;
+            atMarker = false;
+            for (Component component : scan) component.predictor = 0;
+            int restarts = 0;
+            if (scan.length == 1) {
+                // a scan of one channel goes through its blocks in order, skipping the padding
+                Component component = scan[0];
+                int blocksPerLine = ((width * component.horizontal + maxHorizontal - 1)
+                        / maxHorizontal + 7) / 8;
+                int blocksPerColumn = ((height * component.vertical + maxVertical - 1)
+                        / maxVertical + 7) / 8;
+                for (int row = 0; row < blocksPerColumn; row++) {
+                    token.check();
+                    for (int column = 0; column < blocksPerLine; column++) {
+                        if (restartInterval > 0 && restarts == restartInterval) {
+                            restart(scan);
+                            restarts = 0;
+                        }
+                        decodeBlock(component, row, column);
+                        restarts++;
+                    }
+                }
+                return;
+            }
+            boolean everything = scan.length == components.length;
+            for (int mcuRow = 0; mcuRow < mcusPerColumn; mcuRow++) {
+                token.check();
+                for (int mcu = 0; mcu < mcusPerLine; mcu++) {
+                    if (restartInterval > 0 && restarts == restartInterval) {
+                        restart(scan);
+                        restarts = 0;
+                    }
+                    for (Component component : scan) {
+                        for (int v = 0; v < component.vertical; v++) {
+                            for (int h = 0; h < component.horizontal; h++) {
+                                decodeBlock(component, mcuRow * component.vertical + v,
+                                        mcu * component.horizontal + h);
+                            }
+                        }
+                    }
+                    restarts++;
+                }
+                // once a row of MCUs is complete for every channel the one before it can be shown
+                // (its last rows are blended with the first rows of this one)
+                if (everything && progress != null) {
+                    convert(Math.min(outputHeight, mcuRow * maxVertical * blockSize));
+                    progress.accept(image);
+                }
+            }
+        }
+
+        /**
+         * Helper method that decodes one block and writes it, shrunk, into its plane
+         *
+         * @param component - The channel the block belongs to
+         * @param row       - The row of blocks it is in
+         * @param column    - The column of blocks it is in
+         */
+        private void decodeBlock(Component component, int row, int column) {
+            int n = component.blockSize;
+            int[] kept = KEPT[n];
+            int[] table = quantization[component.quantization];
+            float[] block = coefficients;
+            Arrays.fill(block, 0, n * n, 0);
+
+            int size = decodeHuffman(component.dc);
+            component.predictor += receive(size);
+            block[0] = component.predictor * table[0];
+            boolean dcOnly = true;
+            for (int k = 1; k < 64; ) {
+                int symbol = decodeHuffman(component.ac);
+                int run = symbol >> 4;
+                size = symbol & 15;
+                if (size == 0) {
+                    // end of block, or a run of 16 zeros
+                    if (run != 15) break;
+                    k += 16;
+                    continue;
+                }
+                k += run;
+                if (k > 63) break;
+                int index = kept[k];
+                if (index >= 0) {
+                    block[index] = receive(size) * table[k];
+                    dcOnly = false;
+                } else {
+                    // not needed at this size, so its bits are just skipped
+                    if (bitCount < size) fill();
+                    consume(size);
+                }
+                k++;
+            }
+            inverse(block, n, dcOnly, component.plane,
+                    row * n * component.stride + column * n, component.stride);
+        }
+
+        /**
+         * Helper method that transforms the kept coefficients of a block back into pixels
+         *
+         * @param block  - The n x n lowest coefficients, dequantized, row by row
+         * @param n      - The size of the block once it is shrunk
+         * @param dcOnly - Whether every coefficient but the first is 0
+         * @param plane  - Where the pixels go
+         * @param offset - Where the top left pixel of the block goes
+         * @param stride - The width of the plane
+         */
+        private void inverse(float[] block, int n, boolean dcOnly, byte[] plane, int offset,
+                             int stride) {
+            if (dcOnly) {
+                // the same value everywhere (which is all there is to an eighth size block)
+                byte value = (byte) clamp(Math.round(block[0] / 8 + 128));
+                for (int y = 0; y < n; y++) {
+                    Arrays.fill(plane, offset + y * stride, offset + y * stride + n, value);
+                }
+                return;
+            }
+            float[] table = IDCT[n];
+            float[] temp = rows;
+            // each row of coefficients into a row of horizontal samples
+            for (int v = 0; v < n; v++) {
+                int base = v * n;
+                for (int x = 0; x < n; x++) {
+                    float sum = 0;
+                    for (int u = 0; u < n; u++) sum += table[x * n + u] * block[base + u];
+                    temp[base + x] = sum;
+                }
+            }
+            // then each column
+            for (int y = 0; y < n; y++) {
+                int out = offset + y * stride;
+                for (int x = 0; x < n; x++) {
+                    float sum = 0;
+                    for (int v = 0; v < n; v++) sum += table[y * n + v] * temp[v * n + x];
+                    plane[out + x] = (byte) clamp(Math.round(sum + 128));
+                }
+            }
+        }
+
+        /**
+         * Converts the planes to RGB pixels in the output image, from the last row converted up
+         * to the given row
+         *
+         * @param to - The row to stop at (exclusive)
+         */
+        private void convert(int to) {
+            int count = components.length;
+            // four channels are CMYK unless the Adobe segment says YCCK
+            boolean rgb = count == 4 ? adobeTransform != 2 : adobeTransform == 0
+                    || (components[0].id == 'R' && components[1].id == 'G'
+                    && components[2].id == 'B');
+            Component first = components[0];
+            Component second = count > 1 ? components[1] : null;
+            Component third = count > 2 ? components[2] : null;
+            Component fourth = count > 3 ? components[3] : null;
+            for (int y = convertedRows; y < to; y++) {
+                int out = y * outputWidth;
+                for (Component component : components) selectRow(component, y);
+                if (count == 1) {
+                    for (int x = 0; x < outputWidth; x++) {
+                        int gray = sample(first, x);
+                        pixels[out + x] = gray << 16 | gray << 8 | gray;
+                    }
+                    continue;
+                }
+                for (int x = 0; x < outputWidth; x++) {
+                    int a = sample(first, x);
+                    int b = sample(second, x);
+                    int c = sample(third, x);
+                    int red;
+                    int green;
+                    int blue;
+                    if (rgb) {
+                        red = a;
+                        green = b;
+                        blue = c;
+                    } else {
+                        // Y, Cb, Cr
+                        red = clamp(a + CR_RED[c]);
+                        green = clamp(a + ((CB_GREEN[b] + CR_GREEN[c]) >> 16));
+                        blue = clamp(a + CB_BLUE[b]);
+                    }
+                    if (fourth != null) {
+                        // Adobe writes CMYK inverted, so these are really 255 - C and so on,
+                        // while YCCK is CMY the right way around stored as YCbCr
+                        int k = sample(fourth, x);
+                        if (!rgb) {
+                            red = 255 - red;
+                            green = 255 - green;
+                            blue = 255 - blue;
+                        }
+                        red = red * k / 255;
+                        green = green * k / 255;
+                        blue = blue * k / 255;
+                    }
+                    pixels[out + x] = red << 16 | green << 8 | blue;
+                }
+            }
+            convertedRows = Math.max(convertedRows, to);
+        }
+
+        /**
+         * Helper method that works out which rows of a plane an output row comes from
+         *
+         * @param component - The channel
+         * @param y         - The output row
+         */
+        private void selectRow(Component component, int y) {
+            int row = y * component.rowScale / maxVertical;
+            component.row = row * component.stride;
+            if (!component.smoothRows) {
+                component.neighbourRow = component.row;
+                return;
+            }
+            int rows = component.blocksPerColumn * component.blockSize;
+            int neighbour = Math.max(0, Math.min(rows - 1, y % 2 == 0 ? row - 1 : row + 1));
+            component.neighbourRow = neighbour * component.stride;
+        }
+
+        /**
+         * Helper method that reads the sample of a channel for a column of the row selected by
+         * selectRow(). A subsampled channel is blended with its neighbours: 9/16 of the nearest
+         * sample, 3/16 of each of the two next to it and 1/16 of the one diagonally across
+         *
+         * @param component - The channel
+         * @param x         - The output column
+         * @return - The sample
+         */
+        private static int sample(Component component, int x) {
+            byte[] plane = component.plane;
+            int column = component.columns[x];
+            int nearest = plane[component.row + column] & 0xFF;
+            if (!component.smooth) return nearest;
+            int neighbour = component.neighbours[x];
+            return (9 * nearest + 3 * (plane[component.row + neighbour] & 0xFF)
+                    + 3 * (plane[component.neighbourRow + column] & 0xFF)
+                    + (plane[component.neighbourRow + neighbour] & 0xFF) + 8) >> 4;
+        }
+
+        /**
+         * Helper method that reads a Huffman coded value
+         *
+         * @param table - The table it was coded with
+         * @return - The value
+         */
+        private int decodeHuffman(Huffman table) {
+            if (bitCount < 16) fill();
+            int entry = table.lookup[(int) (bits >>> (64 - Huffman.LOOKUP_BITS))];
+            if (entry != 0) {
+                consume(entry >> 8);
+                return entry & 0xFF;
+            }
+            int length = Huffman.LOOKUP_BITS + 1;
+            int code = (int) (bits >>> (64 - length));
+            while (code > table.maxCode[length]) {
+                length++;
+                code = (int) (bits >>> (64 - length));
+            }
+            // a corrupt code runs into the sentinel at length 17, which reads as value 0
+            if (length > 16) {
+                consume(16);
+                return 0;
+            }
+            consume(length);
+            return table.values[code + table.valueOffset[length]] & 0xFF;
+        }
+
+        /**
+         * Helper method that reads a coefficient of the given size in bits
+         *
+         * @param size - The number of bits (0 - 15)
+         * @return - The coefficient, which is negative if its first bit is 0
+         */
+        private int receive(int size) {
+            if (size == 0) return 0;
+            if (bitCount < size) fill();
+            int value = (int) (bits >>> (64 - size));
+            consume(size);
+            return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+        }
+
+        /**
+         * Helper method that throws away bits that have been used
+         *
+         * @param count - The number of bits
+         */
+        private void consume(int count) {
+            bits <<= count;
+            bitCount -= count;
+        }
+
+        /**
+         * Helper method that reads bytes of entropy coded data into the bit buffer until it is
+         * nearly full. A 0xFF byte is followed by a 0 which is skipped. Anything else after a
+         * 0xFF is a marker, which ends the data - after that zeros are read
+         */
+        private void fill() {
+            while (bitCount <= 56) {
+                int next = 0;
+                if (!atMarker && position < limit) {
+                    next = data.get(position) & 0xFF;
+                    if (next != 0xFF) {
+                        position++;
+                    } else if (position + 1 < limit && data.get(position + 1) == 0) {
+                        position += 2;
+                    } else {
+                        atMarker = true;
+                        next = 0;
+                    }
+                }
+                bits |= (long) next << (56 - bitCount);
+                bitCount += 8;
+            }
+        }
+
+        /**
+         * Helper method that moves past a restart marker, which resets the bit buffer and the DC
+         * predictors so that decoding can pick up again after damaged data
+         *
+         * @param scan - The components in the scan
+         */
+        private void restart(Component[] scan) {
+            bits = 0;
+            bitCount = 0;
+            atMarker = false;
+            while (position + 1 < limit) {
+                if ((data.get(position) & 0xFF) == 0xFF) {
+                    int marker = data.get(position + 1) & 0xFF;
+                    if (marker >= 0xD0 && marker <= 0xD7) {
+                        position += 2;
+                        break;
+                    }
+                    // some other marker means the data ended early
+                    if (marker != 0 && marker != 0xFF) break;
+                }
+                position++;
+            }
+            for (Component component : scan) component.predictor = 0;
+        }
+
+        /**
+         * Helper method that finds the next marker, skipping anything that isn't one (like the
+         * rest of a scan's data)
+         *
+         * @return - The marker (the byte after 0xFF) or -1 at the end of the file
+         */
+        private int nextMarker() {
+            while (position + 1 < limit) {
+                if ((data.get(position) & 0xFF) != 0xFF) {
+                    position++;
+                    continue;
+                }
+                int marker = data.get(position + 1) & 0xFF;
+                // stuffed zeros, fill bytes and stray restart markers
+                if (marker == 0 || marker == 0xFF || (marker >= 0xD0 && marker <= 0xD7)) {
+                    position++;
+                    continue;
+                }
+                position += 2;
+                return marker;
+            }
+            return -1;
+        }
+
+        /**
+         * Helper method that skips the segment the position is at the start of
+         */
+        private void skipSegment() {
+            position = segmentEnd();
+        }
+
+        /**
+         * Helper method that reads the length of a segment
+         *
+         * @return - The position just after the segment
+         */
+        private int segmentEnd() {
+            int start = position;
+            int end = start + readShort();
+            if (end > limit) throw new IndexOutOfBoundsException("Segment past the end");
+            return end;
+        }
+
+        private int readByte() {
+            return data.get(position++) & 0xFF;
+        }
+
+        private int readShort() {
+            int value = (data.get(position) & 0xFF) << 8 | data.get(position + 1) & 0xFF;
+            position += 2;
+            return value;
+        }
+    }
+}
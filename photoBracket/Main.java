@@ -1,15 +1,29 @@
 package photoBracket;
 
+import javax.swing.*;
+import java.util.logging.Logger;
+
 /**
  * This is the main entry point to the program
  */
 public class Main {
 
-    // creates a new window and bracket therefore running the program
-    public static void main(String[] args) {
-        Bracket bracket = new Bracket();
+    // when the program started, for the startup time logged once the first window is open
+    static final long STARTED = System.nanoTime();
 
-        Window window = new Window(bracket);
+    // opens the default session (a new window and bracket) therefore running the program
+    public static void main(String[] args) {
+        SwingUtilities.invokeLater(() -> {
+            // set once for every window, and before any of them are made
+            try { // attempts to set the theme of the windows to the system default
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
+                    UnsupportedLookAndFeelException e) {
+                Logger.getLogger(Main.class.getName()).warning(
+                        "Look and feel not found - using default");
+            }
+            SessionManager.getInstance().open(Session.getDefault());
+        });
     }
 
 }
@@ -0,0 +1,224 @@
+package photoBracket;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.swing.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Decides how many decoded images can stay in memory and how far ahead images should be loaded,
+ * based on how full the heap actually is. It listens for garbage collections (and for the heap
+ * crossing its collection usage threshold) and after each one looks at how much of the heap is
+ * still in use: when there is plenty of room the resident set and prefetch depth grow, when the
+ * heap is getting full they shrink and the least recently shown images are flushed first
+ */
+class MemoryGovernor {
+
+    // the GC notification type published by HotSpot's GarbageCollectorMXBeans
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    // below this fraction of the heap in use after a GC the governor lets the cache grow
+    private static final double LOW_WATER = 0.5;
+    // above this fraction of the heap in use after a GC the governor shrinks the cache
+    private static final double HIGH_WATER = 0.75;
+    // the images on screen are never flushed so there is no point going below this
+    private static final int MIN_RESIDENT = 2;
+    private static final int MAX_PREFETCH = 8;
+
+    private static final MemoryGovernor INSTANCE = new MemoryGovernor();
+
+    private final MemoryMXBean memoryBean;
+    // least recently shown first - access ordered so get() moves an image to the end
+    private final LinkedHashMap<ImageFile, Boolean> resident;
+    // the images each session has on screen
+    private final Map<Object, Set<ImageFile>> pinned;
+    private boolean enabled;
+    private int maxResident;
+    private int prefetchDepth;
+
+    /**
+     * Constructs the governor and registers it for GC and memory threshold notifications
+     */
+    private MemoryGovernor() {
+        memoryBean = ManagementFactory.getMemoryMXBean();
+        resident = new LinkedHashMap<>(16, 0.75f, true);
+        pinned = new HashMap<>();
+        maxResident = MIN_RESIDENT * 4;
+        prefetchDepth = 2;
+
+        NotificationListener listener = (notification, handback) -> onNotification(notification);
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+            }
+        }
+        // the threshold notifications are a backup for JVMs that don't publish GC notifications
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && pool.getUsage().getMax() > 0) {
+                pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * HIGH_WATER));
+            }
+        }
+        ((NotificationEmitter) memoryBean).addNotificationListener(listener, null, null);
+    }
+
+    /**
+     * @return - The governor for this JVM (there is only one heap so there is only one governor)
+     */
+    static MemoryGovernor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Turns the governor on or off. While it is off it does not flush anything
+     *
+     * @param enabled - Whether the governor should manage memory
+     */
+    synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) resident.clear();
+    }
+
+    /**
+     * Records that images have just been put on screen. These become the most recently shown
+     * images and are protected from being flushed until the same session shows different images
+     *
+     * @param owner - The session showing the images
+     * @param files - The images being displayed
+     */
+    synchronized void onShown(Object owner, ImageFile... files) {
+        if (!enabled) return;
+        Set<ImageFile> shown = new HashSet<>();
+        for (ImageFile file : files) {
+            if (file == null) continue;
+            shown.add(file);
+            resident.put(file, Boolean.TRUE);
+        }
+        pinned.put(owner, shown);
+        trim();
+    }
+
+    /**
+     * Stops protecting the images a session had on screen. Called when the session closes
+     *
+     * @param owner - The session
+     */
+    synchronized void release(Object owner) {
+        pinned.remove(owner);
+    }
+
+    /**
+     * Records that an image was loaded in the background without being shown yet
+     *
+     * @param file - The image that was loaded
+     */
+    synchronized void onLoaded(ImageFile file) {
+        if (!enabled || file == null) return;
+        // containsKey doesn't count as an access so an image that was already loaded keeps its
+        // place in line
+        if (!resident.containsKey(file)) resident.put(file, Boolean.TRUE);
+        trim();
+    }
+
+    /**
+     * @return - Whether there is enough heap left to decode another image ahead of time
+     */
+    synchronized boolean shouldPrefetch() {
+        return enabled && resident.size() < maxResident && heapUsage() < HIGH_WATER;
+    }
+
+    /**
+     * @return - How many upcoming images should be loaded ahead of time
+     */
+    synchronized int getPrefetchDepth() {
+        return enabled ? prefetchDepth : 0;
+    }
+
+    /**
+     * @return - The fraction of the maximum heap that is currently in use
+     */
+    private double heapUsage() {
+        MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        return (double) heap.getUsed() / max;
+    }
+
+    /**
+     * Called after a garbage collection or when the heap crosses its threshold. Since the heap
+     * has just been collected, the usage now is a fair picture of what is really being held
+     *
+     * @param notification - The notification that was received
+     */
+    private void onNotification(Notification notification) {
+        String type = notification.getType();
+        if (!GC_NOTIFICATION.equals(type)
+                && !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+            return;
+        }
+        double usage = heapUsage();
+        synchronized (this) {
+            if (!enabled) return;
+            if (usage > HIGH_WATER) {
+                maxResident = Math.max(MIN_RESIDENT, Math.min(maxResident, resident.size()) / 2);
+                prefetchDepth /= 2;
+                Logger.getLogger(getClass().getName()).fine(String.format(
+                        "Heap %.0f%% full - shrinking to %d images", usage * 100, maxResident));
+                // softly held and pooled images still count as used heap, so they go first
+                SoftImageCache.getInstance().clear();
+                RasterPool.getInstance().trim();
+                trim();
+            } else if (usage < LOW_WATER && resident.size() >= maxResident) {
+                // only grow when the current limit is actually being used
+                maxResident++;
+                prefetchDepth = Math.min(MAX_PREFETCH, prefetchDepth + 1);
+            }
+        }
+    }
+
+    /**
+     * Helper method to check whether any session has an image on screen. Must be called while
+     * holding the lock
+     *
+     * @param file - The image to check
+     * @return - True if the image is on screen, false otherwise
+     */
+    private boolean isPinned(ImageFile file) {
+        for (Set<ImageFile> shown : pinned.values()) {
+            if (shown.contains(file)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the least recently shown images until the resident set fits in maxResident. Must be
+     * called while holding the lock. This can run on a decoding thread or the thread that delivers
+     * GC notifications, so the images are only flushed later on the event dispatch thread (see
+     * flushEvicted())
+     */
+    private void trim() {
+        List<ImageFile> evicted = new ArrayList<>();
+        Iterator<ImageFile> iterator = resident.keySet().iterator();
+        while (resident.size() > maxResident && iterator.hasNext()) {
+            ImageFile file = iterator.next();
+            if (isPinned(file)) continue;
+            evicted.add(file);
+            iterator.remove();
+        }
+        if (!evicted.isEmpty()) SwingUtilities.invokeLater(() -> flushEvicted(evicted));
+    }
+
+    /**
+     * Helper method that flushes images trim() evicted. Runs on the event dispatch thread, where
+     * the images are put on screen, so an image that has been shown (or loaded again) since it
+     * was evicted is left alone
+     *
+     * @param evicted - The images that were evicted
+     */
+    private synchronized void flushEvicted(List<ImageFile> evicted) {
+        for (ImageFile file : evicted) {
+            if (!resident.containsKey(file) && !isPinned(file)) file.flush();
+        }
+    }
+}
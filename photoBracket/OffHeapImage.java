@@ -0,0 +1,129 @@
+package photoBracket;
+
+import java.awt.image.*;
+import java.nio.IntBuffer;
+
+/**
+ * Pixel data for an image that lives outside of the Java heap. The pixels are stored as packed
+ * (A)RGB ints in a slab from the SlabAllocator and are only wrapped into a Raster when something
+ * actually needs to draw them. The memory is not released until release() is called
+ */
+class OffHeapImage {
+
+    private static final int[] RGB_MASKS = {0xff0000, 0xff00, 0xff};
+    private static final int[] ARGB_MASKS = {0xff0000, 0xff00, 0xff, 0xff000000};
+
+    private final int width;
+    private final int height;
+    private final boolean alpha;
+    private final SlabAllocator allocator;
+    private volatile SlabAllocator.Slab slab;
+
+    /**
+     * Constructs an off-heap image and allocates space for its pixels
+     *
+     * @param width     - The width of the image
+     * @param height    - The height of the image
+     * @param alpha     - Whether the image has an alpha channel
+     * @param allocator - Where to get the memory from
+     */
+    private OffHeapImage(int width, int height, boolean alpha, SlabAllocator allocator) {
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        this.allocator = allocator;
+        slab = allocator.allocate(Math.multiplyExact(Math.multiplyExact(width, height), 4));
+    }
+
+    /**
+     * Copies an image off of the heap. The image passed in can be flushed afterwards
+     *
+     * @param image     - The image to copy
+     * @param allocator - Where to get the memory from
+     * @return - An off-heap copy of the image
+     */
+    static OffHeapImage copyOf(BufferedImage image, SlabAllocator allocator) {
+        OffHeapImage copy = new OffHeapImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha(), allocator);
+        IntBuffer pixels = copy.slab.buffer().asIntBuffer();
+        // one row at a time so we never need a second full-size array on the heap
+        int[] row = new int[copy.width];
+        for (int y = 0; y < copy.height; y++) {
+            image.getRGB(0, y, copy.width, 1, row, 0, copy.width);
+            pixels.put(row);
+        }
+        return copy;
+    }
+
+    /**
+     * Wraps the off-heap pixels in a BufferedImage without copying them. The returned image is
+     * only valid until release() is called
+     *
+     * @return - A BufferedImage backed by the off-heap memory, or null if it has been released
+     */
+    BufferedImage toBufferedImage() {
+        SlabAllocator.Slab current = slab;
+        if (current == null) return null;
+        DataBuffer dataBuffer = new IntBufferDataBuffer(current.buffer().asIntBuffer(),
+                width * height);
+        int[] masks = alpha ? ARGB_MASKS : RGB_MASKS;
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width,
+                masks, null);
+        ColorModel colorModel = alpha ? ColorModel.getRGBdefault() :
+                new DirectColorModel(24, masks[0], masks[1], masks[2]);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Gives the off-heap memory back to the allocator
+     */
+    void release() {
+        SlabAllocator.Slab current = slab;
+        slab = null;
+        allocator.release(current);
+    }
+
+    /**
+     * @return - The width of the image in pixels
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return - The height of the image in pixels
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * A DataBuffer that reads and writes its elements straight from an IntBuffer so that a Raster
+     * can be built around off-heap memory
+     */
+    private static class IntBufferDataBuffer extends DataBuffer {
+
+        private final IntBuffer data;
+
+        /**
+         * Constructs the data buffer
+         *
+         * @param data - The buffer that holds the pixels
+         * @param size - The number of elements in the buffer
+         */
+        IntBufferDataBuffer(IntBuffer data, int size) {
+            super(TYPE_INT, size);
+            this.data = data;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return data.get(i + offsets[bank]);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            data.put(i + offsets[bank], val);
+        }
+    }
+}
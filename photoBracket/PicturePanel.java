@@ -0,0 +1,476 @@
+package photoBracket;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * Displays one picture (or a line of text in place of one). This replaces the JLabels that used to
+ * show the pictures: the picture is copied once into a VolatileImage, which the graphics pipeline
+ * can keep in video memory, so repainting it is a straight copy instead of a trip through the
+ * software loops. Changing the picture or the highlight never revalidates the layout
+ * <p>
+ * When zooming is enabled the mouse wheel zooms in on the picture and dragging pans it. The
+ * Viewport can be shared with other panels so they all zoom and pan together. While zoomed in, the
+ * parts of the original file that are on screen are decoded by the TileDecoder and drawn over the
+ * (blurry) enlarged picture as they become available
+ * <p>
+ * The picture of an animated GIF is its first frame. When playing animations is turned on the
+ * panel plays the rest of the frames (see GifAnimation) with a one-shot timer per frame, and only
+ * repaints the picture when the frame changes. It stops as soon as the picture changes or the panel
+ * is no longer on screen
+ */
+class PicturePanel extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+    private static final int HIGHLIGHT_WIDTH = 5;
+    // how much one notch of the mouse wheel zooms in
+    private static final double ZOOM_STEP = 1.25;
+
+    private final Color highlightColor;
+    private ImageIcon icon;
+    private String text;
+    private boolean highlighted;
+    // a copy of icon's image that lives wherever the graphics pipeline likes best
+    private VolatileImage cache;
+    // the file the picture came from - needed to decode tiles when zoomed in
+    private ImageFile source;
+    private Viewport viewport;
+    private boolean zoomEnabled;
+    private Point dragStart;
+    private boolean playAnimations;
+    private GifAnimation animation;
+    // the frame of the animation being shown in place of the icon, and the number of the next one
+    private BufferedImage frame;
+    private int nextFrame;
+    private Timer player;
+    // true when the VolatileImage still holds the previous frame
+    private boolean cacheStale;
+
+    /**
+     * Constructs a panel that shows the given text until it is given a picture
+     *
+     * @param text           - The text to show
+     * @param highlightColor - The color of the border shown by setHighlighted()
+     */
+    PicturePanel(String text, Color highlightColor) {
+        this.text = text;
+        this.highlightColor = highlightColor;
+        setOpaque(true);
+        setForeground(UIManager.getColor("Label.foreground"));
+        setFont(UIManager.getFont("Label.font"));
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                Rectangle2D bounds = getPictureBounds();
+                if (!zoomEnabled || viewport == null || bounds == null) return;
+                viewport.zoomAt(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()),
+                        (e.getX() - bounds.getX()) / bounds.getWidth(),
+                        (e.getY() - bounds.getY()) / bounds.getHeight());
+            }
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStart = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                Rectangle2D bounds = getPictureBounds();
+                if (!zoomEnabled || viewport == null || bounds == null || dragStart == null) {
+                    return;
+                }
+                // dragging moves the picture, so the viewport moves the other way
+                viewport.pan((dragStart.x - e.getX()) / bounds.getWidth(),
+                        (dragStart.y - e.getY()) / bounds.getHeight());
+                dragStart = e.getPoint();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (zoomEnabled && viewport != null && e.getClickCount() == 2) viewport.reset();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Sets the file the picture comes from, which is where tiles are decoded from when zoomed in
+     *
+     * @param source - The file or null if there is no picture
+     */
+    void setSource(ImageFile source) {
+        if (this.source == source) return;
+        TileDecoder.getInstance().release(this.source);
+        this.source = source;
+        stopAnimation();
+        repaint();
+    }
+
+    /**
+     * Sets the viewport this panel zooms and pans with
+     *
+     * @param viewport - The viewport (usually shared with the other picture panels)
+     */
+    void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+        viewport.addChangeListener(e -> repaint());
+    }
+
+    /**
+     * Turns zooming and panning with the mouse on or off
+     *
+     * @param enabled - Whether the mouse can zoom and pan
+     */
+    void setZoomEnabled(boolean enabled) {
+        zoomEnabled = enabled;
+    }
+
+    /**
+     * Turns playing animated GIFs on or off. When off only their first frame is shown
+     *
+     * @param enabled - Whether animations should play
+     */
+    void setPlayAnimations(boolean enabled) {
+        playAnimations = enabled;
+        if (enabled) {
+            startAnimation();
+        } else {
+            stopAnimation();
+        }
+    }
+
+    /**
+     * Sets the picture to show. Unlike JLabel this does not revalidate the layout since the
+     * panel's size doesn't depend on its picture
+     *
+     * @param icon - The picture to show or null to show nothing
+     */
+    void setIcon(ImageIcon icon) {
+        if (this.icon == icon) return;
+        this.icon = icon;
+        if (cache != null) cache.flush();
+        cache = null;
+        // the frames were scaled for the old icon
+        stopAnimation();
+        startAnimation();
+        repaint();
+    }
+
+    /**
+     * @return - The picture being shown
+     */
+    ImageIcon getIcon() {
+        return icon;
+    }
+
+    /**
+     * Sets the text shown in the middle of the panel
+     *
+     * @param text - The text to show or null to show none
+     */
+    void setText(String text) {
+        if (text == null ? this.text == null : text.equals(this.text)) return;
+        this.text = text;
+        repaint();
+    }
+
+    /**
+     * @return - The text being shown
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Shows or hides the border used to mark the picture as selected. The whole panel is
+     * repainted (the RepaintManager would merge the four sides of the border into the whole panel
+     * anyway), which is cheap since the picture is just copied from the VolatileImage
+     *
+     * @param highlighted - Whether to show the border
+     */
+    void setHighlighted(boolean highlighted) {
+        if (this.highlighted == highlighted) return;
+        this.highlighted = highlighted;
+        repaint();
+    }
+
+    /**
+     * @return - Whether the border marking the picture as selected is shown
+     */
+    boolean isHighlighted() {
+        return highlighted;
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        stopAnimation();
+    }
+
+    /**
+     * Helper method that starts playing the picture if it is a GIF and playing is turned on. The
+     * icon stays on screen until the animation's own first frame has been decoded
+     */
+    private void startAnimation() {
+        if (!playAnimations || animation != null || icon == null || source == null
+                || !source.getName().toLowerCase().endsWith(".gif")) {
+            return;
+        }
+        animation = new GifAnimation(source, new Dimension(icon.getIconWidth(),
+                icon.getIconHeight()));
+        nextFrame = 0;
+        showNextFrame(animation);
+    }
+
+    /**
+     * Helper method that stops playing and goes back to showing the icon
+     */
+    private void stopAnimation() {
+        if (player != null) player.stop();
+        player = null;
+        if (animation == null) return;
+        // the frames go back to the pool, so they can't be painted again
+        animation.close();
+        animation = null;
+        if (frame != null) {
+            frame = null;
+            cacheStale = true;
+            repaintPicture();
+        }
+    }
+
+    /**
+     * Helper method that shows the next frame of an animation and sets the timer for the one
+     * after it. If the frame isn't decoded yet this is called again once it is
+     *
+     * @param playing - The animation the frame is for, which may have been stopped since
+     */
+    private void showNextFrame(GifAnimation playing) {
+        if (playing != animation) return;
+        int count = animation.getFrameCount();
+        if (count >= 0 && nextFrame >= count) nextFrame = 0;
+        if (count == 1 || animation.isStopped() || !isShowing()) {
+            stopAnimation();
+            return;
+        }
+        // zoomed in pictures are drawn from the icon and tiles, so the animation waits
+        GifAnimation.Frame next = viewport != null && viewport.isZoomed() ? null :
+                animation.getFrame(nextFrame, () -> showNextFrame(playing));
+        if (next == null) {
+            if (viewport != null && viewport.isZoomed()) schedule(playing, 100);
+            return;
+        }
+        if (frame == null && cache != null && cache.getTransparency() != Transparency.TRANSLUCENT) {
+            // frames of a GIF can have transparent pixels even when the icon doesn't
+            cache.flush();
+            cache = null;
+        }
+        frame = next.image;
+        cacheStale = true;
+        nextFrame++;
+        repaintPicture();
+        schedule(playing, next.delay);
+    }
+
+    /**
+     * Helper method that sets the timer for the next frame
+     *
+     * @param playing - The animation being played
+     * @param delay   - How long to wait in milliseconds
+     */
+    private void schedule(GifAnimation playing, int delay) {
+        player = new Timer(delay, e -> showNextFrame(playing));
+        player.setRepeats(false);
+        player.start();
+    }
+
+    /**
+     * Helper method that repaints just the part of the panel the picture covers
+     */
+    private void repaintPicture() {
+        if (icon == null) return;
+        repaint((getWidth() - icon.getIconWidth()) / 2, (getHeight() - icon.getIconHeight()) / 2,
+                icon.getIconWidth(), icon.getIconHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (isOpaque() && getBackground() != null) {
+            g.setColor(getBackground());
+            // when only the picture changes the clip is just the part it covers
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+
+        if (viewport != null && viewport.isZoomed() && source != null && icon != null) {
+            paintZoomed(g);
+        } else if (icon != null) {
+            int x = (getWidth() - icon.getIconWidth()) / 2;
+            int y = (getHeight() - icon.getIconHeight()) / 2;
+            paintPicture(g, x, y);
+        }
+        if (text != null) {
+            g.setColor(getForeground());
+            g.setFont(getFont());
+            FontMetrics metrics = g.getFontMetrics();
+            g.drawString(text, (getWidth() - metrics.stringWidth(text)) / 2,
+                    (getHeight() - metrics.getHeight()) / 2 + metrics.getAscent());
+        }
+        if (highlighted) {
+            g.setColor(highlightColor);
+            for (int i = 0; i < HIGHLIGHT_WIDTH; i++) {
+                g.drawRect(i, i, getWidth() - 2 * i - 1, getHeight() - 2 * i - 1);
+            }
+        }
+    }
+
+    /**
+     * Helper method that draws the picture from the VolatileImage, copying it in again if the
+     * contents were lost (which can happen at any time, for example when the display changes)
+     *
+     * @param g - The graphics to paint with
+     * @param x - Where to draw the left of the picture
+     * @param y - Where to draw the top of the picture
+     */
+    private void paintPicture(Graphics g, int x, int y) {
+        Image picture = frame != null ? frame : icon.getImage();
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        if (config == null) {
+            // not on screen (or headless), so there's nothing to accelerate
+            g.drawImage(picture, x, y, null);
+            return;
+        }
+        do {
+            int status = cache == null ? VolatileImage.IMAGE_INCOMPATIBLE : cache.validate(config);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (cache != null) cache.flush();
+                cache = config.createCompatibleVolatileImage(icon.getIconWidth(),
+                        icon.getIconHeight(), getTransparency(picture));
+                status = VolatileImage.IMAGE_RESTORED;
+            }
+            if (status == VolatileImage.IMAGE_RESTORED || cacheStale) {
+                Graphics2D cacheGraphics = cache.createGraphics();
+                cacheGraphics.setComposite(AlphaComposite.Src);
+                cacheGraphics.drawImage(picture, 0, 0, null);
+                cacheGraphics.dispose();
+                cacheStale = false;
+            }
+            g.drawImage(cache, x, y, null);
+        } while (cache.contentsLost());
+    }
+
+    /**
+     * Helper method that paints the zoomed in picture. The scaled picture is stretched to fill in
+     * first and then every tile that has already been decoded is drawn on top of it. Tiles that
+     * haven't been are requested from the TileDecoder, which repaints once they're ready
+     *
+     * @param g - The graphics to paint with
+     */
+    private void paintZoomed(Graphics g) {
+        TileDecoder decoder = TileDecoder.getInstance();
+        Dimension full = decoder.getImageSize(source, this::repaint);
+        Rectangle2D bounds = getPictureBounds();
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(icon.getImage(), (int) Math.floor(bounds.getX()),
+                (int) Math.floor(bounds.getY()), (int) Math.ceil(bounds.getWidth()),
+                (int) Math.ceil(bounds.getHeight()), null);
+        if (full == null) {
+            g2.dispose();
+            return;
+        }
+
+        // tiles are cut from the file as it is stored, which may be on its side
+        int orientation = source.getOrientation();
+        boolean transposed = ImageFile.isTransposed(orientation);
+        AffineTransform upright = ImageFile.getOrientationTransform(orientation, full.width,
+                full.height);
+        // screen pixels per pixel of the original file
+        double scale = bounds.getWidth() / (transposed ? full.height : full.width);
+        // decode at the coarsest power of two subsampling that still has enough detail
+        int level = scale >= 1 ? 1 : Integer.highestOneBit((int) (1 / scale));
+        int span = TileDecoder.TILE_SIZE * level;
+        // the part of the original that is on screen
+        Rectangle2D visible = new Rectangle2D.Double(-bounds.getX() / scale,
+                -bounds.getY() / scale, getWidth() / scale, getHeight() / scale);
+        try {
+            visible = upright.createInverse().createTransformedShape(visible).getBounds2D();
+        } catch (NoninvertibleTransformException e) {
+            // orientation transforms are always invertible
+            throw new IllegalStateException(e);
+        }
+        double left = Math.max(0, visible.getMinX());
+        double top = Math.max(0, visible.getMinY());
+        double right = Math.min(full.width, visible.getMaxX());
+        double bottom = Math.min(full.height, visible.getMaxY());
+        int firstRow = (int) (top / span);
+        int lastRow = (int) Math.ceil(bottom / span) - 1;
+        int firstColumn = (int) (left / span);
+        int lastColumn = (int) Math.ceil(right / span) - 1;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                BufferedImage tile = decoder.getTile(source, level, column, row, this::repaint);
+                if (tile == null) continue;
+                // where the tile ends up once the picture is the right way up
+                Rectangle2D placed = upright.createTransformedShape(new Rectangle2D.Double(
+                        column * span, row * span, tile.getWidth() * level,
+                        tile.getHeight() * level)).getBounds2D();
+                // both edges are rounded the same way so neighbouring tiles don't leave seams
+                int x0 = (int) Math.floor(bounds.getX() + placed.getMinX() * scale);
+                int y0 = (int) Math.floor(bounds.getY() + placed.getMinY() * scale);
+                int x1 = (int) Math.floor(bounds.getX() + placed.getMaxX() * scale);
+                int y1 = (int) Math.floor(bounds.getY() + placed.getMaxY() * scale);
+                AffineTransform transform = AffineTransform.getTranslateInstance(x0, y0);
+                transform.scale((double) (x1 - x0) / (transposed ? tile.getHeight() :
+                        tile.getWidth()), (double) (y1 - y0) / (transposed ? tile.getWidth() :
+                        tile.getHeight()));
+                transform.concatenate(ImageFile.getOrientationTransform(orientation,
+                        tile.getWidth(), tile.getHeight()));
+                g2.drawImage(tile, transform, null);
+            }
+        }
+        g2.dispose();
+        decoder.retainOnly(source, TileDecoder.rows(source, level, firstRow, lastRow));
+    }
+
+    /**
+     * Helper method that works out where the whole picture is on screen (it may be much bigger
+     * than the panel when zoomed in)
+     *
+     * @return - The bounds of the picture in this panel's coordinates, or null if there is none
+     */
+    private Rectangle2D getPictureBounds() {
+        if (icon == null) return null;
+        double zoom = viewport == null ? 1 : viewport.getZoom();
+        double width = icon.getIconWidth() * zoom;
+        double height = icon.getIconHeight() * zoom;
+        double centerX = viewport == null ? 0.5 : viewport.getCenterX();
+        double centerY = viewport == null ? 0.5 : viewport.getCenterY();
+        return new Rectangle2D.Double(getWidth() / 2.0 - centerX * width,
+                getHeight() / 2.0 - centerY * height, width, height);
+    }
+
+    /**
+     * Helper method to find the transparency the VolatileImage needs to hold an image
+     *
+     * @param image - The image that will be copied into the VolatileImage
+     * @return - One of the Transparency constants
+     */
+    private static int getTransparency(Image image) {
+        if (image instanceof BufferedImage) return ((BufferedImage) image).getTransparency();
+        return Transparency.TRANSLUCENT;
+    }
+}
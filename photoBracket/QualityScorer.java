@@ -0,0 +1,329 @@
+package photoBracket;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Gives images a rough quality score before they are sorted so that obviously bad frames (blurry,
+ * blown out or almost black) can be left out or compared early. The score is worked out from a
+ * small decode of the image (about 512 pixels across), using:
+ * <ul>
+ *     <li>sharpness - the variance of the Laplacian of the brightness, which is low when there are
+ *     no edges (out of focus or shaken),</li>
+ *     <li>clipping - the fraction of pixels that are pure black or pure white, and</li>
+ *     <li>brightness - the average brightness, which together with the brightest pixels tells a
+ *     frame that is almost black (lens cap, accidental shot in a pocket) apart from a dark
+ *     scene.</li>
+ * </ul>
+ * Scores are remembered in .qualitycache by content hash, so a photo is only scored once even if
+ * it is moved. Thread safe
+ */
+class QualityScorer {
+
+    private static final QualityScorer INSTANCE = new QualityScorer();
+
+    // the longest side of the decode the score is worked out from
+    private static final int SAMPLE_SIZE = 512;
+    // below this the image has almost no edges (measured on the sample, where sharp photos score
+    // in the hundreds or more)
+    private static final double BLURRY = 15;
+    // more than this fraction of pixels are pure black or white
+    private static final double CLIPPED = 0.5;
+    // a frame this dark on average, with almost nothing bright in it, is taken to be empty
+    private static final double DARK = 12;
+    private static final int BRIGHT = 64;
+    private static final double BRIGHT_FRACTION = 0.01;
+
+    private final File cacheFile;
+    // content hash -> score
+    private final Map<Long, Score> cache;
+    // absolute path -> score for the images scored since the app started, so looking up a score
+    // (for example while sorting a round) never touches the disk
+    private final Map<String, Score> byPath;
+    private volatile boolean dirty;
+
+    /**
+     * Constructs the scorer and reads the cache file
+     */
+    private QualityScorer() {
+        cacheFile = new File(".qualitycache");
+        cache = new ConcurrentHashMap<>();
+        byPath = new ConcurrentHashMap<>();
+        if (!cacheFile.isFile()) return;
+        try {
+            for (String line : Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t");
+                if (parts.length != 5) continue;
+                cache.put(Long.parseUnsignedLong(parts[0], 16), new Score(
+                        Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                        Double.parseDouble(parts[3]), Boolean.parseBoolean(parts[4])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Logger.getLogger(getClass().getName()).warning("Ignoring unreadable quality cache: "
+                    + e);
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return - The scorer shared by every window
+     */
+    static QualityScorer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Scores several images at once, on every core. Call from a background thread
+     *
+     * @param files - The images to score
+     */
+    void scoreAll(Collection<ImageFile> files) {
+        files.parallelStream().forEach(this::getScore);
+    }
+
+    /**
+     * Gets the score of an image, working it out if it hasn't been already. This decodes the
+     * image, so call it from a background thread unless the image has been scored before
+     *
+     * @param file - The image
+     * @return - Its score, or null if it can't be read
+     */
+    Score getScore(ImageFile file) {
+        long hash;
+        try {
+            hash = file.getContentHash();
+        } catch (IOException e) {
+            return null;
+        }
+        Score score = cache.get(hash);
+        if (score != null) {
+            byPath.put(file.getAbsolutePath(), score);
+            return score;
+        }
+        try {
+            BufferedImage sample = decodeSample(file);
+            if (sample == null) return null;
+            score = measure(sample);
+        } catch (IOException | RuntimeException e) {
+            Logger.getLogger(getClass().getName()).fine("Unable to score " + file + ": " + e);
+            return null;
+        }
+        cache.put(hash, score);
+        byPath.put(file.getAbsolutePath(), score);
+        dirty = true;
+        return score;
+    }
+
+    /**
+     * Gets the score of an image only if getScore() has already been called for it. Never touches
+     * the disk, so this is safe on the event dispatch thread
+     *
+     * @param file - The image
+     * @return - Its score, or null if it hasn't been scored
+     */
+    Score peekScore(ImageFile file) {
+        return byPath.get(file.getAbsolutePath());
+    }
+
+    /**
+     * Takes out the images that are too blurry, too blown out or too dark to be worth comparing
+     *
+     * @param files - Scored images. The rejected ones are removed from this list
+     * @return - The images that were rejected
+     */
+    List<ImageFile> reject(List<ImageFile> files) {
+        List<ImageFile> rejected = new ArrayList<>();
+        Iterator<ImageFile> iterator = files.iterator();
+        while (iterator.hasNext()) {
+            ImageFile file = iterator.next();
+            Score score = peekScore(file);
+            if (score != null && score.isReject()) {
+                rejected.add(file);
+                iterator.remove();
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Writes the cache to .qualitycache if anything has been scored since it was read
+     */
+    void save() {
+        if (!dirty) return;
+        dirty = false;
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, Score> entry : cache.entrySet()) {
+            Score score = entry.getValue();
+            sb.append(Long.toHexString(entry.getKey())).append('\t').append(score.sharpness)
+                    .append('\t').append(score.clipped).append('\t').append(score.brightness)
+                    .append('\t').append(score.nearBlack).append('\n');
+        }
+        try {
+            File temp = new File(cacheFile.getAbsoluteFile().getParentFile(),
+                    cacheFile.getName() + ".tmp");
+            Files.write(temp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to save the quality cache: "
+                    + e);
+        }
+    }
+
+    /**
+     * Helper method that decodes a small copy of an image by only reading every nth pixel.
+     * Formats ImageIO can't read (WebP) go through the app's own decoders instead, which shrink
+     * the image while decoding it
+     *
+     * @param file - The image
+     * @return - The small copy or null if no installed reader understands the file
+     * @throws IOException - If the file can't be read
+     */
+    private static BufferedImage decodeSample(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return ImageDecoder.read(file, new Dimension(SAMPLE_SIZE, SAMPLE_SIZE), null);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int step = Math.max(1, longest / SAMPLE_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Helper method that measures a sample
+     *
+     * @param sample - The small copy of the image
+     * @return - Its score
+     */
+    private static Score measure(BufferedImage sample) {
+        int width = sample.getWidth();
+        int height = sample.getHeight();
+        int[] rgb = sample.getRGB(0, 0, width, height, null, 0, width);
+        // brightness from 0 to 255, using the same weights as a TV
+        int[] luma = new int[rgb.length];
+        long sum = 0;
+        int clipped = 0;
+        int bright = 0;
+        for (int i = 0; i < rgb.length; i++) {
+            int pixel = rgb[i];
+            int y = (((pixel >> 16) & 0xFF) * 299 + ((pixel >> 8) & 0xFF) * 587
+                    + (pixel & 0xFF) * 114) / 1000;
+            luma[i] = y;
+            sum += y;
+            if (y <= 2 || y >= 253) clipped++;
+            if (y >= BRIGHT) bright++;
+        }
+        // the variance of the Laplacian, leaving out the edge pixels which have no neighbours
+        double lapSum = 0;
+        double lapSquares = 0;
+        int count = 0;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int laplacian = 4 * luma[i] - luma[i - 1] - luma[i + 1] - luma[i - width]
+                        - luma[i + width];
+                lapSum += laplacian;
+                lapSquares += (double) laplacian * laplacian;
+                count++;
+            }
+        }
+        double sharpness = count == 0 ? 0 : lapSquares / count - (lapSum / count) * (lapSum / count);
+        double brightness = (double) sum / rgb.length;
+        boolean nearBlack = brightness < DARK && bright < BRIGHT_FRACTION * rgb.length;
+        return new Score(sharpness, (double) clipped / rgb.length, brightness, nearBlack);
+    }
+
+    /**
+     * The quality measurements for one image
+     */
+    static final class Score {
+        private final double sharpness;
+        private final double clipped;
+        private final double brightness;
+        private final boolean nearBlack;
+
+        private Score(double sharpness, double clipped, double brightness, boolean nearBlack) {
+            this.sharpness = sharpness;
+            this.clipped = clipped;
+            this.brightness = brightness;
+            this.nearBlack = nearBlack;
+        }
+
+        /**
+         * @return - The variance of the Laplacian of the sample. Higher is sharper
+         */
+        double getSharpness() {
+            return sharpness;
+        }
+
+        /**
+         * @return - The fraction of pixels that are pure black or white
+         */
+        double getClipped() {
+            return clipped;
+        }
+
+        /**
+         * @return - The average brightness from 0 to 255
+         */
+        double getBrightness() {
+            return brightness;
+        }
+
+        /**
+         * @return - Whether the frame is almost completely black
+         */
+        boolean isNearBlack() {
+            return nearBlack;
+        }
+
+        /**
+         * @return - Whether the image is bad enough that it isn't worth comparing
+         */
+        boolean isReject() {
+            return nearBlack || sharpness < BLURRY || clipped > CLIPPED;
+        }
+
+        /**
+         * @return - A single number to order images by. Higher is better
+         */
+        double getValue() {
+            if (nearBlack) return 0;
+            // sharpness varies over orders of magnitude, so it is compared on a log scale
+            return Math.log1p(sharpness) * (1 - clipped);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sharpness %.1f, %.1f%% clipped, brightness %.0f%s", sharpness,
+                    clipped * 100, brightness, nearBlack ? " (black)" : "");
+        }
+    }
+}
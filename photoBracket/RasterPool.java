@@ -0,0 +1,211 @@
+package photoBracket;
+
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+/**
+ * Keeps BufferedImages that are no longer needed so their (very large) pixel arrays can be reused
+ * the next time an image of the same size and type is decoded or scaled. Photos from the same
+ * camera are almost always the same size, so this avoids allocating a new multi-megabyte array for
+ * every decode
+ */
+class RasterPool {
+
+    // how many bytes of idle images are kept before new ones are dropped instead
+    private static final long DEFAULT_MAX_BYTES = 192L * 1024 * 1024;
+
+    private static final RasterPool INSTANCE = new RasterPool(DEFAULT_MAX_BYTES);
+
+    private final Map<Key, Deque<BufferedImage>> idle;
+    private final long maxBytes;
+    private boolean enabled;
+    private long idleBytes;
+    // statistics
+    private long allocations;
+    private long allocatedBytes;
+    private long reuses;
+    private long reusedBytes;
+
+    /**
+     * Constructs a pool that keeps at most maxBytes worth of idle images
+     *
+     * @param maxBytes - The maximum number of bytes of idle images to hold on to
+     */
+    RasterPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        idle = new HashMap<>();
+        enabled = true;
+    }
+
+    /**
+     * @return - The pool shared by every ImageFile
+     */
+    static RasterPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Turns pooling on or off. While it is off acquire() always allocates and release() drops
+     * the image (useful for comparing the two)
+     *
+     * @param enabled - Whether images should be pooled
+     */
+    synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) trim();
+    }
+
+    /**
+     * @return - Whether images are being pooled
+     */
+    synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets an image with the given size and type, reusing an idle one if there is one. The
+     * contents of a reused image are whatever was drawn into it last
+     *
+     * @param width  - The width of the image
+     * @param height - The height of the image
+     * @param type   - One of the BufferedImage.TYPE_* constants (but not TYPE_CUSTOM)
+     * @return - An image of the requested size and type
+     */
+    BufferedImage acquire(int width, int height, int type) {
+        BufferedImage image = poll(width, height, type);
+        if (image == null && isEnabled()) {
+            // flushed images are reclaimable anyway, so borrowing one is as good as a pool hit
+            image = SoftImageCache.getInstance().takeMatching(width, height, type);
+            if (image != null) countReuse(image);
+        }
+        if (image != null) return image;
+        image = new BufferedImage(width, height, type);
+        synchronized (this) {
+            allocations++;
+            allocatedBytes += sizeOf(image);
+        }
+        return image;
+    }
+
+    /**
+     * Gets an idle image with the given size and type without allocating a new one
+     *
+     * @param width  - The width of the image
+     * @param height - The height of the image
+     * @param type   - One of the BufferedImage.TYPE_* constants
+     * @return - An idle image, or null if there isn't one
+     */
+    synchronized BufferedImage poll(int width, int height, int type) {
+        if (!enabled) return null;
+        Deque<BufferedImage> images = idle.get(new Key(width, height, type));
+        BufferedImage image = images == null ? null : images.pollFirst();
+        if (image != null) {
+            idleBytes -= sizeOf(image);
+            countReuse(image);
+        }
+        return image;
+    }
+
+    /**
+     * Hands an image back to the pool. The image must not be used (or displayed) afterwards
+     *
+     * @param image - The image to give back
+     */
+    synchronized void release(BufferedImage image) {
+        if (!enabled || image == null || image.getType() == BufferedImage.TYPE_CUSTOM) return;
+        long size = sizeOf(image);
+        if (idleBytes + size > maxBytes) return;
+        idle.computeIfAbsent(new Key(image.getWidth(), image.getHeight(), image.getType()),
+                k -> new ArrayDeque<>()).addFirst(image);
+        idleBytes += size;
+    }
+
+    /**
+     * Drops every idle image
+     */
+    synchronized void trim() {
+        idle.clear();
+        idleBytes = 0;
+    }
+
+    /**
+     * Resets the allocation and reuse counters
+     */
+    synchronized void resetStatistics() {
+        allocations = 0;
+        allocatedBytes = 0;
+        reuses = 0;
+        reusedBytes = 0;
+    }
+
+    /**
+     * @return - The number of bytes allocated for new images by this pool
+     */
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return - The number of bytes that were reused instead of allocated
+     */
+    synchronized long getReusedBytes() {
+        return reusedBytes;
+    }
+
+    /**
+     * @return - A one line summary of how well the pool is doing
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("Raster pool: %d allocations (%d MiB), %d reuses (%d MiB), %d MiB idle",
+                allocations, allocatedBytes >> 20, reuses, reusedBytes >> 20, idleBytes >> 20);
+    }
+
+    /**
+     * Helper method to record that an image was reused
+     *
+     * @param image - The image that was reused
+     */
+    private synchronized void countReuse(BufferedImage image) {
+        reuses++;
+        reusedBytes += sizeOf(image);
+    }
+
+    /**
+     * Estimates how much memory an image's pixels use
+     *
+     * @param image - The image to measure
+     * @return - The approximate size of the image's pixel data in bytes
+     */
+    static long sizeOf(BufferedImage image) {
+        long bits = (long) image.getColorModel().getPixelSize();
+        return (long) image.getWidth() * image.getHeight() * Math.max(1, (bits + 7) / 8);
+    }
+
+    /**
+     * What makes two images interchangeable
+     */
+    private static class Key {
+        private final int width;
+        private final int height;
+        private final int type;
+
+        Key(int width, int height, int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return width == other.width && height == other.height && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + type;
+        }
+    }
+}
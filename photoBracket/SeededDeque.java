@@ -0,0 +1,357 @@
+package photoBracket;
+
+import java.util.*;
+
+/**
+ * The images in a round, kept in the order a SeedingStrategy puts them in. Like LinkedListHashSet
+ * each image can only be in it once and images can be taken from either end, but the position of
+ * an image is worked out from its rank when it is added, so adding and taking images costs
+ * O(log n) no matter how the round is ordered. Images put back with defer() go after every image
+ * already there (whatever their rank), so asking for different pictures never brings the same ones
+ * straight back.
+ * <p>
+ * The order depends only on the strategy and on what was added, which is what lets the Bracket
+ * say which images it will hand out next
+ */
+class SeededDeque extends AbstractCollection<ImageFile> {
+
+    private final TreeSet<Entry> order;
+    private final Map<ImageFile, Entry> entries;
+    private SeedingStrategy strategy;
+    // breaks ties between images with the same rank so they stay in the order they were added
+    private long sequence;
+    // the images as they were last copied out by snapshot(), or null once they are out of date.
+    // The lists snapshot() hands out all share this array, and only ever see the slots from
+    // shownFrom to shownTo at the time, so images taken from either end just move the bounds and
+    // an image added at the end can go in a slot no list has seen yet (up to shownFilled)
+    private ImageFile[] shown;
+    private int shownFrom;
+    private int shownTo;
+    private int shownFilled;
+
+    /**
+     * Constructs an empty deque
+     *
+     * @param strategy - How to order the images
+     */
+    SeededDeque(SeedingStrategy strategy) {
+        this.strategy = strategy;
+        order = new TreeSet<>();
+        entries = new HashMap<>();
+    }
+
+    /**
+     * @return - How the images are ordered
+     */
+    SeedingStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Reorders every image with a strategy. The ranks are worked out again, so this is also how
+     * to pick up ranks that have changed (for example once images have been scored). Images that
+     * were deferred stay behind the others
+     *
+     * @param strategy - How to order the images
+     */
+    void setStrategy(SeedingStrategy strategy) {
+        this.strategy = strategy;
+        shown = null;
+        List<Entry> old = new ArrayList<>(order);
+        order.clear();
+        entries.clear();
+        for (Entry entry : old) put(entry.file, entry.pass, entry.sequence);
+    }
+
+    /**
+     * Adds an image in its place
+     *
+     * @param file - The image
+     * @return - True if it was added, false if it was already there
+     */
+    @Override
+    public boolean add(ImageFile file) {
+        if (entries.containsKey(file)) return false;
+        put(file, 0, sequence++);
+        placeShown(file);
+        return true;
+    }
+
+    /**
+     * Adds images in their places. An empty deque (such as a round being restored) is filled in
+     * one go: the images are ranked and sorted, and the tree is built straight from the sorted
+     * list rather than being balanced again after every image
+     *
+     * @param files - The images
+     * @return - True if any of them were added
+     */
+    @Override
+    public boolean addAll(Collection<? extends ImageFile> files) {
+        if (!order.isEmpty()) return super.addAll(files);
+        List<Entry> sorted = new ArrayList<>(files.size());
+        for (ImageFile file : files) {
+            if (entries.containsKey(file)) continue;
+            Entry entry = new Entry(file, 0, strategy.rank(file), strategy.name(file), sequence++);
+            entries.put(file, entry);
+            sorted.add(entry);
+        }
+        if (sorted.isEmpty()) return false;
+        // images that are already in order (as they are when restored) sort in one pass
+        Collections.sort(sorted);
+        order.addAll(new SortedEntries(sorted));
+        shown = null;
+        return true;
+    }
+
+    /**
+     * Puts an image back behind every image that is already here
+     *
+     * @param file - The image
+     * @return - True if it was added, false if it was already there
+     */
+    boolean defer(ImageFile file) {
+        if (entries.containsKey(file)) return false;
+        put(file, order.isEmpty() ? 0 : order.last().pass + 1, sequence++);
+        placeShown(file);
+        return true;
+    }
+
+    /**
+     * @return - The first image (without removing it) or null if there are none
+     */
+    ImageFile peekFirst() {
+        return order.isEmpty() ? null : order.first().file;
+    }
+
+    /**
+     * @return - The first image (removing it) or null if there are none
+     */
+    ImageFile pollFirst() {
+        Entry entry = order.pollFirst();
+        if (entry == null) return null;
+        entries.remove(entry.file);
+        shownFrom++;
+        return entry.file;
+    }
+
+    /**
+     * @return - The last image (removing it) or null if there are none
+     */
+    ImageFile pollLast() {
+        Entry entry = order.pollLast();
+        if (entry == null) return null;
+        entries.remove(entry.file);
+        shownTo--;
+        return entry.file;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return entries.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Entry entry = entries.remove(o);
+        if (entry == null) return false;
+        shown = null;
+        return order.remove(entry);
+    }
+
+    @Override
+    public void clear() {
+        order.clear();
+        entries.clear();
+        shown = null;
+    }
+
+    @Override
+    public int size() {
+        return order.size();
+    }
+
+    /**
+     * @return - Goes through the images from first to last
+     */
+    @Override
+    public Iterator<ImageFile> iterator() {
+        Iterator<Entry> iterator = order.iterator();
+        return new Iterator<ImageFile>() {
+            private Entry current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public ImageFile next() {
+                current = iterator.next();
+                return current.file;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                entries.remove(current.file);
+                shown = null;
+            }
+        };
+    }
+
+    /**
+     * Lists the images from first to last as they are now. Only the first call after the images
+     * are reordered (or added anywhere but the end) copies them: after that, taking images from
+     * either end or adding one at the end costs nothing, so a round that is being played can be
+     * listed after every change
+     *
+     * @return - The images in order. The list never changes, whatever happens to the deque later
+     */
+    List<ImageFile> snapshot() {
+        if (shown == null) {
+            shown = new ImageFile[order.size() + order.size() / 2 + 16];
+            shownFrom = 0;
+            shownTo = 0;
+            for (Entry entry : order) shown[shownTo++] = entry.file;
+            shownFilled = shownTo;
+        }
+        return Collections.unmodifiableList(Arrays.asList(shown).subList(shownFrom, shownTo));
+    }
+
+    /**
+     * Helper method that ranks an image and puts it in place
+     *
+     * @param file     - The image
+     * @param pass     - How many times it has been put behind the rest
+     * @param sequence - When it was added
+     */
+    private void put(ImageFile file, int pass, long sequence) {
+        Entry entry = new Entry(file, pass, strategy.rank(file), strategy.name(file), sequence);
+        order.add(entry);
+        entries.put(file, entry);
+    }
+
+    /**
+     * Helper method that keeps the images copied out by snapshot() up to date after an image has
+     * been added. An image that went in at the end is written after the others, unless a list
+     * that was handed out has already seen that slot (after the last image was taken)
+     *
+     * @param file - The image that was added
+     */
+    private void placeShown(ImageFile file) {
+        if (shown == null) return;
+        if (order.last().file != file || shownTo != shownFilled) {
+            shown = null;
+            return;
+        }
+        // lists that were handed out keep the old array, so it can be swapped for a bigger one
+        if (shownTo == shown.length) shown = Arrays.copyOf(shown, shown.length * 2);
+        shown[shownTo++] = file;
+        shownFilled = shownTo;
+    }
+
+    /**
+     * A sorted list of entries (with no duplicates) passed off as a SortedSet, which is what lets
+     * TreeSet.addAll() build the tree in a single pass. The ranges are views of the same list,
+     * found by binary search
+     */
+    private static final class SortedEntries extends AbstractSet<Entry>
+            implements SortedSet<Entry> {
+        private final List<Entry> sorted;
+
+        SortedEntries(List<Entry> sorted) {
+            this.sorted = sorted;
+        }
+
+        @Override
+        public Iterator<Entry> iterator() {
+            return sorted.iterator();
+        }
+
+        @Override
+        public int size() {
+            return sorted.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Entry && Collections.binarySearch(sorted, (Entry) o) >= 0;
+        }
+
+        @Override
+        public Comparator<? super Entry> comparator() {
+            // the natural order, like the TreeSet
+            return null;
+        }
+
+        @Override
+        public Entry first() {
+            if (sorted.isEmpty()) throw new NoSuchElementException();
+            return sorted.get(0);
+        }
+
+        @Override
+        public Entry last() {
+            if (sorted.isEmpty()) throw new NoSuchElementException();
+            return sorted.get(sorted.size() - 1);
+        }
+
+        @Override
+        public SortedSet<Entry> subSet(Entry fromElement, Entry toElement) {
+            if (fromElement.compareTo(toElement) > 0) {
+                throw new IllegalArgumentException("fromElement is after toElement");
+            }
+            return new SortedEntries(sorted.subList(indexOf(fromElement), indexOf(toElement)));
+        }
+
+        @Override
+        public SortedSet<Entry> headSet(Entry toElement) {
+            return new SortedEntries(sorted.subList(0, indexOf(toElement)));
+        }
+
+        @Override
+        public SortedSet<Entry> tailSet(Entry fromElement) {
+            return new SortedEntries(sorted.subList(indexOf(fromElement), sorted.size()));
+        }
+
+        /**
+         * Helper method that finds where an entry is or would go
+         *
+         * @param entry - The entry
+         * @return - The index of the first entry that isn't before it
+         */
+        private int indexOf(Entry entry) {
+            int index = Collections.binarySearch(sorted, entry);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    /**
+     * An image and where it goes. Ranks are stored rather than looked up each time they're
+     * compared so that the tree stays in order even if a rank would come out differently later
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final ImageFile file;
+        final int pass;
+        final double rank;
+        final String name;
+        final long sequence;
+
+        Entry(ImageFile file, int pass, double rank, String name, long sequence) {
+            this.file = file;
+            this.pass = pass;
+            this.rank = rank;
+            this.name = name;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (pass != o.pass) return Integer.compare(pass, o.pass);
+            int byRank = Double.compare(rank, o.rank);
+            if (byRank != 0) return byRank;
+            int byName = name.compareTo(o.name);
+            return byName != 0 ? byName : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package photoBracket;
+
+import java.io.File;
+
+/**
+ * The order the images in a round are compared in. A strategy gives each image a rank (lower goes
+ * first) when it joins a round, and decides whether groups are taken from both ends of the round
+ * or from the front only:
+ * <ul>
+ *     <li>taking from both ends pairs the first image with the last, so when the round is sorted
+ *     by quality the best images are compared with the worst and strong images only meet each
+ *     other in later rounds, and</li>
+ *     <li>taking from the front compares neighbours, so when the round is sorted by capture time
+ *     or folder the shots of the same scene are compared with each other.</li>
+ * </ul>
+ * A strategy can also keep images apart: SCENE only compares photos from the same scene, and a
+ * photo with nothing from its scene left to compare against goes through to the next round.
+ */
+enum SeedingStrategy {
+
+    // the order the images were added in, compared first against last (the original behavior)
+    ADDED(true),
+    // best to worst (see QualityScorer). Images that haven't been scored go last
+    QUALITY(true) {
+        @Override
+        double rank(ImageFile file) {
+            QualityScorer.Score score = QualityScorer.getInstance().peekScore(file);
+            // values are never negative, so the best image has the lowest rank
+            return score == null ? 1 : -score.getValue();
+        }
+    },
+    // oldest to newest (see ExifReader)
+    CAPTURE_TIME(false) {
+        @Override
+        double rank(ImageFile file) {
+            return ExifReader.getInstance().getCaptureTime(file);
+        }
+    },
+    // oldest to newest, only comparing photos from the same scene
+    SCENE(false) {
+        @Override
+        double rank(ImageFile file) {
+            return ExifReader.getInstance().getCaptureTime(file);
+        }
+
+        @Override
+        boolean canCompare(ImageFile previous, ImageFile next) {
+            return ExifReader.getInstance().isSameScene(previous, next);
+        }
+    },
+    // grouped by folder, in name order within each folder
+    FOLDER(false) {
+        @Override
+        String name(ImageFile file) {
+            String parent = file.getParent();
+            return (parent == null ? "" : parent) + File.separatorChar + file.getName();
+        }
+    };
+
+    private final boolean fromBothEnds;
+
+    /**
+     * @param fromBothEnds - Whether groups are taken from both ends of a round rather than the
+     *                     front
+     */
+    SeedingStrategy(boolean fromBothEnds) {
+        this.fromBothEnds = fromBothEnds;
+    }
+
+    /**
+     * @return - Whether groups are taken alternately from the front and the back of a round
+     */
+    boolean isFromBothEnds() {
+        return fromBothEnds;
+    }
+
+    /**
+     * Gets the rank of an image. Called once when the image joins a round, so it must not read
+     * the image itself (it runs on the event dispatch thread)
+     *
+     * @param file - The image
+     * @return - Its rank. Lower ranks go first
+     */
+    double rank(ImageFile file) {
+        return 0;
+    }
+
+    /**
+     * Gets a name to order images with the same rank by
+     *
+     * @param file - The image
+     * @return - The name. Images with the same rank and name stay in the order they were added
+     */
+    String name(ImageFile file) {
+        return "";
+    }
+
+    /**
+     * Decides whether an image can join a group. Groups are made of neighbours, so this is asked
+     * about each image and the one before it
+     *
+     * @param previous - The last image in the group so far
+     * @param next     - The next image in the round
+     * @return - True if next can be compared with the group
+     */
+    boolean canCompare(ImageFile previous, ImageFile next) {
+        return true;
+    }
+
+    /**
+     * Finds a strategy by name, for reading it from the preferences
+     *
+     * @param name - The name of the strategy
+     * @return - The strategy, or ADDED if there isn't one with that name
+     */
+    static SeedingStrategy fromName(String name) {
+        for (SeedingStrategy strategy : values()) {
+            if (strategy.name().equals(name)) return strategy;
+        }
+        return ADDED;
+    }
+}
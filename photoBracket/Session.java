@@ -0,0 +1,216 @@
+package photoBracket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * One bracket the user is working on (for example one per shoot) along with everything that
+ * belongs to it: its favorites and where it was up to. Each session is shown in its own Window.
+ * The default session keeps its favorites in .favorites like before, and other sessions keep their
+ * files in their own directory under .sessions
+ */
+class Session {
+
+    static final String DEFAULT_NAME = "default";
+    private static final File SESSIONS_DIR = new File(".sessions");
+
+    private final String name;
+    private final File favorites;
+    // where the bracket is saved when the window closes
+    private final File state;
+
+    /**
+     * Constructs a session. Use getDefault() or named() instead
+     *
+     * @param name      - The name of the session
+     * @param favorites - The file the session's favorites are saved to
+     * @param state     - The file the session's bracket is saved to
+     */
+    private Session(String name, File favorites, File state) {
+        this.name = name;
+        this.favorites = favorites;
+        this.state = state;
+    }
+
+    /**
+     * @return - The session that is opened when the app starts
+     */
+    static Session getDefault() {
+        return new Session(DEFAULT_NAME, new File(".favorites"), new File(".bracket"));
+    }
+
+    /**
+     * Gets the session with the given name, which is created the first time it is saved
+     *
+     * @param name - The name of the session
+     * @return - The session
+     * @throws IllegalArgumentException - If the name is empty once characters that can't be used
+     *                                  in a file name are removed
+     */
+    static Session named(String name) {
+        String cleaned = name.trim().replaceAll("[^\\w .-]", "").replaceAll("^\\.+", "");
+        if (cleaned.isEmpty()) throw new IllegalArgumentException("Invalid session name: " + name);
+        if (cleaned.equals(DEFAULT_NAME)) return getDefault();
+        File dir = new File(SESSIONS_DIR, cleaned);
+        return new Session(cleaned, new File(dir, "favorites"), new File(dir, "bracket"));
+    }
+
+    /**
+     * @return - The names of every session that has been saved, starting with the default session
+     */
+    static List<String> list() {
+        List<String> names = new ArrayList<>();
+        names.add(DEFAULT_NAME);
+        File[] dirs = SESSIONS_DIR.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (!dir.getName().equals(DEFAULT_NAME)) names.add(dir.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return - The name of the session
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return - The file this session's favorites are saved to (its directory is created if needed)
+     */
+    File getFavorites() {
+        File dir = favorites.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Logger.getLogger(getClass().getName()).warning("Unable to create " + dir);
+        }
+        return favorites;
+    }
+
+    /**
+     * Opens the log of the comparisons made in this session. The default session keeps its log in
+     * .sessions/default since it never had a directory of its own
+     *
+     * @return - The log, or null if it can't be read
+     */
+    ComparisonLog openComparisonLog() {
+        File dir = name.equals(DEFAULT_NAME) ? new File(SESSIONS_DIR, DEFAULT_NAME) :
+                state.getParentFile();
+        try {
+            return new ComparisonLog(dir);
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to open the comparison log " +
+                    "for session " + name + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the bracket this session was working on when it was last closed. Sessions are saved
+     * as a SessionSnapshot, but ones saved by older versions as text are still read (and are saved
+     * as a snapshot next time)
+     *
+     * @return - The saved bracket, or an empty bracket if nothing was saved (or it can't be read)
+     */
+    Bracket load() {
+        if (!state.isFile()) return new Bracket();
+        try {
+            if (SessionSnapshot.isSnapshot(state)) {
+                long start = System.nanoTime();
+                Bracket bracket = SessionSnapshot.read(state);
+                Logger.getLogger(getClass().getName()).fine("Restored session " + name + " ("
+                        + bracket.size() + " images) in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                return bracket;
+            }
+            return loadText();
+        } catch (IOException | NumberFormatException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to read session " + name +
+                    ": " + e);
+            return new Bracket();
+        }
+    }
+
+    /**
+     * Helper method that reads a session saved as text by an older version
+     *
+     * @return - The saved bracket
+     * @throws IOException - If the file can't be read
+     */
+    private Bracket loadText() throws IOException {
+        List<ImageFile> current = new ArrayList<>();
+        List<ImageFile> winners = new ArrayList<>();
+        int rounds = 0;
+        boolean changed = false;
+        // saved like the preferences: one key=value per line
+        for (String line : Files.readAllLines(state.toPath())) {
+            String[] entry = line.split("=", 2);
+            if (entry.length != 2) continue;
+            switch (entry[0]) {
+                case "rounds":
+                    rounds = Integer.parseInt(entry[1]);
+                    break;
+                case "changed":
+                    changed = Boolean.parseBoolean(entry[1]);
+                    break;
+                case "current":
+                    current.add(new ImageFile(entry[1]));
+                    break;
+                case "winner":
+                    winners.add(new ImageFile(entry[1]));
+                    break;
+                default:
+                    // written by a newer version - ignore it
+            }
+        }
+        // usually straight from the hash cache, but a session moved to another computer has to
+        // read its images again and that goes faster on every core
+        List<ImageFile> all = new ArrayList<>(current);
+        all.addAll(winners);
+        ContentHasher.getInstance().identify(all);
+        return Bracket.restore(current, winners, rounds, changed);
+    }
+
+    /**
+     * Saves a bracket so the session can carry on where it left off next time. The images on
+     * screen must have been put back into the bracket first
+     *
+     * @param bracket - The bracket to save
+     */
+    void save(Bracket bracket) {
+        try {
+            File dir = state.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory()) Files.createDirectories(dir.toPath());
+            // written to the side first so a crash part way through doesn't lose the old state
+            File temp = new File(dir, state.getName() + ".tmp");
+            SessionSnapshot.write(bracket, temp);
+            Files.move(temp.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).warning("Unable to save session " + name +
+                    ": " + e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Session && name.equals(((Session) o).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
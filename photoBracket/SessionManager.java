@@ -0,0 +1,163 @@
+package photoBracket;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the sessions that are open. Each session gets its own Window and Bracket, while
+ * the preferences, the decoder threads (see DecodeScheduler) and the image caches are shared by all
+ * of them. The app exits once the last window is closed. Only used on the event dispatch thread
+ */
+class SessionManager {
+
+    private static final SessionManager INSTANCE = new SessionManager();
+
+    private final File preferences;
+    // all settings - shared by every window
+    private final Map<String, String> settings;
+    private final Map<Session, Window> windows;
+    private boolean started;
+
+    /**
+     * Constructs the manager and reads the preferences
+     */
+    private SessionManager() {
+        preferences = new File(".prefs");
+        settings = new HashMap<>();
+        windows = new LinkedHashMap<>();
+        try {
+            // creates a new file if one doesn't already exist. Reads the preferences if one does
+            if (!preferences.createNewFile()) {
+                List<String> lines = Files.readAllLines(preferences.toPath());
+                for (String line : lines) {
+                    String[] preference = line.split("=");
+                    if (preference.length != 2) continue; // ignore any preference that is not
+                    // correctly formatted
+                    settings.put(preference[0], preference[1]);
+                }
+            }
+        } catch (IOException e) {
+            settings.clear();
+        }
+    }
+
+    /**
+     * @return - The manager for this app
+     */
+    static SessionManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return - The settings shared by every window. Changes are saved whenever a window closes
+     */
+    Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Opens a window for a session, or brings its window to the front if it is already open
+     *
+     * @param session - The session to open
+     */
+    void open(Session session) {
+        Window window = windows.get(session);
+        if (window != null) {
+            window.toFront();
+            return;
+        }
+        windows.put(session, new Window(session));
+    }
+
+    /**
+     * Called by a window once it is open and ready to use. The first time, logs how long the app
+     * took to start. With -DphotoBracket.exitAfterStartup=true the app then exits, which is how
+     * appcds.sh times startup and records the classes startup uses
+     */
+    void opened() {
+        if (started) return;
+        started = true;
+        Logger.getLogger(getClass().getName()).info("Started in " + TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - Main.STARTED) + " ms");
+        if (Boolean.getBoolean("photoBracket.exitAfterStartup")) System.exit(0);
+    }
+
+    /**
+     * Asks the user for the name of a new session and opens it
+     *
+     * @param parent - The component to show the dialog over
+     */
+    void openNew(Component parent) {
+        String name = JOptionPane.showInputDialog(parent, "Name the new session (for example " +
+                "the name of the shoot)", "New session", JOptionPane.QUESTION_MESSAGE);
+        if (name == null) return;
+        try {
+            open(Session.named(name));
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(parent, "Session names need at least one letter or " +
+                    "number", "Invalid name", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Asks the user which saved session to open and opens it
+     *
+     * @param parent - The component to show the dialog over
+     */
+    void openExisting(Component parent) {
+        Object[] names = Session.list().toArray();
+        Object name = JOptionPane.showInputDialog(parent, "Choose a session to open",
+                "Open session", JOptionPane.QUESTION_MESSAGE, null, names, names[0]);
+        if (name != null) open(Session.named(name.toString()));
+    }
+
+    /**
+     * Called by a window once its session has been saved and it has closed. Saves the
+     * preferences and exits if it was the last window
+     *
+     * @param session - The session that was closed
+     */
+    void closed(Session session) {
+        windows.remove(session);
+        saveSettings();
+        ContentHasher.getInstance().save();
+        QualityScorer.getInstance().save();
+        ExifReader.getInstance().save();
+        if (!windows.isEmpty()) return;
+        Logger.getLogger(getClass().getName()).info(SoftImageCache.getInstance().toString());
+        Logger.getLogger(getClass().getName()).info(RasterPool.getInstance().toString());
+        Logger.getLogger(getClass().getName()).info(DecodeScheduler.getInstance().toString());
+        System.exit(0);
+    }
+
+    /**
+     * Writes the settings to file. Note this may not always work perfectly (i.e. if the system
+     * crashes or the process receives a SIGKILL) but it should work in most cases
+     */
+    private void saveSettings() {
+        StringBuilder sb = new StringBuilder();
+        for (String key : settings.keySet()) {
+            sb.append(key);
+            sb.append('='); // note all settings should be in the form key=value\n
+            sb.append(settings.get(key));
+            sb.append('\n');
+        }
+        try {
+            Files.write(preferences.toPath(), sb.toString().getBytes(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException error) {
+            Logger.getLogger(getClass().getName()).warning("IOException: could not write " +
+                    "preferences to file");
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package photoBracket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves a Bracket in a binary file that can be read back without parsing it. The file is read
+ * through a memory mapping (except on Windows, see read()) and everything in it is at a position
+ * that can be worked out from the header, so restoring a session is one pass over the images with
+ * no text to split or numbers to parse. Paths are kept in a string table, split into their
+ * directory and their name so a directory is only stored once however many photos are in it, and
+ * each image is a fixed size record that refers to its strings by number. Along with the path each
+ * record holds what the ContentHasher and ExifReader know about the image (its pre-key and full
+ * hash, the size and modification time they were worked out for, and its orientation), so restored
+ * images don't have to be read again to be put in the bracket.
+ * <p>
+ * The layout (all numbers big-endian):
+ * <pre>
+ * header   MAGIC, VERSION, flags, round count, current count, winner count, string count,
+ *          0, string bytes (a long)
+ * strings  string count + 1 offsets into the string bytes (ints), then the UTF-8 bytes, padded
+ *          to a multiple of 8
+ * records  current count records for the current round, in order, then winner count records
+ *          for the winners, each RECORD_BYTES long: directory string (or -1), name string,
+ *          modified, size, pre-key, full hash (longs), record flags, orientation (bytes), padding
+ * </pre>
+ * A file with a newer VERSION can't be read and is reported as unreadable
+ */
+class SessionSnapshot {
+
+    // "PBSS" - also how Session tells a snapshot from the older text format
+    static final int MAGIC = 0x50425353;
+    static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 40;
+    private static final int RECORD_BYTES = 48;
+    // bracket flags
+    private static final int CHANGED = 1;
+    // record flags
+    private static final int IDENTIFIED = 1;
+    private static final int HASHED = 2;
+    private static final int HAS_FULL = 4;
+
+    // fills the ContentHasher in from restored snapshots in the background (see read())
+    private static final ExecutorService HASHES = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Snapshot hashes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Not instantiable - use the static methods
+     */
+    private SessionSnapshot() {
+    }
+
+    /**
+     * Checks whether a file is a snapshot, by reading the first four bytes
+     *
+     * @param file - The file
+     * @return - True if it starts with MAGIC
+     * @throws IOException - If the file can't be read
+     */
+    static boolean isSnapshot(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) return false;
+            }
+            return magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Writes a bracket to a file. The images on screen must have been put back into the bracket
+     * first
+     *
+     * @param bracket - The bracket
+     * @param file    - Where to write it. Anything already there is replaced
+     * @throws IOException - If the file can't be written
+     */
+    static void write(Bracket bracket, File file) throws IOException {
+        Bracket.Snapshot state = bracket.getSnapshot();
+        List<ImageFile> current = state.getCurrentImageFiles();
+        List<ImageFile> winners = state.getWinnerImageFiles();
+        List<ImageFile> all = new ArrayList<>(current);
+        all.addAll(winners);
+        Map<String, Integer> indices = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] references = new int[2 * all.size()];
+        long stringBytes = 0;
+        int i = 0;
+        for (ImageFile image : all) {
+            File absolute = image.getAbsoluteFile();
+            String[] parts = {absolute.getParent(), absolute.getName()};
+            for (String part : parts) {
+                Integer index = part == null ? Integer.valueOf(-1) : indices.get(part);
+                if (index == null) {
+                    index = strings.size();
+                    indices.put(part, index);
+                    byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+                    strings.add(bytes);
+                    stringBytes += bytes.length;
+                }
+                references[i++] = index;
+            }
+        }
+        long stringsEnd = align(HEADER_BYTES + 4L * (strings.size() + 1) + stringBytes);
+        long size = stringsEnd + (long) RECORD_BYTES * all.size();
+        if (size > Integer.MAX_VALUE) throw new IOException("Session too large to save");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(state.hasChanged() ? CHANGED : 0)
+                .putInt(state.getRoundCount()).putInt(current.size()).putInt(winners.size())
+                .putInt(strings.size()).putInt(0).putLong(stringBytes);
+        int offset = 0;
+        for (byte[] string : strings) {
+            buffer.putInt(offset);
+            offset += string.length;
+        }
+        buffer.putInt(offset);
+        for (byte[] string : strings) buffer.put(string);
+        buffer.position((int) stringsEnd);
+        i = 0;
+        ContentHasher hasher = ContentHasher.getInstance();
+        for (ImageFile image : all) {
+            int flags = 0;
+            long preKey = 0;
+            // images are identified when they join a round, so this doesn't read them again
+            if (image.isIdentifiedByContent()) {
+                flags |= IDENTIFIED;
+                preKey = image.getPreKey();
+            }
+            ContentHasher.Entry entry = hasher.peek(image);
+            if (entry != null && entry.preKey != preKey) entry = null;
+            if (entry != null) flags |= HASHED | (entry.hasFull ? HAS_FULL : 0);
+            buffer.putInt(references[i++]).putInt(references[i++])
+                    .putLong(entry == null ? 0 : entry.modified)
+                    .putLong(entry == null ? 0 : entry.size).putLong(preKey)
+                    .putLong(entry == null || !entry.hasFull ? 0 : entry.full)
+                    .put((byte) flags).put((byte) image.getKnownOrientation())
+                    .putShort((short) 0).putInt(0);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads a bracket written by write()
+     *
+     * @param file - The file
+     * @return - The bracket
+     * @throws IOException - If the file can't be read, isn't a snapshot, was written by a newer
+     *                     version or is damaged
+     */
+    static Bracket read(File file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Session snapshot too large");
+            if (File.separatorChar == '/') {
+                // the mapping stays valid once the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                // Windows won't replace a file while it is mapped, and the mapping lasts until
+                // the garbage collector gets to it, so saving the session could fail
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) throw new IOException("File ended early");
+                }
+            }
+        }
+        if (buffer.capacity() < 4 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a session snapshot");
+        }
+        if (buffer.capacity() < HEADER_BYTES) throw new IOException("Damaged session snapshot");
+        int version = buffer.getInt(4);
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+        boolean changed = (buffer.getInt(8) & CHANGED) != 0;
+        int roundCount = buffer.getInt(12);
+        int currentCount = buffer.getInt(16);
+        int winnerCount = buffer.getInt(20);
+        int stringCount = buffer.getInt(24);
+        long stringBytes = buffer.getLong(32);
+        if (currentCount < 0 || winnerCount < 0 || stringCount < 0 || stringBytes < 0
+                || stringBytes > Integer.MAX_VALUE) {
+            throw new IOException("Damaged session snapshot");
+        }
+        long stringsEnd = align(HEADER_BYTES + 4L * (stringCount + 1) + stringBytes);
+        if (stringsEnd + (long) RECORD_BYTES * (currentCount + winnerCount)
+                != buffer.capacity()) {
+            throw new IOException("Damaged session snapshot");
+        }
+
+        StringTable strings = new StringTable(buffer, stringCount, (int) stringBytes);
+        List<ImageFile> images = new ArrayList<>(currentCount + winnerCount);
+        int position = (int) stringsEnd;
+        for (int i = 0; i < currentCount + winnerCount; i++, position += RECORD_BYTES) {
+            int directory = buffer.getInt(position);
+            int name = buffer.getInt(position + 4);
+            if (directory < -1 || directory >= stringCount || name < 0 || name >= stringCount) {
+                throw new IOException("Damaged session snapshot");
+            }
+            ImageFile image = new ImageFile(strings.getPath(directory, name));
+            if ((buffer.get(position + 40) & IDENTIFIED) != 0) {
+                image.restore(buffer.getLong(position + 24), buffer.get(position + 41));
+            }
+            images.add(image);
+        }
+        Bracket bracket = Bracket.restore(images.subList(0, currentCount),
+                images.subList(currentCount, images.size()), roundCount, changed);
+        // the images are already identified, so the hashes are only needed later on and are
+        // handed over once the window has what it needs
+        HASHES.execute(() -> rememberHashes(buffer, (int) stringsEnd, images));
+        return bracket;
+    }
+
+    /**
+     * Helper method that gives the ContentHasher what was saved about each image, so an image
+     * whose full hash was worked out before doesn't have to be read in full again. Runs on the
+     * hashes thread
+     *
+     * @param buffer  - The snapshot
+     * @param records - Where the records start
+     * @param images  - The images, in the same order as the records
+     */
+    private static void rememberHashes(ByteBuffer buffer, int records, List<ImageFile> images) {
+        ContentHasher hasher = ContentHasher.getInstance();
+        int position = records;
+        for (ImageFile image : images) {
+            int flags = buffer.get(position + 40);
+            if ((flags & HASHED) != 0) {
+                long modified = buffer.getLong(position + 8);
+                long size = buffer.getLong(position + 16);
+                long preKey = buffer.getLong(position + 24);
+                hasher.remember(image.getPath(), (flags & HAS_FULL) == 0
+                        ? new ContentHasher.Entry(modified, size, preKey)
+                        : new ContentHasher.Entry(modified, size, preKey,
+                        buffer.getLong(position + 32)));
+            }
+            position += RECORD_BYTES;
+        }
+    }
+
+    /**
+     * Helper method that rounds a position up to a multiple of 8, so the records start on a long
+     *
+     * @param position - The position
+     * @return - The position rounded up
+     */
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * The string table of a snapshot being read. Paths are decoded straight from the directory
+     * and name bytes, so no strings are made for the parts of a path
+     */
+    private static final class StringTable {
+        private final byte[] data;
+        // where each string starts in data, and where the last one ends
+        private final int[] offsets;
+        private byte[] path;
+
+        /**
+         * Reads the string table
+         *
+         * @param buffer - The snapshot
+         * @param count  - The number of strings
+         * @param bytes  - The number of bytes they take up
+         * @throws IOException - If an offset is out of place
+         */
+        StringTable(ByteBuffer buffer, int count, int bytes) throws IOException {
+            offsets = new int[count + 1];
+            for (int i = 0; i <= count; i++) {
+                offsets[i] = buffer.getInt(HEADER_BYTES + 4 * i);
+                if (offsets[i] < (i == 0 ? 0 : offsets[i - 1]) || offsets[i] > bytes) {
+                    throw new IOException("Damaged session snapshot");
+                }
+            }
+            // one copy out of the mapping, so the paths are decoded from an array
+            data = new byte[bytes];
+            ByteBuffer source = buffer.duplicate();
+            source.position(HEADER_BYTES + 4 * (count + 1));
+            source.get(data);
+            path = new byte[256];
+        }
+
+        /**
+         * Decodes a path
+         *
+         * @param directory - The number of the directory string, or -1 if there isn't one
+         * @param name      - The number of the name string
+         * @return - The path
+         */
+        String getPath(int directory, int name) {
+            int nameLength = offsets[name + 1] - offsets[name];
+            if (directory < 0) {
+                return new String(data, offsets[name], nameLength, StandardCharsets.UTF_8);
+            }
+            int directoryLength = offsets[directory + 1] - offsets[directory];
+            int length = directoryLength + 1 + nameLength;
+            if (path.length < length) path = new byte[Math.max(length, 2 * path.length)];
+            System.arraycopy(data, offsets[directory], path, 0, directoryLength);
+            path[directoryLength] = (byte) File.separatorChar;
+            System.arraycopy(data, offsets[name], path, directoryLength + 1, nameLength);
+            return new String(path, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
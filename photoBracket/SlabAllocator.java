@@ -0,0 +1,163 @@
+package photoBracket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Hands out direct (off-heap) buffers for pixel data. Buffers are grouped into power-of-two size
+ * classes and are recycled once released, so decoding photos of similar sizes over and over does
+ * not keep asking the operating system for fresh memory
+ */
+class SlabAllocator {
+
+    // the smallest size class is 64 KiB - anything smaller is not worth keeping off-heap
+    private static final int MIN_SHIFT = 16;
+    // the largest size class is 1 GiB (which is larger than any photo we can decode anyway)
+    private static final int MAX_SHIFT = 30;
+    // how many bytes of released slabs are kept around for reuse before they're dropped
+    private static final long DEFAULT_RETAINED_BYTES = 256L * 1024 * 1024;
+
+    private static final SlabAllocator INSTANCE = new SlabAllocator(DEFAULT_RETAINED_BYTES);
+
+    private final Deque<ByteBuffer>[] free;
+    private final long maxRetainedBytes;
+    private long retainedBytes;
+    private long allocatedBytes;
+
+    /**
+     * Constructs an allocator that keeps at most maxRetainedBytes of released slabs for reuse
+     *
+     * @param maxRetainedBytes - The maximum number of idle bytes to hold on to
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SlabAllocator(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        free = new Deque[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @return - The allocator shared by every ImageFile
+     */
+    static SlabAllocator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets a slab with room for at least the given number of bytes. The slab must be handed back
+     * with release() once it is no longer needed
+     *
+     * @param bytes - The number of bytes needed
+     * @return - A slab whose buffer has at least the requested capacity
+     * @throws IllegalArgumentException - If more than 1 GiB is requested
+     */
+    synchronized Slab allocate(int bytes) {
+        int sizeClass = sizeClassFor(bytes);
+        ByteBuffer buffer = free[sizeClass].pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT))
+                    .order(ByteOrder.nativeOrder());
+        } else {
+            retainedBytes -= buffer.capacity();
+            buffer.clear();
+        }
+        allocatedBytes += buffer.capacity();
+        return new Slab(buffer, sizeClass, bytes);
+    }
+
+    /**
+     * Returns a slab so its memory can be reused. Releasing the same slab twice does nothing
+     *
+     * @param slab - The slab to give back
+     */
+    synchronized void release(Slab slab) {
+        if (slab == null || slab.released) return;
+        slab.released = true;
+        allocatedBytes -= slab.buffer.capacity();
+        // if we're already holding on to enough idle memory let the GC clean the buffer up
+        if (retainedBytes + slab.buffer.capacity() > maxRetainedBytes) return;
+        retainedBytes += slab.buffer.capacity();
+        free[slab.sizeClass].addFirst(slab.buffer);
+    }
+
+    /**
+     * Drops every idle slab so the memory can be returned to the operating system
+     */
+    synchronized void trim() {
+        for (Deque<ByteBuffer> slabs : free) {
+            slabs.clear();
+        }
+        retainedBytes = 0;
+    }
+
+    /**
+     * @return - The number of off-heap bytes currently handed out
+     */
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return - The number of off-heap bytes being held for reuse
+     */
+    synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * Helper method to find the smallest size class that fits the requested number of bytes
+     *
+     * @param bytes - The number of bytes needed
+     * @return - The index of the size class
+     */
+    private static int sizeClassFor(int bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Cannot allocate " + bytes + " bytes");
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(bytes - 1, 1)));
+        if (shift > MAX_SHIFT) throw new IllegalArgumentException(String.format(
+                "Cannot allocate %d bytes (the maximum is %d)", bytes, 1 << MAX_SHIFT));
+        return shift - MIN_SHIFT;
+    }
+
+    /**
+     * A single chunk of off-heap memory handed out by the allocator
+     */
+    static class Slab {
+        private final ByteBuffer buffer;
+        private final int sizeClass;
+        private final int size;
+        private boolean released;
+
+        /**
+         * Constructs a slab
+         *
+         * @param buffer    - The direct buffer that backs this slab
+         * @param sizeClass - The size class the buffer belongs to
+         * @param size      - The number of bytes that were requested
+         */
+        private Slab(ByteBuffer buffer, int sizeClass, int size) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            this.size = size;
+        }
+
+        /**
+         * @return - A view of this slab limited to the number of bytes that were requested
+         */
+        ByteBuffer buffer() {
+            ByteBuffer view = buffer.duplicate().order(buffer.order());
+            view.clear().limit(size);
+            return view.slice().order(buffer.order());
+        }
+
+        /**
+         * @return - The number of bytes that were requested for this slab
+         */
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package photoBracket;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A second tier for flushed images. When an ImageFile is flushed its decoded image is parked here
+ * behind a SoftReference, so the JVM is free to reclaim it when memory gets tight but, if it is
+ * still around the next time the image is needed, it can be reused instead of decoded again
+ */
+class SoftImageCache {
+
+    private static final SoftImageCache INSTANCE = new SoftImageCache();
+
+    private final Map<ImageFile, Entry> entries;
+    private final ReferenceQueue<BufferedImage> reclaimed;
+    // statistics
+    private long stored;
+    private long hits;
+    private long misses;
+    private long reclaimedCount;
+    private long borrowed;
+
+    /**
+     * Constructs an empty cache
+     */
+    SoftImageCache() {
+        // insertion ordered so the longest flushed images are found first
+        entries = new LinkedHashMap<>();
+        reclaimed = new ReferenceQueue<>();
+    }
+
+    /**
+     * @return - The cache shared by every ImageFile
+     */
+    static SoftImageCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Parks a decoded image in the cache
+     *
+     * @param file  - The file the image was decoded from
+     * @param image - The decoded image
+     */
+    synchronized void put(ImageFile file, BufferedImage image) {
+        expungeReclaimed();
+        entries.put(file, new Entry(file, image, reclaimed));
+        stored++;
+    }
+
+    /**
+     * Takes a decoded image back out of the cache if the JVM hasn't reclaimed it
+     *
+     * @param file - The file to look for
+     * @return - The decoded image, or null if it was never cached or has been reclaimed
+     */
+    synchronized BufferedImage take(ImageFile file) {
+        expungeReclaimed();
+        Entry entry = entries.remove(file);
+        if (entry == null) return null;
+        BufferedImage image = entry.get();
+        if (image == null) misses++;
+        else hits++;
+        return image;
+    }
+
+    /**
+     * Takes the longest cached image of the given size and type, no matter which file it belongs
+     * to, so that its memory can be reused for a new image. The image's contents will be
+     * overwritten
+     *
+     * @param width  - The width of the image needed
+     * @param height - The height of the image needed
+     * @param type   - The BufferedImage.TYPE_* of the image needed
+     * @return - A cached image that matches, or null if there isn't one
+     */
+    synchronized BufferedImage takeMatching(int width, int height, int type) {
+        expungeReclaimed();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            BufferedImage image = iterator.next().get();
+            if (image != null && image.getWidth() == width && image.getHeight() == height
+                    && image.getType() == type) {
+                iterator.remove();
+                borrowed++;
+                return image;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops every cached image right away instead of waiting for the JVM to do it
+     */
+    synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.clear();
+        }
+        entries.clear();
+        expungeReclaimed();
+    }
+
+    /**
+     * @return - The number of times a flushed image was reused instead of decoded again
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return - The number of times a flushed image was needed again but had been reclaimed
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return - A one line summary of how well the cache is doing
+     */
+    @Override
+    public synchronized String toString() {
+        expungeReclaimed();
+        long lookups = hits + misses;
+        return String.format("Soft image cache: %d stored, %d reclaimed by the GC, %d/%d reused " +
+                        "(%.0f%%), %d lent to the raster pool, %d currently held", stored,
+                reclaimedCount, hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                borrowed, entries.size());
+    }
+
+    /**
+     * Removes entries whose images have been reclaimed by the JVM. Must be called while holding
+     * the lock
+     */
+    private void expungeReclaimed() {
+        Entry entry;
+        while ((entry = (Entry) reclaimed.poll()) != null) {
+            reclaimedCount++;
+            // the file may have been flushed again since, in which case it has a newer entry
+            if (entries.get(entry.file) == entry) entries.remove(entry.file);
+        }
+    }
+
+    /**
+     * A soft reference that remembers which file it belongs to so it can be removed once reclaimed
+     */
+    private static class Entry extends SoftReference<BufferedImage> {
+        private final ImageFile file;
+
+        /**
+         * Constructs an entry
+         *
+         * @param file  - The file the image was decoded from
+         * @param image - The decoded image
+         * @param queue - Where the entry is put once the image is reclaimed
+         */
+        Entry(ImageFile file, BufferedImage image, ReferenceQueue<BufferedImage> queue) {
+            super(image, queue);
+            this.file = file;
+        }
+    }
+}
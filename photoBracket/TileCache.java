@@ -0,0 +1,111 @@
+package photoBracket;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of decoded tiles, limited by the number of bytes of pixels it holds
+ */
+class TileCache {
+
+    private final LinkedHashMap<Key, BufferedImage> tiles;
+    private final long maxBytes;
+    private long bytes;
+
+    /**
+     * Constructs an empty cache
+     *
+     * @param maxBytes - The maximum number of bytes of tiles to keep
+     */
+    TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        // access ordered so the least recently drawn tile is always first
+        tiles = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    /**
+     * Gets a tile and marks it as recently used
+     *
+     * @param key - The tile to get
+     * @return - The tile, or null if it isn't cached
+     */
+    synchronized BufferedImage get(Key key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * Adds a tile, evicting the least recently used tiles if the cache is full
+     *
+     * @param key  - The tile's key
+     * @param tile - The decoded tile
+     */
+    synchronized void put(Key key, BufferedImage tile) {
+        BufferedImage old = tiles.put(key, tile);
+        if (old != null) bytes -= RasterPool.sizeOf(old);
+        bytes += RasterPool.sizeOf(tile);
+        Iterator<BufferedImage> iterator = tiles.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            BufferedImage evicted = iterator.next();
+            if (evicted == tile) break;
+            bytes -= RasterPool.sizeOf(evicted);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes every tile belonging to a file
+     *
+     * @param file - The file whose tiles should be removed
+     */
+    synchronized void remove(ImageFile file) {
+        Iterator<Map.Entry<Key, BufferedImage>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, BufferedImage> entry = iterator.next();
+            if (entry.getKey().file.equals(file)) {
+                bytes -= RasterPool.sizeOf(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes every tile
+     */
+    synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Identifies one tile of one file at one level of detail
+     */
+    static class Key {
+        final ImageFile file;
+        // the subsampling the tile was decoded at (1 is full resolution, 2 is half etc.)
+        final int level;
+        final int column;
+        final int row;
+
+        Key(ImageFile file, int level, int column, int row) {
+            this.file = file;
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return level == other.level && column == other.column && row == other.row
+                    && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((file.hashCode() * 31 + level) * 31 + column) * 31 + row;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package photoBracket;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Decodes just the parts of a picture that are on screen when zoomed in. The picture is split into
+ * tiles of TILE_SIZE pixels (after subsampling) and tiles are decoded a whole row at a time using
+ * ImageReadParam.setSourceRegion (most formats are stored row by row, so decoding one tile costs
+ * about as much as decoding the whole row). Decoding happens in the background and decoded tiles
+ * go into a TileCache, so painting never has to wait for the decoder
+ */
+class TileDecoder {
+
+    static final int TILE_SIZE = 256;
+    private static final long CACHE_BYTES = 128L * 1024 * 1024;
+
+    private static final TileDecoder INSTANCE = new TileDecoder();
+
+    private final TileCache cache;
+    private final ExecutorService executor;
+    private final Map<ImageFile, Dimension> sizes;
+    private final Map<ImageFile, OpenReader> readers;
+    private final Set<ImageFile> failed;
+    // rows of tiles that are waiting to be (or are being) decoded
+    private final Map<TileCache.Key, Future<?>> pending;
+
+    /**
+     * Constructs the decoder
+     */
+    private TileDecoder() {
+        cache = new TileCache(CACHE_BYTES);
+        executor = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "Tile decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sizes = new ConcurrentHashMap<>();
+        readers = new HashMap<>();
+        failed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        pending = new HashMap<>();
+    }
+
+    /**
+     * @return - The decoder shared by all picture panels
+     */
+    static TileDecoder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the full size of a picture. If it isn't known yet the header is read in the background
+     *
+     * @param file    - The picture
+     * @param onReady - Called on the event dispatch thread once the size is known
+     * @return - The size of the picture, or null if it isn't known yet (or can't be read)
+     */
+    Dimension getImageSize(ImageFile file, Runnable onReady) {
+        Dimension size = sizes.get(file);
+        if (size != null || failed.contains(file)) return size;
+        // the header is requested like a tile so it's only read once
+        request(new TileCache.Key(file, 0, 0, -1), () -> {
+            OpenReader open = readerFor(file);
+            synchronized (open) {
+                if (open.closed) return;
+                sizes.put(file, new Dimension(open.reader.getWidth(0), open.reader.getHeight(0)));
+            }
+        }, onReady);
+        return null;
+    }
+
+    /**
+     * Gets a tile. If it hasn't been decoded yet its row is decoded in the background
+     *
+     * @param file    - The picture
+     * @param level   - The subsampling to decode at (a power of two - 1 is full resolution)
+     * @param column  - The column of the tile
+     * @param row     - The row of the tile
+     * @param onReady - Called on the event dispatch thread once the tile's row is decoded
+     * @return - The tile, or null if it isn't decoded yet
+     */
+    BufferedImage getTile(ImageFile file, int level, int column, int row, Runnable onReady) {
+        BufferedImage tile = cache.get(new TileCache.Key(file, level, column, row));
+        if (tile != null || failed.contains(file)) return tile;
+        // the column is left out of the key since the whole row is decoded at once
+        request(new TileCache.Key(file, level, -1, row), () -> decodeRow(file, level, row),
+                onReady);
+        return null;
+    }
+
+    /**
+     * Cancels the requests for a picture that haven't started yet, except for the rows that are
+     * still wanted. Called after painting so that rows scrolled past aren't decoded for nothing
+     *
+     * @param file   - The picture
+     * @param wanted - The rows (as keys with a column of -1) that are on screen
+     */
+    void retainOnly(ImageFile file, Collection<TileCache.Key> wanted) {
+        synchronized (pending) {
+            Iterator<Map.Entry<TileCache.Key, Future<?>>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<TileCache.Key, Future<?>> entry = iterator.next();
+                TileCache.Key key = entry.getKey();
+                if (key.file.equals(file) && key.row >= 0 && !wanted.contains(key)) {
+                    // false so a row that's already being decoded still makes it into the cache
+                    entry.getValue().cancel(false);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the reader for a picture that is no longer on screen. Its tiles stay in the cache in
+     * case it comes back
+     *
+     * @param file - The picture
+     */
+    void release(ImageFile file) {
+        if (file == null) return;
+        retainOnly(file, Collections.emptySet());
+        OpenReader open;
+        synchronized (readers) {
+            open = readers.remove(file);
+        }
+        if (open != null) open.close();
+    }
+
+    /**
+     * Helper method that queues a task unless the same task is already queued
+     *
+     * @param key     - Identifies the task
+     * @param task    - The task to run
+     * @param onReady - Called on the event dispatch thread once the task is done
+     */
+    private void request(TileCache.Key key, IOTask task, Runnable onReady) {
+        synchronized (pending) {
+            if (pending.containsKey(key)) return;
+            pending.put(key, executor.submit(() -> {
+                try {
+                    task.run();
+                    SwingUtilities.invokeLater(onReady);
+                } catch (IOException | RuntimeException e) {
+                    // don't keep trying to decode a file that can't be read
+                    failed.add(key.file);
+                    Logger.getLogger(getClass().getName()).warning("Unable to decode part of " +
+                            key.file + ": " + e);
+                } finally {
+                    synchronized (pending) {
+                        pending.remove(key);
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Helper method that decodes one row of tiles and splits it up into the cache
+     *
+     * @param file  - The picture
+     * @param level - The subsampling to decode at
+     * @param row   - The row of tiles to decode
+     * @throws IOException - If the picture can't be read
+     */
+    private void decodeRow(ImageFile file, int level, int row) throws IOException {
+        Dimension size = sizes.get(file);
+        if (size == null) return;
+        int span = TILE_SIZE * level;
+        int top = row * span;
+        if (top >= size.height) return;
+        BufferedImage band;
+        OpenReader open = readerFor(file);
+        synchronized (open) {
+            // released while waiting - the panel will ask again if it still needs the row
+            if (open.closed) return;
+            ImageReadParam param = open.reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, top, size.width,
+                    Math.min(span, size.height - top)));
+            param.setSourceSubsampling(level, level, 0, 0);
+            band = open.reader.read(0, param);
+        }
+        int type = band.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB :
+                BufferedImage.TYPE_INT_RGB;
+        for (int column = 0; column * TILE_SIZE < band.getWidth(); column++) {
+            int x = column * TILE_SIZE;
+            int width = Math.min(TILE_SIZE, band.getWidth() - x);
+            // copied rather than getSubimage() so each tile doesn't keep the whole band alive
+            BufferedImage tile = new BufferedImage(width, band.getHeight(), type);
+            Graphics2D g = tile.createGraphics();
+            g.drawImage(band, -x, 0, null);
+            g.dispose();
+            cache.put(new TileCache.Key(file, level, column, row), tile);
+        }
+    }
+
+    /**
+     * Helper method that gets the open reader for a picture, opening it if needed
+     *
+     * @param file - The picture
+     * @return - The reader, which must be synchronized on while it's used
+     * @throws IOException - If the picture can't be opened
+     */
+    private OpenReader readerFor(ImageFile file) throws IOException {
+        synchronized (readers) {
+            OpenReader open = readers.get(file);
+            if (open != null) return open;
+            ImageInputStream input = ImageIO.createImageInputStream(file);
+            if (input == null) throw new IOException("Unable to open " + file);
+            Iterator<ImageReader> iterator = ImageIO.getImageReaders(input);
+            if (!iterator.hasNext()) {
+                input.close();
+                throw new IOException("No reader for " + file);
+            }
+            ImageReader reader = iterator.next();
+            // not seek forward only since the same reader is used for many regions
+            reader.setInput(input, false, true);
+            open = new OpenReader(reader, input);
+            readers.put(file, open);
+            return open;
+        }
+    }
+
+    /**
+     * Helper method to list the keys of the rows a panel is showing, for retainOnly()
+     *
+     * @param file  - The picture
+     * @param level - The subsampling being shown
+     * @param first - The first row on screen
+     * @param last  - The last row on screen
+     * @return - The keys of the rows
+     */
+    static List<TileCache.Key> rows(ImageFile file, int level, int first, int last) {
+        List<TileCache.Key> keys = new ArrayList<>();
+        for (int row = first; row <= last; row++) {
+            keys.add(new TileCache.Key(file, level, -1, row));
+        }
+        return keys;
+    }
+
+    /**
+     * A task that may throw an IOException
+     */
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * A reader along with the stream it reads from
+     */
+    private static class OpenReader {
+        private final ImageReader reader;
+        private final ImageInputStream input;
+        private boolean closed;
+
+        OpenReader(ImageReader reader, ImageInputStream input) {
+            this.reader = reader;
+            this.input = input;
+        }
+
+        /**
+         * Closes the reader once nothing is using it
+         */
+        synchronized void close() {
+            closed = true;
+            reader.dispose();
+            try {
+                input.close();
+            } catch (IOException e) {
+                Logger.getLogger(getClass().getName()).fine("Unable to close " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package photoBracket;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The part of a picture that is being looked at when zoomed in. Positions are relative to the
+ * picture (0 is the left/top edge and 1 is the right/bottom edge) and the zoom is relative to the
+ * picture fitting in its panel, so two pictures of different sizes sharing one Viewport always
+ * show the same part of the frame
+ */
+class Viewport {
+
+    static final double MIN_ZOOM = 1;
+    static final double MAX_ZOOM = 32;
+
+    private final List<ChangeListener> listeners;
+    private double zoom;
+    private double centerX;
+    private double centerY;
+
+    /**
+     * Constructs a viewport that shows the whole picture
+     */
+    Viewport() {
+        listeners = new ArrayList<>();
+        zoom = MIN_ZOOM;
+        centerX = 0.5;
+        centerY = 0.5;
+    }
+
+    /**
+     * @return - How much the picture is magnified compared to fitting in its panel
+     */
+    double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @return - Whether the picture is magnified at all
+     */
+    boolean isZoomed() {
+        return zoom > MIN_ZOOM;
+    }
+
+    /**
+     * @return - The horizontal position of the middle of the viewport (0 to 1)
+     */
+    double getCenterX() {
+        return centerX;
+    }
+
+    /**
+     * @return - The vertical position of the middle of the viewport (0 to 1)
+     */
+    double getCenterY() {
+        return centerY;
+    }
+
+    /**
+     * Zooms in or out while keeping the point under the mouse in the same place
+     *
+     * @param factor - How much to multiply the zoom by
+     * @param x      - The horizontal position of the mouse relative to the picture (0 to 1)
+     * @param y      - The vertical position of the mouse relative to the picture (0 to 1)
+     */
+    void zoomAt(double factor, double x, double y) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        if (newZoom == zoom) return;
+        // the point under the mouse moves towards the center by the inverse of the zoom change
+        double ratio = zoom / newZoom;
+        centerX = x + (centerX - x) * ratio;
+        centerY = y + (centerY - y) * ratio;
+        zoom = newZoom;
+        clamp();
+        fireChanged();
+    }
+
+    /**
+     * Moves the viewport
+     *
+     * @param dx - How far to move horizontally, relative to the width of the picture
+     * @param dy - How far to move vertically, relative to the height of the picture
+     */
+    void pan(double dx, double dy) {
+        if (!isZoomed()) return;
+        centerX += dx;
+        centerY += dy;
+        clamp();
+        fireChanged();
+    }
+
+    /**
+     * Zooms all the way out
+     */
+    void reset() {
+        if (zoom == MIN_ZOOM && centerX == 0.5 && centerY == 0.5) return;
+        zoom = MIN_ZOOM;
+        centerX = 0.5;
+        centerY = 0.5;
+        fireChanged();
+    }
+
+    /**
+     * Registers a listener that is told whenever the viewport moves or zooms
+     *
+     * @param listener - The listener to add
+     */
+    void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Helper method that stops the viewport from going past the edges of the picture
+     */
+    private void clamp() {
+        double half = 0.5 / zoom;
+        centerX = Math.max(half, Math.min(1 - half, centerX));
+        centerY = Math.max(half, Math.min(1 - half, centerY));
+    }
+
+    /**
+     * Helper method that tells every listener the viewport changed
+     */
+    private void fireChanged() {
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listeners) {
+            listener.stateChanged(event);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package photoBracket;
+
+import javax.imageio.IIOException;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A WebP decoder written in plain Java, since ImageIO can't read WebP at all. A WebP file is a
+ * RIFF container holding either a lossy (VP8) picture, optionally with an ALPH chunk for its
+ * alpha channel, or a lossless (VP8L) one; WebPLossy and WebPLossless decode the two. Both hand
+ * over finished rows as they go, which are written into the output image (shrunk with a box
+ * filter when the image will be shown smaller, like the JPEG decoder's reductions) and shown
+ * through the progress callback. Neither format can skip any work at a smaller size the way JPEG
+ * can, but the output image and the color conversion shrink with it.
+ * <p>
+ * Animated files are shown as their first frame. The file is read through a memory mapping.
+ * Thread safe: all of the state of a decode is kept in the objects it creates
+ */
+class WebPDecoder implements ImageDecoder {
+
+    // chunk types, as little endian ints
+    private static final int RIFF = fourCC("RIFF");
+    private static final int WEBP = fourCC("WEBP");
+    private static final int VP8 = fourCC("VP8 ");
+    private static final int VP8L = fourCC("VP8L");
+    private static final int VP8X = fourCC("VP8X");
+    private static final int ALPH = fourCC("ALPH");
+    private static final int ANMF = fourCC("ANMF");
+
+    @Override
+    public String getName() {
+        return "webp";
+    }
+
+    @Override
+    public boolean canDecode(byte[] header) {
+        if (header.length < 12) return false;
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        return buffer.getInt(0) == RIFF && buffer.getInt(8) == WEBP;
+    }
+
+    @Override
+    public BufferedImage decode(File file, Dimension fit, Consumer<BufferedImage> progress)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            return decode(data, fit, progress);
+        }
+    }
+
+    /**
+     * Helper method that walks the chunks of a file and decodes the first frame
+     *
+     * @param data     - The file, little endian
+     * @param fit      - The size the image will be shown at, or null for the full size
+     * @param progress - Receives the image whenever more of it is ready. Can be null
+     * @return - The decoded image
+     * @throws IOException - If the file is corrupted
+     */
+    private static BufferedImage decode(ByteBuffer data, Dimension fit,
+                                        Consumer<BufferedImage> progress) throws IOException {
+        if (data.limit() < 20 || data.getInt(0) != RIFF || data.getInt(8) != WEBP) {
+            throw new IIOException("Not a WebP file");
+        }
+        // a file shorter than its RIFF header says was cut short, and is decoded as far as it goes
+        int end = (int) Math.min(data.limit(), 8 + (data.getInt(4) & 0xFFFFFFFFL));
+        int canvasWidth = 0;
+        int canvasHeight = 0;
+        int frameX = 0;
+        int frameY = 0;
+        int alphaStart = -1;
+        int alphaEnd = -1;
+        int position = 12;
+        while (position + 8 <= end) {
+            int type = data.getInt(position);
+            int start = position + 8;
+            int size = data.getInt(position + 4);
+            if (size < 0 || size > end - start) throw new IIOException("Truncated WebP file");
+            int chunkEnd = start + size;
+            if (type == VP8X) {
+                if (size < 10) throw new IIOException("Invalid WebP header");
+                canvasWidth = read24(data, start + 4) + 1;
+                canvasHeight = read24(data, start + 7) + 1;
+            } else if (type == ALPH) {
+                alphaStart = start;
+                alphaEnd = chunkEnd;
+            } else if (type == ANMF) {
+                if (size < 16) throw new IIOException("Invalid WebP animation frame");
+                frameX = 2 * read24(data, start);
+                frameY = 2 * read24(data, start + 3);
+                // the frame's own chunks follow its header, and only the first frame is shown
+                alphaStart = -1;
+                position = start + 16;
+                continue;
+            } else if (type == VP8) {
+                Dimension frame = WebPLossy.readSize(data, start, chunkEnd);
+                Canvas canvas = new Canvas(canvasWidth, canvasHeight, frame, frameX, frameY,
+                        alphaStart >= 0, fit, progress);
+                try {
+                    byte[] alpha = alphaStart < 0 ? null : WebPLossy.decodeAlpha(data,
+                            alphaStart, alphaEnd, frame.width, frame.height);
+                    new WebPLossy(data, start, chunkEnd, alpha, canvas, frameX, frameY).decode();
+                    return canvas.finish();
+                } catch (IOException | RuntimeException e) {
+                    canvas.release();
+                    throw e;
+                }
+            } else if (type == VP8L) {
+                WebPLossless lossless = new WebPLossless(data, start, chunkEnd);
+                lossless.readHeader();
+                int width = lossless.getWidth();
+                Canvas canvas = new Canvas(canvasWidth, canvasHeight,
+                        new Dimension(width, lossless.getHeight()), frameX, frameY,
+                        lossless.hasAlpha(), fit, progress);
+                int x = frameX;
+                int top = frameY;
+                try {
+                    lossless.decode((argb, offset, y, count) -> {
+                        for (int i = 0; i < count; i++) {
+                            canvas.write(top + y + i, argb, offset + i * width, x, width);
+                        }
+                        canvas.update();
+                    });
+                    return canvas.finish();
+                } catch (IOException | RuntimeException e) {
+                    canvas.release();
+                    throw e;
+                }
+            }
+            // chunks are padded to an even length
+            position = chunkEnd + (size & 1);
+        }
+        throw new IIOException("No image data in WebP file");
+    }
+
+    /**
+     * Helper method that reads a 24 bit little endian number
+     */
+    private static int read24(ByteBuffer data, int position) {
+        return (data.get(position) & 0xFF) | (data.get(position + 1) & 0xFF) << 8
+                | (data.get(position + 2) & 0xFF) << 16;
+    }
+
+    /**
+     * Helper method that turns a chunk type into the int it reads as
+     */
+    private static int fourCC(String type) {
+        return type.charAt(0) | type.charAt(1) << 8 | type.charAt(2) << 16 | type.charAt(3) << 24;
+    }
+
+    /**
+     * The image a frame is decoded into. Rows are written at full size, in order from the top,
+     * and averaged down as they arrive if the image is being shrunk. When there is alpha the
+     * colors are weighted by it, so transparent pixels don't darken the edges of what's left
+     */
+    static final class Canvas {
+        private final BufferedImage image;
+        private final int[] pixels;
+        private final Consumer<BufferedImage> progress;
+        private final boolean alpha;
+        // the full size of the canvas
+        private final int fullWidth;
+        private final int fullHeight;
+        private final int width;
+        // log2 of the reduction
+        private final int shift;
+        // the sums of the output row being built, when shrinking
+        private int[] alphaSums;
+        private int[] redSums;
+        private int[] greenSums;
+        private int[] blueSums;
+        private int sumRow = -1;
+
+        /**
+         * Constructs the canvas and gets its image from the RasterPool
+         *
+         * @param width    - The width of the canvas, or 0 if it's the size of the frame
+         * @param height   - The height of the canvas, or 0 if it's the size of the frame
+         * @param frame    - The size of the frame
+         * @param frameX   - Where the left edge of the frame is
+         * @param frameY   - Where the top edge of the frame is
+         * @param alpha    - Whether the frame has an alpha channel
+         * @param fit      - The size the image will be shown at, or null for the full size
+         * @param progress - Receives the image whenever more of it is ready. Can be null
+         * @throws IOException - If the frame doesn't fit on the canvas
+         */
+        Canvas(int width, int height, Dimension frame, int frameX, int frameY, boolean alpha,
+               Dimension fit, Consumer<BufferedImage> progress) throws IOException {
+            if (width == 0) {
+                width = frame.width;
+                height = frame.height;
+            }
+            if (frame.width == 0 || frame.height == 0 || frameX + frame.width > width
+                    || frameY + frame.height > height) {
+                throw new IIOException("WebP frame doesn't fit the canvas");
+            }
+            if ((long) width * height > Integer.MAX_VALUE) {
+                throw new IIOException("WebP image too large");
+            }
+            // the rest of a canvas the frame doesn't cover is transparent
+            this.alpha = alpha || frame.width != width || frame.height != height;
+            this.progress = progress;
+            fullWidth = width;
+            fullHeight = height;
+            int reduction = ImageDecoder.getReduction(width, height, fit);
+            shift = Integer.numberOfTrailingZeros(reduction);
+            this.width = (width + reduction - 1) >> shift;
+            image = RasterPool.getInstance().acquire(this.width, (height + reduction - 1) >> shift,
+                    this.alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            // a pooled image still has whatever was drawn in it last
+            Arrays.fill(pixels, 0);
+            if (reduction > 1) {
+                alphaSums = new int[this.width];
+                redSums = new int[this.width];
+                greenSums = new int[this.width];
+                blueSums = new int[this.width];
+            }
+        }
+
+        /**
+         * Writes part of a row
+         *
+         * @param y      - The row, at full size
+         * @param argb   - The pixels
+         * @param offset - Where they start in argb
+         * @param x      - The column of the first one, at full size
+         * @param length - How many there are
+         */
+        void write(int y, int[] argb, int offset, int x, int length) {
+            if (shift == 0) {
+                System.arraycopy(argb, offset, pixels, y * width + x, length);
+                return;
+            }
+            if (y >> shift != sumRow) {
+                flush();
+                sumRow = y >> shift;
+            }
+            if (!alpha) {
+                for (int i = 0; i < length; i++) {
+                    int color = argb[offset + i];
+                    int column = (x + i) >> shift;
+                    alphaSums[column]++;
+                    redSums[column] += (color >> 16) & 0xFF;
+                    greenSums[column] += (color >> 8) & 0xFF;
+                    blueSums[column] += color & 0xFF;
+                }
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                int color = argb[offset + i];
+                int column = (x + i) >> shift;
+                int a = color >>> 24;
+                alphaSums[column] += a;
+                redSums[column] += ((color >> 16) & 0xFF) * a;
+                greenSums[column] += ((color >> 8) & 0xFF) * a;
+                blueSums[column] += (color & 0xFF) * a;
+            }
+        }
+
+        /**
+         * Writes a whole row that has already been shrunk
+         *
+         * @param y    - The row, in the shrunk image
+         * @param argb - The pixels
+         */
+        void writeShrunk(int y, int[] argb) {
+            System.arraycopy(argb, 0, pixels, y * width, width);
+        }
+
+        /**
+         * @return - How much the canvas is shrunk by: 1, 2, 4 or 8
+         */
+        int getReduction() {
+            return 1 << shift;
+        }
+
+        /**
+         * @param frameWidth  - The width of a frame
+         * @param frameHeight - The height of a frame
+         * @return - Whether a frame that size at the top left covers the whole canvas
+         */
+        boolean isFilledBy(int frameWidth, int frameHeight) {
+            return frameWidth == fullWidth && frameHeight == fullHeight;
+        }
+
+        /**
+         * Helper method that averages the sums into the output row they belong to
+         */
+        private void flush() {
+            if (sumRow < 0) return;
+            int reduction = 1 << shift;
+            int boxHeight = Math.min(reduction, fullHeight - (sumRow << shift));
+            int out = sumRow * width;
+            for (int column = 0; column < width; column++) {
+                int weight = alphaSums[column];
+                if (weight > 0) {
+                    int half = weight >> 1;
+                    int rgb = (redSums[column] + half) / weight << 16
+                            | (greenSums[column] + half) / weight << 8
+                            | (blueSums[column] + half) / weight;
+                    if (alpha) {
+                        int count = Math.min(reduction, fullWidth - (column << shift)) * boxHeight;
+                        rgb |= (weight + (count >> 1)) / count << 24;
+                    }
+                    pixels[out + column] = rgb;
+                }
+            }
+            Arrays.fill(alphaSums, 0);
+            Arrays.fill(redSums, 0);
+            Arrays.fill(greenSums, 0);
+            Arrays.fill(blueSums, 0);
+            sumRow = -1;
+        }
+
+        /**
+         * Shows the rows written so far
+         */
+        void update() {
+            if (progress != null) progress.accept(image);
+        }
+
+        /**
+         * @return - The finished image
+         */
+        BufferedImage finish() {
+            if (shift > 0) flush();
+            return image;
+        }
+
+        /**
+         * Hands the image back to the pool when decoding fails
+         */
+        void release() {
+            RasterPool.getInstance().release(image);
+        }
+    }
+}
@@ -0,0 +1,870 @@
+package photoBracket;
+
+import javax.imageio.IIOException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the lossless (VP8L) bitstream of a WebP file for WebPDecoder. The pixels are entropy
+ * coded with Huffman codes (which can change from one part of the image to another), references
+ * back to earlier pixels and a small cache of recently seen colors. On top of that up to four
+ * transforms can have been applied before coding: spatial prediction, decorrelating the red and
+ * blue channels from green, subtracting green, and a palette. The coded pixels have to be kept
+ * for the whole image since a back reference can reach any of them, but the transforms are
+ * undone a few rows at a time and the finished rows passed on straight away, so the picture
+ * appears as it's decoded. Also decodes the alpha channel of lossy files, which is stored the
+ * same way without a header
+ */
+final class WebPLossless {
+
+    // the first byte of a lossless bitstream
+    private static final int SIGNATURE = 0x2F;
+    // the order the code lengths of the code length code are stored in
+    private static final int[] CODE_LENGTH_ORDER = {
+            17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+    // the nearby pixels the first 120 distance codes refer to, as (y << 4) | (8 - x)
+    private static final int[] DISTANCE_OFFSETS = {
+            0x18, 0x07, 0x17, 0x19, 0x28, 0x06, 0x27, 0x29, 0x16, 0x1A, 0x26, 0x2A, 0x38, 0x05,
+            0x37, 0x39, 0x15, 0x1B, 0x36, 0x3A, 0x25, 0x2B, 0x48, 0x04, 0x47, 0x49, 0x14, 0x1C,
+            0x35, 0x3B, 0x46, 0x4A, 0x24, 0x2C, 0x58, 0x45, 0x4B, 0x34, 0x3C, 0x03, 0x57, 0x59,
+            0x13, 0x1D, 0x56, 0x5A, 0x23, 0x2D, 0x44, 0x4C, 0x55, 0x5B, 0x33, 0x3D, 0x68, 0x02,
+            0x67, 0x69, 0x12, 0x1E, 0x66, 0x6A, 0x22, 0x2E, 0x54, 0x5C, 0x43, 0x4D, 0x65, 0x6B,
+            0x32, 0x3E, 0x78, 0x01, 0x77, 0x79, 0x53, 0x5D, 0x11, 0x1F, 0x64, 0x6C, 0x42, 0x4E,
+            0x76, 0x7A, 0x21, 0x2F, 0x75, 0x7B, 0x31, 0x3F, 0x63, 0x6D, 0x52, 0x5E, 0x00, 0x74,
+            0x7C, 0x41, 0x4F, 0x10, 0x20, 0x62, 0x6E, 0x30, 0x73, 0x7D, 0x51, 0x5F, 0x40, 0x72,
+            0x7E, 0x61, 0x6F, 0x50, 0x71, 0x7F, 0x60, 0x70};
+    private static final int LITERALS = 256;
+    private static final int LENGTH_CODES = 24;
+    private static final int DISTANCE_CODES = 40;
+    // how many rows are decoded before the transforms are undone and they are passed on
+    private static final int BATCH_ROWS = 16;
+
+    private static final int PREDICTOR = 0;
+    private static final int CROSS_COLOR = 1;
+    private static final int SUBTRACT_GREEN = 2;
+    private static final int COLOR_INDEXING = 3;
+
+    /**
+     * Receives the decoded pixels a few rows at a time
+     */
+    interface Rows {
+
+        /**
+         * @param argb   - The pixels, one row after another with no gaps
+         * @param offset - Where the first row starts in argb
+         * @param y      - The first row
+         * @param count  - How many rows there are
+         * @throws IOException - If the rows can't be used
+         */
+        void accept(int[] argb, int offset, int y, int count) throws IOException;
+    }
+
+    private final ByteBuffer data;
+    private final int end;
+    private int position;
+    // the next bits of the stream, starting at the least significant bit
+    private long bits;
+    private int bitCount;
+
+    private int width;
+    private int height;
+    private boolean alphaUsed;
+
+    private final Transform[] transforms = new Transform[4];
+    private int transformCount;
+    // the pixels as they were coded, before the transforms are undone
+    private int[] coded;
+    private int codedWidth;
+    // where the transforms are undone, with room for the row above the first row
+    private int[] work;
+    // the last row the predictor transform produced, which the next batch predicts from
+    private int[] predicted;
+    private int rowsDone;
+    private Rows rows;
+
+    /**
+     * Constructs the decoder
+     *
+     * @param data  - The file
+     * @param start - Where the bitstream starts
+     * @param end   - Where it ends
+     */
+    WebPLossless(ByteBuffer data, int start, int end) {
+        this.data = data;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * Reads the header at the start of a lossless bitstream
+     *
+     * @throws IOException - If it isn't a lossless bitstream
+     */
+    void readHeader() throws IOException {
+        if (readBits(8) != SIGNATURE) throw new IIOException("Not a lossless WebP bitstream");
+        width = readBits(14) + 1;
+        height = readBits(14) + 1;
+        alphaUsed = readBits(1) == 1;
+        if (readBits(3) != 0) throw new IIOException("Unknown lossless WebP version");
+    }
+
+    /**
+     * @return - The width given in the header
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return - The height given in the header
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return - Whether the header says the alpha channel is used. If it isn't every pixel is
+     * opaque
+     */
+    boolean hasAlpha() {
+        return alphaUsed;
+    }
+
+    /**
+     * Decodes the image after the header
+     *
+     * @param rows - Receives the pixels as they're decoded
+     * @throws IOException - If the bitstream is corrupted
+     */
+    void decode(Rows rows) throws IOException {
+        decode(width, height, rows);
+    }
+
+    /**
+     * Decodes an image that has no header, like the alpha channel of a lossy file
+     *
+     * @param width  - The width of the image
+     * @param height - The height of the image
+     * @param rows   - Receives the pixels as they're decoded
+     * @throws IOException - If the bitstream is corrupted
+     */
+    void decode(int width, int height, Rows rows) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.rows = rows;
+        int xSize = width;
+        boolean[] seen = new boolean[4];
+        while (readBits(1) == 1) {
+            Transform transform = new Transform(readBits(2), xSize);
+            if (seen[transform.type]) throw new IIOException("Repeated WebP transform");
+            seen[transform.type] = true;
+            switch (transform.type) {
+                case PREDICTOR:
+                case CROSS_COLOR:
+                    transform.bits = readBits(3) + 2;
+                    transform.data = decodeEntropyImage(subSampleSize(xSize, transform.bits),
+                            subSampleSize(height, transform.bits));
+                    break;
+                case COLOR_INDEXING:
+                    int colors = readBits(8) + 1;
+                    transform.bits = colors > 16 ? 0 : colors > 4 ? 1 : colors > 2 ? 2 : 3;
+                    transform.data = readPalette(colors, transform.bits);
+                    // several pixels are packed into each coded pixel
+                    xSize = subSampleSize(xSize, transform.bits);
+                    break;
+                default:
+                    break;
+            }
+            transforms[transformCount++] = transform;
+        }
+        codedWidth = xSize;
+        coded = new int[codedWidth * height];
+        work = new int[(BATCH_ROWS + 1) * width];
+        decodePixels(coded, codedWidth, height, true);
+        if (rowsDone < height) finishRows(height);
+    }
+
+    /**
+     * Helper method that decodes one of the small images that transforms and Huffman code
+     * choices are stored in. These never have transforms or meta Huffman codes of their own
+     *
+     * @param width  - The width of the image
+     * @param height - The height of the image
+     * @return - Its pixels
+     * @throws IOException - If the bitstream is corrupted
+     */
+    private int[] decodeEntropyImage(int width, int height) throws IOException {
+        int[] pixels = new int[width * height];
+        decodePixels(pixels, width, height, false);
+        return pixels;
+    }
+
+    /**
+     * Helper method that reads a palette, which is stored as the difference from one color to
+     * the next
+     *
+     * @param colors - How many colors are in it
+     * @param bits   - How many bits are used to pack several indexes into a pixel
+     * @return - The palette, padded with transparent black to cover every possible index
+     * @throws IOException - If the bitstream is corrupted
+     */
+    private int[] readPalette(int colors, int bits) throws IOException {
+        int[] palette = new int[Math.max(colors, 1 << (8 >> bits))];
+        int[] stored = decodeEntropyImage(colors, 1);
+        int previous = 0;
+        for (int i = 0; i < colors; i++) {
+            previous = addPixels(previous, stored[i]);
+            palette[i] = previous;
+        }
+        return palette;
+    }
+
+    /**
+     * Helper method that reads the color cache size and the Huffman codes of an image and then
+     * decodes its pixels
+     *
+     * @param pixels   - Where the pixels go
+     * @param width    - The width of the image (after packing)
+     * @param height   - The height of the image
+     * @param mainImage - Whether this is the picture itself, which can use several groups of
+     *                  Huffman codes and whose rows are passed on as they're decoded
+     * @throws IOException - If the bitstream is corrupted
+     */
+    private void decodePixels(int[] pixels, int width, int height, boolean mainImage)
+            throws IOException {
+        int cacheBits = 0;
+        if (readBits(1) == 1) {
+            cacheBits = readBits(4);
+            if (cacheBits < 1 || cacheBits > 11) throw new IIOException("Invalid color cache");
+        }
+        int[] cache = cacheBits == 0 ? null : new int[1 << cacheBits];
+        int cacheShift = 32 - cacheBits;
+
+        // which group of Huffman codes each block of the image uses
+        int groupBits = 0;
+        int[] groupImage = null;
+        int groupsPerRow = 0;
+        int groupCount = 1;
+        if (mainImage && readBits(1) == 1) {
+            groupBits = readBits(3) + 2;
+            groupsPerRow = subSampleSize(width, groupBits);
+            groupImage = decodeEntropyImage(groupsPerRow, subSampleSize(height, groupBits));
+            for (int i = 0; i < groupImage.length; i++) {
+                groupImage[i] = (groupImage[i] >> 8) & 0xFFFF;
+                groupCount = Math.max(groupCount, groupImage[i] + 1);
+            }
+        }
+        HuffmanGroup[] groups = new HuffmanGroup[groupCount];
+        int greenSize = LITERALS + LENGTH_CODES + (cacheBits == 0 ? 0 : 1 << cacheBits);
+        for (int i = 0; i < groupCount; i++) {
+            groups[i] = new HuffmanGroup(readCode(greenSize), readCode(LITERALS),
+                    readCode(LITERALS), readCode(LITERALS), readCode(DISTANCE_CODES));
+        }
+        // without a group image the group is looked up again at the start of each row
+        int groupMask = groupImage == null ? -1 : (1 << groupBits) - 1;
+
+        int total = width * height;
+        int index = 0;
+        int x = 0;
+        int y = 0;
+        // the pixels before this one have been put in the color cache
+        int cached = 0;
+        HuffmanGroup group = groups[0];
+        while (index < total) {
+            if ((x & groupMask) == 0 && groupImage != null) {
+                group = groups[groupImage[(y >> groupBits) * groupsPerRow + (x >> groupBits)]];
+            }
+            int green = readSymbol(group.green);
+            if (green < LITERALS) {
+                int red = readSymbol(group.red);
+                int blue = readSymbol(group.blue);
+                int alpha = readSymbol(group.alpha);
+                pixels[index++] = alpha << 24 | red << 16 | green << 8 | blue;
+                if (++x == width) {
+                    x = 0;
+                    y++;
+                    if (mainImage && y % BATCH_ROWS == 0) finishRows(y);
+                }
+            } else if (green < LITERALS + LENGTH_CODES) {
+                int length = readPrefixCoded(green - LITERALS);
+                int distance = toDistance(width, readPrefixCoded(readSymbol(group.distance)));
+                if (distance > index || length > total - index) {
+                    throw new IIOException("Invalid WebP back reference");
+                }
+                for (int i = 0; i < length; i++, index++) pixels[index] = pixels[index - distance];
+                x += length;
+                int previousY = y;
+                while (x >= width) {
+                    x -= width;
+                    y++;
+                }
+                if (mainImage && y / BATCH_ROWS != previousY / BATCH_ROWS) {
+                    finishRows(y - y % BATCH_ROWS);
+                }
+                // partway through a block the next literal wouldn't look the group up
+                if (index < total && groupImage != null && (x & groupMask) != 0) {
+                    group = groups[groupImage[(y >> groupBits) * groupsPerRow
+                            + (x >> groupBits)]];
+                }
+            } else {
+                if (cache == null) throw new IIOException("Invalid WebP color cache index");
+                // everything up to here goes into the cache before it's looked in
+                while (cached < index) {
+                    int pixel = pixels[cached++];
+                    cache[(0x1E35A7BD * pixel) >>> cacheShift] = pixel;
+                }
+                pixels[index++] = cache[green - LITERALS - LENGTH_CODES];
+                if (++x == width) {
+                    x = 0;
+                    y++;
+                    if (mainImage && y % BATCH_ROWS == 0) finishRows(y);
+                }
+            }
+            if (position - (bitCount >> 3) > end) throw new IIOException("Truncated WebP file");
+        }
+    }
+
+    /**
+     * Helper method that undoes the transforms on the rows decoded since last time and passes
+     * them on. This is also where a cancelled DecodeToken stops the decode
+     *
+     * @param lastRow - The row after the last one that has been decoded
+     * @throws IOException - If the rows can't be used or the decode is cancelled
+     */
+    private void finishRows(int lastRow) throws IOException {
+        DecodeToken.current().check();
+        while (rowsDone < lastRow) {
+            int count = Math.min(BATCH_ROWS, lastRow - rowsDone);
+            // the batch starts a row in so the predictor can put the row above it there
+            System.arraycopy(coded, rowsDone * codedWidth, work, width, count * codedWidth);
+            for (int i = transformCount - 1; i >= 0; i--) {
+                Transform transform = transforms[i];
+                switch (transform.type) {
+                    case PREDICTOR:
+                        undoPrediction(transform, rowsDone, count);
+                        break;
+                    case CROSS_COLOR:
+                        undoCrossColor(transform, rowsDone, count);
+                        break;
+                    case SUBTRACT_GREEN:
+                        for (int j = width, last = width + count * transform.xSize; j < last;
+                             j++) {
+                            int pixel = work[j];
+                            int green = (pixel >> 8) & 0xFF;
+                            int redBlue = ((pixel & 0xFF00FF) + (green << 16 | green))
+                                    & 0xFF00FF;
+                            work[j] = (pixel & 0xFF00FF00) | redBlue;
+                        }
+                        break;
+                    default:
+                        undoColorIndexing(transform, count);
+                        break;
+                }
+            }
+            rows.accept(work, width, rowsDone, count);
+            rowsDone += count;
+        }
+    }
+
+    /**
+     * Helper method that adds the predictions back to a batch of rows
+     *
+     * @param transform - The predictor transform
+     * @param firstRow  - The first row of the batch
+     * @param count     - How many rows are in the batch
+     */
+    private void undoPrediction(Transform transform, int firstRow, int count) {
+        int w = transform.xSize;
+        int start = width;
+        if (firstRow > 0) System.arraycopy(predicted, 0, work, start - w, w);
+        int tilesPerRow = subSampleSize(w, transform.bits);
+        int[] modes = transform.data;
+        for (int r = 0; r < count; r++) {
+            int y = firstRow + r;
+            int row = start + r * w;
+            if (y == 0) {
+                // the first pixel is predicted as black, the rest of the row from the left
+                work[row] = addPixels(work[row], 0xFF000000);
+                for (int x = 1; x < w; x++) {
+                    work[row + x] = addPixels(work[row + x], work[row + x - 1]);
+                }
+                continue;
+            }
+            // the first pixel of the other rows is predicted from the one above
+            work[row] = addPixels(work[row], work[row - w]);
+            int tileRow = (y >> transform.bits) * tilesPerRow;
+            for (int x = 1; x < w; x++) {
+                int i = row + x;
+                int mode = (modes[tileRow + (x >> transform.bits)] >> 8) & 0xF;
+                // at the right edge the pixel "above right" is the first pixel of this row,
+                // which is just where it lands in the buffer anyway
+                work[i] = addPixels(work[i], predict(mode, work[i - 1], work[i - w],
+                        work[i - w + 1], work[i - w - 1]));
+            }
+        }
+        if (predicted == null) predicted = new int[w];
+        System.arraycopy(work, start + (count - 1) * w, predicted, 0, w);
+    }
+
+    /**
+     * Helper method that makes a prediction
+     *
+     * @param mode     - Which predictor to use
+     * @param left     - The pixel to the left
+     * @param top      - The pixel above
+     * @param topRight - The pixel above and to the right
+     * @param topLeft  - The pixel above and to the left
+     * @return - The predicted pixel
+     */
+    private static int predict(int mode, int left, int top, int topRight, int topLeft) {
+        switch (mode) {
+            case 1:
+                return left;
+            case 2:
+                return top;
+            case 3:
+                return topRight;
+            case 4:
+                return topLeft;
+            case 5:
+                return average(average(left, topRight), top);
+            case 6:
+                return average(left, topLeft);
+            case 7:
+                return average(left, top);
+            case 8:
+                return average(topLeft, top);
+            case 9:
+                return average(top, topRight);
+            case 10:
+                return average(average(left, topLeft), average(top, topRight));
+            case 11:
+                return select(top, left, topLeft);
+            case 12:
+                return clampAddSubtractFull(left, top, topLeft);
+            case 13:
+                return clampAddSubtractHalf(average(left, top), topLeft);
+            default:
+                // 0, and the two unused modes
+                return 0xFF000000;
+        }
+    }
+
+    /**
+     * Helper method that averages each channel of two pixels, rounding down
+     *
+     * @param a - A pixel
+     * @param b - Another pixel
+     * @return - The average
+     */
+    private static int average(int a, int b) {
+        return (((a ^ b) & 0xFEFEFEFE) >>> 1) + (a & b);
+    }
+
+    /**
+     * Helper method that picks whichever of top and left is closer to the gradient prediction
+     * top + left - topLeft
+     *
+     * @param top     - The pixel above
+     * @param left    - The pixel to the left
+     * @param topLeft - The pixel above and to the left
+     * @return - top or left
+     */
+    private static int select(int top, int left, int topLeft) {
+        int toLeft = 0;
+        int toTop = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int c = (topLeft >>> shift) & 0xFF;
+            toLeft += Math.abs(((top >>> shift) & 0xFF) - c);
+            toTop += Math.abs(((left >>> shift) & 0xFF) - c);
+        }
+        return toTop <= toLeft ? top : left;
+    }
+
+    /**
+     * Helper method that works out a + b - c for each channel, clamped to a byte
+     *
+     * @param a - A pixel
+     * @param b - Another pixel
+     * @param c - The pixel to subtract
+     * @return - The result
+     */
+    private static int clampAddSubtractFull(int a, int b, int c) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int value = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) - ((c >>> shift) & 0xFF);
+            result |= clamp(value) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Helper method that works out a + (a - b) / 2 for each channel, clamped to a byte
+     *
+     * @param a - A pixel
+     * @param b - The pixel to move away from
+     * @return - The result
+     */
+    private static int clampAddSubtractHalf(int a, int b) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int channel = (a >>> shift) & 0xFF;
+            result |= clamp(channel + (channel - ((b >>> shift) & 0xFF)) / 2) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Helper method that adds the red and blue channels back, which were predicted from green
+     * (and blue also from red)
+     *
+     * @param transform - The cross color transform
+     * @param firstRow  - The first row of the batch
+     * @param count     - How many rows are in the batch
+     */
+    private void undoCrossColor(Transform transform, int firstRow, int count) {
+        int w = transform.xSize;
+        int tilesPerRow = subSampleSize(w, transform.bits);
+        for (int r = 0; r < count; r++) {
+            int row = width + r * w;
+            int tileRow = ((firstRow + r) >> transform.bits) * tilesPerRow;
+            for (int x = 0; x < w; x++) {
+                int multipliers = transform.data[tileRow + (x >> transform.bits)];
+                int greenToRed = (byte) multipliers;
+                int greenToBlue = (byte) (multipliers >> 8);
+                int redToBlue = (byte) (multipliers >> 16);
+                int pixel = work[row + x];
+                int green = (byte) (pixel >> 8);
+                int red = ((pixel >> 16) + (greenToRed * green >> 5)) & 0xFF;
+                int blue = (pixel + (greenToBlue * green >> 5) + (redToBlue * (byte) red >> 5))
+                        & 0xFF;
+                work[row + x] = (pixel & 0xFF00FF00) | red << 16 | blue;
+            }
+        }
+    }
+
+    /**
+     * Helper method that looks the pixels of a batch up in the palette, unpacking them first if
+     * several were packed into each coded pixel
+     *
+     * @param transform - The color indexing transform
+     * @param count     - How many rows are in the batch
+     */
+    private void undoColorIndexing(Transform transform, int count) {
+        int w = transform.xSize;
+        int[] palette = transform.data;
+        if (transform.bits == 0) {
+            for (int i = width, last = width + count * w; i < last; i++) {
+                work[i] = palette[(work[i] >> 8) & 0xFF];
+            }
+            return;
+        }
+        int packedWidth = subSampleSize(w, transform.bits);
+        int[] packed = new int[count * packedWidth];
+        System.arraycopy(work, width, packed, 0, packed.length);
+        int bitsPerPixel = 8 >> transform.bits;
+        int mask = (1 << bitsPerPixel) - 1;
+        int perPixel = 1 << transform.bits;
+        for (int r = 0; r < count; r++) {
+            int out = width + r * w;
+            int in = r * packedWidth;
+            int indexes = 0;
+            for (int x = 0; x < w; x++) {
+                if ((x & (perPixel - 1)) == 0) indexes = (packed[in++] >> 8) & 0xFF;
+                work[out + x] = palette[indexes & mask];
+                indexes >>= bitsPerPixel;
+            }
+        }
+    }
+
+    /**
+     * Helper method that reads a Huffman code
+     *
+     * @param alphabetSize - How many symbols the code can have
+     * @return - The code
+     * @throws IOException - If the code is invalid
+     */
+    private HuffmanCode readCode(int alphabetSize) throws IOException {
+        int[] lengths = new int[alphabetSize];
+        if (readBits(1) == 1) {
+            // one or two symbols, each with a one bit code
+            int count = readBits(1) + 1;
+            int first = readBits(readBits(1) == 0 ? 1 : 8);
+            if (first >= alphabetSize) throw new IIOException("Invalid WebP Huffman code");
+            lengths[first] = 1;
+            if (count == 2) {
+                int second = readBits(8);
+                if (second >= alphabetSize) throw new IIOException("Invalid WebP Huffman code");
+                lengths[second] = 1;
+            }
+            return new HuffmanCode(lengths);
+        }
+        // the code lengths are themselves Huffman coded
+        int[] lengthLengths = new int[CODE_LENGTH_ORDER.length];
+        int count = readBits(4) + 4;
+        for (int i = 0; i < count; i++) lengthLengths[CODE_LENGTH_ORDER[i]] = readBits(3);
+        HuffmanCode lengthCode = new HuffmanCode(lengthLengths);
+        int remaining = alphabetSize;
+        if (readBits(1) == 1) {
+            remaining = 2 + readBits(2 + 2 * readBits(3));
+            if (remaining > alphabetSize) throw new IIOException("Invalid WebP Huffman code");
+        }
+        int previous = 8;
+        int symbol = 0;
+        while (symbol < alphabetSize && remaining-- > 0) {
+            int length = readSymbol(lengthCode);
+            if (length < 16) {
+                lengths[symbol++] = length;
+                if (length != 0) previous = length;
+                continue;
+            }
+            // 16 repeats the previous length, 17 and 18 repeat zeros
+            int repeat = length == 16 ? 3 + readBits(2) : length == 17 ? 3 + readBits(3)
+                    : 11 + readBits(7);
+            if (symbol + repeat > alphabetSize) throw new IIOException("Invalid WebP Huffman code");
+            int value = length == 16 ? previous : 0;
+            while (repeat-- > 0) lengths[symbol++] = value;
+        }
+        return new HuffmanCode(lengths);
+    }
+
+    /**
+     * Helper method that reads a length or distance, which are stored as a prefix code (the
+     * symbol) followed by extra bits
+     *
+     * @param symbol - The prefix code
+     * @return - The value
+     */
+    private int readPrefixCoded(int symbol) {
+        if (symbol < 4) return symbol + 1;
+        int extraBits = (symbol - 2) >> 1;
+        int offset = (2 + (symbol & 1)) << extraBits;
+        return offset + readBits(extraBits) + 1;
+    }
+
+    /**
+     * Helper method that turns a distance code into how many pixels back to copy from. The
+     * first 120 codes are nearby pixels in two dimensions
+     *
+     * @param width - The width of the image
+     * @param code  - The distance code
+     * @return - The distance, at least 1
+     */
+    private static int toDistance(int width, int code) {
+        if (code > DISTANCE_OFFSETS.length) return code - DISTANCE_OFFSETS.length;
+        int offset = DISTANCE_OFFSETS[code - 1];
+        int distance = (offset >> 4) * width + 8 - (offset & 0xF);
+        return Math.max(1, distance);
+    }
+
+    /**
+     * Helper method that reads a symbol
+     *
+     * @param code - The Huffman code it's coded with
+     * @return - The symbol
+     * @throws IIOException - If the bits aren't a code
+     */
+    private int readSymbol(HuffmanCode code) throws IIOException {
+        if (code.single >= 0) return code.single;
+        if (bitCount < HuffmanCode.MAX_LENGTH) fill();
+        int entry = code.table[(int) bits & HuffmanCode.TABLE_MASK];
+        if (entry != 0) {
+            int length = entry >>> 16;
+            bits >>>= length;
+            bitCount -= length;
+            return entry & 0xFFFF;
+        }
+        // a code longer than the table, decoded a bit at a time (codes are stored starting
+        // with their most significant bit)
+        int value = 0;
+        int first = 0;
+        int index = 0;
+        long next = bits;
+        for (int length = 1; length <= HuffmanCode.MAX_LENGTH; length++) {
+            value |= (int) next & 1;
+            next >>>= 1;
+            int count = code.counts[length];
+            if (value - first < count) {
+                bits >>>= length;
+                bitCount -= length;
+                return code.symbols[index + value - first];
+            }
+            index += count;
+            first = (first + count) << 1;
+            value <<= 1;
+        }
+        throw new IIOException("Invalid WebP Huffman code");
+    }
+
+    /**
+     * Helper method that reads a number stored in the next bits
+     *
+     * @param count - How many bits, at most 24
+     * @return - The number
+     */
+    private int readBits(int count) {
+        if (bitCount < count) fill();
+        int value = (int) bits & ((1 << count) - 1);
+        bits >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    /**
+     * Helper method that reads whole bytes until at least 57 bits are waiting. Past the end of
+     * the data zeros are read (which decodePixels() notices)
+     */
+    private void fill() {
+        while (bitCount <= 56) {
+            long value = position < end ? data.get(position) & 0xFF : 0;
+            position++;
+            bits |= value << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Helper method that keeps a channel in the range of a byte
+     *
+     * @param value - The channel
+     * @return - value clamped to 0 - 255
+     */
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    /**
+     * Helper method that adds each channel of two pixels, wrapping around
+     *
+     * @param a - A pixel
+     * @param b - Another pixel
+     * @return - The sum
+     */
+    private static int addPixels(int a, int b) {
+        int alphaGreen = (a & 0xFF00FF00) + (b & 0xFF00FF00);
+        int redBlue = (a & 0x00FF00FF) + (b & 0x00FF00FF);
+        return (alphaGreen & 0xFF00FF00) | (redBlue & 0x00FF00FF);
+    }
+
+    /**
+     * Helper method that divides a size by a power of two, rounding up
+     *
+     * @param size - The size
+     * @param bits - The power of two
+     * @return - The smaller size
+     */
+    private static int subSampleSize(int size, int bits) {
+        return (size + (1 << bits) - 1) >> bits;
+    }
+
+    /**
+     * A transform that was applied to the image before it was coded
+     */
+    private static final class Transform {
+        final int type;
+        // the width of the image the transform produces
+        final int xSize;
+        // the size of the blocks for the predictor and cross color transforms, or how many
+        // pixels are packed together (as a power of two) for color indexing
+        int bits;
+        // the predictor modes or color multipliers for each block, or the palette
+        int[] data;
+
+        Transform(int type, int xSize) {
+            this.type = type;
+            this.xSize = xSize;
+        }
+    }
+
+    /**
+     * The five Huffman codes used together for one part of the image
+     */
+    private static final class HuffmanGroup {
+        // green, lengths of back references and color cache indexes share one alphabet
+        final HuffmanCode green;
+        final HuffmanCode red;
+        final HuffmanCode blue;
+        final HuffmanCode alpha;
+        final HuffmanCode distance;
+
+        HuffmanGroup(HuffmanCode green, HuffmanCode red, HuffmanCode blue, HuffmanCode alpha,
+                     HuffmanCode distance) {
+            this.green = green;
+            this.red = red;
+            this.blue = blue;
+            this.alpha = alpha;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * A canonical Huffman code, with a lookup table for codes of up to TABLE_BITS bits and the
+     * counts of each length for the longer ones
+     */
+    private static final class HuffmanCode {
+        static final int MAX_LENGTH = 15;
+        static final int TABLE_BITS = 8;
+        static final int TABLE_MASK = (1 << TABLE_BITS) - 1;
+
+        // (length << 16) | symbol, indexed by the next TABLE_BITS bits, or 0 for a longer code
+        final int[] table;
+        final int[] counts = new int[MAX_LENGTH + 1];
+        // the symbols in code order
+        final int[] symbols;
+        // the only symbol of a code with just one, which takes no bits at all, or -1
+        final int single;
+
+        /**
+         * Builds the code
+         *
+         * @param lengths - The code length of each symbol, 0 for symbols that aren't used
+         * @throws IIOException - If the lengths don't make a complete code
+         */
+        HuffmanCode(int[] lengths) throws IIOException {
+            int used = 0;
+            int last = 0;
+            for (int symbol = 0; symbol < lengths.length; symbol++) {
+                if (lengths[symbol] == 0) continue;
+                if (lengths[symbol] > MAX_LENGTH) throw new IIOException("Invalid WebP Huffman code");
+                counts[lengths[symbol]]++;
+                used++;
+                last = symbol;
+            }
+            if (used == 0) throw new IIOException("Empty WebP Huffman code");
+            if (used == 1) {
+                single = last;
+                table = null;
+                symbols = null;
+                return;
+            }
+            single = -1;
+            // every bit pattern has to lead to a symbol
+            int space = 1;
+            for (int length = 1; length <= MAX_LENGTH; length++) {
+                space = (space << 1) - counts[length];
+                if (space < 0) throw new IIOException("Invalid WebP Huffman code");
+            }
+            if (space != 0) throw new IIOException("Incomplete WebP Huffman code");
+            int[] next = new int[MAX_LENGTH + 2];
+            int[] offsets = new int[MAX_LENGTH + 2];
+            for (int length = 1; length <= MAX_LENGTH; length++) {
+                next[length + 1] = (next[length] + counts[length]) << 1;
+                offsets[length + 1] = offsets[length] + counts[length];
+            }
+            symbols = new int[used];
+            table = new int[1 << TABLE_BITS];
+            for (int symbol = 0; symbol < lengths.length; symbol++) {
+                int length = lengths[symbol];
+                if (length == 0) continue;
+                symbols[offsets[length]++] = symbol;
+                int code = next[length]++;
+                if (length > TABLE_BITS) continue;
+                // the stream holds the code's first bit in the lowest position
+                int reversed = Integer.reverse(code) >>> (32 - length);
+                for (int i = reversed; i < table.length; i += 1 << length) {
+                    table[i] = length << 16 | symbol;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,1780 @@
+package photoBracket;
+
+import javax.imageio.IIOException;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes the lossy (VP8) bitstream of a WebP file for WebPDecoder. A lossy WebP is a single VP8
+ * key frame: 16x16 macroblocks of YUV 4:2:0, each predicted from the pixels above and to its
+ * left and corrected by 4x4 blocks of transform coefficients, which are coded with a boolean
+ * (arithmetic) coder. Since every block is predicted from its neighbours the whole picture has to
+ * be reconstructed at full size whatever size it's shown at, but it is decoded one row of
+ * macroblocks at a time and each row is deblocked, converted to RGB and handed to the Canvas
+ * (which does any shrinking) as soon as the next row can no longer change it. Chroma is
+ * upsampled the same way libwebp does by default, so the output matches libwebp's exactly.
+ * <p>
+ * The YUV planes are kept for the whole picture (18 MB for 12 megapixels) but RGB is only made a
+ * row at a time. When the canvas is smaller than the picture and there's no alpha, each output
+ * pixel is converted once from the average of the samples it covers instead
+ */
+final class WebPLossy {
+
+    // the intra prediction modes, numbered the way the probability tables are
+    private static final int DC_PRED = 0;
+    private static final int TM_PRED = 1;
+    private static final int V_PRED = 2;
+    private static final int H_PRED = 3;
+    private static final int RD_PRED = 4;
+    private static final int VR_PRED = 5;
+    private static final int LD_PRED = 6;
+    private static final int VL_PRED = 7;
+    private static final int HD_PRED = 8;
+    private static final int HU_PRED = 9;
+    // DC prediction along the top and left edges of the frame, with fewer neighbours to average
+    private static final int DC_PRED_NO_TOP = 10;
+    private static final int DC_PRED_NO_LEFT = 11;
+    private static final int DC_PRED_NO_TOP_LEFT = 12;
+
+    // a macroblock is predicted and reconstructed in a small working area laid out like libwebp's:
+    // rows of STRIDE samples with room for the row above and the column to the left of each plane
+    private static final int STRIDE = 32;
+    private static final int Y_OFFSET = STRIDE + 8;
+    private static final int U_OFFSET = Y_OFFSET + 16 * STRIDE + STRIDE;
+    private static final int V_OFFSET = U_OFFSET + 16;
+
+    // the position in a 4x4 block (read row by row) of each coefficient in coding order
+    private static final int[] ZIGZAG = {0, 1, 4, 8, 5, 2, 3, 6, 9, 12, 13, 10, 7, 11, 14, 15};
+    // which band of probabilities each coefficient position uses (and one past the end)
+    private static final int[] BANDS = {0, 1, 2, 3, 6, 4, 5, 6, 6, 6, 6, 6, 6, 6, 6, 7, 0};
+    // the fixed probabilities of the extra bits of large coefficients
+    private static final int[][] EXTRA_BITS = {
+            {173, 148, 140},
+            {176, 155, 140, 135},
+            {180, 157, 141, 134, 130},
+            {254, 254, 243, 230, 196, 177, 153, 140, 133, 130, 129}};
+    // the quantizer step sizes for each quantizer index
+    private static final int[] DC_STEPS = {
+            4, 5, 6, 7, 8, 9, 10, 10, 11, 12, 13, 14, 15, 16, 17, 17,
+            18, 19, 20, 20, 21, 21, 22, 22, 23, 23, 24, 25, 25, 26, 27, 28,
+            29, 30, 31, 32, 33, 34, 35, 36, 37, 37, 38, 39, 40, 41, 42, 43,
+            44, 45, 46, 46, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58,
+            59, 60, 61, 62, 63, 64, 65, 66, 67, 68, 69, 70, 71, 72, 73, 74,
+            75, 76, 76, 77, 78, 79, 80, 81, 82, 83, 84, 85, 86, 87, 88, 89,
+            91, 93, 95, 96, 98, 100, 101, 102, 104, 106, 108, 110, 112, 114, 116, 118,
+            122, 124, 126, 128, 130, 132, 134, 136, 138, 140, 143, 145, 148, 151, 154, 157};
+    private static final int[] AC_STEPS = {
+            4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19,
+            20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35,
+            36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51,
+            52, 53, 54, 55, 56, 57, 58, 60, 62, 64, 66, 68, 70, 72, 74, 76,
+            78, 80, 82, 84, 86, 88, 90, 92, 94, 96, 98, 100, 102, 104, 106, 108,
+            110, 112, 114, 116, 119, 122, 125, 128, 131, 134, 137, 140, 143, 146, 149, 152,
+            155, 158, 161, 164, 167, 170, 173, 177, 181, 185, 189, 193, 197, 201, 205, 209,
+            213, 217, 221, 225, 229, 234, 239, 245, 249, 254, 259, 264, 269, 274, 279, 284};
+    // the coefficient probabilities a frame starts with, by block type, band, context and
+    // branch of the token tree (11 to a line)
+    private static final int[] DEFAULT_PROBABILITIES = {
+            128, 128, 128, 128, 128, 128, 128, 128, 128, 128, 128,
+            128, 128, 128, 128, 128, 128, 128, 128, 128, 128, 128,
+            128, 128, 128, 128, 128, 128, 128, 128, 128, 128, 128,
+            253, 136, 254, 255, 228, 219, 128, 128, 128, 128, 128,
+            189, 129, 242, 255, 227, 213, 255, 219, 128, 128, 128,
+            106, 126, 227, 252, 214, 209, 255, 255, 128, 128, 128,
+            1, 98, 248, 255, 236, 226, 255, 255, 128, 128, 128,
+            181, 133, 238, 254, 221, 234, 255, 154, 128, 128, 128,
+            78, 134, 202, 247, 198, 180, 255, 219, 128, 128, 128,
+            1, 185, 249, 255, 243, 255, 128, 128, 128, 128, 128,
+            184, 150, 247, 255, 236, 224, 128, 128, 128, 128, 128,
+            77, 110, 216, 255, 236, 230, 128, 128, 128, 128, 128,
+            1, 101, 251, 255, 241, 255, 128, 128, 128, 128, 128,
+            170, 139, 241, 252, 236, 209, 255, 255, 128, 128, 128,
+            37, 116, 196, 243, 228, 255, 255, 255, 128, 128, 128,
+            1, 204, 254, 255, 245, 255, 128, 128, 128, 128, 128,
+            207, 160, 250, 255, 238, 128, 128, 128, 128, 128, 128,
+            102, 103, 231, 255, 211, 171, 128, 128, 128, 128, 128,
+            1, 152, 252, 255, 240, 255, 128, 128, 128, 128, 128,
+            177, 135, 243, 255, 234, 225, 128, 128, 128, 128, 128,
+            80, 129, 211, 255, 194, 224, 128, 128, 128, 128, 128,
+            1, 1, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            246, 1, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            255, 128, 128, 128, 128, 128, 128, 128, 128, 128, 128,
+            198, 35, 237, 223, 193, 187, 162, 160, 145, 155, 62,
+            131, 45, 198, 221, 172, 176, 220, 157, 252, 221, 1,
+            68, 47, 146, 208, 149, 167, 221, 162, 255, 223, 128,
+            1, 149, 241, 255, 221, 224, 255, 255, 128, 128, 128,
+            184, 141, 234, 253, 222, 220, 255, 199, 128, 128, 128,
+            81, 99, 181, 242, 176, 190, 249, 202, 255, 255, 128,
+            1, 129, 232, 253, 214, 197, 242, 196, 255, 255, 128,
+            99, 121, 210, 250, 201, 198, 255, 202, 128, 128, 128,
+            23, 91, 163, 242, 170, 187, 247, 210, 255, 255, 128,
+            1, 200, 246, 255, 234, 255, 128, 128, 128, 128, 128,
+            109, 178, 241, 255, 231, 245, 255, 255, 128, 128, 128,
+            44, 130, 201, 253, 205, 192, 255, 255, 128, 128, 128,
+            1, 132, 239, 251, 219, 209, 255, 165, 128, 128, 128,
+            94, 136, 225, 251, 218, 190, 255, 255, 128, 128, 128,
+            22, 100, 174, 245, 186, 161, 255, 199, 128, 128, 128,
+            1, 182, 249, 255, 232, 235, 128, 128, 128, 128, 128,
+            124, 143, 241, 255, 227, 234, 128, 128, 128, 128, 128,
+            35, 77, 181, 251, 193, 211, 255, 205, 128, 128, 128,
+            1, 157, 247, 255, 236, 231, 255, 255, 128, 128, 128,
+            121, 141, 235, 255, 225, 227, 255, 255, 128, 128, 128,
+            45, 99, 188, 251, 195, 217, 255, 224, 128, 128, 128,
+            1, 1, 251, 255, 213, 255, 128, 128, 128, 128, 128,
+            203, 1, 248, 255, 255, 128, 128, 128, 128, 128, 128,
+            137, 1, 177, 255, 224, 255, 128, 128, 128, 128, 128,
+            253, 9, 248, 251, 207, 208, 255, 192, 128, 128, 128,
+            175, 13, 224, 243, 193, 185, 249, 198, 255, 255, 128,
+            73, 17, 171, 221, 161, 179, 236, 167, 255, 234, 128,
+            1, 95, 247, 253, 212, 183, 255, 255, 128, 128, 128,
+            239, 90, 244, 250, 211, 209, 255, 255, 128, 128, 128,
+            155, 77, 195, 248, 188, 195, 255, 255, 128, 128, 128,
+            1, 24, 239, 251, 218, 219, 255, 205, 128, 128, 128,
+            201, 51, 219, 255, 196, 186, 128, 128, 128, 128, 128,
+            69, 46, 190, 239, 201, 218, 255, 228, 128, 128, 128,
+            1, 191, 251, 255, 255, 128, 128, 128, 128, 128, 128,
+            223, 165, 249, 255, 213, 255, 128, 128, 128, 128, 128,
+            141, 124, 248, 255, 255, 128, 128, 128, 128, 128, 128,
+            1, 16, 248, 255, 255, 128, 128, 128, 128, 128, 128,
+            190, 36, 230, 255, 236, 255, 128, 128, 128, 128, 128,
+            149, 1, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            1, 226, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            247, 192, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            240, 128, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            1, 134, 252, 255, 255, 128, 128, 128, 128, 128, 128,
+            213, 62, 250, 255, 255, 128, 128, 128, 128, 128, 128,
+            55, 93, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            128, 128, 128, 128, 128, 128, 128, 128, 128, 128, 128,
+            128, 128, 128, 128, 128, 128, 128, 128, 128, 128, 128,
+            128, 128, 128, 128, 128, 128, 128, 128, 128, 128, 128,
+            202, 24, 213, 235, 186, 191, 220, 160, 240, 175, 255,
+            126, 38, 182, 232, 169, 184, 228, 174, 255, 187, 128,
+            61, 46, 138, 219, 151, 178, 240, 170, 255, 216, 128,
+            1, 112, 230, 250, 199, 191, 247, 159, 255, 255, 128,
+            166, 109, 228, 252, 211, 215, 255, 174, 128, 128, 128,
+            39, 77, 162, 232, 172, 180, 245, 178, 255, 255, 128,
+            1, 52, 220, 246, 198, 199, 249, 220, 255, 255, 128,
+            124, 74, 191, 243, 183, 193, 250, 221, 255, 255, 128,
+            24, 71, 130, 219, 154, 170, 243, 182, 255, 255, 128,
+            1, 182, 225, 249, 219, 240, 255, 224, 128, 128, 128,
+            149, 150, 226, 252, 216, 205, 255, 171, 128, 128, 128,
+            28, 108, 170, 242, 183, 194, 254, 223, 255, 255, 128,
+            1, 81, 230, 252, 204, 203, 255, 192, 128, 128, 128,
+            123, 102, 209, 247, 188, 196, 255, 233, 128, 128, 128,
+            20, 95, 153, 243, 164, 173, 255, 203, 128, 128, 128,
+            1, 222, 248, 255, 216, 213, 128, 128, 128, 128, 128,
+            168, 175, 246, 252, 235, 205, 255, 255, 128, 128, 128,
+            47, 116, 215, 255, 211, 212, 255, 255, 128, 128, 128,
+            1, 121, 236, 253, 212, 214, 255, 255, 128, 128, 128,
+            141, 84, 213, 252, 201, 202, 255, 219, 128, 128, 128,
+            42, 80, 160, 240, 162, 185, 255, 205, 128, 128, 128,
+            1, 1, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            244, 1, 255, 128, 128, 128, 128, 128, 128, 128, 128,
+            238, 1, 255, 128, 128, 128, 128, 128, 128, 128, 128};
+    // the probability that each of the coefficient probabilities is replaced in the frame header
+    private static final int[] UPDATE_PROBABILITIES = {
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            176, 246, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            223, 241, 252, 255, 255, 255, 255, 255, 255, 255, 255,
+            249, 253, 253, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 244, 252, 255, 255, 255, 255, 255, 255, 255, 255,
+            234, 254, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            253, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 246, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            239, 253, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 255, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 248, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            251, 255, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 253, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            251, 254, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 255, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 254, 253, 255, 254, 255, 255, 255, 255, 255, 255,
+            250, 255, 254, 255, 254, 255, 255, 255, 255, 255, 255,
+            254, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            217, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            225, 252, 241, 253, 255, 255, 254, 255, 255, 255, 255,
+            234, 250, 241, 250, 253, 255, 253, 254, 255, 255, 255,
+            255, 254, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            223, 254, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            238, 253, 254, 254, 255, 255, 255, 255, 255, 255, 255,
+            255, 248, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            249, 254, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 253, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            247, 254, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 253, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            252, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 254, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            253, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 254, 253, 255, 255, 255, 255, 255, 255, 255, 255,
+            250, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            186, 251, 250, 255, 255, 255, 255, 255, 255, 255, 255,
+            234, 251, 244, 254, 255, 255, 255, 255, 255, 255, 255,
+            251, 251, 243, 253, 254, 255, 254, 255, 255, 255, 255,
+            255, 253, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            236, 253, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            251, 253, 253, 254, 254, 255, 255, 255, 255, 255, 255,
+            255, 254, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 254, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 254, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 254, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            248, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            250, 254, 252, 254, 255, 255, 255, 255, 255, 255, 255,
+            248, 254, 249, 253, 255, 255, 255, 255, 255, 255, 255,
+            255, 253, 253, 255, 255, 255, 255, 255, 255, 255, 255,
+            246, 253, 253, 255, 255, 255, 255, 255, 255, 255, 255,
+            252, 254, 251, 254, 254, 255, 255, 255, 255, 255, 255,
+            255, 254, 252, 255, 255, 255, 255, 255, 255, 255, 255,
+            248, 254, 253, 255, 255, 255, 255, 255, 255, 255, 255,
+            253, 255, 254, 254, 255, 255, 255, 255, 255, 255, 255,
+            255, 251, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            245, 251, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            253, 253, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 251, 253, 255, 255, 255, 255, 255, 255, 255, 255,
+            252, 253, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 254, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 252, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            249, 255, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 254, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 253, 255, 255, 255, 255, 255, 255, 255, 255,
+            250, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            254, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255,
+            255, 255, 255, 255, 255, 255, 255, 255, 255, 255, 255};
+    // the probabilities of the 4x4 prediction modes, by the modes above and to the left
+    private static final int[] SUB_BLOCK_MODE_PROBABILITIES = {
+            231, 120, 48, 89, 115, 113, 120, 152, 112,
+            152, 179, 64, 126, 170, 118, 46, 70, 95,
+            175, 69, 143, 80, 85, 82, 72, 155, 103,
+            56, 58, 10, 171, 218, 189, 17, 13, 152,
+            114, 26, 17, 163, 44, 195, 21, 10, 173,
+            121, 24, 80, 195, 26, 62, 44, 64, 85,
+            144, 71, 10, 38, 171, 213, 144, 34, 26,
+            170, 46, 55, 19, 136, 160, 33, 206, 71,
+            63, 20, 8, 114, 114, 208, 12, 9, 226,
+            81, 40, 11, 96, 182, 84, 29, 16, 36,
+            134, 183, 89, 137, 98, 101, 106, 165, 148,
+            72, 187, 100, 130, 157, 111, 32, 75, 80,
+            66, 102, 167, 99, 74, 62, 40, 234, 128,
+            41, 53, 9, 178, 241, 141, 26, 8, 107,
+            74, 43, 26, 146, 73, 166, 49, 23, 157,
+            65, 38, 105, 160, 51, 52, 31, 115, 128,
+            104, 79, 12, 27, 217, 255, 87, 17, 7,
+            87, 68, 71, 44, 114, 51, 15, 186, 23,
+            47, 41, 14, 110, 182, 183, 21, 17, 194,
+            66, 45, 25, 102, 197, 189, 23, 18, 22,
+            88, 88, 147, 150, 42, 46, 45, 196, 205,
+            43, 97, 183, 117, 85, 38, 35, 179, 61,
+            39, 53, 200, 87, 26, 21, 43, 232, 171,
+            56, 34, 51, 104, 114, 102, 29, 93, 77,
+            39, 28, 85, 171, 58, 165, 90, 98, 64,
+            34, 22, 116, 206, 23, 34, 43, 166, 73,
+            107, 54, 32, 26, 51, 1, 81, 43, 31,
+            68, 25, 106, 22, 64, 171, 36, 225, 114,
+            34, 19, 21, 102, 132, 188, 16, 76, 124,
+            62, 18, 78, 95, 85, 57, 50, 48, 51,
+            193, 101, 35, 159, 215, 111, 89, 46, 111,
+            60, 148, 31, 172, 219, 228, 21, 18, 111,
+            112, 113, 77, 85, 179, 255, 38, 120, 114,
+            40, 42, 1, 196, 245, 209, 10, 25, 109,
+            88, 43, 29, 140, 166, 213, 37, 43, 154,
+            61, 63, 30, 155, 67, 45, 68, 1, 209,
+            100, 80, 8, 43, 154, 1, 51, 26, 71,
+            142, 78, 78, 16, 255, 128, 34, 197, 171,
+            41, 40, 5, 102, 211, 183, 4, 1, 221,
+            51, 50, 17, 168, 209, 192, 23, 25, 82,
+            138, 31, 36, 171, 27, 166, 38, 44, 229,
+            67, 87, 58, 169, 82, 115, 26, 59, 179,
+            63, 59, 90, 180, 59, 166, 93, 73, 154,
+            40, 40, 21, 116, 143, 209, 34, 39, 175,
+            47, 15, 16, 183, 34, 223, 49, 45, 183,
+            46, 17, 33, 183, 6, 98, 15, 32, 183,
+            57, 46, 22, 24, 128, 1, 54, 17, 37,
+            65, 32, 73, 115, 28, 128, 23, 128, 205,
+            40, 3, 9, 115, 51, 192, 18, 6, 223,
+            87, 37, 9, 115, 59, 77, 64, 21, 47,
+            104, 55, 44, 218, 9, 54, 53, 130, 226,
+            64, 90, 70, 205, 40, 41, 23, 26, 57,
+            54, 57, 112, 184, 5, 41, 38, 166, 213,
+            30, 34, 26, 133, 152, 116, 10, 32, 134,
+            39, 19, 53, 221, 26, 114, 32, 73, 255,
+            31, 9, 65, 234, 2, 15, 1, 118, 73,
+            75, 32, 12, 51, 192, 255, 160, 43, 51,
+            88, 31, 35, 67, 102, 85, 55, 186, 85,
+            56, 21, 23, 111, 59, 205, 45, 37, 192,
+            55, 38, 70, 124, 73, 102, 1, 34, 98,
+            125, 98, 42, 88, 104, 85, 117, 175, 82,
+            95, 84, 53, 89, 128, 100, 113, 101, 45,
+            75, 79, 123, 47, 51, 128, 81, 171, 1,
+            57, 17, 5, 71, 102, 57, 53, 41, 49,
+            38, 33, 13, 121, 57, 73, 26, 1, 85,
+            41, 10, 67, 138, 77, 110, 90, 47, 114,
+            115, 21, 2, 10, 102, 255, 166, 23, 6,
+            101, 29, 16, 10, 85, 128, 101, 196, 26,
+            57, 18, 10, 102, 102, 213, 34, 20, 43,
+            117, 20, 15, 36, 163, 128, 68, 1, 26,
+            102, 61, 71, 37, 34, 53, 31, 243, 192,
+            69, 60, 71, 38, 73, 119, 28, 222, 37,
+            68, 45, 128, 34, 1, 47, 11, 245, 171,
+            62, 17, 19, 70, 146, 85, 55, 62, 70,
+            37, 43, 37, 154, 100, 163, 85, 160, 1,
+            63, 9, 92, 136, 28, 64, 32, 201, 85,
+            75, 15, 9, 9, 64, 255, 184, 119, 16,
+            86, 6, 28, 5, 64, 255, 25, 248, 1,
+            56, 8, 17, 132, 137, 255, 55, 116, 128,
+            58, 15, 20, 82, 135, 57, 26, 121, 40,
+            164, 50, 31, 137, 154, 133, 25, 35, 218,
+            51, 103, 44, 131, 131, 123, 31, 6, 158,
+            86, 40, 64, 135, 148, 224, 45, 183, 128,
+            22, 26, 17, 131, 240, 154, 14, 1, 209,
+            45, 16, 21, 91, 64, 222, 7, 1, 197,
+            56, 21, 39, 155, 60, 138, 23, 102, 213,
+            83, 12, 13, 54, 192, 255, 68, 47, 28,
+            85, 26, 85, 85, 128, 128, 32, 146, 171,
+            18, 11, 7, 63, 144, 171, 4, 4, 246,
+            35, 27, 10, 146, 174, 171, 12, 26, 128,
+            190, 80, 35, 99, 180, 80, 126, 54, 45,
+            85, 126, 47, 87, 176, 51, 41, 20, 32,
+            101, 75, 128, 139, 118, 146, 116, 128, 85,
+            56, 41, 15, 176, 236, 85, 37, 9, 62,
+            71, 30, 17, 119, 118, 255, 17, 18, 138,
+            101, 38, 60, 138, 55, 70, 43, 26, 142,
+            146, 36, 19, 30, 171, 255, 97, 27, 20,
+            138, 45, 61, 62, 219, 1, 81, 188, 64,
+            32, 41, 20, 117, 151, 142, 20, 21, 163,
+            112, 19, 12, 61, 195, 128, 48, 4, 24};
+
+    private final ByteBuffer data;
+    private final int start;
+    private final int end;
+    private final WebPDecoder.Canvas canvas;
+    private final int frameX;
+    private final int frameY;
+    // the alpha channel from an ALPH chunk, one byte a pixel, or null
+    private final byte[] alpha;
+
+    private int width;
+    private int height;
+    private int mbWidth;
+    private int mbHeight;
+
+    private BoolDecoder header;
+    private BoolDecoder[] partitions;
+
+    private boolean segmentsEnabled;
+    private boolean segmentMapUpdated;
+    private boolean absoluteDeltas = true;
+    private final int[] segmentQuantizers = new int[4];
+    private final int[] segmentFilterLevels = new int[4];
+    private final int[] segmentProbabilities = {255, 255, 255};
+
+    private boolean simpleFilter;
+    private int filterLevel;
+    private int sharpness;
+    private boolean filterDeltas;
+    private final int[] referenceDeltas = new int[4];
+    private final int[] modeDeltas = new int[4];
+    // 0 for no loop filter, 1 for the simple one and 2 for the normal one
+    private int filterType;
+    // the loop filter settings by segment and whether the macroblock uses 4x4 prediction
+    private final int[][] filterLimits = new int[4][2];
+    private final int[][] interiorLimits = new int[4][2];
+    private final int[][] hevThresholds = new int[4][2];
+
+    // {dc, ac} step sizes by segment
+    private final int[][] yQuantizers = new int[4][];
+    private final int[][] y2Quantizers = new int[4][];
+    private final int[][] uvQuantizers = new int[4][];
+    private final int[] probabilities = new int[DEFAULT_PROBABILITIES.length];
+    private boolean skipEnabled;
+    private int skipProbability;
+
+    // the reconstructed (and later deblocked) picture, padded to whole macroblocks
+    private byte[] yPlane;
+    private byte[] uPlane;
+    private byte[] vPlane;
+    private int yStride;
+    private int uvStride;
+
+    private final int[] work = new int[STRIDE * (17 + 9)];
+    // the bottom row of the macroblocks above, before deblocking (which prediction uses)
+    private int[] topY;
+    private int[] topU;
+    private int[] topV;
+    // the 4x4 prediction modes along the bottom of the row above and the right of the last
+    // macroblock, which are the context for the next ones
+    private int[] topModes;
+    private final int[] leftModes = new int[4];
+    // whether each 4x4 block along the bottom of the row above / the right of the last macroblock
+    // had any coefficients
+    private int[] topNonZero;
+    private final int[] leftNonZero = new int[8];
+    private int[] topNonZeroDc;
+    private int leftNonZeroDc;
+
+    // the current macroblock
+    private final int[] coefficients = new int[384];
+    private final int[] dc = new int[16];
+    // for each of the 24 blocks: 0 if it's empty, 1 if only its DC coefficient is set, 2 otherwise
+    private final int[] blockContents = new int[24];
+    private final int[] modes = new int[16];
+
+    // the loop filter settings of each macroblock in the current row
+    private int[] rowLimits;
+    private int[] rowInteriorLimits;
+    private int[] rowHevThresholds;
+    private boolean[] rowInner;
+
+    // how much the picture is shrunk here rather than by the canvas
+    private int reduction;
+    private int[] rgbRow;
+    private int rowsConverted;
+
+    /**
+     * Constructs the decoder
+     *
+     * @param data   - The file
+     * @param start  - Where the VP8 chunk's data starts
+     * @param end    - Where it ends
+     * @param alpha  - The alpha channel, or null if the picture is opaque
+     * @param canvas - Where the picture goes
+     * @param frameX - Where the left edge of the picture goes on the canvas
+     * @param frameY - Where the top edge of the picture goes on the canvas
+     */
+    WebPLossy(ByteBuffer data, int start, int end, byte[] alpha, WebPDecoder.Canvas canvas,
+              int frameX, int frameY) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+        this.alpha = alpha;
+        this.canvas = canvas;
+        this.frameX = frameX;
+        this.frameY = frameY;
+    }
+
+    /**
+     * Reads the size of a VP8 frame from its header
+     *
+     * @param data  - The file
+     * @param start - Where the VP8 chunk's data starts
+     * @param end   - Where it ends
+     * @return - The width and height
+     * @throws IOException - If the frame header is missing or isn't a key frame
+     */
+    static Dimension readSize(ByteBuffer data, int start, int end) throws IOException {
+        if (end - start < 10) throw new IIOException("Truncated WebP file");
+        if ((data.get(start) & 1) != 0) throw new IIOException("WebP frame isn't a key frame");
+        if ((data.get(start + 3) & 0xFF) != 0x9D || (data.get(start + 4) & 0xFF) != 0x01
+                || (data.get(start + 5) & 0xFF) != 0x2A) {
+            throw new IIOException("Invalid VP8 start code");
+        }
+        // the top two bits of each are an upscaling hint, which is ignored like libwebp does
+        int width = ((data.get(start + 6) & 0xFF) | (data.get(start + 7) & 0xFF) << 8) & 0x3FFF;
+        int height = ((data.get(start + 8) & 0xFF) | (data.get(start + 9) & 0xFF) << 8) & 0x3FFF;
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Decodes the frame onto the canvas
+     *
+     * @throws IOException - If the frame is corrupted
+     */
+    void decode() throws IOException {
+        Dimension size = readSize(data, start, end);
+        width = size.width;
+        height = size.height;
+        if (width == 0 || height == 0) throw new IIOException("Empty VP8 frame");
+        int tag = (data.get(start) & 0xFF) | (data.get(start + 1) & 0xFF) << 8
+                | (data.get(start + 2) & 0xFF) << 16;
+        if (((tag >> 1) & 7) > 3) throw new IIOException("Unknown VP8 profile");
+        int firstPartition = tag >>> 5;
+        int position = start + 10;
+        if (firstPartition > end - position) throw new IIOException("Truncated WebP file");
+        header = new BoolDecoder(data, position, position + firstPartition);
+        readFrameHeader(position + firstPartition);
+
+        mbWidth = (width + 15) >> 4;
+        mbHeight = (height + 15) >> 4;
+        yStride = mbWidth * 16;
+        uvStride = mbWidth * 8;
+        yPlane = new byte[yStride * mbHeight * 16];
+        uPlane = new byte[uvStride * mbHeight * 8];
+        vPlane = new byte[uvStride * mbHeight * 8];
+        topY = new int[yStride];
+        topU = new int[uvStride];
+        topV = new int[uvStride];
+        topModes = new int[mbWidth * 4];
+        topNonZero = new int[mbWidth * 8];
+        topNonZeroDc = new int[mbWidth];
+        rowLimits = new int[mbWidth];
+        rowInteriorLimits = new int[mbWidth];
+        rowHevThresholds = new int[mbWidth];
+        rowInner = new boolean[mbWidth];
+        // an opaque picture that fills the canvas is shrunk here, averaging the planes before
+        // converting them, so only the pixels that are kept get converted
+        reduction = alpha == null && frameX == 0 && frameY == 0 && canvas.isFilledBy(width, height)
+                ? canvas.getReduction() : 1;
+        rgbRow = new int[(width + reduction - 1) / reduction];
+
+        DecodeToken token = DecodeToken.current();
+        for (int mbY = 0; mbY < mbHeight; mbY++) {
+            token.check();
+            BoolDecoder tokens = partitions[mbY & (partitions.length - 1)];
+            Arrays.fill(leftModes, DC_PRED);
+            Arrays.fill(leftNonZero, 0);
+            leftNonZeroDc = 0;
+            for (int mbX = 0; mbX < mbWidth; mbX++) decodeMacroblock(tokens, mbX, mbY);
+            if (header.eof || tokens.eof) throw new IIOException("Truncated WebP file");
+            if (filterType > 0) {
+                for (int mbX = 0; mbX < mbWidth; mbX++) filterMacroblock(mbX, mbY);
+            }
+            // deblocking the next row changes the last few rows of this one
+            convertRows(mbY == mbHeight - 1 ? height : Math.min(height, mbY * 16));
+            canvas.update();
+        }
+    }
+
+    /**
+     * Helper method that reads the frame header from the first partition and sets up the
+     * token partitions that follow it
+     *
+     * @param partitionStart - Where the first partition ends
+     * @throws IOException - If the header is corrupted
+     */
+    private void readFrameHeader(int partitionStart) throws IOException {
+        BoolDecoder br = header;
+        // color space and clamping type, which are always the defaults in practice
+        br.getValue(2);
+
+        segmentsEnabled = br.getValue(1) == 1;
+        if (segmentsEnabled) {
+            segmentMapUpdated = br.getValue(1) == 1;
+            if (br.getValue(1) == 1) {
+                absoluteDeltas = br.getValue(1) == 1;
+                for (int s = 0; s < 4; s++) {
+                    segmentQuantizers[s] = br.getValue(1) == 1 ? br.getSignedValue(7) : 0;
+                }
+                for (int s = 0; s < 4; s++) {
+                    segmentFilterLevels[s] = br.getValue(1) == 1 ? br.getSignedValue(6) : 0;
+                }
+            }
+            if (segmentMapUpdated) {
+                for (int s = 0; s < 3; s++) {
+                    segmentProbabilities[s] = br.getValue(1) == 1 ? br.getValue(8) : 255;
+                }
+            }
+        }
+
+        simpleFilter = br.getValue(1) == 1;
+        filterLevel = br.getValue(6);
+        sharpness = br.getValue(3);
+        filterDeltas = br.getValue(1) == 1;
+        if (filterDeltas && br.getValue(1) == 1) {
+            for (int i = 0; i < 4; i++) {
+                if (br.getValue(1) == 1) referenceDeltas[i] = br.getSignedValue(6);
+            }
+            for (int i = 0; i < 4; i++) {
+                if (br.getValue(1) == 1) modeDeltas[i] = br.getSignedValue(6);
+            }
+        }
+        filterType = filterLevel == 0 ? 0 : simpleFilter ? 1 : 2;
+
+        // the sizes of all but the last token partition come first, three bytes each
+        int count = 1 << br.getValue(2);
+        int sizes = partitionStart;
+        int position = sizes + 3 * (count - 1);
+        if (position > end) throw new IIOException("Truncated WebP file");
+        partitions = new BoolDecoder[count];
+        for (int p = 0; p < count - 1; p++) {
+            int size = (data.get(sizes) & 0xFF) | (data.get(sizes + 1) & 0xFF) << 8
+                    | (data.get(sizes + 2) & 0xFF) << 16;
+            sizes += 3;
+            int partitionEnd = Math.min(end, position + size);
+            partitions[p] = new BoolDecoder(data, position, partitionEnd);
+            position = partitionEnd;
+        }
+        partitions[count - 1] = new BoolDecoder(data, position, end);
+
+        readQuantizers(br);
+        // whether to keep the probabilities for the next frame, which there isn't one of
+        br.getValue(1);
+        for (int i = 0; i < probabilities.length; i++) {
+            probabilities[i] = br.getBit(UPDATE_PROBABILITIES[i]) == 1 ? br.getValue(8)
+                    : DEFAULT_PROBABILITIES[i];
+        }
+        skipEnabled = br.getValue(1) == 1;
+        if (skipEnabled) skipProbability = br.getValue(8);
+        setUpFilterStrengths();
+    }
+
+    /**
+     * Helper method that reads the quantizer indexes and works out the step sizes for each
+     * segment
+     *
+     * @param br - The first partition
+     */
+    private void readQuantizers(BoolDecoder br) {
+        int base = br.getValue(7);
+        int yDc = br.getValue(1) == 1 ? br.getSignedValue(4) : 0;
+        int y2Dc = br.getValue(1) == 1 ? br.getSignedValue(4) : 0;
+        int y2Ac = br.getValue(1) == 1 ? br.getSignedValue(4) : 0;
+        int uvDc = br.getValue(1) == 1 ? br.getSignedValue(4) : 0;
+        int uvAc = br.getValue(1) == 1 ? br.getSignedValue(4) : 0;
+        for (int s = 0; s < 4; s++) {
+            int q = base;
+            if (segmentsEnabled) {
+                q = segmentQuantizers[s] + (absoluteDeltas ? 0 : base);
+            } else if (s > 0) {
+                yQuantizers[s] = yQuantizers[0];
+                y2Quantizers[s] = y2Quantizers[0];
+                uvQuantizers[s] = uvQuantizers[0];
+                continue;
+            }
+            yQuantizers[s] = new int[]{DC_STEPS[clip(q + yDc, 127)], AC_STEPS[clip(q, 127)]};
+            // the second order AC step is 155 / 100 of the normal one, and at least 8
+            y2Quantizers[s] = new int[]{DC_STEPS[clip(q + y2Dc, 127)] * 2,
+                    Math.max(8, AC_STEPS[clip(q + y2Ac, 127)] * 101581 >> 16)};
+            uvQuantizers[s] = new int[]{DC_STEPS[clip(q + uvDc, 117)],
+                    AC_STEPS[clip(q + uvAc, 127)]};
+        }
+    }
+
+    /**
+     * Helper method that works out the loop filter settings for each segment, with and without
+     * 4x4 prediction
+     */
+    private void setUpFilterStrengths() {
+        if (filterType == 0) return;
+        for (int s = 0; s < 4; s++) {
+            int base = filterLevel;
+            if (segmentsEnabled) {
+                base = segmentFilterLevels[s] + (absoluteDeltas ? 0 : filterLevel);
+            }
+            for (int i4x4 = 0; i4x4 <= 1; i4x4++) {
+                int level = base;
+                if (filterDeltas) {
+                    level += referenceDeltas[0];
+                    if (i4x4 == 1) level += modeDeltas[0];
+                }
+                level = clip(level, 63);
+                if (level == 0) {
+                    filterLimits[s][i4x4] = 0;
+                    continue;
+                }
+                int interior = level;
+                if (sharpness > 0) {
+                    interior >>= sharpness > 4 ? 2 : 1;
+                    interior = Math.min(interior, 9 - sharpness);
+                }
+                interior = Math.max(interior, 1);
+                interiorLimits[s][i4x4] = interior;
+                filterLimits[s][i4x4] = 2 * level + interior;
+                hevThresholds[s][i4x4] = level >= 40 ? 2 : level >= 15 ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Helper method that reads the modes and coefficients of one macroblock and reconstructs it
+     *
+     * @param tokens - The partition with this row's coefficients
+     * @param mbX    - The macroblock's column
+     * @param mbY    - The macroblock's row
+     */
+    private void decodeMacroblock(BoolDecoder tokens, int mbX, int mbY) {
+        BoolDecoder br = header;
+        int segment = 0;
+        if (segmentMapUpdated) {
+            segment = br.getBit(segmentProbabilities[0]) == 0 ? br.getBit(segmentProbabilities[1])
+                    : 2 + br.getBit(segmentProbabilities[2]);
+        }
+        boolean skip = skipEnabled && br.getBit(skipProbability) == 1;
+        boolean i4x4 = br.getBit(145) == 0;
+        int yMode = DC_PRED;
+        if (!i4x4) {
+            yMode = br.getBit(156) == 0 ? (br.getBit(163) == 0 ? DC_PRED : V_PRED)
+                    : (br.getBit(128) == 0 ? H_PRED : TM_PRED);
+            Arrays.fill(topModes, mbX * 4, mbX * 4 + 4, yMode);
+            Arrays.fill(leftModes, yMode);
+        } else {
+            for (int y = 0; y < 4; y++) {
+                int left = leftModes[y];
+                for (int x = 0; x < 4; x++) {
+                    int p = (topModes[mbX * 4 + x] * 10 + left) * 9;
+                    left = readSubBlockMode(br, p);
+                    topModes[mbX * 4 + x] = left;
+                    modes[y * 4 + x] = left;
+                }
+                leftModes[y] = left;
+            }
+        }
+        int uvMode = br.getBit(142) == 0 ? DC_PRED : br.getBit(114) == 0 ? V_PRED
+                : br.getBit(183) == 1 ? TM_PRED : H_PRED;
+
+        boolean empty;
+        if (skip) {
+            Arrays.fill(topNonZero, mbX * 8, mbX * 8 + 8, 0);
+            Arrays.fill(leftNonZero, 0);
+            if (!i4x4) {
+                topNonZeroDc[mbX] = 0;
+                leftNonZeroDc = 0;
+            }
+            Arrays.fill(blockContents, 0);
+            empty = true;
+        } else {
+            empty = readResiduals(tokens, mbX, segment, i4x4);
+        }
+        if (filterType > 0) {
+            int i = i4x4 ? 1 : 0;
+            rowLimits[mbX] = filterLimits[segment][i];
+            rowInteriorLimits[mbX] = interiorLimits[segment][i];
+            rowHevThresholds[mbX] = hevThresholds[segment][i];
+            // the edges inside a macroblock are only filtered if there's something to smooth
+            rowInner[mbX] = i4x4 || !empty;
+        }
+        reconstruct(mbX, mbY, i4x4, yMode, uvMode);
+    }
+
+    /**
+     * Helper method that reads a 4x4 prediction mode
+     *
+     * @param br - The first partition
+     * @param p  - Where the probabilities for the modes above and to the left start
+     * @return - The mode
+     */
+    private static int readSubBlockMode(BoolDecoder br, int p) {
+        int[] probs = SUB_BLOCK_MODE_PROBABILITIES;
+        if (br.getBit(probs[p]) == 0) return DC_PRED;
+        if (br.getBit(probs[p + 1]) == 0) return TM_PRED;
+        if (br.getBit(probs[p + 2]) == 0) return V_PRED;
+        if (br.getBit(probs[p + 3]) == 0) {
+            if (br.getBit(probs[p + 4]) == 0) return H_PRED;
+            return br.getBit(probs[p + 5]) == 0 ? RD_PRED : VR_PRED;
+        }
+        if (br.getBit(probs[p + 6]) == 0) return LD_PRED;
+        if (br.getBit(probs[p + 7]) == 0) return VL_PRED;
+        return br.getBit(probs[p + 8]) == 0 ? HD_PRED : HU_PRED;
+    }
+
+    /**
+     * Helper method that reads the coefficients of a macroblock
+     *
+     * @param br      - The partition with this row's coefficients
+     * @param mbX     - The macroblock's column
+     * @param segment - The macroblock's segment
+     * @param i4x4    - Whether the macroblock uses 4x4 prediction (otherwise the DC coefficients
+     *                of the luma blocks are coded separately)
+     * @return - True if every coefficient is zero
+     */
+    private boolean readResiduals(BoolDecoder br, int mbX, int segment, boolean i4x4) {
+        int[] c = coefficients;
+        Arrays.fill(c, 0);
+        int[] yQuantizer = yQuantizers[segment];
+        int first = 0;
+        int type = 3;
+        if (!i4x4) {
+            Arrays.fill(dc, 0);
+            int[] q = y2Quantizers[segment];
+            int count = readCoefficients(br, 1, topNonZeroDc[mbX] + leftNonZeroDc, q[0], q[1],
+                    0, dc, 0);
+            topNonZeroDc[mbX] = leftNonZeroDc = count > 0 ? 1 : 0;
+            if (count > 1) {
+                inverseWalshHadamard();
+            } else {
+                int value = (dc[0] + 3) >> 3;
+                for (int i = 0; i < 256; i += 16) c[i] = value;
+            }
+            first = 1;
+            type = 0;
+        }
+        boolean empty = true;
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                int block = y * 4 + x;
+                int context = leftNonZero[y] + topNonZero[mbX * 8 + x];
+                int count = readCoefficients(br, type, context, yQuantizer[0], yQuantizer[1],
+                        first, c, block * 16);
+                int nonZero = count > first ? 1 : 0;
+                leftNonZero[y] = nonZero;
+                topNonZero[mbX * 8 + x] = nonZero;
+                blockContents[block] = count > 1 ? 2 : c[block * 16] != 0 ? 1 : 0;
+                if (blockContents[block] != 0) empty = false;
+            }
+        }
+        int[] uvQuantizer = uvQuantizers[segment];
+        // U then V, each 2x2 blocks, with their contexts after the four of luma
+        for (int plane = 0; plane < 2; plane++) {
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 2; x++) {
+                    int block = 16 + plane * 4 + y * 2 + x;
+                    int left = 4 + plane * 2 + y;
+                    int top = mbX * 8 + 4 + plane * 2 + x;
+                    int count = readCoefficients(br, 2, leftNonZero[left] + topNonZero[top],
+                            uvQuantizer[0], uvQuantizer[1], 0, c, block * 16);
+                    int nonZero = count > 0 ? 1 : 0;
+                    leftNonZero[left] = nonZero;
+                    topNonZero[top] = nonZero;
+                    blockContents[block] = count > 1 ? 2 : c[block * 16] != 0 ? 1 : 0;
+                    if (blockContents[block] != 0) empty = false;
+                }
+            }
+        }
+        return empty;
+    }
+
+    /**
+     * Helper method that reads the coefficients of one 4x4 block, dequantized
+     *
+     * @param br      - The partition with this row's coefficients
+     * @param type    - 0 for luma after separate DC, 1 for the luma DC block, 2 for chroma and
+     *                3 for luma with its DC
+     * @param context - How many of the blocks above and to the left had coefficients
+     * @param dcStep  - The step size of the first coefficient
+     * @param acStep  - The step size of the others
+     * @param n       - The first coefficient to read
+     * @param out     - Where the coefficients go
+     * @param offset  - Where the block starts in out
+     * @return - One more than the position of the last non-zero coefficient, or n if there
+     * aren't any
+     */
+    private int readCoefficients(BoolDecoder br, int type, int context, int dcStep, int acStep,
+                                 int n, int[] out, int offset) {
+        int[] probs = probabilities;
+        int p = ((type * 8 + BANDS[n]) * 3 + context) * 11;
+        for (; n < 16; n++) {
+            // end of block
+            if (br.getBit(probs[p]) == 0) return n;
+            while (br.getBit(probs[p + 1]) == 0) {
+                // a zero, after which the next coefficient can't end the block
+                p = (type * 8 + BANDS[++n]) * 33;
+                if (n == 16) return 16;
+            }
+            int next = (type * 8 + BANDS[n + 1]) * 33;
+            int value;
+            if (br.getBit(probs[p + 2]) == 0) {
+                value = 1;
+                p = next + 11;
+            } else {
+                value = readLargeValue(br, p);
+                p = next + 22;
+            }
+            if (br.getBit(128) == 1) value = -value;
+            out[offset + ZIGZAG[n]] = value * (n > 0 ? acStep : dcStep);
+        }
+        return 16;
+    }
+
+    /**
+     * Helper method that reads a coefficient bigger than 1
+     *
+     * @param br - The partition with this row's coefficients
+     * @param p  - Where the probabilities for this coefficient start
+     * @return - Its magnitude
+     */
+    private int readLargeValue(BoolDecoder br, int p) {
+        int[] probs = probabilities;
+        if (br.getBit(probs[p + 3]) == 0) {
+            return br.getBit(probs[p + 4]) == 0 ? 2 : 3 + br.getBit(probs[p + 5]);
+        }
+        if (br.getBit(probs[p + 6]) == 0) {
+            if (br.getBit(probs[p + 7]) == 0) return 5 + br.getBit(159);
+            int value = 7 + 2 * br.getBit(165);
+            return value + br.getBit(145);
+        }
+        int high = br.getBit(probs[p + 8]);
+        int low = br.getBit(probs[p + 9 + high]);
+        int category = 2 * high + low;
+        int value = 0;
+        for (int prob : EXTRA_BITS[category]) value += value + br.getBit(prob);
+        return value + 3 + (8 << category);
+    }
+
+    /**
+     * Helper method that undoes the Walsh-Hadamard transform of the luma DC coefficients,
+     * putting them in the first coefficient of each luma block
+     */
+    private void inverseWalshHadamard() {
+        int[] in = dc;
+        int[] tmp = new int[16];
+        for (int i = 0; i < 4; i++) {
+            int a0 = in[i] + in[12 + i];
+            int a1 = in[4 + i] + in[8 + i];
+            int a2 = in[4 + i] - in[8 + i];
+            int a3 = in[i] - in[12 + i];
+            tmp[i] = a0 + a1;
+            tmp[8 + i] = a0 - a1;
+            tmp[4 + i] = a3 + a2;
+            tmp[12 + i] = a3 - a2;
+        }
+        for (int i = 0; i < 4; i++) {
+            int d = tmp[i * 4] + 3;
+            int a0 = d + tmp[i * 4 + 3];
+            int a1 = tmp[i * 4 + 1] + tmp[i * 4 + 2];
+            int a2 = tmp[i * 4 + 1] - tmp[i * 4 + 2];
+            int a3 = d - tmp[i * 4 + 3];
+            int out = i * 64;
+            coefficients[out] = (a0 + a1) >> 3;
+            coefficients[out + 16] = (a3 + a2) >> 3;
+            coefficients[out + 32] = (a0 - a1) >> 3;
+            coefficients[out + 48] = (a3 - a2) >> 3;
+        }
+    }
+
+    /**
+     * Helper method that predicts a macroblock, adds the coefficients back and copies it into
+     * the frame planes
+     *
+     * @param mbX    - The macroblock's column
+     * @param mbY    - The macroblock's row
+     * @param i4x4   - Whether each 4x4 luma block has its own prediction mode (in modes)
+     * @param yMode  - The luma prediction mode otherwise
+     * @param uvMode - The chroma prediction mode
+     */
+    private void reconstruct(int mbX, int mbY, boolean i4x4, int yMode, int uvMode) {
+        int[] w = work;
+        if (mbX == 0) {
+            // to the left of the frame is 129, above it is 127
+            for (int j = 0; j < 16; j++) w[Y_OFFSET + j * STRIDE - 1] = 129;
+            for (int j = 0; j < 8; j++) {
+                w[U_OFFSET + j * STRIDE - 1] = 129;
+                w[V_OFFSET + j * STRIDE - 1] = 129;
+            }
+            if (mbY > 0) {
+                w[Y_OFFSET - STRIDE - 1] = 129;
+                w[U_OFFSET - STRIDE - 1] = 129;
+                w[V_OFFSET - STRIDE - 1] = 129;
+            } else {
+                Arrays.fill(w, Y_OFFSET - STRIDE - 1, Y_OFFSET - STRIDE + 20, 127);
+                Arrays.fill(w, U_OFFSET - STRIDE - 1, U_OFFSET - STRIDE + 8, 127);
+                Arrays.fill(w, V_OFFSET - STRIDE - 1, V_OFFSET - STRIDE + 8, 127);
+            }
+        } else {
+            // the right edge of the last macroblock is the left edge of this one
+            for (int j = -1; j < 16; j++) {
+                System.arraycopy(w, Y_OFFSET + j * STRIDE + 12, w, Y_OFFSET + j * STRIDE - 4, 4);
+            }
+            for (int j = -1; j < 8; j++) {
+                System.arraycopy(w, U_OFFSET + j * STRIDE + 4, w, U_OFFSET + j * STRIDE - 4, 4);
+                System.arraycopy(w, V_OFFSET + j * STRIDE + 4, w, V_OFFSET + j * STRIDE - 4, 4);
+            }
+        }
+        if (mbY > 0) {
+            System.arraycopy(topY, mbX * 16, w, Y_OFFSET - STRIDE, 16);
+            System.arraycopy(topU, mbX * 8, w, U_OFFSET - STRIDE, 8);
+            System.arraycopy(topV, mbX * 8, w, V_OFFSET - STRIDE, 8);
+        }
+
+        if (i4x4) {
+            int topRight = Y_OFFSET - STRIDE + 16;
+            if (mbY > 0) {
+                if (mbX == mbWidth - 1) {
+                    Arrays.fill(w, topRight, topRight + 4, topY[mbX * 16 + 15]);
+                } else {
+                    System.arraycopy(topY, mbX * 16 + 16, w, topRight, 4);
+                }
+            }
+            // the blocks down the right use the pixels above and to the right of the macroblock
+            for (int row = 4; row < 16; row += 4) {
+                System.arraycopy(w, topRight, w, topRight + row * STRIDE, 4);
+            }
+            for (int n = 0; n < 16; n++) {
+                int dst = Y_OFFSET + (n & 3) * 4 + (n >> 2) * 4 * STRIDE;
+                predict4(dst, modes[n]);
+                addBlock(n, dst);
+            }
+        } else {
+            predict(Y_OFFSET, 16, edgeMode(yMode, mbX, mbY));
+            for (int n = 0; n < 16; n++) addBlock(n, Y_OFFSET + (n & 3) * 4 + (n >> 2) * 4 * STRIDE);
+        }
+        int chromaMode = edgeMode(uvMode, mbX, mbY);
+        predict(U_OFFSET, 8, chromaMode);
+        predict(V_OFFSET, 8, chromaMode);
+        for (int n = 0; n < 4; n++) {
+            int offset = (n & 1) * 4 + (n >> 1) * 4 * STRIDE;
+            addBlock(16 + n, U_OFFSET + offset);
+            addBlock(20 + n, V_OFFSET + offset);
+        }
+
+        if (mbY < mbHeight - 1) {
+            System.arraycopy(w, Y_OFFSET + 15 * STRIDE, topY, mbX * 16, 16);
+            System.arraycopy(w, U_OFFSET + 7 * STRIDE, topU, mbX * 8, 8);
+            System.arraycopy(w, V_OFFSET + 7 * STRIDE, topV, mbX * 8, 8);
+        }
+        for (int j = 0; j < 16; j++) {
+            int out = (mbY * 16 + j) * yStride + mbX * 16;
+            int in = Y_OFFSET + j * STRIDE;
+            for (int i = 0; i < 16; i++) yPlane[out + i] = (byte) w[in + i];
+        }
+        for (int j = 0; j < 8; j++) {
+            int out = (mbY * 8 + j) * uvStride + mbX * 8;
+            for (int i = 0; i < 8; i++) {
+                uPlane[out + i] = (byte) w[U_OFFSET + j * STRIDE + i];
+                vPlane[out + i] = (byte) w[V_OFFSET + j * STRIDE + i];
+            }
+        }
+    }
+
+    /**
+     * Helper method that picks the variant of DC prediction that only uses the neighbours a
+     * macroblock actually has
+     *
+     * @param mode - The prediction mode
+     * @param mbX  - The macroblock's column
+     * @param mbY  - The macroblock's row
+     * @return - The mode to use
+     */
+    private static int edgeMode(int mode, int mbX, int mbY) {
+        if (mode != DC_PRED) return mode;
+        if (mbX == 0) return mbY == 0 ? DC_PRED_NO_TOP_LEFT : DC_PRED_NO_LEFT;
+        return mbY == 0 ? DC_PRED_NO_TOP : DC_PRED;
+    }
+
+    /**
+     * Helper method that predicts a whole luma (16x16) or chroma (8x8) block
+     *
+     * @param dst  - Where the block is in the working area
+     * @param size - 16 or 8
+     * @param mode - The prediction mode
+     */
+    private void predict(int dst, int size, int mode) {
+        int[] w = work;
+        int shift = size == 16 ? 4 : 3;
+        switch (mode) {
+            case V_PRED:
+                for (int y = 0; y < size; y++) {
+                    System.arraycopy(w, dst - STRIDE, w, dst + y * STRIDE, size);
+                }
+                return;
+            case H_PRED:
+                for (int y = 0; y < size; y++) {
+                    int row = dst + y * STRIDE;
+                    Arrays.fill(w, row, row + size, w[row - 1]);
+                }
+                return;
+            case TM_PRED:
+                trueMotion(dst, size);
+                return;
+            default:
+                break;
+        }
+        int value;
+        if (mode == DC_PRED_NO_TOP_LEFT) {
+            value = 128;
+        } else {
+            int sum = 0;
+            int count = 0;
+            if (mode != DC_PRED_NO_TOP) {
+                for (int i = 0; i < size; i++) sum += w[dst - STRIDE + i];
+                count++;
+            }
+            if (mode != DC_PRED_NO_LEFT) {
+                for (int i = 0; i < size; i++) sum += w[dst + i * STRIDE - 1];
+                count++;
+            }
+            int bits = shift + count - 1;
+            value = (sum + (1 << (bits - 1))) >> bits;
+        }
+        for (int y = 0; y < size; y++) {
+            Arrays.fill(w, dst + y * STRIDE, dst + y * STRIDE + size, value);
+        }
+    }
+
+    /**
+     * Helper method that predicts each pixel as left + above - above left
+     *
+     * @param dst  - Where the block is in the working area
+     * @param size - 4, 8 or 16
+     */
+    private void trueMotion(int dst, int size) {
+        int[] w = work;
+        int topLeft = w[dst - STRIDE - 1];
+        for (int y = 0; y < size; y++) {
+            int row = dst + y * STRIDE;
+            int left = w[row - 1] - topLeft;
+            for (int x = 0; x < size; x++) w[row + x] = clamp(w[dst - STRIDE + x] + left);
+        }
+    }
+
+    /**
+     * Helper method that predicts a 4x4 luma block
+     *
+     * @param dst  - Where the block is in the working area
+     * @param mode - The prediction mode
+     */
+    private void predict4(int dst, int mode) {
+        int[] w = work;
+        int top = dst - STRIDE;
+        // the pixels above (a - h, including four above and to the right), to the left (i - l)
+        // and above left (x)
+        int a = w[top];
+        int b = w[top + 1];
+        int c = w[top + 2];
+        int d = w[top + 3];
+        int i = w[dst - 1];
+        int j = w[dst + STRIDE - 1];
+        int k = w[dst + 2 * STRIDE - 1];
+        int l = w[dst + 3 * STRIDE - 1];
+        int x = w[top - 1];
+        switch (mode) {
+            case DC_PRED: {
+                int value = (a + b + c + d + i + j + k + l + 4) >> 3;
+                for (int r = 0; r < 4; r++) Arrays.fill(w, dst + r * STRIDE, dst + r * STRIDE + 4, value);
+                return;
+            }
+            case TM_PRED:
+                trueMotion(dst, 4);
+                return;
+            case V_PRED: {
+                int e = w[top + 4];
+                set4(dst, 0, avg3(x, a, b), avg3(a, b, c), avg3(b, c, d), avg3(c, d, e));
+                for (int r = 1; r < 4; r++) System.arraycopy(w, dst, w, dst + r * STRIDE, 4);
+                return;
+            }
+            case H_PRED: {
+                int[] values = {avg3(x, i, j), avg3(i, j, k), avg3(j, k, l), avg3(k, l, l)};
+                for (int r = 0; r < 4; r++) {
+                    Arrays.fill(w, dst + r * STRIDE, dst + r * STRIDE + 4, values[r]);
+                }
+                return;
+            }
+            case RD_PRED:
+                set4(dst, 3, avg3(j, k, l), avg3(i, j, k), avg3(x, i, j), avg3(a, x, i));
+                set4(dst, 2, avg3(i, j, k), avg3(x, i, j), avg3(a, x, i), avg3(b, a, x));
+                set4(dst, 1, avg3(x, i, j), avg3(a, x, i), avg3(b, a, x), avg3(c, b, a));
+                set4(dst, 0, avg3(a, x, i), avg3(b, a, x), avg3(c, b, a), avg3(d, c, b));
+                return;
+            case LD_PRED: {
+                int e = w[top + 4];
+                int f = w[top + 5];
+                int g = w[top + 6];
+                int h = w[top + 7];
+                set4(dst, 0, avg3(a, b, c), avg3(b, c, d), avg3(c, d, e), avg3(d, e, f));
+                set4(dst, 1, avg3(b, c, d), avg3(c, d, e), avg3(d, e, f), avg3(e, f, g));
+                set4(dst, 2, avg3(c, d, e), avg3(d, e, f), avg3(e, f, g), avg3(f, g, h));
+                set4(dst, 3, avg3(d, e, f), avg3(e, f, g), avg3(f, g, h), avg3(g, h, h));
+                return;
+            }
+            case VR_PRED:
+                set4(dst, 0, avg2(x, a), avg2(a, b), avg2(b, c), avg2(c, d));
+                set4(dst, 1, avg3(i, x, a), avg3(x, a, b), avg3(a, b, c), avg3(b, c, d));
+                set4(dst, 2, avg3(j, i, x), avg2(x, a), avg2(a, b), avg2(b, c));
+                set4(dst, 3, avg3(k, j, i), avg3(i, x, a), avg3(x, a, b), avg3(a, b, c));
+                return;
+            case VL_PRED: {
+                int e = w[top + 4];
+                int f = w[top + 5];
+                int g = w[top + 6];
+                int h = w[top + 7];
+                set4(dst, 0, avg2(a, b), avg2(b, c), avg2(c, d), avg2(d, e));
+                set4(dst, 1, avg3(a, b, c), avg3(b, c, d), avg3(c, d, e), avg3(d, e, f));
+                set4(dst, 2, avg2(b, c), avg2(c, d), avg2(d, e), avg3(e, f, g));
+                set4(dst, 3, avg3(b, c, d), avg3(c, d, e), avg3(d, e, f), avg3(f, g, h));
+                return;
+            }
+            case HD_PRED:
+                set4(dst, 0, avg2(i, x), avg3(i, x, a), avg3(x, a, b), avg3(a, b, c));
+                set4(dst, 1, avg2(j, i), avg3(j, i, x), avg2(i, x), avg3(i, x, a));
+                set4(dst, 2, avg2(k, j), avg3(k, j, i), avg2(j, i), avg3(j, i, x));
+                set4(dst, 3, avg2(l, k), avg3(l, k, j), avg2(k, j), avg3(k, j, i));
+                return;
+            default:
+                // HU_PRED
+                set4(dst, 0, avg2(i, j), avg3(i, j, k), avg2(j, k), avg3(j, k, l));
+                set4(dst, 1, avg2(j, k), avg3(j, k, l), avg2(k, l), avg3(k, l, l));
+                set4(dst, 2, avg2(k, l), avg3(k, l, l), l, l);
+                set4(dst, 3, l, l, l, l);
+        }
+    }
+
+    /**
+     * Helper method that sets one row of a 4x4 block
+     *
+     * @param dst - Where the block is in the working area
+     * @param row - The row
+     * @param p0  - The first pixel
+     * @param p1  - The second pixel
+     * @param p2  - The third pixel
+     * @param p3  - The fourth pixel
+     */
+    private void set4(int dst, int row, int p0, int p1, int p2, int p3) {
+        int i = dst + row * STRIDE;
+        work[i] = p0;
+        work[i + 1] = p1;
+        work[i + 2] = p2;
+        work[i + 3] = p3;
+    }
+
+    private static int avg2(int a, int b) {
+        return (a + b + 1) >> 1;
+    }
+
+    private static int avg3(int a, int b, int c) {
+        return (a + 2 * b + c + 2) >> 2;
+    }
+
+    /**
+     * Helper method that adds the inverse transform of a block's coefficients to its prediction
+     *
+     * @param block - The block (0 - 15 luma, then 4 U and 4 V)
+     * @param dst   - Where the block is in the working area
+     */
+    private void addBlock(int block, int dst) {
+        int[] w = work;
+        int[] in = coefficients;
+        int c = block * 16;
+        switch (blockContents[block]) {
+            case 0:
+                return;
+            case 1: {
+                int value = (in[c] + 4) >> 3;
+                for (int y = 0; y < 4; y++) {
+                    int row = dst + y * STRIDE;
+                    for (int x = 0; x < 4; x++) w[row + x] = clamp(w[row + x] + value);
+                }
+                return;
+            }
+            default:
+                break;
+        }
+        int[] tmp = new int[16];
+        for (int i = 0; i < 4; i++) {
+            // down the columns
+            int a = in[c + i] + in[c + 8 + i];
+            int b = in[c + i] - in[c + 8 + i];
+            int t = mul2(in[c + 4 + i]) - mul1(in[c + 12 + i]);
+            int d = mul1(in[c + 4 + i]) + mul2(in[c + 12 + i]);
+            tmp[i * 4] = a + d;
+            tmp[i * 4 + 1] = b + t;
+            tmp[i * 4 + 2] = b - t;
+            tmp[i * 4 + 3] = a - d;
+        }
+        for (int i = 0; i < 4; i++) {
+            // then along the rows
+            int base = tmp[i] + 4;
+            int a = base + tmp[8 + i];
+            int b = base - tmp[8 + i];
+            int t = mul2(tmp[4 + i]) - mul1(tmp[12 + i]);
+            int d = mul1(tmp[4 + i]) + mul2(tmp[12 + i]);
+            int row = dst + i * STRIDE;
+            w[row] = clamp(w[row] + ((a + d) >> 3));
+            w[row + 1] = clamp(w[row + 1] + ((b + t) >> 3));
+            w[row + 2] = clamp(w[row + 2] + ((b - t) >> 3));
+            w[row + 3] = clamp(w[row + 3] + ((a - d) >> 3));
+        }
+    }
+
+    // multiplications by sqrt(2) * cos(pi / 8) and sqrt(2) * sin(pi / 8) in 16 bit fixed point
+    private static int mul1(int a) {
+        return ((a * 20091) >> 16) + a;
+    }
+
+    private static int mul2(int a) {
+        return (a * 35468) >> 16;
+    }
+
+    /**
+     * Helper method that runs the loop filter over the edges of a macroblock, in the order the
+     * format specifies: the left edge, the vertical edges inside, the top edge, then the
+     * horizontal edges inside
+     *
+     * @param mbX - The macroblock's column
+     * @param mbY - The macroblock's row
+     */
+    private void filterMacroblock(int mbX, int mbY) {
+        int limit = rowLimits[mbX];
+        if (limit == 0) return;
+        int interior = rowInteriorLimits[mbX];
+        int hev = rowHevThresholds[mbX];
+        boolean inner = rowInner[mbX];
+        int y = mbY * 16 * yStride + mbX * 16;
+        int uv = mbY * 8 * uvStride + mbX * 8;
+        int edge = 2 * (limit + 4) + 1;
+        int innerEdge = 2 * limit + 1;
+        if (filterType == 1) {
+            if (mbX > 0) simpleFilter(yPlane, y, 1, yStride, edge);
+            if (inner) {
+                for (int k = 4; k < 16; k += 4) simpleFilter(yPlane, y + k, 1, yStride, innerEdge);
+            }
+            if (mbY > 0) simpleFilter(yPlane, y, yStride, 1, edge);
+            if (inner) {
+                for (int k = 4; k < 16; k += 4) {
+                    simpleFilter(yPlane, y + k * yStride, yStride, 1, innerEdge);
+                }
+            }
+            return;
+        }
+        if (mbX > 0) {
+            filter(yPlane, y, 1, yStride, 16, edge, interior, hev, true);
+            filter(uPlane, uv, 1, uvStride, 8, edge, interior, hev, true);
+            filter(vPlane, uv, 1, uvStride, 8, edge, interior, hev, true);
+        }
+        if (inner) {
+            for (int k = 4; k < 16; k += 4) {
+                filter(yPlane, y + k, 1, yStride, 16, innerEdge, interior, hev, false);
+            }
+            filter(uPlane, uv + 4, 1, uvStride, 8, innerEdge, interior, hev, false);
+            filter(vPlane, uv + 4, 1, uvStride, 8, innerEdge, interior, hev, false);
+        }
+        if (mbY > 0) {
+            filter(yPlane, y, yStride, 1, 16, edge, interior, hev, true);
+            filter(uPlane, uv, uvStride, 1, 8, edge, interior, hev, true);
+            filter(vPlane, uv, uvStride, 1, 8, edge, interior, hev, true);
+        }
+        if (inner) {
+            for (int k = 4; k < 16; k += 4) {
+                filter(yPlane, y + k * yStride, yStride, 1, 16, innerEdge, interior, hev, false);
+            }
+            filter(uPlane, uv + 4 * uvStride, uvStride, 1, 8, innerEdge, interior, hev, false);
+            filter(vPlane, uv + 4 * uvStride, uvStride, 1, 8, innerEdge, interior, hev, false);
+        }
+    }
+
+    /**
+     * Helper method that runs the simple loop filter along 16 pixels of an edge
+     *
+     * @param p         - The plane
+     * @param offset    - The first pixel after the edge
+     * @param step      - The distance between pixels across the edge
+     * @param along     - The distance between pixels along the edge
+     * @param threshold - Twice the edge limit, plus one
+     */
+    private static void simpleFilter(byte[] p, int offset, int step, int along, int threshold) {
+        for (int n = 0; n < 16; n++, offset += along) {
+            int p1 = p[offset - 2 * step] & 0xFF;
+            int p0 = p[offset - step] & 0xFF;
+            int q0 = p[offset] & 0xFF;
+            int q1 = p[offset + step] & 0xFF;
+            if (4 * Math.abs(p0 - q0) + Math.abs(p1 - q1) <= threshold) {
+                filter2(p, offset, step, p1, p0, q0, q1);
+            }
+        }
+    }
+
+    /**
+     * Helper method that runs the normal loop filter along an edge
+     *
+     * @param p          - The plane
+     * @param offset     - The first pixel after the edge
+     * @param step       - The distance between pixels across the edge
+     * @param along      - The distance between pixels along the edge
+     * @param count      - How long the edge is
+     * @param threshold  - Twice the edge limit, plus one
+     * @param interior   - The most neighbouring pixels on the same side can differ by
+     * @param hev        - The difference that counts as high edge variance
+     * @param macroblock - Whether this is the edge of a macroblock, which is smoothed harder
+     */
+    private static void filter(byte[] p, int offset, int step, int along, int count,
+                               int threshold, int interior, int hev, boolean macroblock) {
+        for (int n = 0; n < count; n++, offset += along) {
+            int p3 = p[offset - 4 * step] & 0xFF;
+            int p2 = p[offset - 3 * step] & 0xFF;
+            int p1 = p[offset - 2 * step] & 0xFF;
+            int p0 = p[offset - step] & 0xFF;
+            int q0 = p[offset] & 0xFF;
+            int q1 = p[offset + step] & 0xFF;
+            int q2 = p[offset + 2 * step] & 0xFF;
+            int q3 = p[offset + 3 * step] & 0xFF;
+            if (4 * Math.abs(p0 - q0) + Math.abs(p1 - q1) > threshold
+                    || Math.abs(p3 - p2) > interior || Math.abs(p2 - p1) > interior
+                    || Math.abs(p1 - p0) > interior || Math.abs(q3 - q2) > interior
+                    || Math.abs(q2 - q1) > interior || Math.abs(q1 - q0) > interior) {
+                continue;
+            }
+            if (Math.abs(p1 - p0) > hev || Math.abs(q1 - q0) > hev) {
+                filter2(p, offset, step, p1, p0, q0, q1);
+            } else if (macroblock) {
+                int a = signedClamp(3 * (q0 - p0) + signedClamp(p1 - q1));
+                int a1 = (27 * a + 63) >> 7;
+                int a2 = (18 * a + 63) >> 7;
+                int a3 = (9 * a + 63) >> 7;
+                p[offset - 3 * step] = (byte) clamp(p2 + a3);
+                p[offset - 2 * step] = (byte) clamp(p1 + a2);
+                p[offset - step] = (byte) clamp(p0 + a1);
+                p[offset] = (byte) clamp(q0 - a1);
+                p[offset + step] = (byte) clamp(q1 - a2);
+                p[offset + 2 * step] = (byte) clamp(q2 - a3);
+            } else {
+                int a = 3 * (q0 - p0);
+                int a1 = smallClamp((a + 4) >> 3);
+                int a2 = smallClamp((a + 3) >> 3);
+                int a3 = (a1 + 1) >> 1;
+                p[offset - 2 * step] = (byte) clamp(p1 + a3);
+                p[offset - step] = (byte) clamp(p0 + a2);
+                p[offset] = (byte) clamp(q0 - a1);
+                p[offset + step] = (byte) clamp(q1 - a3);
+            }
+        }
+    }
+
+    /**
+     * Helper method that adjusts the two pixels next to an edge
+     */
+    private static void filter2(byte[] p, int offset, int step, int p1, int p0, int q0, int q1) {
+        int a = 3 * (q0 - p0) + signedClamp(p1 - q1);
+        int a1 = smallClamp((a + 4) >> 3);
+        int a2 = smallClamp((a + 3) >> 3);
+        p[offset - step] = (byte) clamp(p0 + a2);
+        p[offset] = (byte) clamp(q0 - a1);
+    }
+
+    private static int signedClamp(int value) {
+        return value < -128 ? -128 : Math.min(value, 127);
+    }
+
+    private static int smallClamp(int value) {
+        return value < -16 ? -16 : Math.min(value, 15);
+    }
+
+    /**
+     * Helper method that converts finished rows to RGB and hands them to the canvas. Chroma is
+     * upsampled with libwebp's "fancy" filter, which weighs the four nearest chroma samples
+     * 9:3:3:1
+     *
+     * @param last - The row after the last one that is finished
+     */
+    private void convertRows(int last) {
+        if (reduction > 1) {
+            shrinkRows(last);
+            return;
+        }
+        int chromaRows = (height + 1) >> 1;
+        for (int y = rowsConverted; y < last; y++) {
+            // the nearer and further chroma rows
+            int near;
+            int far;
+            if (y == 0) {
+                near = 0;
+                far = 0;
+            } else if ((y & 1) == 1) {
+                near = (y - 1) >> 1;
+                far = Math.min(near + 1, chromaRows - 1);
+            } else {
+                near = y >> 1;
+                far = near - 1;
+            }
+            int n = near * uvStride;
+            int f = far * uvStride;
+            int luma = y * yStride;
+            int[] out = rgbRow;
+            out[0] = toRgb(yPlane[luma] & 0xFF, edge(uPlane, n, f), edge(vPlane, n, f));
+            for (int x = 1; x <= (width - 1) >> 1; x++) {
+                int nn = n + x - 1;
+                int fn = f + x - 1;
+                int u0 = uPlane[nn] & 0xFF;
+                int u1 = uPlane[nn + 1] & 0xFF;
+                int u2 = uPlane[fn] & 0xFF;
+                int u3 = uPlane[fn + 1] & 0xFF;
+                int v0 = vPlane[nn] & 0xFF;
+                int v1 = vPlane[nn + 1] & 0xFF;
+                int v2 = vPlane[fn] & 0xFF;
+                int v3 = vPlane[fn + 1] & 0xFF;
+                out[2 * x - 1] = toRgb(yPlane[luma + 2 * x - 1] & 0xFF, fancy(u0, u1, u2, u3),
+                        fancy(v0, v1, v2, v3));
+                out[2 * x] = toRgb(yPlane[luma + 2 * x] & 0xFF, fancy(u1, u0, u3, u2),
+                        fancy(v1, v0, v3, v2));
+            }
+            if ((width & 1) == 0) {
+                int column = (width >> 1) - 1;
+                out[width - 1] = toRgb(yPlane[luma + width - 1] & 0xFF,
+                        edge(uPlane, n + column, f + column), edge(vPlane, n + column, f + column));
+            }
+            if (alpha != null) {
+                int a = y * width;
+                for (int x = 0; x < width; x++) out[x] |= (alpha[a + x] & 0xFF) << 24;
+            } else {
+                for (int x = 0; x < width; x++) out[x] |= 0xFF000000;
+            }
+            canvas.write(frameY + y, out, 0, frameX, width);
+        }
+        rowsConverted = last;
+    }
+
+    /**
+     * Helper method that converts finished rows to RGB at a reduced size. Each output pixel is
+     * the average of the luma and chroma samples it covers
+     *
+     * @param last - The row after the last one that is finished
+     */
+    private void shrinkRows(int last) {
+        int r = reduction;
+        while (rowsConverted < last && (rowsConverted + r <= last || last == height)) {
+            int top = rowsConverted;
+            int bottom = Math.min(height, top + r);
+            int chromaTop = top >> 1;
+            int chromaBottom = (bottom - 1) >> 1;
+            for (int column = 0; column < rgbRow.length; column++) {
+                int left = column * r;
+                int right = Math.min(width, left + r);
+                int luma = 0;
+                for (int y = top; y < bottom; y++) {
+                    int row = y * yStride;
+                    for (int x = left; x < right; x++) luma += yPlane[row + x] & 0xFF;
+                }
+                int u = 0;
+                int v = 0;
+                for (int y = chromaTop; y <= chromaBottom; y++) {
+                    int row = y * uvStride;
+                    for (int x = left >> 1; x <= (right - 1) >> 1; x++) {
+                        u += uPlane[row + x] & 0xFF;
+                        v += vPlane[row + x] & 0xFF;
+                    }
+                }
+                int count = (bottom - top) * (right - left);
+                int chromaCount = (chromaBottom - chromaTop + 1)
+                        * (((right - 1) >> 1) - (left >> 1) + 1);
+                rgbRow[column] = 0xFF000000 | toRgb((luma + (count >> 1)) / count,
+                        (u + (chromaCount >> 1)) / chromaCount,
+                        (v + (chromaCount >> 1)) / chromaCount);
+            }
+            canvas.writeShrunk(top / r, rgbRow);
+            rowsConverted = bottom;
+        }
+    }
+
+    /**
+     * Helper method that blends the nearer and further chroma samples for the first and last
+     * columns
+     */
+    private static int edge(byte[] plane, int near, int far) {
+        return (3 * (plane[near] & 0xFF) + (plane[far] & 0xFF) + 2) >> 2;
+    }
+
+    /**
+     * Helper method that blends four chroma samples the way libwebp does: the diagonal average
+     * first and then halfway towards the nearest
+     *
+     * @param nn - The sample in the nearer row and column
+     * @param nf - The sample in the nearer row and the further column
+     * @param fn - The sample in the further row and the nearer column
+     * @param ff - The sample in the further row and column
+     * @return - The upsampled chroma
+     */
+    private static int fancy(int nn, int nf, int fn, int ff) {
+        return (((nn + 3 * nf + 3 * fn + ff + 8) >> 3) + nn) >> 1;
+    }
+
+    /**
+     * Helper method that converts YUV to RGB with libwebp's 14 bit fixed point coefficients
+     *
+     * @return - The color, with alpha 0
+     */
+    private static int toRgb(int y, int u, int v) {
+        int luma = (y * 19077) >> 8;
+        int red = clip8(luma + ((v * 26149) >> 8) - 14234);
+        int green = clip8(luma - ((u * 6419) >> 8) - ((v * 13320) >> 8) + 8708);
+        int blue = clip8(luma + ((u * 33050) >> 8) - 17685);
+        return red << 16 | green << 8 | blue;
+    }
+
+    private static int clip8(int value) {
+        return (value & ~16383) == 0 ? value >> 6 : value < 0 ? 0 : 255;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    private static int clip(int value, int max) {
+        return value < 0 ? 0 : Math.min(value, max);
+    }
+
+    /**
+     * Decodes the alpha channel of a lossy file from its ALPH chunk
+     *
+     * @param data   - The file
+     * @param start  - Where the chunk's data starts
+     * @param end    - Where it ends
+     * @param width  - The width of the picture
+     * @param height - The height of the picture
+     * @return - One byte a pixel
+     * @throws IOException - If the chunk is corrupted
+     */
+    static byte[] decodeAlpha(ByteBuffer data, int start, int end, int width, int height)
+            throws IOException {
+        if (end <= start) throw new IIOException("Empty WebP alpha chunk");
+        int flags = data.get(start) & 0xFF;
+        int method = flags & 3;
+        int filter = (flags >> 2) & 3;
+        byte[] alpha = new byte[width * height];
+        if (method == 0) {
+            if (end - start - 1 < alpha.length) throw new IIOException("Truncated WebP file");
+            for (int i = 0; i < alpha.length; i++) alpha[i] = data.get(start + 1 + i);
+        } else if (method == 1) {
+            // a lossless image with the alpha in the green channel
+            new WebPLossless(data, start + 1, end).decode(width, height,
+                    (argb, offset, y, count) -> {
+                        for (int i = 0; i < count * width; i++) {
+                            alpha[y * width + i] = (byte) (argb[offset + i] >> 8);
+                        }
+                    });
+        } else {
+            throw new IIOException("Unknown WebP alpha compression");
+        }
+        if (filter != 0) unfilterAlpha(alpha, width, height, filter);
+        return alpha;
+    }
+
+    /**
+     * Helper method that adds the predictions back to filtered alpha. Each value was stored as
+     * its difference from the value to its left (1), above it (2) or a gradient of the two (3)
+     *
+     * @param alpha  - The alpha channel
+     * @param width  - The width of the picture
+     * @param height - The height of the picture
+     * @param filter - The filter that was used
+     */
+    private static void unfilterAlpha(byte[] alpha, int width, int height, int filter) {
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+                int prediction;
+                if (x == 0 && y == 0) {
+                    prediction = 0;
+                } else if (y == 0) {
+                    // the top row always predicts from the left
+                    prediction = alpha[i - 1];
+                } else if (x == 0) {
+                    // and the left column from above
+                    prediction = alpha[i - width];
+                } else if (filter == 1) {
+                    prediction = alpha[i - 1];
+                } else if (filter == 2) {
+                    prediction = alpha[i - width];
+                } else {
+                    prediction = clamp((alpha[i - 1] & 0xFF) + (alpha[i - width] & 0xFF)
+                            - (alpha[i - width - 1] & 0xFF));
+                }
+                alpha[i] = (byte) (alpha[i] + prediction);
+            }
+        }
+    }
+
+    /**
+     * The boolean entropy decoder VP8 codes everything with. Each bit is decoded with a
+     * probability (out of 256) that it is 0. Works like libwebp's: up to 56 bits are loaded at
+     * a time and range holds one less than the actual range
+     */
+    private static final class BoolDecoder {
+        private final ByteBuffer data;
+        private final int end;
+        private int position;
+        private long value;
+        private int range = 255 - 1;
+        // how many bits of value are waiting below the 8 being decoded, or negative if more
+        // have to be loaded
+        private int bits = -8;
+        // set once the data has run out
+        boolean eof;
+
+        BoolDecoder(ByteBuffer data, int start, int end) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Helper method that loads more bytes into value
+         */
+        private void load() {
+            if (position + 7 <= end) {
+                long next = 0;
+                for (int i = 0; i < 7; i++) next = next << 8 | (data.get(position + i) & 0xFF);
+                position += 7;
+                value = value << 56 | next;
+                bits += 56;
+            } else if (position < end) {
+                value = value << 8 | (data.get(position++) & 0xFF);
+                bits += 8;
+            } else if (!eof) {
+                value <<= 8;
+                bits += 8;
+                eof = true;
+            } else {
+                bits = 0;
+            }
+        }
+
+        /**
+         * Decodes one bit
+         *
+         * @param probability - The probability (out of 256) that the bit is 0
+         * @return - The bit
+         */
+        int getBit(int probability) {
+            int r = range;
+            if (bits < 0) load();
+            int shiftBits = bits;
+            int split = (r * probability) >>> 8;
+            int v = (int) (value >>> shiftBits);
+            int bit;
+            if (v > split) {
+                r -= split;
+                value -= (long) (split + 1) << shiftBits;
+                bit = 1;
+            } else {
+                r = split + 1;
+                bit = 0;
+            }
+            // renormalize so the range is at least 128 again
+            int shift = 7 ^ (31 - Integer.numberOfLeadingZeros(r));
+            r <<= shift;
+            bits -= shift;
+            range = r - 1;
+            return bit;
+        }
+
+        /**
+         * Decodes an unsigned number, most significant bit first, with even probabilities
+         *
+         * @param count - How many bits
+         * @return - The number
+         */
+        int getValue(int count) {
+            int result = 0;
+            while (count-- > 0) result |= getBit(0x80) << count;
+            return result;
+        }
+
+        /**
+         * Decodes a number followed by its sign
+         *
+         * @param count - How many bits the magnitude has
+         * @return - The number
+         */
+        int getSignedValue(int count) {
+            int result = getValue(count);
+            return getValue(1) == 1 ? -result : result;
+        }
+    }
+}
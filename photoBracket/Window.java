@@ -7,10 +7,14 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
 import java.util.List;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -23,6 +27,7 @@ class Window implements ComponentListener, WindowListener {
     private static final String KEY_RIGHT = "RIGHT";
     private static final String KEY_UP = "UP";
     private static final String KEY_DOWN = "DOWN";
+    private static final String KEY_TOGGLE = "TOGGLE ";
     private static final String PLACEHOLDER = "Loading...";
     private static final String IMG_CORRUPTED = "Unable to read %s - file may be corrupted or not" +
             " a recognized image format";
@@ -33,12 +38,25 @@ class Window implements ComponentListener, WindowListener {
     private static final String PROMPT_PANEL = "prompt";
     private static final String PIC_PANEL = "pics";
     private static final String CONTINUE_PANEL = "continue";
+    private static final String LOADING_PANEL = "loading";
     // the name of the setting for the directory to open the file chooser at
     private static final String PREFERENCE_DEFAULT_DIR = "default directory";
     private static final String PREFERENCE_LOAD_TYPE = "load type";
     private static final String LOAD_TYPE_FIRST = "first";
     private static final String LOAD_TYPE_BALANCED = "balanced";
     private static final String LOAD_TYPE_MEM_SAVER = "memory saver";
+    private static final String LOAD_TYPE_ADAPTIVE = "adaptive";
+    private static final String PREFERENCE_OFF_HEAP = "off heap";
+    private static final String PREFERENCE_ZOOM = "zoom";
+    private static final String PREFERENCE_PLAY_GIFS = "play gifs";
+    private static final String PREFERENCE_GROUP_SIZE = "group size";
+    private static final String PREFERENCE_RAPID = "rapid mode";
+    private static final String PREFERENCE_ANIMATE = "animate";
+    private static final String PREFERENCE_SEEDING = "seeding";
+    private static final String PREFERENCE_REJECT = "auto reject";
+    private static final String PREFERENCE_RESUME = "resume";
+    // the number of pictures that can be compared at once - pairs, a 2x2 grid or a 3x3 grid
+    private static final int[] GROUP_SIZES = {2, 4, 9};
     // the delay for highlighting the selected image(s) in milliseconds
     private static final int ANIMATION_DELAY = 500;
     // the padding around images
@@ -46,9 +64,11 @@ class Window implements ComponentListener, WindowListener {
     // the color to use when highlighting the selected image(s)
     private static final Color SELECTED_COLOR = new Color(47, 191, 41);
     private final JFrame frame;
-    private final JFileChooser fileChooser;
-    private final File favorites;
-    private final File preferences;
+    // slow to make, so it's made just after the window opens (see getFileChooser())
+    private JFileChooser fileChooser;
+    private final Favorites favorites;
+    // the bracket, favorites etc. this window is showing
+    private final Session session;
     private final JLabel rounds;
     private final JLabel pics;
     private final JLabel total;
@@ -57,62 +77,90 @@ class Window implements ComponentListener, WindowListener {
     private final JButton right;
     private final JButton both;
     private final JButton neither;
+    private final JButton keep;
     private final JButton dumpUnreadable;
     private final JRadioButtonMenuItem loadFirst;
     private final JRadioButtonMenuItem balanced;
     private final JRadioButtonMenuItem memSaver;
+    private final JRadioButtonMenuItem adaptive;
     // the panel that displays the select files prompt/shows the images
     private final JPanel contentPanel;
     // the layout for the contentPanel
     private final CardLayout contentLayout;
-    private JLabel leftPic;
-    private JLabel rightPic;
+    // shared by both pictures so they zoom and pan together
+    private final Viewport viewport;
+    // the panel the picture panels are laid out in. Like the continue panel it is only made the
+    // first time it is shown (see showCard())
+    private JPanel picGrid;
+    private JPanel continuePanel;
+    // one panel for each picture in the biggest group so far, of which the first groupSize are on
+    // screen (leftPic and rightPic are the first two)
+    private PicturePanel[] pictures;
+    private PicturePanel leftPic;
+    private PicturePanel rightPic;
+    // how many pictures are compared at once
+    private int groupSize;
+    // which pictures in a grid the user has chosen to keep
+    private boolean[] chosen;
     private JRadioButtonMenuItem lastSelected;
     // all settings
-    private Map<String, String> settings;
+    private final Map<String, String> settings;
     private Bracket bracket;
-    // the pair of images currently being displayed
-    private ImageFile[] images; // [leftPic, rightPic]
+    // the pair (or group) of images currently being displayed
+    private ImageFile[] images; // [leftPic, rightPic, ...]
+    // upcoming images being loaded in the background when the adaptive load type is selected
+    // by identity, since equals() compares the files' contents
+    private final Map<ImageFile, Future<?>> prefetches = new IdentityHashMap<>();
+    // increases every time a new pair starts loading so results for older pairs can be dropped
+    // (only used on the event dispatch thread)
+    private int pairSequence;
+    private ImagePairLoader pairLoader;
+    // decisions made with the keyboard in rapid mode that haven't been applied yet
+    private final Deque<Decision> decisions = new ArrayDeque<>();
+    private boolean drainScheduled;
+    // finds the images the user chose and adds them to the bracket in the background
+    private ImageScanner scanner;
+    // true while the done sorting dialog is up so new images don't jump in underneath it
+    private boolean finishing;
+    // every decision made in this session (null if it couldn't be opened, or until it has been)
+    private ComparisonLog comparisons;
+    private final JMenuItem statistics;
+    // false until the session has been read in the background (see SessionLoader). Until then
+    // the bracket is an empty placeholder
+    private boolean sessionLoaded;
+    // when the pictures on screen were taken from the bracket, for timing decisions
+    private long shownAt;
 
     /**
-     * Initialize and show a new GUI window
+     * Initialize and show a new GUI window. The session is read in the background once the window
+     * is on screen. Use SessionManager.open() rather than calling this directly
+     *
+     * @param session - The session to show
      */
-    public Window(Bracket bracket) {
-        try { // attempts to set the theme of the window to the system default
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
-                UnsupportedLookAndFeelException e2) {
-            Logger.getLogger(getClass().getName()).warning(
-                    "Look and feel not found - using default");
-        }
+    Window(Session session) {
+        this.session = session;
+        settings = SessionManager.getInstance().getSettings();
 
-        preferences = new File(".prefs");
+        bracket = new Bracket();
+        groupSize = GROUP_SIZES[0];
         try {
-            settings = new HashMap<>();
-            // creates a new file if one doesn't already exist. Reads the preferences if one does
-            if (!preferences.createNewFile()) {
-                List<String> lines = Files.readAllLines(preferences.toPath());
-                for (String line : lines) {
-                    String[] preference = line.split("=");
-                    if (preference.length != 2) continue; // ignore any preference that is not
-                    // correctly formatted
-                    settings.put(preference[0], preference[1]);
-                }
-            }
-        } catch (IOException e) {
-            settings = new HashMap<>();
+            int size = Integer.parseInt(settings.getOrDefault(PREFERENCE_GROUP_SIZE, ""));
+            for (int allowed : GROUP_SIZES) if (size == allowed) groupSize = size;
+        } catch (NumberFormatException e) {
+            // stick with pairs
         }
-
-        fileChooser = fileDialog();
-        this.bracket = bracket;
-        images = new ImageFile[2];
+        images = new ImageFile[groupSize];
+        chosen = new boolean[groupSize];
+        pictures = new PicturePanel[0];
+        viewport = new Viewport();
 
         rounds = new JLabel();
         pics = new JLabel();
         total = new JLabel();
         errors = new JLabel();
 
-        frame = new JFrame("Photo Bracket");
+        frame = new JFrame(session.getName().equals(Session.DEFAULT_NAME) ? "Photo Bracket" :
+                "Photo Bracket - " + session.getName());
         frame.setMinimumSize(new Dimension(600, 600));
         frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
@@ -120,6 +168,13 @@ class Window implements ComponentListener, WindowListener {
 
         JMenuBar menuBar = new JMenuBar();
         JMenu fileMenu = new JMenu("File");
+        JMenuItem newSession = new JMenuItem("New session...");
+        newSession.addActionListener(e -> SessionManager.getInstance().openNew(frame));
+        JMenuItem openSession = new JMenuItem("Open session...");
+        openSession.addActionListener(e -> SessionManager.getInstance().openExisting(frame));
+        fileMenu.add(newSession);
+        fileMenu.add(openSession);
+        fileMenu.addSeparator();
         JMenuItem select = new JMenuItem("Select more photos");
         JMenuItem replace = new JMenuItem("Sort new photos");
         replace.addActionListener(e -> chooseFiles(true));
@@ -137,20 +192,33 @@ class Window implements ComponentListener, WindowListener {
         fileMenu.add(exportFavorites);
         fileMenu.add(clearFavorites);
 
+        fileMenu.addSeparator();
+        statistics = new JMenuItem("Session statistics");
+        statistics.addActionListener(e -> showStatistics());
+        statistics.setEnabled(false);
+        fileMenu.add(statistics);
+
         JMenu prefMenu = new JMenu("Preferences");
         ButtonGroup group = new ButtonGroup();
         loadFirst = new JRadioButtonMenuItem("Load all first");
-        balanced = new JRadioButtonMenuItem("Balanced (default");
+        balanced = new JRadioButtonMenuItem("Balanced");
         memSaver = new JRadioButtonMenuItem("Memory saver");
+        adaptive = new JRadioButtonMenuItem("Adaptive (default)");
 
         ItemListener onLoadPrefChanged = new ItemListener() {
             @Override
             public void itemStateChanged(ItemEvent e) {
                 if (e.getStateChange() == ItemEvent.DESELECTED) {
                     lastSelected = (JRadioButtonMenuItem) e.getSource();
+                    if (e.getSource() == adaptive) MemoryGovernor.getInstance().setEnabled(false);
                     return;
                 }
-                if (e.getSource() == loadFirst) {
+                if (e.getSource() == adaptive) {
+                    settings.put(PREFERENCE_LOAD_TYPE, LOAD_TYPE_ADAPTIVE);
+                    MemoryGovernor.getInstance().setEnabled(true);
+                    MemoryGovernor.getInstance().onShown(session, images);
+                    prefetch();
+                } else if (e.getSource() == loadFirst) {
                     settings.put(PREFERENCE_LOAD_TYPE, LOAD_TYPE_FIRST);
                     loadImages();
                 } else if (e.getSource() == balanced) {
@@ -173,24 +241,125 @@ class Window implements ComponentListener, WindowListener {
                     break;
                 case LOAD_TYPE_MEM_SAVER:
                     memSaver.setSelected(true);
+                    break;
+                default:
+                    adaptive.setSelected(true);
             }
         } else {
-            balanced.setSelected(true);
-            settings.put(PREFERENCE_LOAD_TYPE, LOAD_TYPE_BALANCED);
+            adaptive.setSelected(true);
+            settings.put(PREFERENCE_LOAD_TYPE, LOAD_TYPE_ADAPTIVE);
         }
+        MemoryGovernor.getInstance().setEnabled(adaptive.isSelected());
+        adaptive.addItemListener(onLoadPrefChanged);
         loadFirst.addItemListener(onLoadPrefChanged);
         balanced.addItemListener(onLoadPrefChanged);
         memSaver.addItemListener(onLoadPrefChanged);
 
+        group.add(adaptive);
         group.add(loadFirst);
         group.add(balanced);
         group.add(memSaver);
+        prefMenu.add(adaptive);
         prefMenu.add(loadFirst);
         prefMenu.add(balanced);
         prefMenu.add(memSaver);
 
+        prefMenu.addSeparator();
+
+        JCheckBoxMenuItem offHeap = new JCheckBoxMenuItem("Store images outside the Java heap");
+        offHeap.setSelected(Boolean.parseBoolean(settings.get(PREFERENCE_OFF_HEAP)));
+        ImageFile.setOffHeapStorage(offHeap.isSelected());
+        offHeap.addItemListener(e -> {
+            boolean enabled = e.getStateChange() == ItemEvent.SELECTED;
+            settings.put(PREFERENCE_OFF_HEAP, Boolean.toString(enabled));
+            ImageFile.setOffHeapStorage(enabled);
+            // images already in memory are flushed so they get reloaded with the new storage
+            this.bracket.flushAll();
+        });
+        prefMenu.add(offHeap);
+
+        JCheckBoxMenuItem rapid = new JCheckBoxMenuItem("Rapid mode (don't wait for pictures " +
+                "to load)");
+        rapid.setSelected(Boolean.parseBoolean(settings.get(PREFERENCE_RAPID)));
+        rapid.addItemListener(e -> settings.put(PREFERENCE_RAPID,
+                Boolean.toString(e.getStateChange() == ItemEvent.SELECTED)));
+        JCheckBoxMenuItem animate = new JCheckBoxMenuItem("Animate choices");
+        // on unless it has been turned off
+        animate.setSelected(!"false".equals(settings.get(PREFERENCE_ANIMATE)));
+        animate.addItemListener(e -> settings.put(PREFERENCE_ANIMATE,
+                Boolean.toString(e.getStateChange() == ItemEvent.SELECTED)));
+        prefMenu.add(rapid);
+        prefMenu.add(animate);
+
+        prefMenu.addSeparator();
+        JMenu seeding = new JMenu("Compare photos");
+        ButtonGroup seedings = new ButtonGroup();
+        for (SeedingStrategy strategy : SeedingStrategy.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(getSeedingName(strategy));
+            item.setSelected(strategy == getSeeding());
+            item.addActionListener(e -> {
+                settings.put(PREFERENCE_SEEDING, strategy.name());
+                applySeeding();
+            });
+            seedings.add(item);
+            seeding.add(item);
+        }
+        JCheckBoxMenuItem reject = new JCheckBoxMenuItem("Leave out blurry and black photos");
+        reject.setSelected(isRejecting());
+        reject.addItemListener(e -> settings.put(PREFERENCE_REJECT,
+                Boolean.toString(e.getStateChange() == ItemEvent.SELECTED)));
+        prefMenu.add(seeding);
+        prefMenu.add(reject);
+
+        prefMenu.addSeparator();
+        JCheckBoxMenuItem resume = new JCheckBoxMenuItem("Pick up where I left off (default " +
+                "session)");
+        // on unless it has been turned off
+        resume.setSelected(!"false".equals(settings.get(PREFERENCE_RESUME)));
+        resume.addItemListener(e -> settings.put(PREFERENCE_RESUME,
+                Boolean.toString(e.getStateChange() == ItemEvent.SELECTED)));
+        prefMenu.add(resume);
+
+        JMenu viewMenu = new JMenu("View");
+        JCheckBoxMenuItem zoom = new JCheckBoxMenuItem("Zoom and pan with the mouse");
+        // on unless it has been turned off
+        zoom.setSelected(!"false".equals(settings.get(PREFERENCE_ZOOM)));
+        zoom.addItemListener(e -> {
+            boolean enabled = e.getStateChange() == ItemEvent.SELECTED;
+            settings.put(PREFERENCE_ZOOM, Boolean.toString(enabled));
+            for (PicturePanel picture : pictures) picture.setZoomEnabled(enabled);
+            if (!enabled) viewport.reset();
+        });
+        JMenuItem resetZoom = new JMenuItem("Reset zoom");
+        resetZoom.addActionListener(e -> viewport.reset());
+        JCheckBoxMenuItem playGifs = new JCheckBoxMenuItem("Play animated GIFs");
+        // off unless it has been turned on, so only the first frame is compared
+        playGifs.setSelected(isPlayingGifs());
+        playGifs.addItemListener(e -> {
+            boolean enabled = e.getStateChange() == ItemEvent.SELECTED;
+            settings.put(PREFERENCE_PLAY_GIFS, Boolean.toString(enabled));
+            for (PicturePanel picture : pictures) picture.setPlayAnimations(enabled);
+        });
+        viewMenu.add(zoom);
+        viewMenu.add(resetZoom);
+        viewMenu.add(playGifs);
+
+        viewMenu.addSeparator();
+        ButtonGroup groupSizes = new ButtonGroup();
+        for (int size : GROUP_SIZES) {
+            int columns = getGridColumns(size);
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(size == 2 ?
+                    "Compare pairs (default)" : String.format("Compare a %dx%d grid", columns,
+                    size / columns));
+            item.setSelected(size == groupSize);
+            item.addActionListener(e -> setGroupSize(size));
+            groupSizes.add(item);
+            viewMenu.add(item);
+        }
+
         menuBar.add(fileMenu);
         menuBar.add(prefMenu);
+        menuBar.add(viewMenu);
         frame.setJMenuBar(menuBar);
 
         GridBagConstraints constraints = new GridBagConstraints();
@@ -200,6 +369,7 @@ class Window implements ComponentListener, WindowListener {
         right = new JButton("Right");
         both = new JButton("Both");
         neither = new JButton("Different pics");
+        keep = new JButton("Keep selected");
         dumpUnreadable = new JButton("Ignore unreadable images");
 
         JPanel buttons = makeButtonPanel();
@@ -215,31 +385,52 @@ class Window implements ComponentListener, WindowListener {
         topPanelConstraints.fill = GridBagConstraints.BOTH;
 
         contentPanel.add(makePromptPanel(), PROMPT_PANEL);
-        contentPanel.add(makePicPanel(), PIC_PANEL);
-        contentPanel.add(makeContinuePanel(), CONTINUE_PANEL);
-        if (bracket.isEmpty()) {
-            contentLayout.show(contentPanel, PROMPT_PANEL);
-        } else {
-            contentLayout.show(contentPanel, PIC_PANEL);
-        }
+        contentPanel.add(makeLoadingPanel(), LOADING_PANEL);
+        // the prompt is only shown once the session turns out to be empty, so it never flashes
+        // up before a resumed session's pictures
+        showCard(LOADING_PANEL);
+        updateButtons();
+        // nothing can change the bracket until the real one has been read
+        enableUI(false);
+        setMenusEnabled(false);
 
         frame.add(contentPanel, topPanelConstraints);
 
-        populate();
         constraints.gridx = 0;
         constraints.weighty = 0;
         constraints.gridy = 1;
         constraints.insets = new Insets(10, 50, 10, 50);
         frame.add(buttons, constraints);
 
-        setPicPanelSize();
-
-        frame.setVisible(true);
         frame.addComponentListener(this);
         frame.addWindowListener(this);
+        // only reads its file when the favorites are used
+        favorites = new Favorites(session.getFavorites());
+        frame.setVisible(true);
+
+        // the window is on screen before the session is read, its comparison log is recovered,
+        // the bracket is seeded and the first pictures are picked
+        new SessionLoader(isResuming()).execute();
+    }
 
-        favorites = new File(".favorites");
+    /**
+     * Helper method that enables and disables the menus, which are off while the session is read
+     *
+     * @param enabled - Whether the menus can be used
+     */
+    private void setMenusEnabled(boolean enabled) {
+        JMenuBar menuBar = frame.getJMenuBar();
+        for (int i = 0; i < menuBar.getMenuCount(); i++) menuBar.getMenu(i).setEnabled(enabled);
+    }
 
+    /**
+     * @return - Whether the session's bracket is read when the window opens and saved when it
+     * closes. Named sessions always are, while the default session only is if the user hasn't
+     * turned it off
+     */
+    private boolean isResuming() {
+        return !session.getName().equals(Session.DEFAULT_NAME)
+                || !"false".equals(settings.get(PREFERENCE_RESUME));
     }
 
     /**
@@ -263,11 +454,18 @@ class Window implements ComponentListener, WindowListener {
      * @return - The size of the panels
      */
     private Dimension setPicPanelSize() {
-        Dimension panelSize = leftPic.getParent().getSize();
-        Dimension maxSize = new Dimension((int) (panelSize.width / 2 - PAD * 1.5),
-                (int) (panelSize.height - PAD * 1.5));
-        leftPic.setPreferredSize(maxSize);
-        rightPic.setPreferredSize(maxSize);
+        if (picGrid == null) return new Dimension(0, 0);
+        Dimension panelSize = picGrid.getSize();
+        int columns = getGridColumns(groupSize);
+        int rows = (groupSize + columns - 1) / columns;
+        Dimension maxSize = new Dimension((int) (panelSize.width / columns - PAD * 1.5),
+                (int) (panelSize.height / rows - PAD * 1.5));
+        // the picture panels don't revalidate when their pictures change, so the layout only
+        // needs to be redone when the space for them actually changes
+        if (!maxSize.equals(leftPic.getPreferredSize())) {
+            for (PicturePanel picture : pictures) picture.setPreferredSize(maxSize);
+            picGrid.revalidate();
+        }
         return maxSize;
     }
 
@@ -277,26 +475,38 @@ class Window implements ComponentListener, WindowListener {
     private void refreshPics() {
         refreshCounters();
         Dimension maxSize = setPicPanelSize();
-        if (images[0] == null || images[1] == null) {
-            leftPic.setText(null);
-            rightPic.setText(null);
-            leftPic.setIcon(null);
-            rightPic.setIcon(null);
+        // a new pair always starts zoomed out
+        viewport.reset();
+        for (int i = 0; i < pictures.length; i++) {
+            pictures[i].setSource(i < images.length ? images[i] : null);
+        }
+        if (!hasImages()) {
+            for (PicturePanel picture : pictures) {
+                picture.setText(null);
+                picture.setIcon(null);
+            }
+            // anything still loading is for a pair that is gone
+            pairSequence++;
+            if (pairLoader != null) pairLoader.cancel(true);
             return;
         }
         enableUI(false);
-        ImagePairLoader loader = new ImagePairLoader(maxSize);
+        // the previous pair may still be loading if the user is moving quickly
+        if (pairLoader != null) pairLoader.cancel(true);
+        pairLoader = new ImagePairLoader(maxSize);
 
-        loader.execute();
+        pairLoader.execute();
     }
 
     /**
      * Helper method to update the numerical counters that show information about the bracket
      */
     private void refreshCounters() {
-        total.setText(Integer.toString(bracket.size()));
-        rounds.setText(Integer.toString(bracket.getRoundCount()));
-        pics.setText(Integer.toString(bracket.getRoundSize()));
+        // read from one snapshot so the three counters always agree with each other
+        Bracket.Snapshot state = bracket.getSnapshot();
+        total.setText(Integer.toString(state.size()));
+        rounds.setText(Integer.toString(state.getRoundCount()));
+        pics.setText(Integer.toString(state.getRoundSize()));
     }
 
     /**
@@ -304,35 +514,146 @@ class Window implements ComponentListener, WindowListener {
      */
     private void updatePicSize() {
         Dimension maxSize = setPicPanelSize();
-        if (images[0] == null || images[1] == null) return;
-        leftPic.setIcon(images[0].getScaledIcon(maxSize));
-        rightPic.setIcon(images[1].getScaledIcon(maxSize));
+        if (!hasImages()) return;
+        boolean detailed = true;
+        for (int i = 0; i < images.length; i++) {
+            pictures[i].setIcon(images[i].getScaledIcon(maxSize));
+            detailed &= images[i].hasDetailFor(maxSize);
+        }
+        // pictures decoded small for a smaller window are stretched until they're decoded again
+        if (!detailed) {
+            if (pairLoader != null) pairLoader.cancel(true);
+            pairLoader = new ImagePairLoader(maxSize);
+            pairLoader.execute();
+        }
+    }
+
+    /**
+     * Helper method to check whether there is a pair (or group) of images on screen
+     *
+     * @return - True if there are images being compared, false otherwise
+     */
+    private boolean hasImages() {
+        return images.length >= 2 && images[0] != null && images[1] != null;
     }
 
     /**
-     * Helper method to make the panel for displaying the pictures. Initializes the two global
-     * JLabels for pictures and adds them to a JPanel
+     * Helper method to make the panel for displaying the pictures. Initializes the global
+     * PicturePanels for pictures and adds them to a JPanel
      *
      * @return - A JPanel that contains the pictures
      */
     private JPanel makePicPanel() {
-        JPanel pictures = new JPanel();
-        SpringLayout layout = new SpringLayout();
-        pictures.setLayout(layout);
-        leftPic = new JLabel(PLACEHOLDER);
-        rightPic = new JLabel(PLACEHOLDER);
+        picGrid = new JPanel();
+        pictures = new PicturePanel[0];
+        layoutPictures();
+        return picGrid;
+    }
 
-        leftPic.setHorizontalAlignment(JLabel.CENTER);
-        leftPic.setVerticalAlignment(JLabel.CENTER);
-        rightPic.setHorizontalAlignment(JLabel.CENTER);
-        rightPic.setVerticalAlignment(JLabel.CENTER);
+    /**
+     * Helper method that lays out one PicturePanel for each picture in a group. Existing panels
+     * are reused and new ones are only made when the group gets bigger than it has been before
+     */
+    private void layoutPictures() {
+        if (pictures.length < groupSize) {
+            PicturePanel[] grown = Arrays.copyOf(pictures, groupSize);
+            boolean zoom = !"false".equals(settings.get(PREFERENCE_ZOOM));
+            for (int i = pictures.length; i < groupSize; i++) {
+                grown[i] = makePicture(i, zoom);
+            }
+            pictures = grown;
+        }
+        // the panels that aren't needed are kept for later (each one listens to the viewport, so
+        // they aren't made again) but taken off screen
+        for (int i = groupSize; i < pictures.length; i++) {
+            pictures[i].setSource(null);
+            pictures[i].setIcon(null);
+        }
+        leftPic = pictures[0];
+        rightPic = pictures[1];
+
+        picGrid.removeAll();
+        picGrid.setLayout(new SpringLayout());
+        for (int i = 0; i < groupSize; i++) {
+            pictures[i].setHighlighted(false);
+            picGrid.add(pictures[i]);
+        }
+        int columns = getGridColumns(groupSize);
+        SpringUtilities.makeGrid(picGrid, (groupSize + columns - 1) / columns, columns, PAD, PAD,
+                PAD, PAD);
+        updateButtons();
+        picGrid.revalidate();
+        picGrid.repaint();
+    }
+
+    /**
+     * Helper method that makes one of the picture panels
+     *
+     * @param index - The position of the panel in the group
+     * @param zoom  - Whether zooming with the mouse is enabled
+     * @return - The new panel
+     */
+    private PicturePanel makePicture(int index, boolean zoom) {
+        PicturePanel picture = new PicturePanel(PLACEHOLDER, SELECTED_COLOR);
+        picture.setViewport(viewport);
+        picture.setZoomEnabled(zoom);
+        picture.setPlayAnimations(isPlayingGifs());
+        picture.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                // pairs are picked with the buttons, pictures in a grid by clicking on them
+                if (groupSize > 2 && e.getClickCount() == 1) toggleChosen(index);
+            }
+        });
+        return picture;
+    }
 
-        pictures.add(leftPic);
-        pictures.add(rightPic);
+    /**
+     * Helper method to find how many columns a grid of pictures should have
+     *
+     * @param size - The number of pictures in the grid
+     * @return - The number of columns (2 for pairs)
+     */
+    private static int getGridColumns(int size) {
+        return (int) Math.ceil(Math.sqrt(size));
+    }
 
-        SpringUtilities.makeGrid(pictures, 1, 2, PAD, PAD, PAD, PAD);
+    /**
+     * Changes how many pictures are compared at once. The pictures on screen go back into the
+     * round and a new group is shown
+     *
+     * @param size - The number of pictures to compare at once
+     */
+    private void setGroupSize(int size) {
+        if (size == groupSize) return;
+        settings.put(PREFERENCE_GROUP_SIZE, Integer.toString(size));
+        boolean showing = hasImages();
+        if (showing) bracket.getNewFiles(images);
+        groupSize = size;
+        images = new ImageFile[size];
+        chosen = new boolean[size];
+        if (picGrid != null) {
+            layoutPictures();
+        } else {
+            updateButtons();
+        }
+        if (showing) populate();
+    }
 
-        return pictures;
+    /**
+     * Helper method that shows one of the cards of the content panel, making it first if it
+     * hasn't been shown before
+     *
+     * @param card - PROMPT_PANEL, PIC_PANEL or CONTINUE_PANEL
+     */
+    private void showCard(String card) {
+        if (card.equals(PIC_PANEL) && picGrid == null) {
+            contentPanel.add(makePicPanel(), PIC_PANEL);
+        } else if (card.equals(CONTINUE_PANEL) && continuePanel == null) {
+            continuePanel = makeContinuePanel();
+            contentPanel.add(continuePanel, CONTINUE_PANEL);
+        }
+        contentLayout.show(contentPanel, card);
     }
 
     /**
@@ -382,6 +703,19 @@ class Window implements ComponentListener, WindowListener {
         return next;
     }
 
+    /**
+     * Helper method that makes the panel shown while the session is being read
+     *
+     * @return - The panel that can be added to the GUI
+     */
+    private JPanel makeLoadingPanel() {
+        JPanel loading = new JPanel(new GridBagLayout());
+        JLabel text = new JLabel("Opening session...");
+        text.setFont(new Font(null, Font.BOLD, 24));
+        loading.add(text);
+        return loading;
+    }
+
     /**
      * Helper method that makes the panel to prompt the user to select some pictures
      *
@@ -412,8 +746,21 @@ class Window implements ComponentListener, WindowListener {
         return prompt;
     }
 
+    /**
+     * Gets the file dialog for the user to select photos, making it the first time. Making one
+     * lists the starting directory and loads the platform's file icons, which can take a while,
+     * so it is called once the window has opened instead of while the window is being built
+     *
+     * @return - The file chooser that is ready to be shown to the user
+     */
+    private JFileChooser getFileChooser() {
+        if (fileChooser == null) fileChooser = fileDialog();
+        return fileChooser;
+    }
+
     /**
      * Constructs a file dialog for the user to select photos. Should only be called once per Window
+     * (by getFileChooser())
      *
      * @return - The file chooser that is ready to be shown to the user
      */
@@ -426,6 +773,8 @@ class Window implements ComponentListener, WindowListener {
         fileChooser.setFileFilter(new ImageFilter());
         fileChooser.setAcceptAllFileFilterUsed(false);
         fileChooser.setMultiSelectionEnabled(true);
+        // whole directories can be chosen and are scanned in the background
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         return fileChooser;
     }
 
@@ -435,19 +784,34 @@ class Window implements ComponentListener, WindowListener {
      * @param reset - Whether to clear the current images in order to display the new ones
      */
     private void chooseFiles(boolean reset) {
+        JFileChooser fileChooser = getFileChooser();
         int result = fileChooser.showOpenDialog(frame);
         settings.put(PREFERENCE_DEFAULT_DIR, fileChooser.getCurrentDirectory().getPath());
         if (result == JFileChooser.APPROVE_OPTION) {
             if (reset) {
-                images[0] = images[1] = null;
+                images = new ImageFile[groupSize];
                 bracket = new Bracket();
+                bracket.setSeeding(getSeeding());
+                // anything still being scanned was meant for the old bracket
+                if (scanner != null) scanner.cancel(true);
             }
-            bracket.add(ImageFile.toImageFiles(fileChooser.getSelectedFiles()));
-            refreshCounters();
-            if (settings.containsKey(PREFERENCE_LOAD_TYPE) &&
-                    settings.get(PREFERENCE_LOAD_TYPE).equals(LOAD_TYPE_FIRST)) loadImages();
+            // the bracket keeps running while the images are found and added
+            scanner = new ImageScanner(fileChooser.getSelectedFiles(), bracket, isScoring(),
+                    isRejecting());
+            scanner.execute();
         }
-        if (images[0] == null || images[1] == null) populate();
+        if (!hasImages()) populate();
+    }
+
+    /**
+     * Helper method that catches the window up after new images have been added to the bracket in
+     * the background. If nothing was being compared (for example because there weren't enough
+     * images yet) the new images are shown straight away
+     */
+    private void onImagesAdded() {
+        bracket.placeIncoming();
+        refreshCounters();
+        if (!finishing && !hasImages() && bracket.hasNextPair()) populate();
     }
 
     /**
@@ -473,7 +837,12 @@ class Window implements ComponentListener, WindowListener {
         right.addActionListener(e -> animateRight());
         both.addActionListener(e -> animateBoth());
         neither.addActionListener(e -> newPics());
+        keep.addActionListener(e -> keepChosen());
         dumpUnreadable.addActionListener(e -> {
+            if (images.length > 2) {
+                dropUnreadable();
+                return;
+            }
             if (unreadable(images[0]) && !unreadable(images[1])) animateLeft();
             else if (unreadable(images[1]) && !unreadable(images[0])) animateRight();
             else if (unreadable(images[0]) && unreadable(images[1])) updatePanel();
@@ -484,33 +853,47 @@ class Window implements ComponentListener, WindowListener {
         actionMap.put(KEY_LEFT, new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                left.doClick();
+                if (groupSize == 2) onKey(Decision.LEFT, left);
             }
         });
         actionMap.put(KEY_RIGHT, new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                right.doClick();
+                if (groupSize == 2) onKey(Decision.RIGHT, right);
             }
         });
         actionMap.put(KEY_UP, new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                both.doClick();
+                if (groupSize == 2) onKey(Decision.BOTH, both);
+                else onKey(Decision.KEEP, keep);
             }
         });
         actionMap.put(KEY_DOWN, new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                neither.doClick();
+                onKey(Decision.DIFFERENT, neither);
             }
         });
+        // the number keys pick pictures in a grid, numbered left to right then top to bottom
+        for (int i = 0; i < GROUP_SIZES[GROUP_SIZES.length - 1]; i++) {
+            int index = i;
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_1 + i, 0, false), KEY_TOGGLE + i);
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_NUMPAD1 + i, 0, false),
+                    KEY_TOGGLE + i);
+            actionMap.put(KEY_TOGGLE + i, new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (groupSize > 2) toggleChosen(index);
+                }
+            });
+        }
 
         JLabel roundsLabel = new JLabel("Rounds completed:");
         JLabel picsLabel = new JLabel("Pictures remaining in this round:");
         JLabel totalLabel = new JLabel("Total pictures in bracket: ");
 
-        for (Component component : Arrays.asList(dumpUnreadable, left, both, neither, right,
+        for (Component component : Arrays.asList(dumpUnreadable, left, both, keep, neither, right,
                 roundsLabel, rounds, picsLabel, pics, totalLabel, total, errors)) {
             buttons.add(component, buttonConstraints);
             buttonConstraints.gridx += 1;
@@ -525,82 +908,266 @@ class Window implements ComponentListener, WindowListener {
         return file != null && file.isUnreadable();
     }
 
+    /**
+     * Helper method that shows the buttons for comparing pairs or for comparing grids
+     */
+    private void updateButtons() {
+        for (JButton button : Arrays.asList(left, right, both)) {
+            button.setVisible(groupSize == 2);
+        }
+        keep.setVisible(groupSize > 2);
+    }
+
     /**
      * Enables and disables user input for the frame
      *
      * @param enabled - Whether the frame should accept user input
      */
     private void enableUI(boolean enabled) {
-        for (JButton button : Arrays.asList(left, right, both, neither, dumpUnreadable)) {
+        for (JButton button : Arrays.asList(left, right, both, keep, neither, dumpUnreadable)) {
             button.setEnabled(enabled);
         }
     }
 
+    /**
+     * Helper method that handles one of the decision keys. Normally this is the same as clicking
+     * the button, which is ignored while the pictures are loading. In rapid mode the decision is
+     * queued and applied straight away instead
+     *
+     * @param decision - The decision the key makes
+     * @param button   - The button for the decision
+     */
+    private void onKey(Decision decision, JButton button) {
+        if (!isRapid()) {
+            button.doClick();
+            return;
+        }
+        decisions.add(decision);
+        // every key pressed before the queue is drained is applied in one go, so only the pair
+        // that ends up on screen gets loaded
+        if (!drainScheduled) {
+            drainScheduled = true;
+            SwingUtilities.invokeLater(this::drainDecisions);
+        }
+    }
+
+    /**
+     * Helper method that applies every queued decision to the bracket and then shows whichever
+     * pair comes up next. Decisions don't wait for the pictures they are about to load
+     */
+    private void drainDecisions() {
+        drainScheduled = false;
+        boolean changed = false;
+        while (!decisions.isEmpty() && hasImages()) {
+            if (decide(decisions.poll())) {
+                nextImages();
+                changed = true;
+            }
+        }
+        // anything left was for pictures after the end of the bracket
+        decisions.clear();
+        if (changed) showImages();
+    }
+
+    /**
+     * @return - Whether decisions made with the keyboard are applied without waiting
+     */
+    private boolean isRapid() {
+        return Boolean.parseBoolean(settings.get(PREFERENCE_RAPID));
+    }
+
+    /**
+     * @return - How the user wants the bracket to be ordered
+     */
+    private SeedingStrategy getSeeding() {
+        return SeedingStrategy.fromName(settings.get(PREFERENCE_SEEDING));
+    }
+
+    /**
+     * Helper method that finds the menu text for a seeding strategy
+     *
+     * @param strategy - The strategy
+     * @return - What to call it in the menu
+     */
+    private static String getSeedingName(SeedingStrategy strategy) {
+        switch (strategy) {
+            case QUALITY:
+                return "Best photos last (scores every photo)";
+            case CAPTURE_TIME:
+                return "Photos taken at the same time together";
+            case SCENE:
+                return "Only compare photos from the same scene";
+            case FOLDER:
+                return "Photos in the same folder together";
+            default:
+                return "In the order they were added (default)";
+        }
+    }
+
+    /**
+     * @return - Whether images should be scored (see QualityScorer) so the bracket can be seeded
+     * with the scores
+     */
+    private boolean isScoring() {
+        return getSeeding() == SeedingStrategy.QUALITY;
+    }
+
+    /**
+     * Helper method that seeds the bracket the way the user wants
+     */
+    private void applySeeding() {
+        bracket.setSeeding(getSeeding());
+        if (getSeeding() != SeedingStrategy.ADDED && getSeeding() != SeedingStrategy.FOLDER) {
+            prepareBracket();
+        }
+    }
+
+    /**
+     * @return - Whether images that score too badly should be left out of the bracket
+     */
+    private boolean isRejecting() {
+        return Boolean.parseBoolean(settings.get(PREFERENCE_REJECT));
+    }
+
+    /**
+     * Helper method that works out what the seeding needs to know about the images already in
+     * the bracket (their scores or their metadata) in the background, and seeds the bracket again
+     * once it has. New images are taken care of by the ImageScanner
+     */
+    private void prepareBracket() {
+        Bracket target = bracket;
+        SeedingStrategy strategy = getSeeding();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                if (strategy == SeedingStrategy.QUALITY) {
+                    QualityScorer.getInstance().scoreAll(target.getAllImageFiles());
+                } else {
+                    ExifReader.getInstance().readAll(target.getAllImageFiles());
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                if (target == bracket && getSeeding() == strategy) {
+                    target.setSeeding(strategy);
+                    refreshCounters();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * @return - Whether animated GIFs should play instead of just showing their first frame
+     */
+    private boolean isPlayingGifs() {
+        return Boolean.parseBoolean(settings.get(PREFERENCE_PLAY_GIFS));
+    }
+
+    /**
+     * @return - Whether the chosen picture(s) should be highlighted for a moment before moving on
+     */
+    private boolean isAnimated() {
+        return !"false".equals(settings.get(PREFERENCE_ANIMATE));
+    }
+
     /**
      * Helper method that chooses the left picture and shows an animation
      */
     private void animateLeft() {
-        Timer timer = new Timer(ANIMATION_DELAY, e1 -> {
-            leftPic.setBorder(null);
-            leftChosen();
-        });
-        timer.setRepeats(false);
-        timer.start();
-        leftPic.setBorder(BorderFactory.createLineBorder(SELECTED_COLOR, 5));
+        animate(this::leftChosen, leftPic);
     }
 
     /**
      * Helper method that chooses the right picture and shows an animation
      */
     private void animateRight() {
-        Timer timer = new Timer(ANIMATION_DELAY, e1 -> {
-            rightPic.setBorder(null);
-            rightChosen();
-        });
-        timer.setRepeats(false);
-        timer.start();
-        rightPic.setBorder(BorderFactory.createLineBorder(SELECTED_COLOR, 5));
+        animate(this::rightChosen, rightPic);
     }
 
     /**
      * Helper method that chooses both and shows an animation
      */
     private void animateBoth() {
+        animate(this::bothChosen, leftPic, rightPic);
+    }
+
+    /**
+     * Helper method that highlights the chosen picture(s) for a moment and then makes the choice.
+     * The choice is only made for the pictures it was started for - in rapid mode the keyboard can
+     * move on to other pictures while the animation runs
+     *
+     * @param choose - Makes the choice
+     * @param chosen - The panels of the chosen pictures
+     */
+    private void animate(Runnable choose, PicturePanel... chosen) {
+        if (!isAnimated()) {
+            choose.run();
+            return;
+        }
+        ImageFile[] shown = images;
         Timer timer = new Timer(ANIMATION_DELAY, e1 -> {
-            leftPic.setBorder(null);
-            rightPic.setBorder(null);
-            bothChosen();
+            for (PicturePanel picture : chosen) picture.setHighlighted(false);
+            if (images == shown) choose.run();
         });
         timer.setRepeats(false);
         timer.start();
-        leftPic.setBorder(BorderFactory.createLineBorder(SELECTED_COLOR, 5));
-        rightPic.setBorder(BorderFactory.createLineBorder(SELECTED_COLOR, 5));
+        for (PicturePanel picture : chosen) picture.setHighlighted(true);
     }
 
     /**
      * Helper method that executes when the user chooses the left picture
      */
     private void leftChosen() {
-        errors.setText(null);
-        bracket.selected(images[0]);
-        updatePanel();
+        if (decide(Decision.LEFT)) updatePanel();
     }
 
     /**
      * Helper method that executes when the user chooses the right picture
      */
     private void rightChosen() {
-        errors.setText(null);
-        bracket.selected(images[1]);
-        updatePanel();
+        if (decide(Decision.RIGHT)) updatePanel();
     }
 
     /**
      * Helper method that executes when the user wants to choose both pictures
      */
     private void bothChosen() {
-        errors.setText(null);
-        bracket.selected(images);
+        if (decide(Decision.BOTH)) updatePanel();
+    }
+
+    /**
+     * Helper method that selects or deselects one picture in a grid
+     *
+     * @param index - The position of the picture in the grid
+     */
+    private void toggleChosen(int index) {
+        if (index >= images.length || images[index] == null) return;
+        // in rapid mode pictures can be picked before they've loaded
+        if (!keep.isEnabled() && !isRapid()) return;
+        chosen[index] = !chosen[index];
+        pictures[index].setHighlighted(chosen[index]);
+    }
+
+    /**
+     * Helper method that executes when the user keeps the selected pictures in a grid (keeping
+     * none of them is allowed)
+     */
+    private void keepChosen() {
+        if (decide(Decision.KEEP)) updatePanel();
+    }
+
+    /**
+     * Helper method that removes the unreadable pictures in a grid from the bracket and puts the
+     * rest back into the round to be compared again
+     */
+    private void dropUnreadable() {
+        List<ImageFile> readable = new ArrayList<>();
+        for (ImageFile image : images) {
+            if (!unreadable(image)) readable.add(image);
+        }
+        bracket.getNewFiles(readable.toArray(new ImageFile[0]));
         updatePanel();
     }
 
@@ -608,37 +1175,114 @@ class Window implements ComponentListener, WindowListener {
      * Helper method to retrieve new pictures from the bracket
      */
     private void newPics() {
-        if (bracket.getRoundSize() == 0) {
-            errors.setText(ROUND_EMPTY);
-        } else {
-            bracket.getNewFiles(images);
-            updatePanel();
+        if (decide(Decision.DIFFERENT)) updatePanel();
+    }
+
+    /**
+     * Helper method that tells the bracket about a decision the user made about the pictures on
+     * screen. This doesn't change what's shown
+     *
+     * @param decision - The decision
+     * @return - True if the bracket changed and the next pictures should be shown, false otherwise
+     */
+    private boolean decide(Decision decision) {
+        int round = bracket.getRoundCount();
+        byte[] outcomes = new byte[images.length];
+        switch (decision) {
+            case LEFT:
+                bracket.selected(images[0]);
+                outcomes[0] = ComparisonLog.KEPT;
+                break;
+            case RIGHT:
+                bracket.selected(images[1]);
+                outcomes[1] = ComparisonLog.KEPT;
+                break;
+            case BOTH:
+                bracket.selected(images);
+                Arrays.fill(outcomes, ComparisonLog.KEPT);
+                break;
+            case KEEP:
+                List<ImageFile> kept = new ArrayList<>();
+                for (int i = 0; i < images.length; i++) {
+                    if (chosen[i]) {
+                        kept.add(images[i]);
+                        outcomes[i] = ComparisonLog.KEPT;
+                    }
+                }
+                bracket.selected(images.length, kept.toArray(new ImageFile[0]));
+                break;
+            case DIFFERENT:
+                if (bracket.getRoundSize() == 0) {
+                    errors.setText(ROUND_EMPTY);
+                    return false;
+                }
+                Arrays.fill(outcomes, ComparisonLog.SKIPPED);
+                bracket.getNewFiles(images);
+                break;
         }
+        if (comparisons != null) {
+            comparisons.record(images, outcomes, (System.nanoTime() - shownAt) / 1_000_000,
+                    round);
+        }
+        errors.setText(null);
+        return true;
     }
 
     /**
      * Helper method that updates the panel based on the button selected
      */
     private void updatePanel() {
+        nextImages();
+        showImages();
+    }
+
+    /**
+     * Helper method that takes the next pair (or group) of pictures from the bracket without
+     * showing them
+     */
+    private void nextImages() {
+        images = bracket.getNextGroup(groupSize);
+        shownAt = System.nanoTime();
+        clearChosen();
+    }
+
+    /**
+     * Helper method that shows the current pictures and starts loading the ones after them
+     */
+    private void showImages() {
         dumpUnreadable.setVisible(false);
-        images = bracket.getNextPair();
         refreshPics();
-        if (images[0] != null && images[1] != null) {
+        if (hasImages()) {
             loadingPics();
             if (settings.containsKey(PREFERENCE_LOAD_TYPE)
                     && settings.get(PREFERENCE_LOAD_TYPE).equals(LOAD_TYPE_MEM_SAVER))
                 bracket.flushAll();
+            MemoryGovernor.getInstance().onShown(session, images);
+            prefetch();
             refreshCounters();
         } else {
             done();
         }
     }
 
+    /**
+     * Helper method that shows the placeholder in the panels that are getting a picture. The rest
+     * of the panels (when the last group of a round is short) are left blank
+     */
     private void loadingPics() {
-        leftPic.setText(PLACEHOLDER);
-        leftPic.setIcon(null);
-        rightPic.setText(PLACEHOLDER);
-        rightPic.setIcon(null);
+        for (int i = 0; i < pictures.length; i++) {
+            pictures[i].setText(i < images.length && images[i] != null ? PLACEHOLDER : null);
+            pictures[i].setIcon(null);
+        }
+    }
+
+    /**
+     * Helper method that deselects every picture in a grid
+     */
+    private void clearChosen() {
+        chosen = new boolean[groupSize];
+        if (groupSize == 2) return; // pairs clear their own highlights after the animation
+        for (PicturePanel picture : pictures) picture.setHighlighted(false);
     }
 
     /**
@@ -648,34 +1292,92 @@ class Window implements ComponentListener, WindowListener {
      */
     void populate() {
         if (bracket.hasNextPair()) {
+            images = bracket.getNextGroup(groupSize);
             loadingPics();
-            images = bracket.getNextPair();
-            contentLayout.show(contentPanel, PIC_PANEL);
-            rounds.setText(Integer.toString(bracket.getRoundCount()));
-            pics.setText(Integer.toString(bracket.getRoundSize()));
+            clearChosen();
+            // shown first so the picture panels exist for prefetch() to size the images with
+            showCard(PIC_PANEL);
+            MemoryGovernor.getInstance().onShown(session, images);
+            prefetch();
+            refreshCounters();
         } else {
-            contentLayout.show(contentPanel, PROMPT_PANEL);
+            showCard(PROMPT_PANEL);
         }
         refreshPics();
         frame.validate();
     }
 
+    /**
+     * Loads the next few images in the background so they're ready by the time they're shown.
+     * Only does anything when the adaptive load type is selected, and the MemoryGovernor decides
+     * how many images to load and when to stop
+     */
+    private void prefetch() {
+        // nothing has been shown yet, so there's no size to load them at
+        if (leftPic == null) return;
+        MemoryGovernor governor = MemoryGovernor.getInstance();
+        int depth = governor.getPrefetchDepth();
+        // the list is copied here so the background threads never touch the bracket
+        List<ImageFile> upcoming = depth == 0 ? Collections.emptyList() :
+                bracket.peekNextImages(depth);
+        Set<ImageFile> wanted = Collections.newSetFromMap(new IdentityHashMap<>());
+        wanted.addAll(upcoming);
+        // the pictures on screen have been taken out of the bracket by now, but a prefetch still
+        // decoding one of them is what its SingleImageLoader is waiting for
+        if (images != null) {
+            for (ImageFile image : images) {
+                if (image != null) wanted.add(image);
+            }
+        }
+        // images that aren't coming up any more are aborted, but ones still being decoded for an
+        // image that is still coming up (or is now on screen) carry on instead of starting over
+        Iterator<Map.Entry<ImageFile, Future<?>>> iterator = prefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ImageFile, Future<?>> prefetch = iterator.next();
+            if (wanted.contains(prefetch.getKey()) && !prefetch.getValue().isDone()) continue;
+            prefetch.getValue().cancel(true);
+            iterator.remove();
+        }
+        if (depth == 0) return;
+        // decoded with just enough detail for the panels they'll be shown in
+        Dimension size = leftPic.getPreferredSize();
+        // one task per image so other sessions get a turn in between
+        for (ImageFile file : upcoming) {
+            if (prefetches.containsKey(file)) continue;
+            prefetches.put(file, DecodeScheduler.getInstance().submit(session,
+                    DecodeScheduler.Priority.PREFETCH, () -> {
+                        if (!governor.shouldPrefetch()) return;
+                        try {
+                            file.load(size);
+                            governor.onLoaded(file);
+                        } catch (IOException e) {
+                            // it'll be reported properly when the image is actually shown
+                            Logger.getLogger(getClass().getName()).fine("Unable to prefetch " +
+                                    file);
+                        }
+                    }));
+        }
+    }
+
     /**
      * Allows the user to choose a directory to export all their favorites to, then exports them all
      */
     private void exportFavorites() {
         JFileChooser export = new JFileChooser();
         export.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-        export.setCurrentDirectory(fileChooser.getCurrentDirectory());
-        File dir;
+        export.setCurrentDirectory(getFileChooser().getCurrentDirectory());
         int result = export.showSaveDialog(frame);
-        try {
-            if (result == JFileChooser.APPROVE_OPTION && !favorites.createNewFile() && (dir =
-                    export.getSelectedFile()).isDirectory()) {
-                List<String> filePaths = Files.readAllLines(favorites.toPath());
-                List<String> failed = new ArrayList<>();
-                List<String> notFound = new ArrayList<>();
-                for (String filePath : filePaths) {
+        File dir = export.getSelectedFile();
+        if (result != JFileChooser.APPROVE_OPTION || dir == null || !dir.isDirectory()) return;
+        // favorites saved the old way are hashed as they're read, and the photos are copied, so
+        // it all happens in the background
+        new SwingWorker<Void, Void>() {
+            private final List<String> failed = new ArrayList<>();
+            private final List<String> notFound = new ArrayList<>();
+
+            @Override
+            protected Void doInBackground() throws IOException {
+                for (String filePath : favorites.getPaths()) {
                     File f = new File(filePath);
                     try {
                         Files.copy(Paths.get(filePath), Paths.get(dir.getAbsolutePath(), f.getName()),
@@ -686,6 +1388,24 @@ class Window implements ComponentListener, WindowListener {
                         notFound.add(filePath);
                     }
                 }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(
+                            frame,
+                            "An error occurred while attempting to export",
+                            "Export failed",
+                            JOptionPane.ERROR_MESSAGE
+                    );
+                    Logger.getLogger(getClass().getName()).warning("Unable to export due to " +
+                            "IOException");
+                    return;
+                }
                 if (!failed.isEmpty()) {
                     StringBuilder messageBuilder = new StringBuilder("The following file(s) failed to" +
                             " copy because a file with the same name already exists in the directory " +
@@ -704,15 +1424,45 @@ class Window implements ComponentListener, WindowListener {
                     );
                 }
             }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(
-                    frame,
-                    "An error occurred while attempting to export",
-                    "Export failed",
-                    JOptionPane.ERROR_MESSAGE
-            );
-            Logger.getLogger(getClass().getName()).warning("Unable to export due to IOException");
-        }
+        }.execute();
+    }
+
+    /**
+     * Shows how the user has been sorting in this session: how fast they decide, how often they
+     * ask for different pictures and which pictures win most often. The log is read in the
+     * background since it can be large
+     */
+    private void showStatistics() {
+        comparisons.flush();
+        new SwingWorker<ComparisonLog.Summary, Void>() {
+            @Override
+            protected ComparisonLog.Summary doInBackground() throws IOException {
+                return comparisons.summarize();
+            }
+
+            @Override
+            protected void done() {
+                ComparisonLog.Summary summary;
+                try {
+                    summary = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Logger.getLogger(getClass().getName()).warning("Unable to read the " +
+                            "comparison log: " + e);
+                    JOptionPane.showMessageDialog(frame, "The statistics for this session " +
+                            "couldn't be read", "Session statistics", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                StringBuilder sb = new StringBuilder(summary.toString()).append('\n');
+                List<String> top = summary.getTopImages(5, 2);
+                if (!top.isEmpty()) sb.append("\nMost often kept:\n");
+                for (String path : top) {
+                    sb.append(String.format("%.0f%%  %s%n", summary.getWinRate(path) * 100,
+                            new File(path).getName()));
+                }
+                JOptionPane.showMessageDialog(frame, sb.toString(), "Session statistics",
+                        JOptionPane.INFORMATION_MESSAGE);
+            }
+        }.execute();
     }
 
     /**
@@ -757,7 +1507,7 @@ class Window implements ComponentListener, WindowListener {
         );
         if (proceed != JOptionPane.YES_OPTION) return;
         try {
-            Files.write(favorites.toPath(), new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+            favorites.clear();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -768,6 +1518,7 @@ class Window implements ComponentListener, WindowListener {
      */
     private void done() {
         String[] options = {"Save favorites", "Continue sorting"};
+        finishing = true;
         int after = JOptionPane.showOptionDialog(frame,
                 "You like all these pictures. What do you want to do now?",
                 "Done sorting",
@@ -776,49 +1527,52 @@ class Window implements ComponentListener, WindowListener {
                 null,
                 options,
                 options[0]);
+        finishing = false;
         // saves files to favorites
         if (after == JOptionPane.YES_OPTION) {
-            if (!writeListToFile(bracket.getAllImageFiles(), favorites,
-                    StandardOpenOption.APPEND)) {
-                JOptionPane.showMessageDialog(frame,
-                        "An error occurred while saving favorites. You can try again and see " +
-                                "if the error persists",
-                        "Unable to save",
-                        JOptionPane.ERROR_MESSAGE
-                );
-                done();
-            } else {
-                contentLayout.show(contentPanel, CONTINUE_PANEL);
-            }
+            saveFavorites(bracket.getAllImageFiles());
         } else { // continues sorting
             bracket.ignoreDone();
-            if (!bracket.hasNextPair()) contentLayout.show(contentPanel, PROMPT_PANEL);
+            if (!bracket.hasNextPair()) showCard(PROMPT_PANEL);
             else updatePanel();
         }
     }
 
     /**
-     * Writes any list to file using the object's toString() methods
+     * Helper method that saves images as favorites in the background, since each one is hashed
+     * in full (see Favorites), then shows the continue panel. If they can't be saved the user is
+     * asked what to do again
      *
-     * @param list   - The list to write
-     * @param file   - The path to the file to write to
-     * @param option - The option to use when writing the file
-     * @param <T>    - Accepts any Object type for the list
-     * @return - True if files were written successfully, false otherwise
-     */
-    private <T> boolean writeListToFile(List<T> list, File file, StandardOpenOption option) {
-        StringBuilder sb = new StringBuilder();
-        for (Object obj : list) {
-            sb.append(obj.toString());
-            sb.append('\n');
-        }
-        try {
-            file.createNewFile();
-            Files.write(file.toPath(), sb.toString().getBytes(), option);
-            return true;
-        } catch (IOException e) {
-            return false;
-        }
+     * @param winners - The images to save
+     */
+    private void saveFavorites(List<ImageFile> winners) {
+        setMenusEnabled(false);
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                favorites.add(winners);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                setMenusEnabled(true);
+                try {
+                    get();
+                    showCard(CONTINUE_PANEL);
+                } catch (InterruptedException | ExecutionException e) {
+                    Logger.getLogger(getClass().getName()).warning("Unable to save favorites: " +
+                            e);
+                    JOptionPane.showMessageDialog(frame,
+                            "An error occurred while saving favorites. You can try again and " +
+                                    "see if the error persists",
+                            "Unable to save",
+                            JOptionPane.ERROR_MESSAGE
+                    );
+                    Window.this.done();
+                }
+            }
+        }.execute();
     }
 
     /**
@@ -849,11 +1603,15 @@ class Window implements ComponentListener, WindowListener {
 
     @Override
     public void windowOpened(WindowEvent e) {
-
+        // made now so the first click on Find files doesn't have to wait for it
+        SwingUtilities.invokeLater(this::getFileChooser);
+        SwingUtilities.invokeLater(SessionManager.getInstance()::opened);
     }
 
     /**
-     * Called when the user/system closes the window. Writes settings to file. Note this may not
+     * Called when the user/system closes the window. Saves the session so it can carry on where
+     * it left off, frees the memory its images were using and lets the SessionManager know (which
+     * writes the settings to file and exits if this was the last window). Note this may not
      * always work perfectly (i.e. if the system crashes or the process receives a SIGKILL) but
      * these are not high-stakes settings to be saved and aren't worth writing to file every time
      * they change
@@ -862,24 +1620,28 @@ class Window implements ComponentListener, WindowListener {
      */
     @Override
     public void windowClosing(WindowEvent e) {
-        StringBuilder sb = new StringBuilder();
-        // right now the only setting is where the file chooser should default to but this is
-        // future-proofed so should more settings be added, this will still work
-        for (String key : settings.keySet()) {
-            sb.append(key);
-            sb.append('='); // note all settings should be in the form key=value\n
-            sb.append(settings.get(key));
-            sb.append('\n');
-        }
-        try {
-            Files.write(preferences.toPath(), sb.toString().getBytes(),
-                    StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException error) {
-            Logger.getLogger(getClass().getName()).warning("IOException: could not write " +
-                    "preferences to file");
-        }
+        // the pictures on screen have been taken out of the bracket, so they go back in first
+        if (hasImages()) bracket.getNewFiles(images);
+        // until the session has been read the bracket is only a placeholder, and saving it would
+        // wipe out the session (the SessionLoader closes the comparison log when it finishes)
+        if (sessionLoaded && isResuming()) session.save(bracket);
+        if (comparisons != null) comparisons.close();
+        pairSequence++;
+        if (pairLoader != null) pairLoader.cancel(true);
+        DecodeScheduler.getInstance().cancelAll(session);
+        MemoryGovernor.getInstance().release(session);
+        for (PicturePanel picture : pictures) picture.setSource(null);
+        bracket.flushAll();
         frame.dispose();
-        System.exit(0);
+        SessionManager.getInstance().closed(session);
+    }
+
+    /**
+     * Brings the window in front of the other windows
+     */
+    void toFront() {
+        frame.setExtendedState(frame.getExtendedState() & ~JFrame.ICONIFIED);
+        frame.toFront();
     }
 
     @Override
@@ -953,6 +1715,7 @@ class Window implements ComponentListener, WindowListener {
                 case "tiff":
                 case "tif":
                 case "png":
+                case "webp":
                     return true;
                 default:
                     return false;
@@ -964,79 +1727,296 @@ class Window implements ComponentListener, WindowListener {
          */
         @Override
         public String getDescription() {
-            return "Images (.jpeg, .jpg, .gif, .tiff, .tif, .png)";
+            return "Images (.jpeg, .jpg, .gif, .tiff, .tif, .png, .webp)";
         }
     }
 
     /**
-     * Loads a single image in its own thread
+     * Loads one image for display and produces a PictureUpdate for it. This runs on the decoder
+     * executor and never touches any components itself
      */
-    private static class SingleImageLoader extends SwingWorker<Pair<ImageIcon, String>, Void> {
+    private static class SingleImageLoader implements Callable<PictureUpdate> {
 
+        private final int sequence;
+        private final int index;
         private final Dimension maxSize;
         private final ImageFile image;
+        private final Future<?> prefetch;
+        private final Consumer<PictureUpdate> previews;
 
         /**
          * Constructs the loader
          *
-         * @param maxSize - The maximum size that an image should have
-         * @param image   - The image to load
+         * @param sequence - The pair sequence number the image is being loaded for
+         * @param index    - The index of the picture panel the image is for
+         * @param maxSize  - The maximum size that an image should have
+         * @param image    - The image to load
+         * @param prefetch - The prefetch of the image, or null if it wasn't prefetched
+         * @param previews - Receives an update for each partial image (on the loading thread)
          */
-        public SingleImageLoader(Dimension maxSize, ImageFile image) {
+        public SingleImageLoader(int sequence, int index, Dimension maxSize, ImageFile image,
+                                 Future<?> prefetch, Consumer<PictureUpdate> previews) {
+            this.sequence = sequence;
+            this.index = index;
             this.maxSize = maxSize;
             this.image = image;
+            this.prefetch = prefetch;
+            this.previews = previews;
         }
 
         /**
-         * This is executed in the background and should be run with SingleImageLoader.execute()
+         * Loads the image. Should be run on a background thread
          *
-         * @return - A pair with the ImageIcon as pair1 and an error message as pair2
+         * @return - The update to apply to the picture panel, with either the image or an error
+         * message, or null if the load was cancelled
          */
         @Override
-        protected Pair<ImageIcon, String> doInBackground() {
-            Pair<ImageIcon, String> response = new Pair<>();
+        public PictureUpdate call() {
             try {
-                ImageIcon icon = image.getIcon(maxSize);
-                response.pair1 = icon;
-                if (icon == null)
-                    response.pair2 = String.format(IMG_CORRUPTED, image.getCanonicalPath());
-                else
-                    response.pair2 = null;
+                // a prefetch part way through the image is finished rather than started over
+                if (prefetch != null) DecodeScheduler.getInstance().awaitIfStarted(prefetch);
+                ImageIcon icon = image.getIcon(maxSize,
+                        preview -> previews.accept(new PictureUpdate(sequence, index, preview,
+                                null)));
+                if (icon == null) {
+                    return new PictureUpdate(sequence, index, null,
+                            String.format(IMG_CORRUPTED, image.getCanonicalPath()));
+                }
+                return new PictureUpdate(sequence, index, icon, null);
+            } catch (InterruptedIOException e) {
+                // the pair was replaced, so nothing is waiting for this update
+                return null;
             } catch (IOException e) {
                 Logger.getLogger(getClass().getName()).warning(e.getClass().getName() + " " +
-                        "occurred while loading left image: " + image.toString());
-                response.pair2 = String.format(IMG_NOT_FOUND, image.getAbsolutePath());
+                        "occurred while loading image: " + image.toString());
+                return new PictureUpdate(sequence, index, null,
+                        String.format(IMG_NOT_FOUND, image.getAbsolutePath()));
             }
-            return response;
         }
     }
 
     /**
-     * Class that allows two objects of different types to be passed around together
-     *
-     * @param <P1> The type of the first object
-     * @param <P2> The type of the second object
+     * The decisions a user can make about the pictures on screen
+     */
+    private enum Decision {
+        LEFT,
+        RIGHT,
+        BOTH,
+        // keep the selected pictures in a grid
+        KEEP,
+        DIFFERENT
+    }
+
+    /**
+     * What one picture panel should show once an image has loaded (or partially loaded). These are
+     * created on background threads and applied on the event dispatch thread, so they can't be
+     * changed once created
+     */
+    private static final class PictureUpdate {
+        // the pair this update belongs to - updates for any other pair are stale
+        final int sequence;
+        // which picture panel the update is for
+        final int index;
+        final ImageIcon icon;
+        final String text;
+
+        /**
+         * Constructs the update
+         *
+         * @param sequence - The pair sequence number the image was loaded for
+         * @param index    - The index of the picture panel the update is for
+         * @param icon     - The image to show or null if it couldn't be loaded
+         * @param text     - The text to show or null to show none
+         */
+        PictureUpdate(int sequence, int index, ImageIcon icon, String text) {
+            this.sequence = sequence;
+            this.index = index;
+            this.icon = icon;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Reads the window's session in the background: its bracket (which may have to hash the images
+     * of a session saved by an older version) and its comparison log (which recovers whatever a
+     * crash left behind). The window is then populated on the event dispatch thread
      */
-    private static class Pair<P1, P2> {
-        P1 pair1;
-        P2 pair2;
+    private class SessionLoader extends SwingWorker<Bracket, Void> {
+
+        private final boolean resume;
+        private ComparisonLog log;
 
         /**
-         * Constructs a pair with the provided objects
+         * Constructs the loader
+         *
+         * @param resume - Whether to read the saved bracket, rather than start with an empty one
+         */
+        public SessionLoader(boolean resume) {
+            this.resume = resume;
+        }
+
+        /**
+         * This is the background task. It should not be called directly. Use SessionLoader
+         * .execute() instead
          *
-         * @param pair1 - The value for the first pair
-         * @param pair2 - The value for the second pair
+         * @return - The session's bracket
          */
-        public Pair(P1 pair1, P2 pair2) {
-            this.pair1 = pair1;
-            this.pair2 = pair2;
+        @Override
+        protected Bracket doInBackground() {
+            log = session.openComparisonLog();
+            return resume ? session.load() : new Bracket();
         }
 
         /**
-         * Constructs the pair with each object containing only null
+         * Shows the session (called by Swing on the event dispatch thread)
          */
-        public Pair() {
-            this(null, null);
+        @Override
+        protected void done() {
+            Bracket loaded;
+            try {
+                loaded = get();
+            } catch (InterruptedException | ExecutionException e) {
+                Logger.getLogger(getClass().getName()).warning("Unable to read session " +
+                        session.getName() + ": " + e);
+                loaded = new Bracket();
+            }
+            // the window was closed while the session was being read
+            if (!frame.isDisplayable()) {
+                if (log != null) log.close();
+                return;
+            }
+            comparisons = log;
+            statistics.setEnabled(log != null);
+            bracket = loaded;
+            sessionLoaded = true;
+            setMenusEnabled(true);
+            populate();
+            applySeeding();
+        }
+    }
+
+    /**
+     * Finds the images in the files and directories the user chose (looking inside directories
+     * recursively) and offers them to a bracket in batches while it is running, so choosing a large
+     * directory never freezes the window
+     */
+    private class ImageScanner extends SwingWorker<Integer, Integer> {
+
+        // how many images are offered to the bracket at once
+        private static final int BATCH_SIZE = 64;
+
+        private final File[] chosen;
+        private final Bracket target;
+        // the images already in the bracket or on screen, which new images may be copies of
+        private final List<ImageFile> present;
+        // the pre-key of each image found so far or already present (see ContentHasher
+        // .hashCollisions())
+        private final Map<Long, ImageFile> preKeys = new HashMap<>();
+        private final boolean score;
+        private final boolean reject;
+        // the number of images left out for being too blurry or dark
+        private volatile int rejected;
+
+        /**
+         * Constructs the scanner. Must be called on the event dispatch thread
+         *
+         * @param chosen - The files and directories the user chose
+         * @param target - The bracket to add the images to
+         * @param score  - Whether to score the images so the bracket can be seeded
+         * @param reject - Whether to leave out images that score too badly
+         */
+        public ImageScanner(File[] chosen, Bracket target, boolean score, boolean reject) {
+            this.chosen = chosen;
+            this.target = target;
+            present = new ArrayList<>(target.getSnapshot().getAllImageFiles());
+            if (target == bracket && images != null) {
+                for (ImageFile image : images) {
+                    if (image != null) present.add(image);
+                }
+            }
+            this.score = score;
+            this.reject = reject;
+        }
+
+        /**
+         * This is the background task. It should not be called directly. Use ImageScanner
+         * .execute() instead
+         *
+         * @return - The number of images found
+         */
+        @Override
+        protected Integer doInBackground() {
+            ContentHasher.getInstance().hashCollisions(present, preKeys);
+            FileFilter filter = new ImageFilter();
+            Deque<File> pending = new ArrayDeque<>(Arrays.asList(chosen));
+            List<ImageFile> batch = new ArrayList<>();
+            int found = 0;
+            while (!pending.isEmpty() && !isCancelled()) {
+                File file = pending.pollFirst();
+                if (file.isDirectory()) {
+                    File[] children = file.listFiles();
+                    if (children == null) continue;
+                    Arrays.sort(children);
+                    // added to the front in reverse so the directory is scanned in order
+                    for (int i = children.length - 1; i >= 0; i--) pending.addFirst(children[i]);
+                } else if (filter.accept(file)) {
+                    batch.add(new ImageFile(file));
+                    if (batch.size() == BATCH_SIZE) {
+                        prepare(batch);
+                        target.offer(batch.toArray(new ImageFile[0]));
+                        found += batch.size();
+                        batch.clear();
+                        publish(found);
+                    }
+                }
+            }
+            prepare(batch);
+            target.offer(batch.toArray(new ImageFile[0]));
+            return found + batch.size();
+        }
+
+        /**
+         * Helper method that does the work on a batch that shouldn't happen on the event dispatch
+         * thread: hashing so the bracket can drop duplicates without reading them (in full where
+         * two images have the same pre-key), reading the metadata the seeding and the pictures
+         * need, and scoring
+         *
+         * @param batch - The images about to be offered. Images that are left out are removed
+         */
+        private void prepare(List<ImageFile> batch) {
+            ContentHasher.getInstance().identify(batch);
+            ContentHasher.getInstance().hashCollisions(batch, preKeys);
+            ExifReader.getInstance().readAll(batch);
+            if (!score && !reject) return;
+            QualityScorer.getInstance().scoreAll(batch);
+            if (reject) rejected += QualityScorer.getInstance().reject(batch).size();
+        }
+
+        /**
+         * Updates the window with the images found so far (called by Swing on the event dispatch
+         * thread)
+         *
+         * @param counts - The number of images found at each update
+         */
+        @Override
+        protected void process(List<Integer> counts) {
+            if (target == bracket) onImagesAdded();
+        }
+
+        /**
+         * Updates the window once every image has been found (called by Swing on the event
+         * dispatch thread)
+         */
+        @Override
+        protected void done() {
+            if (isCancelled() || target != bracket) return;
+            onImagesAdded();
+            if (rejected > 0) {
+                errors.setText(String.format("Left out %d blurry or black photo%s", rejected,
+                        rejected == 1 ? "" : "s"));
+            }
+            if (settings.containsKey(PREFERENCE_LOAD_TYPE) &&
+                    settings.get(PREFERENCE_LOAD_TYPE).equals(LOAD_TYPE_FIRST)) loadImages();
         }
     }
 
@@ -1121,49 +2101,113 @@ class Window implements ComponentListener, WindowListener {
     }
 
     /**
-     * Loads a pair of images and puts them into the JLabels in its own thread
+     * Loads the pair (or group) of images being displayed in the background. All the images are
+     * loaded at the same time and nothing is changed on screen until the results reach the event dispatch thread,
+     * where they are applied together. Results for a pair that has since been replaced are dropped
      */
-    private class ImagePairLoader extends SwingWorker<Void, Void> {
+    private class ImagePairLoader extends SwingWorker<PictureUpdate[], PictureUpdate> {
 
         private final Dimension maxSize;
+        private final ImageFile[] pair;
+        // the prefetches of the images in the pair, where there are any
+        private final Future<?>[] prefetched;
+        private final int sequence;
 
         /**
-         * Constructs the loader
+         * Constructs the loader. Must be called on the event dispatch thread
          *
          * @param maxSize - The maximum size that images should be
          */
         public ImagePairLoader(Dimension maxSize) {
             this.maxSize = maxSize;
+            // copied so the background thread never reads the window's state
+            this.pair = images.clone();
+            this.prefetched = new Future<?>[pair.length];
+            for (int i = 0; i < pair.length; i++) prefetched[i] = prefetches.get(pair[i]);
+            this.sequence = ++pairSequence;
         }
 
         /**
          * This is the background task. It should not be called directly. Use ImagePairLoader
          * .execute() instead
          *
-         * @return - Nothing
+         * @return - The updates for each picture panel
          * @throws ExecutionException   - If something goes wrong
          * @throws InterruptedException - If the thread gets interrupted
          */
         @Override
-        protected Void doInBackground() throws ExecutionException, InterruptedException {
-            SingleImageLoader leftLoader = new SingleImageLoader(maxSize, images[0]);
-            leftLoader.execute();
-            SingleImageLoader rightLoader = new SingleImageLoader(maxSize, images[1]);
-            rightLoader.execute();
-
-            Pair<ImageIcon, String> left = leftLoader.get();
-            Pair<ImageIcon, String> right = rightLoader.get();
-
-            if (left.pair1 == null || right.pair1 == null) dumpUnreadable.setVisible(true);
-
-            leftPic.setIcon(left.pair1);
-            leftPic.setText(left.pair2);
+        protected PictureUpdate[] doInBackground() throws ExecutionException,
+                InterruptedException {
+            List<Future<PictureUpdate>> loads = new ArrayList<>();
+            for (int i = 0; i < pair.length; i++) {
+                SingleImageLoader loader = new SingleImageLoader(sequence, i, maxSize, pair[i],
+                        prefetched[i], this::publish);
+                loads.add(DecodeScheduler.getInstance().submit(session,
+                        DecodeScheduler.Priority.DISPLAY, loader));
+            }
+            PictureUpdate[] updates = new PictureUpdate[pair.length];
+            try {
+                for (int i = 0; i < updates.length; i++) {
+                    updates[i] = loads.get(i).get();
+                }
+            } catch (InterruptedException e) {
+                // replaced by another pair, so the images that haven't started aren't loaded
+                // and the ones being decoded are aborted (see DecodeToken)
+                for (Future<PictureUpdate> load : loads) load.cancel(true);
+                throw e;
+            }
+            return updates;
+        }
 
-            rightPic.setIcon(right.pair1);
-            rightPic.setText(right.pair2);
+        /**
+         * Shows the latest partial image for each panel (called by Swing on the event dispatch
+         * thread)
+         *
+         * @param previews - The partial images published since the last call
+         */
+        @Override
+        protected void process(List<PictureUpdate> previews) {
+            // once the full images are ready a late preview must not replace them
+            if (isDone() || sequence != pairSequence) return;
+            PictureUpdate[] latest = new PictureUpdate[pair.length];
+            for (PictureUpdate preview : previews) latest[preview.index] = preview;
+            for (PictureUpdate preview : latest) {
+                if (preview != null) apply(preview);
+            }
+        }
 
+        /**
+         * Shows the loaded images (called by Swing on the event dispatch thread)
+         */
+        @Override
+        protected void done() {
+            if (sequence != pairSequence) return;
+            PictureUpdate[] updates;
+            try {
+                updates = get();
+            } catch (InterruptedException | ExecutionException e) {
+                Logger.getLogger(getClass().getName()).warning("Unable to load images: " + e);
+                enableUI(true);
+                return;
+            }
+            boolean unreadable = false;
+            for (PictureUpdate update : updates) {
+                apply(update);
+                unreadable |= update.icon == null;
+            }
+            if (unreadable) dumpUnreadable.setVisible(true);
             enableUI(true);
-            return null;
+        }
+
+        /**
+         * Helper method that shows an update in its picture panel
+         *
+         * @param update - The update to show
+         */
+        private void apply(PictureUpdate update) {
+            PicturePanel target = pictures[update.index];
+            target.setIcon(update.icon);
+            target.setText(update.text);
         }
     }
 }
@@ -0,0 +1,32 @@
+#!/usr/bin/env bash
+# Compiles Photo Bracket and its tests into build/test and runs the tests: every class in
+# test/photoBracket whose name ends in Test. Exits with an error if any of them fail.
+#
+#   ./test.sh                  run every test class
+#   ./test.sh BracketTest ...  run only the named test classes
+#
+# The tests run headless from this directory, since they read their images from test/resources.
+set -euo pipefail
+
+cd "$(dirname "$0")"
+CLASSES=build/test
+
+rm -rf "$CLASSES"
+mkdir -p "$CLASSES"
+javac -d "$CLASSES" photoBracket/*.java test/photoBracket/*.java
+
+if [ $# -gt 0 ]; then
+    TESTS=("$@")
+else
+    TESTS=()
+    for file in test/photoBracket/*Test.java; do
+        TESTS+=("$(basename "$file" .java)")
+    done
+fi
+
+FAILED=0
+for test in "${TESTS[@]}"; do
+    echo "$test"
+    java -Djava.awt.headless=true -cp "$CLASSES" "photoBracket.$test" || FAILED=1
+done
+exit $FAILED
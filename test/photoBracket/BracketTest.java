@@ -0,0 +1,134 @@
+package photoBracket;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static photoBracket.Tests.*;
+
+/**
+ * Tests how a Bracket moves images between rounds and what its snapshots show
+ */
+class BracketTest {
+
+    public static void main(String[] args) {
+        run("addAll() publishes one snapshot", BracketTest::addAllPublishesOnce);
+        run("snapshots don't change afterwards", BracketTest::snapshotsNeverChange);
+        run("the winners become the next round", BracketTest::winnersBecomeNextRound);
+        run("a round where nothing was turned down ends the bracket", BracketTest::unchangedRound);
+        run("offered images are placed when the bracket is used", BracketTest::offeredImages);
+        run("peekNextImages() matches getNextPair()", BracketTest::peekMatchesNextPair);
+        finish();
+    }
+
+    /**
+     * @param directory - Where to make them
+     * @param count     - How many to make
+     * @return - Files with different contents, named 0.jpg, 1.jpg etc.
+     */
+    private static List<ImageFile> images(File directory, int count) throws Exception {
+        List<ImageFile> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) images.add(file(directory, i + ".jpg", "image " + i));
+        return images;
+    }
+
+    private static void addAllPublishesOnce() throws Exception {
+        Bracket bracket = new Bracket();
+        long version = bracket.getSnapshot().getVersion();
+        bracket.addAll(images(directory(), 50));
+        checkEquals(version + 1, bracket.getSnapshot().getVersion(), "version");
+        checkEquals(50, bracket.size(), "size");
+        checkEquals(50, bracket.getRoundSize(), "round size");
+    }
+
+    private static void snapshotsNeverChange() throws Exception {
+        List<ImageFile> images = images(directory(), 6);
+        Bracket bracket = new Bracket();
+        bracket.addAll(images);
+        Bracket.Snapshot before = bracket.getSnapshot();
+        List<ImageFile> current = new ArrayList<>(before.getCurrentImageFiles());
+        ImageFile[] pair = bracket.getNextPair();
+        bracket.selected(pair[0]);
+        bracket.add(file(directory(), "late.jpg", "late"));
+        checkEquals(current, before.getCurrentImageFiles(), "images in the earlier snapshot");
+        checkEquals(Collections.emptyList(), before.getWinnerImageFiles(), "earlier winners");
+        Bracket.Snapshot after = bracket.getSnapshot();
+        checkEquals(Collections.singletonList(pair[0]), after.getWinnerImageFiles(), "winners");
+        checkEquals(5, after.getRoundSize(), "round size");
+    }
+
+    private static void winnersBecomeNextRound() throws Exception {
+        List<ImageFile> images = images(directory(), 4);
+        Bracket bracket = new Bracket();
+        bracket.addAll(images);
+        // pairs come from both ends of the round
+        ImageFile[] pair = bracket.getNextPair();
+        checkEquals(Arrays.asList(images.get(0), images.get(3)), Arrays.asList(pair), "pair");
+        bracket.selected(pair[0]);
+        pair = bracket.getNextPair();
+        checkEquals(Arrays.asList(images.get(1), images.get(2)), Arrays.asList(pair), "pair");
+        bracket.selected(pair[1]);
+        checkEquals(0, bracket.getRoundCount(), "rounds before the next pair");
+        checkEquals(Arrays.asList(images.get(0), images.get(2)), bracket.getWinnerImageFiles(),
+                "winners");
+
+        pair = bracket.getNextPair();
+        checkEquals(1, bracket.getRoundCount(), "rounds");
+        checkEquals(Arrays.asList(images.get(0), images.get(2)), Arrays.asList(pair), "pair");
+        bracket.selected(pair[1]);
+        checkEquals(1, bracket.size(), "size");
+        check(!bracket.hasNextPair(), "one image left shouldn't make a pair");
+    }
+
+    private static void unchangedRound() throws Exception {
+        Bracket bracket = new Bracket();
+        bracket.addAll(images(directory(), 4));
+        for (int i = 0; i < 2; i++) bracket.selected(bracket.getNextPair());
+        check(!bracket.hasChanged(), "nothing was turned down");
+        check(!bracket.hasNextPair(), "the bracket should be done");
+        bracket.ignoreDone();
+        check(bracket.hasNextPair(), "ignoreDone() should play the round again");
+        bracket.getNextPair();
+        checkEquals(1, bracket.getRoundCount(), "rounds");
+    }
+
+    private static void offeredImages() throws Exception {
+        File directory = directory();
+        List<ImageFile> images = images(directory, 4);
+        Bracket bracket = new Bracket();
+        bracket.addAll(images);
+        bracket.offer(file(directory, "early.jpg", "early"), images.get(0));
+        // the copy of an image already there is left out
+        bracket.placeIncoming();
+        checkEquals(5, bracket.getRoundSize(), "round size after the first offer");
+
+        // once most of the round has been decided, new images go to the winners
+        bracket.selected(bracket.getNextPair()[0]);
+        bracket.selected(bracket.getNextPair()[0]);
+        bracket.offer(file(directory, "late.jpg", "late"));
+        bracket.placeIncoming();
+        checkEquals(1, bracket.getRoundSize(), "round size after the second offer");
+        checkEquals(3, bracket.getWinnerImageFiles().size(), "winners after the second offer");
+        check(bracket.hasChanged(), "a new winner means the next round has to be played");
+
+        // nor is a copy of an image that is on screen
+        ImageFile[] pair = bracket.getNextPair();
+        bracket.offer(new ImageFile(pair[0].getPath()));
+        bracket.placeIncoming();
+        checkEquals(2, bracket.size(), "size with a copy of an image on screen offered");
+        bracket.selected(pair);
+        checkEquals(4, bracket.size(), "size after the images on screen are kept");
+    }
+
+    private static void peekMatchesNextPair() throws Exception {
+        Bracket bracket = new Bracket();
+        bracket.addAll(images(directory(), 9));
+        while (bracket.getRoundSize() >= 2) {
+            List<ImageFile> next = bracket.peekNextImages(2);
+            checkEquals(next, Arrays.asList(bracket.getNextPair()), "pair");
+            bracket.getNewFiles();
+        }
+    }
+}
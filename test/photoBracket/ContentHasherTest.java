@@ -0,0 +1,113 @@
+package photoBracket;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static photoBracket.Tests.*;
+
+/**
+ * Tests the xxHash64 the ContentHasher identifies files with, and how ImageFiles compare by
+ * content
+ */
+class ContentHasherTest {
+
+    public static void main(String[] args) {
+        run("xxHash64 matches the reference vectors", ContentHasherTest::referenceVectors);
+        run("hashing a buffer at a time gives the same hash", ContentHasherTest::inPieces);
+        run("files are hashed like their bytes", ContentHasherTest::files);
+        run("ImageFiles compare by content", ContentHasherTest::imageFiles);
+        finish();
+    }
+
+    /**
+     * @param bytes - The bytes to hash
+     * @param seed  - The seed
+     * @return - Their xxHash64
+     */
+    private static long hash(byte[] bytes, long seed) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        ContentHasher.Hash hash = new ContentHasher.Hash(seed);
+        hash.update(buffer);
+        return hash.finish(buffer);
+    }
+
+    /**
+     * @param length - How many bytes
+     * @return - Bytes that follow a pattern, so they are the same every run
+     */
+    private static byte[] pattern(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = (byte) (i * 31 + 7);
+        return bytes;
+    }
+
+    private static void referenceVectors() {
+        // from the xxHash reference implementation
+        checkEquals(0xEF46DB3751D8E999L, hash(new byte[0], 0), "empty");
+        checkEquals(0xD24EC4F1A98C6E5BL, hash("a".getBytes(StandardCharsets.US_ASCII), 0), "a");
+        checkEquals(0x44BC2CF5AD770999L, hash("abc".getBytes(StandardCharsets.US_ASCII), 0),
+                "abc");
+        checkEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"
+                .getBytes(StandardCharsets.US_ASCII), 0), "39 bytes");
+        checkEquals(0x99594F4828043D35L, hash(pattern(1000), 0), "1000 bytes");
+        checkEquals(0x11CBC37CB60A421CL, hash(pattern(1000), 1000), "1000 bytes seeded");
+    }
+
+    private static void inPieces() {
+        byte[] bytes = pattern(1000);
+        for (int piece : new int[]{32, 64, 320, 992}) {
+            ContentHasher.Hash hash = new ContentHasher.Hash(0);
+            ByteBuffer buffer = null;
+            for (int start = 0; start < bytes.length; start += piece) {
+                buffer = ByteBuffer.wrap(bytes, start, Math.min(piece, bytes.length - start))
+                        .slice();
+                hash.update(buffer);
+            }
+            checkEquals(hash(bytes, 0), hash.finish(buffer), piece + " bytes at a time");
+        }
+    }
+
+    private static void files() throws Exception {
+        File file = new File(directory(), "pattern.bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), pattern(1000));
+        ContentHasher hasher = ContentHasher.getInstance();
+        checkEquals(0x99594F4828043D35L, hasher.getFullHash(file), "full hash");
+        // a small file's pre-key is its hash seeded with its size
+        checkEquals(0x11CBC37CB60A421CL, hasher.getPreKey(file), "pre-key");
+    }
+
+    private static void imageFiles() throws Exception {
+        File directory = directory();
+        // bigger than the start and end the pre-key covers, differing only in the middle
+        byte[] bytes = pattern(300 * 1024);
+        File original = new File(directory, "original.jpg");
+        File copy = new File(directory, "copy.jpg");
+        File edited = new File(directory, "edited.jpg");
+        Files.write(original.toPath(), bytes);
+        Files.write(copy.toPath(), bytes);
+        bytes[bytes.length / 2]++;
+        Files.write(edited.toPath(), bytes);
+        for (File file : new File[]{original, copy, edited}) file.deleteOnExit();
+
+        ImageFile a = new ImageFile(original.getPath());
+        ImageFile b = new ImageFile(copy.getPath());
+        ImageFile c = new ImageFile(edited.getPath());
+        // the whole files are only compared once the scanner has hashed the pre-key collisions
+        checkEquals(a.getPreKey(), c.getPreKey(), "pre-key of a file edited in the middle");
+        check(a.equals(c), "pre-keys alone can't tell the edited file apart");
+        ContentHasher.getInstance().hashCollisions(Arrays.asList(a, b, c), new HashMap<>());
+        checkEquals(a, b, "a copy");
+        checkEquals(a.hashCode(), b.hashCode(), "hash code of a copy");
+        check(!a.equals(new File(original.getPath())), "an ImageFile isn't equal to a File");
+        check(a.isIdentifiedByContent(), "a readable file should be identified by content");
+        check(!a.equals(c), "a file edited in the middle should be different");
+        check(!new ImageFile(new File(directory, "missing.jpg").getPath()).equals(
+                new ImageFile(new File(directory, "gone.jpg").getPath())),
+                "missing files should only be equal to the same path");
+    }
+}
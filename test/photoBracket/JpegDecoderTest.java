@@ -0,0 +1,157 @@
+package photoBracket;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static photoBracket.Tests.*;
+
+/**
+ * Tests the JpegDecoder's shrinking decodes against ImageIO's full size ones. The JPEGs are made
+ * by ImageIO's encoder, so every run uses the same files without keeping them in the project
+ */
+class JpegDecoderTest {
+
+    private static final int WIDTH = 403;
+    private static final int HEIGHT = 301;
+
+    public static void main(String[] args) {
+        run("4:2:0 files shrink like ImageIO's decode", () -> shrinks(false));
+        run("4:4:4 files shrink like ImageIO's decode", () -> shrinks(true));
+        run("full size and progressive files are left to ImageIO",
+                JpegDecoderTest::leftToImageIO);
+        run("ImageDecoder.read() shrinks to fit", JpegDecoderTest::readFits);
+        finish();
+    }
+
+    /**
+     * @return - A picture with smooth gradients, fine detail and hard edges
+     */
+    private static BufferedImage picture() {
+        BufferedImage picture = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int red = x * 255 / WIDTH;
+                int green = (int) (127 + 100 * Math.sin(x / 7.0) * Math.cos(y / 11.0));
+                int blue = (x / 40 + y / 40) % 2 == 0 ? 40 : 220;
+                picture.setRGB(x, y, red << 16 | green << 8 | blue);
+            }
+        }
+        return picture;
+    }
+
+    /**
+     * Writes a JPEG with ImageIO
+     *
+     * @param noSubsampling - True for 4:4:4, false for ImageIO's usual 4:2:0
+     * @param progressive   - Whether to write a progressive file
+     * @return - The file
+     */
+    private static File write(boolean noSubsampling, boolean progressive) throws Exception {
+        BufferedImage picture = picture();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.95f);
+        if (progressive) param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(
+                ImageTypeSpecifier.createFromRenderedImage(picture), param);
+        if (noSubsampling) {
+            String format = metadata.getNativeMetadataFormatName();
+            Element root = (Element) metadata.getAsTree(format);
+            NodeList components = root.getElementsByTagName("componentSpec");
+            for (int i = 0; i < components.getLength(); i++) {
+                Element component = (Element) components.item(i);
+                component.setAttribute("HsamplingFactor", "1");
+                component.setAttribute("VsamplingFactor", "1");
+            }
+            metadata.setFromTree(format, root);
+        }
+        File file = new File(directory(), "picture.jpg");
+        file.deleteOnExit();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(picture, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return file;
+    }
+
+    /**
+     * Compares a shrunken decode with ImageIO's full size decode averaged over the same blocks
+     *
+     * @param full      - ImageIO's decode
+     * @param small     - The shrunken decode
+     * @param reduction - How much it was shrunk
+     * @return - The mean difference per channel
+     */
+    private static double difference(BufferedImage full, BufferedImage small, int reduction) {
+        long total = 0;
+        for (int y = 0; y < small.getHeight(); y++) {
+            for (int x = 0; x < small.getWidth(); x++) {
+                int pixel = small.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int sum = 0;
+                    int count = 0;
+                    for (int fy = y * reduction; fy < Math.min(HEIGHT, (y + 1) * reduction); fy++) {
+                        for (int fx = x * reduction; fx < Math.min(WIDTH, (x + 1) * reduction);
+                             fx++) {
+                            sum += full.getRGB(fx, fy) >> shift & 0xFF;
+                            count++;
+                        }
+                    }
+                    total += Math.abs(sum / count - (pixel >> shift & 0xFF));
+                }
+            }
+        }
+        return (double) total / (small.getWidth() * small.getHeight() * 3);
+    }
+
+    private static void shrinks(boolean noSubsampling) throws Exception {
+        File file = write(noSubsampling, false);
+        BufferedImage full = ImageIO.read(file);
+        JpegDecoder decoder = new JpegDecoder();
+        for (int reduction = 2; reduction <= 8; reduction *= 2) {
+            // the most a fit this size allows
+            Dimension fit = new Dimension(WIDTH / reduction, HEIGHT / reduction);
+            BufferedImage small = decoder.decode(file, fit, null);
+            check(small != null, "1/" + reduction + " should be decoded");
+            checkEquals((WIDTH + reduction - 1) / reduction, small.getWidth(), "width");
+            checkEquals((HEIGHT + reduction - 1) / reduction, small.getHeight(), "height");
+            double difference = difference(full, small, reduction);
+            check(difference < 3, "1/" + reduction + " is off by " + difference + " on average");
+        }
+    }
+
+    private static void leftToImageIO() throws Exception {
+        JpegDecoder decoder = new JpegDecoder();
+        check(decoder.canDecode(ImageDecoder.readHeader(write(false, false))),
+                "should recognize a JPEG");
+        checkEquals(null, decoder.decode(write(false, false), null, null), "full size decode");
+        checkEquals(null, decoder.decode(write(false, true), new Dimension(50, 50), null),
+                "progressive decode");
+    }
+
+    private static void readFits() throws Exception {
+        File file = write(false, true);
+        // progressive, so it is decoded by ImageIO at full size
+        BufferedImage image = ImageDecoder.read(file, new Dimension(WIDTH / 4, HEIGHT / 4), null);
+        checkEquals(WIDTH, image.getWidth(), "width of a progressive file");
+        file = write(false, false);
+        image = ImageDecoder.read(file, new Dimension(WIDTH / 4, HEIGHT / 4), null);
+        checkEquals((WIDTH + 3) / 4, image.getWidth(), "width of a baseline file");
+        check(ImageDecoder.getInstalled().get(0) instanceof JpegDecoder,
+                "the JPEG decoder should be tried first");
+    }
+}
@@ -0,0 +1,152 @@
+package photoBracket;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+import static photoBracket.Tests.*;
+
+/**
+ * Tests the order a SeededDeque keeps its images in and the lists snapshot() hands out
+ */
+class SeededDequeTest {
+
+    public static void main(String[] args) {
+        run("images are ordered by the strategy", SeededDequeTest::ordering);
+        run("deferred images go behind the rest", SeededDequeTest::deferring);
+        run("addAll() into an empty deque matches adding one at a time",
+                SeededDequeTest::bulkAdd);
+        run("the sorted entries' ranges match a TreeSet's", SeededDequeTest::sortedRanges);
+        run("snapshots match the deque and never change", SeededDequeTest::snapshots);
+        finish();
+    }
+
+    /**
+     * @param path - The path of the image. It doesn't have to exist
+     * @return - The image
+     */
+    private static ImageFile image(String path) {
+        return new ImageFile(path);
+    }
+
+    private static void ordering() {
+        SeededDeque folder = new SeededDeque(SeedingStrategy.FOLDER);
+        for (String path : Arrays.asList("/b/2.jpg", "/a/9.jpg", "/b/1.jpg", "/a/10.jpg")) {
+            folder.add(image(path));
+        }
+        checkEquals(Arrays.asList(image("/a/10.jpg"), image("/a/9.jpg"), image("/b/1.jpg"),
+                image("/b/2.jpg")), new ArrayList<>(folder), "folder order");
+        check(!folder.add(image("/a/9.jpg")), "an image can only be added once");
+
+        // images with the same rank stay in the order they were added
+        SeededDeque added = new SeededDeque(SeedingStrategy.ADDED);
+        for (String path : Arrays.asList("/z.jpg", "/a.jpg", "/m.jpg")) added.add(image(path));
+        checkEquals(image("/z.jpg"), added.pollFirst(), "first");
+        checkEquals(image("/m.jpg"), added.pollLast(), "last");
+        added.setStrategy(SeedingStrategy.FOLDER);
+        added.add(image("/b.jpg"));
+        checkEquals(Arrays.asList(image("/a.jpg"), image("/b.jpg")), new ArrayList<>(added),
+                "order after changing the strategy");
+    }
+
+    private static void deferring() {
+        SeededDeque deque = new SeededDeque(SeedingStrategy.FOLDER);
+        for (String path : Arrays.asList("/a.jpg", "/b.jpg", "/c.jpg")) deque.add(image(path));
+        ImageFile first = deque.pollFirst();
+        deque.defer(first);
+        deque.add(image("/0.jpg"));
+        checkEquals(Arrays.asList(image("/0.jpg"), image("/b.jpg"), image("/c.jpg"), first),
+                new ArrayList<>(deque), "order after deferring");
+        // deferred images keep their place when the deque is reordered
+        deque.setStrategy(SeedingStrategy.ADDED);
+        checkEquals(first, deque.pollLast(), "last after reordering");
+    }
+
+    private static void bulkAdd() {
+        Random random = new Random(1);
+        List<ImageFile> images = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            images.add(image("/" + random.nextInt(20) + "/" + random.nextInt(400) + ".jpg"));
+        }
+        SeededDeque one = new SeededDeque(SeedingStrategy.FOLDER);
+        for (ImageFile image : images) one.add(image);
+        SeededDeque bulk = new SeededDeque(SeedingStrategy.FOLDER);
+        check(bulk.addAll(images), "addAll() should add the images");
+        checkEquals(new ArrayList<>(one), new ArrayList<>(bulk), "order");
+        checkEquals(one.size(), bulk.size(), "size");
+        for (ImageFile image : images) check(bulk.contains(image), image + " is missing");
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void sortedRanges() throws Exception {
+        // the entries are private, so they are made the way addAll() makes them
+        Class<?> entryClass = Class.forName("photoBracket.SeededDeque$Entry");
+        Constructor<?> entry = entryClass.getDeclaredConstructor(ImageFile.class, int.class,
+                double.class, String.class, long.class);
+        entry.setAccessible(true);
+        Constructor<?> sortedEntries = Class.forName("photoBracket.SeededDeque$SortedEntries")
+                .getDeclaredConstructor(List.class);
+        sortedEntries.setAccessible(true);
+
+        Random random = new Random(2);
+        List<Comparable> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add((Comparable) entry.newInstance(image("/" + i + ".jpg"),
+                    random.nextInt(2), (double) random.nextInt(5), "", (long) i));
+        }
+        List<Comparable> some = new ArrayList<>();
+        for (Comparable e : entries) if (random.nextBoolean()) some.add(e);
+        Collections.sort(some);
+        SortedSet<Comparable> sorted = (SortedSet<Comparable>) sortedEntries.newInstance(some);
+        TreeSet<Comparable> tree = new TreeSet<>(some);
+        checkEquals(tree.first(), sorted.first(), "first");
+        checkEquals(tree.last(), sorted.last(), "last");
+        for (int i = 0; i < 500; i++) {
+            Comparable from = entries.get(random.nextInt(entries.size()));
+            Comparable to = entries.get(random.nextInt(entries.size()));
+            if (from.compareTo(to) > 0) {
+                Comparable swap = from;
+                from = to;
+                to = swap;
+            }
+            checkEquals(new ArrayList<>(tree.subSet(from, to)),
+                    new ArrayList<>(sorted.subSet(from, to)), "subSet");
+            checkEquals(new ArrayList<>(tree.headSet(to)), new ArrayList<>(sorted.headSet(to)),
+                    "headSet");
+            checkEquals(new ArrayList<>(tree.tailSet(from)),
+                    new ArrayList<>(sorted.tailSet(from)), "tailSet");
+            checkEquals(tree.contains(from), sorted.contains(from), "contains");
+        }
+    }
+
+    private static void snapshots() {
+        Random random = new Random(3);
+        for (SeedingStrategy strategy : Arrays.asList(SeedingStrategy.ADDED,
+                SeedingStrategy.FOLDER)) {
+            SeededDeque deque = new SeededDeque(strategy);
+            List<List<ImageFile>> snapshots = new ArrayList<>();
+            List<List<ImageFile>> copies = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                ImageFile image = image("/" + random.nextInt(300) + ".jpg");
+                int operation = random.nextInt(10);
+                if (operation < 3) {
+                    deque.add(image);
+                } else if (operation < 5) {
+                    deque.pollFirst();
+                } else if (operation < 6) {
+                    deque.pollLast();
+                } else if (operation < 7) {
+                    deque.defer(image);
+                } else if (operation < 8 && random.nextInt(10) == 0) {
+                    deque.remove(image);
+                }
+                List<ImageFile> snapshot = deque.snapshot();
+                checkEquals(new ArrayList<>(deque), snapshot, strategy + " snapshot " + i);
+                if (random.nextInt(10) == 0) {
+                    snapshots.add(snapshot);
+                    copies.add(new ArrayList<>(snapshot));
+                }
+            }
+            checkEquals(copies, snapshots, strategy + " snapshots taken earlier");
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package photoBracket;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static photoBracket.Tests.*;
+
+/**
+ * Tests that a SessionSnapshot gives back the bracket it was written from, and that damaged files
+ * are turned down rather than read
+ */
+class SessionSnapshotTest {
+
+    // where the parts of the header are (see SessionSnapshot)
+    private static final int VERSION = 4;
+    private static final int CURRENT_COUNT = 16;
+    private static final int STRING_COUNT = 24;
+    private static final int STRINGS = 40;
+
+    public static void main(String[] args) {
+        run("a bracket is read back the way it was written", SessionSnapshotTest::roundTrip);
+        run("an empty bracket is read back", SessionSnapshotTest::empty);
+        run("snapshots are told apart from other files", SessionSnapshotTest::recognized);
+        run("damaged snapshots aren't read", SessionSnapshotTest::damaged);
+        finish();
+    }
+
+    /**
+     * @param images - Images
+     * @return - Their paths, in the same order
+     */
+    private static List<String> paths(List<ImageFile> images) {
+        List<String> paths = new ArrayList<>();
+        for (ImageFile image : images) paths.add(image.getAbsolutePath());
+        return paths;
+    }
+
+    /**
+     * @param bracket - A bracket
+     * @return - The bracket after a trip through a snapshot
+     */
+    private static Bracket reread(Bracket bracket) throws Exception {
+        File file = new File(directory(), "session.pbss");
+        file.deleteOnExit();
+        SessionSnapshot.write(bracket, file);
+        return SessionSnapshot.read(file);
+    }
+
+    private static void roundTrip() throws Exception {
+        // two folders, so some images share a directory string and some don't
+        File first = directory();
+        File second = directory();
+        List<ImageFile> images = new ArrayList<>();
+        for (int i = 0; i < 5; i++) images.add(file(first, i + ".jpg", "first " + i));
+        for (int i = 0; i < 4; i++) images.add(file(second, i + ".jpg", "second " + i));
+        // a path that isn't ASCII, for a file that's gone (which is kept by its path)
+        images.add(new ImageFile(new File(second, "\u00e9t\u00e9.jpg").getPath()));
+        Bracket bracket = new Bracket();
+        bracket.addAll(images);
+        // a round played out and some of the next, so there are winners and a round count
+        while (bracket.getRoundCount() == 0 || bracket.getWinnerImageFiles().isEmpty()) {
+            ImageFile[] pair = bracket.getNextPair();
+            bracket.selected(pair[pair[0].getName().startsWith("0") ? 1 : 0]);
+        }
+
+        Bracket restored = reread(bracket);
+        checkEquals(paths(bracket.getCurrentImageFiles()), paths(restored.getCurrentImageFiles()),
+                "current round");
+        checkEquals(paths(bracket.getWinnerImageFiles()), paths(restored.getWinnerImageFiles()),
+                "winners");
+        checkEquals(bracket.getRoundCount(), restored.getRoundCount(), "round count");
+        checkEquals(bracket.hasChanged(), restored.hasChanged(), "changed");
+        List<ImageFile> before = bracket.getAllImageFiles();
+        List<ImageFile> after = restored.getAllImageFiles();
+        for (int i = 0; i < before.size(); i++) {
+            checkEquals(before.get(i).isIdentifiedByContent(),
+                    after.get(i).isIdentifiedByContent(), after.get(i) + " identified");
+            if (before.get(i).isIdentifiedByContent()) {
+                checkEquals(before.get(i).getPreKey(), after.get(i).getPreKey(),
+                        after.get(i) + " pre-key");
+            }
+            checkEquals(before.get(i), after.get(i), "image");
+        }
+
+        // nothing turned down in a round is saved too
+        Bracket unchanged = new Bracket();
+        unchanged.addAll(images.subList(0, 4));
+        for (int i = 0; i < 2; i++) unchanged.selected(unchanged.getNextPair());
+        check(!reread(unchanged).hasChanged(), "an unchanged round should stay unchanged");
+    }
+
+    private static void empty() throws Exception {
+        Bracket restored = reread(new Bracket());
+        checkEquals(Collections.emptyList(), restored.getCurrentImageFiles(), "current round");
+        checkEquals(Collections.emptyList(), restored.getWinnerImageFiles(), "winners");
+        checkEquals(0, restored.getRoundCount(), "round count");
+    }
+
+    private static void recognized() throws Exception {
+        File directory = directory();
+        File snapshot = new File(directory, "session.pbss");
+        snapshot.deleteOnExit();
+        SessionSnapshot.write(new Bracket(), snapshot);
+        check(SessionSnapshot.isSnapshot(snapshot), "a snapshot should be recognized");
+        ImageFile text = file(directory, "session.txt", "/photos/a.jpg\n/photos/b.jpg\n");
+        check(!SessionSnapshot.isSnapshot(text), "a text session isn't a snapshot");
+        ImageFile tiny = file(directory, "tiny", "PB");
+        check(!SessionSnapshot.isSnapshot(tiny), "a file shorter than the magic number");
+        checkThrows(() -> SessionSnapshot.read(text), "reading a text session");
+    }
+
+    private static void damaged() throws Exception {
+        File directory = directory();
+        List<ImageFile> images = new ArrayList<>();
+        for (int i = 0; i < 3; i++) images.add(file(directory, i + ".jpg", "image " + i));
+        Bracket bracket = new Bracket();
+        bracket.addAll(images);
+        File file = new File(directory, "session.pbss");
+        file.deleteOnExit();
+        SessionSnapshot.write(bracket, file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int strings = ByteBuffer.wrap(bytes).getInt(STRING_COUNT);
+        // the records are at the end of the file
+        int records = bytes.length - 48 * images.size();
+
+        File damaged = new File(directory, "damaged.pbss");
+        damaged.deleteOnExit();
+        List<byte[]> cases = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        cases.add(Arrays.copyOf(bytes, bytes.length - 8));
+        names.add("a snapshot cut short");
+        cases.add(Arrays.copyOf(bytes, 20));
+        names.add("half a header");
+        cases.add(Arrays.copyOf(bytes, bytes.length + 48));
+        names.add("a record more than the header says");
+        cases.add(set(bytes, VERSION, SessionSnapshot.VERSION + 1));
+        names.add("a newer version");
+        cases.add(set(bytes, CURRENT_COUNT, images.size() + 1));
+        names.add("an image more than there are records for");
+        cases.add(set(bytes, CURRENT_COUNT, -1));
+        names.add("a negative count");
+        cases.add(set(bytes, STRINGS + 4, Integer.MAX_VALUE));
+        names.add("a string past the end of the strings");
+        cases.add(set(set(bytes, STRINGS + 4, 10), STRINGS + 8, 5));
+        names.add("strings out of order");
+        cases.add(set(bytes, records + 4, strings));
+        names.add("a name that isn't in the string table");
+        cases.add(set(bytes, records, -2));
+        names.add("a directory that isn't in the string table");
+        for (int i = 0; i < cases.size(); i++) {
+            Files.write(damaged.toPath(), cases.get(i));
+            checkThrows(() -> SessionSnapshot.read(damaged), names.get(i));
+        }
+
+        // the original still reads, so it's the damage each one is turned down for
+        Files.write(damaged.toPath(), bytes);
+        checkEquals(paths(images), paths(SessionSnapshot.read(damaged).getCurrentImageFiles()),
+                "the undamaged snapshot");
+        Files.write(damaged.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+        checkThrows(() -> SessionSnapshot.read(damaged), "a file that isn't a snapshot");
+    }
+
+    /**
+     * @param bytes    - A snapshot
+     * @param position - Where the int to change is
+     * @param value    - What to change it to
+     * @return - A copy of the snapshot with the int changed
+     */
+    private static byte[] set(byte[] bytes, int position, int value) {
+        byte[] copy = bytes.clone();
+        ByteBuffer.wrap(copy).putInt(position, value);
+        return copy;
+    }
+}
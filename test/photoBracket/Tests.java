@@ -0,0 +1,127 @@
+package photoBracket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Objects;
+
+/**
+ * The little the tests need from a test framework, since the project is built without one. Each
+ * test class has a main method that passes its tests to run() and then calls finish(), and test.sh
+ * runs every test class and fails if any of them does
+ */
+final class Tests {
+
+    // where the files the tests decode are kept, relative to the project directory
+    private static final File FIXTURES = new File("test", "resources");
+
+    private static int failures;
+
+    /**
+     * Not instantiable - use the static methods
+     */
+    private Tests() {
+    }
+
+    /**
+     * Runs one test, printing whether it passed and why it didn't
+     *
+     * @param name - What the test checks
+     * @param test - The test
+     */
+    static void run(String name, Test test) {
+        try {
+            test.run();
+            System.out.println("  passed " + name);
+        } catch (Throwable e) {
+            failures++;
+            System.out.println("  FAILED " + name);
+            e.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Exits with an error if any test failed. Called at the end of every test class's main method
+     */
+    static void finish() {
+        if (failures > 0) System.exit(1);
+    }
+
+    /**
+     * @param condition - Something that should be true
+     * @param message   - What went wrong if it isn't
+     */
+    static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    /**
+     * @param expected - The value that should have come out
+     * @param actual   - The value that did
+     * @param what     - What the value is
+     */
+    static void checkEquals(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Checks that something fails with an IOException
+     *
+     * @param test - The code that should fail
+     * @param what - What it is doing
+     */
+    static void checkThrows(Test test, String what) {
+        try {
+            test.run();
+        } catch (IOException e) {
+            return;
+        } catch (Exception e) {
+            throw new AssertionError(what + " threw " + e + " rather than an IOException");
+        }
+        throw new AssertionError(what + " should have failed");
+    }
+
+    /**
+     * @param name - The name of a file in test/resources
+     * @return - The file
+     */
+    static File fixture(String name) {
+        return new File(FIXTURES, name);
+    }
+
+    /**
+     * Makes a file with some contents in a temporary directory. It is deleted when the tests exit
+     *
+     * @param directory - The directory to make it in
+     * @param name      - The name of the file
+     * @param contents  - What to write to it
+     * @return - The file as an ImageFile (it doesn't have to hold an image for the bracket)
+     * @throws IOException - If the file can't be written
+     */
+    static ImageFile file(File directory, String name, String contents) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        file.deleteOnExit();
+        return new ImageFile(file.getPath());
+    }
+
+    /**
+     * @return - A new temporary directory, deleted when the tests exit if it is empty by then
+     * @throws IOException - If it can't be made
+     */
+    static File directory() throws IOException {
+        File directory = Files.createTempDirectory("photoBracket").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    /**
+     * One test. Anything it throws fails it
+     */
+    interface Test {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,159 @@
+package photoBracket;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static photoBracket.Tests.*;
+
+/**
+ * Tests the WebP decoders against libwebp. The fixtures in test/resources were made with libwebp
+ * 1.x, and the checksums are of the RGBA libwebp decodes them to
+ */
+class WebPDecoderTest {
+
+    public static void main(String[] args) {
+        run("lossy files decode like libwebp", () -> matches("lossy.webp", 64, 49, 0xB1AE4C41L));
+        run("lossless files decode like libwebp",
+                () -> matches("lossless.webp", 64, 49, 0x9088B987L));
+        run("color indexed lossless files decode like libwebp",
+                () -> matches("palette.webp", 97, 53, 0xFF20B28BL));
+        run("lossy files with alpha decode like libwebp",
+                () -> matches("lossy-alpha.webp", 64, 49, 0xA6A67C4CL));
+        run("lossless files with alpha decode like libwebp",
+                () -> matches("lossless-alpha.webp", 64, 49, 0x37C75F0BL));
+        run("lossy files with smooth colors decode like libwebp",
+                () -> matches("gradient.webp", 120, 90, 0x94759C25L));
+        run("shrunken decodes average the full size one", WebPDecoderTest::shrinks);
+        run("damaged files are rejected", WebPDecoderTest::damaged);
+        finish();
+    }
+
+    /**
+     * @param image - The image
+     * @return - Its pixels as red, green, blue and alpha bytes, row by row
+     */
+    private static byte[] rgba(BufferedImage image) {
+        byte[] bytes = new byte[image.getWidth() * image.getHeight() * 4];
+        int i = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int argb = image.getRGB(x, y);
+                bytes[i++] = (byte) (argb >> 16);
+                bytes[i++] = (byte) (argb >> 8);
+                bytes[i++] = (byte) argb;
+                bytes[i++] = (byte) (argb >>> 24);
+            }
+        }
+        return bytes;
+    }
+
+    private static void matches(String name, int width, int height, long checksum)
+            throws Exception {
+        BufferedImage image = new WebPDecoder().decode(fixture(name), null, null);
+        checkEquals(width, image.getWidth(), "width");
+        checkEquals(height, image.getHeight(), "height");
+        CRC32 crc = new CRC32();
+        crc.update(rgba(image));
+        checkEquals(Long.toHexString(checksum), Long.toHexString(crc.getValue()), "checksum");
+    }
+
+    /**
+     * Shrinks a decode the way the Canvas does: each pixel is the average of the ones it covers,
+     * with the colors weighted by their alpha
+     *
+     * @param full      - The full size decode
+     * @param reduction - How much to shrink it by
+     * @return - The pixels of the shrunken image, row by row
+     */
+    private static int[] average(BufferedImage full, int reduction) {
+        int width = (full.getWidth() + reduction - 1) / reduction;
+        int height = (full.getHeight() + reduction - 1) / reduction;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                long[] sums = new long[4];
+                int count = 0;
+                for (int fy = y * reduction; fy < Math.min(full.getHeight(), (y + 1) * reduction);
+                     fy++) {
+                    for (int fx = x * reduction;
+                         fx < Math.min(full.getWidth(), (x + 1) * reduction); fx++) {
+                        int argb = full.getRGB(fx, fy);
+                        int alpha = argb >>> 24;
+                        sums[3] += alpha;
+                        for (int shift = 0; shift < 24; shift += 8) {
+                            sums[shift / 8] += (argb >> shift & 0xFF) * alpha;
+                        }
+                        count++;
+                    }
+                }
+                long weight = sums[3];
+                if (weight == 0) continue;
+                int argb = (int) ((weight + count / 2) / count) << 24;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    argb |= (int) ((sums[shift / 8] + weight / 2) / weight) << shift;
+                }
+                pixels[y * width + x] = argb;
+            }
+        }
+        return pixels;
+    }
+
+    private static void shrinks() throws Exception {
+        WebPDecoder decoder = new WebPDecoder();
+        for (String name : Arrays.asList("lossless.webp", "palette.webp", "lossy-alpha.webp",
+                "lossless-alpha.webp", "gradient.webp")) {
+            BufferedImage full = decoder.decode(fixture(name), null, null);
+            int width = full.getWidth();
+            int height = full.getHeight();
+            for (int reduction = 2; reduction <= 8; reduction *= 2) {
+                String what = name + " at 1/" + reduction;
+                BufferedImage small = decoder.decode(fixture(name),
+                        new Dimension(width / reduction, height / reduction), null);
+                checkEquals((width + reduction - 1) / reduction, small.getWidth(), what + " width");
+                checkEquals((height + reduction - 1) / reduction, small.getHeight(),
+                        what + " height");
+                int[] expected = average(full, reduction);
+                int[] actual = small.getRGB(0, 0, small.getWidth(), small.getHeight(), null, 0,
+                        small.getWidth());
+                if (!name.equals("gradient.webp")) {
+                    checkEquals(Arrays.toString(expected), Arrays.toString(actual), what);
+                    continue;
+                }
+                // an opaque lossy picture is shrunk before its colors are converted, and its
+                // chroma isn't blended with the neighbouring samples the way it is at full size,
+                // so it's only close to the full size decode (where the chroma is smooth)
+                long total = 0;
+                for (int i = 0; i < expected.length; i++) {
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        int difference = Math.abs((expected[i] >> shift & 0xFF)
+                                - (actual[i] >> shift & 0xFF));
+                        check(difference <= 8, what + " is off by " + difference);
+                        total += difference;
+                    }
+                }
+                double mean = (double) total / (expected.length * 3);
+                check(mean < 2, what + " is off by " + mean + " on average");
+            }
+        }
+    }
+
+    private static void damaged() throws Exception {
+        byte[] bytes = Files.readAllBytes(fixture("lossless.webp").toPath());
+        File file = new File(directory(), "damaged.webp");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.copyOf(bytes, 12));
+        checkThrows(() -> new WebPDecoder().decode(file, null, null), "a file with only a header");
+        byte[] chunk = bytes.clone();
+        // a chunk longer than the file
+        chunk[16] = (byte) 0xFF;
+        chunk[17] = (byte) 0xFF;
+        Files.write(file.toPath(), chunk);
+        checkThrows(() -> new WebPDecoder().decode(file, null, null), "a chunk past the end");
+        check(!new WebPDecoder().canDecode(Arrays.copyOf(ImageDecoder.readHeader(
+                fixture("lossy.webp")), 8)), "half a header shouldn't be recognized");
+    }
+}